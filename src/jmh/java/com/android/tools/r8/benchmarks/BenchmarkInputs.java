@@ -0,0 +1,205 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.benchmarks;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.CompilationFailedException;
+import com.android.tools.r8.CompilationMode;
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.Diagnostic;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.dex.ApplicationReader;
+import com.android.tools.r8.graph.AppInfo;
+import com.android.tools.r8.graph.AppView;
+import com.android.tools.r8.graph.DexApplication;
+import com.android.tools.r8.graph.DexEncodedField;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexProgramClass;
+import com.android.tools.r8.utils.AndroidApiLevel;
+import com.android.tools.r8.utils.AndroidApp;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.Timing;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Inputs for the JMH microbenchmarks, generated from the compiled examples in src/test/examples.
+ *
+ * <p>The examples are compiled by the compile_examples task, which the jmh task depends on. Another
+ * directory of class files can be used by setting the system property {@link
+ * #EXAMPLES_DIRECTORY_PROPERTY}.
+ */
+public class BenchmarkInputs {
+
+  public static final String EXAMPLES_DIRECTORY_PROPERTY =
+      "com.android.tools.r8.benchmarks.examples";
+
+  private static final String DEFAULT_EXAMPLES_DIRECTORY = "build/test/examples/classes";
+
+  public static Path getExamplesDirectory() {
+    Path directory =
+        Paths.get(System.getProperty(EXAMPLES_DIRECTORY_PROPERTY, DEFAULT_EXAMPLES_DIRECTORY));
+    if (!Files.isDirectory(directory)) {
+      throw new IllegalStateException(
+          "No benchmark inputs in "
+              + directory.toAbsolutePath()
+              + ", compile them with: tools/gradle.py compile_examples");
+    }
+    return directory;
+  }
+
+  /** Returns the class files of the examples, in a deterministic order. */
+  public static List<Path> getExampleClassFiles() throws IOException {
+    try (Stream<Path> files = Files.walk(getExamplesDirectory())) {
+      return files
+          .filter(file -> file.toString().endsWith(".class"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  public static AndroidApp getExampleClasses() throws IOException {
+    return AndroidApp.builder().addProgramFiles(getExampleClassFiles()).build();
+  }
+
+  /**
+   * Compiles the examples with D8 and returns the content of the dex files. The examples do not fit
+   * in a single dex file, so they are compiled for native multidex. There is no library, so the
+   * warnings about missing library classes are not reported.
+   */
+  public static List<byte[]> getExampleDexFiles() throws IOException, CompilationFailedException {
+    TreeMap<Integer, byte[]> dexFiles = new TreeMap<>();
+    D8.run(
+        D8Command.builder(
+                new DiagnosticsHandler() {
+                  @Override
+                  public void warning(Diagnostic warning) {}
+                })
+            .addProgramFiles(getExampleClassFiles())
+            .setMode(CompilationMode.RELEASE)
+            .setMinApiLevel(AndroidApiLevel.L.getLevel())
+            .setProgramConsumer(
+                new DexIndexedConsumer.ForwardingConsumer(null) {
+                  @Override
+                  public synchronized void accept(
+                      int fileIndex,
+                      ByteDataView data,
+                      Set<String> descriptors,
+                      DiagnosticsHandler handler) {
+                    dexFiles.put(fileIndex, data.copyByteData());
+                  }
+                })
+            .build());
+    return new ArrayList<>(dexFiles.values());
+  }
+
+  public static AndroidApp getExampleDex() throws IOException, CompilationFailedException {
+    return AndroidApp.builder().addDexProgramData(getExampleDexFiles()).build();
+  }
+
+  public static DexApplication readApplication(AndroidApp app, InternalOptions options)
+      throws IOException, ExecutionException {
+    return new ApplicationReader(app, options, new Timing("Benchmark")).read().toDirect();
+  }
+
+  /** Reads the application for compiling it to dex, as D8 does. */
+  public static AppView<AppInfo> readApplicationForD8(AndroidApp app)
+      throws IOException, ExecutionException {
+    InternalOptions options = new InternalOptions();
+    options.programConsumer = DexIndexedConsumer.emptyConsumer();
+    return AppView.createForD8(new AppInfo(readApplication(app, options)), options);
+  }
+
+  /** Returns the methods with code of the program classes, in a deterministic order. */
+  public static List<DexEncodedMethod> getMethodsWithCode(DexApplication application) {
+    List<DexEncodedMethod> methods = new ArrayList<>();
+    for (DexProgramClass clazz : application.classesWithDeterministicOrder()) {
+      for (DexEncodedMethod method : clazz.methods()) {
+        if (method.getCode() != null) {
+          methods.add(method);
+        }
+      }
+    }
+    return methods;
+  }
+
+  /**
+   * Returns a Proguard map for the program classes of the application, as if all classes and
+   * members were renamed and each method had line numbers.
+   */
+  public static String generateProguardMap(DexApplication application) {
+    StringBuilder builder = new StringBuilder();
+    int classIndex = 0;
+    for (DexProgramClass clazz : application.classesWithDeterministicOrder()) {
+      builder
+          .append(clazz.type.toSourceString())
+          .append(" -> ")
+          .append("a.")
+          .append(minifiedName(classIndex++))
+          .append(":\n");
+      int memberIndex = 0;
+      for (DexEncodedField field : clazz.fields()) {
+        builder
+            .append("    ")
+            .append(field.field.type.toSourceString())
+            .append(' ')
+            .append(field.field.name)
+            .append(" -> ")
+            .append(minifiedName(memberIndex++))
+            .append('\n');
+      }
+      int line = 1;
+      for (DexEncodedMethod method : clazz.methods()) {
+        int lines = 1 + method.method.name.size % 7;
+        builder
+            .append("    ")
+            .append(line)
+            .append(':')
+            .append(line + lines - 1)
+            .append(':')
+            .append(method.method.proto.returnType.toSourceString())
+            .append(' ')
+            .append(method.method.name)
+            .append('(');
+        for (int i = 0; i < method.method.proto.parameters.size(); i++) {
+          if (i > 0) {
+            builder.append(',');
+          }
+          builder.append(method.method.proto.parameters.values[i].toSourceString());
+        }
+        builder
+            .append("):")
+            .append(10 * line)
+            .append(':')
+            .append(10 * line + lines - 1)
+            .append(" -> ")
+            .append(minifiedName(memberIndex++))
+            .append('\n');
+        line += lines;
+      }
+    }
+    return builder.toString();
+  }
+
+  private static String minifiedName(int index) {
+    StringBuilder builder = new StringBuilder();
+    do {
+      builder.append((char) ('a' + index % 26));
+      index /= 26;
+    } while (index > 0);
+    return builder.toString();
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.dex;
+
+import com.android.tools.r8.benchmarks.BenchmarkInputs;
+import com.android.tools.r8.graph.ClassKind;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.utils.Reporter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parsing the classes of the examples compiled to dex, including the index tables.
+ *
+ * <p>Each invocation parses into a new {@link DexItemFactory}, such that all items are interned
+ * anew. With <code>lazyDexCode</code> the code items are not parsed until the code is used.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class DexParserBenchmark {
+
+  @Param({"false", "true"})
+  public boolean lazyDexCode;
+
+  private final Reporter reporter = new Reporter();
+
+  private List<byte[]> dexFiles;
+
+  @Setup(Level.Trial)
+  public void compileExamples() throws Exception {
+    dexFiles = BenchmarkInputs.getExampleDexFiles();
+  }
+
+  @Benchmark
+  public void parseClasses(Blackhole blackhole) {
+    DexItemFactory factory = new DexItemFactory();
+    for (byte[] dexFile : dexFiles) {
+      DexParser parser =
+          new DexParser(
+              new DexReader(Origin.unknown(), dexFile),
+              ClassKind.PROGRAM,
+              factory,
+              reporter,
+              lazyDexCode);
+      parser.populateIndexTables();
+      parser.addClassDefsTo(blackhole::consume);
+    }
+  }
+}
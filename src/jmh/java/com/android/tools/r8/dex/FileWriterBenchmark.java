@@ -0,0 +1,109 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.dex;
+
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.benchmarks.BenchmarkInputs;
+import com.android.tools.r8.dex.FileWriter.ByteBufferResult;
+import com.android.tools.r8.graph.DexApplication;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexProgramClass;
+import com.android.tools.r8.graph.DexWritableCode;
+import com.android.tools.r8.graph.GraphLense;
+import com.android.tools.r8.graph.ObjectToOffsetMapping;
+import com.android.tools.r8.naming.NamingLens;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.utils.AndroidApp;
+import com.android.tools.r8.utils.InternalOptions;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures writing the classes of the first dex file of the examples, given the index mapping of
+ * the file.
+ *
+ * <p>The examples are compiled to dex and read back, such that the code is already in dex form
+ * and does not need to be rewritten for jumbo strings. The application is prepared for writing as
+ * {@link ApplicationWriter} does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class FileWriterBenchmark {
+
+  private final InternalOptions options = new InternalOptions();
+  private final DexIndexedConsumer consumer = DexIndexedConsumer.emptyConsumer();
+
+  private DexApplication application;
+  private ObjectToOffsetMapping mapping;
+  private Map<DexEncodedMethod, DexWritableCode> codes;
+  private MethodToCodeObjectMapping codeMapping;
+
+  @Setup(Level.Trial)
+  public void computeMapping() throws Exception {
+    options.programConsumer = consumer;
+    AndroidApp app =
+        AndroidApp.builder()
+            .addDexProgramData(BenchmarkInputs.getExampleDexFiles().get(0), Origin.unknown())
+            .build();
+    application = BenchmarkInputs.readApplication(app, options);
+    new ApplicationWriter(
+            application,
+            null,
+            options,
+            null,
+            null,
+            GraphLense.getIdentityLense(),
+            NamingLens.getIdentityLens(),
+            null,
+            null)
+        .prepareForWriting();
+    VirtualFile file = new VirtualFile(0, NamingLens.getIdentityLens());
+    for (DexProgramClass clazz : application.classesWithDeterministicOrder()) {
+      file.addClass(clazz);
+    }
+    file.commitTransaction();
+    mapping = file.computeMapping(application);
+    codes = new IdentityHashMap<>();
+    for (DexProgramClass clazz : application.classes()) {
+      clazz.forEachMethod(
+          method -> {
+            if (method.getCode() != null) {
+              codes.put(method, method.getCode().asDexWritableCode());
+            }
+          });
+    }
+  }
+
+  // The writer clears the code objects of the methods it has written.
+  @Setup(Level.Invocation)
+  public void createCodeMapping() {
+    codeMapping = MethodToCodeObjectMapping.fromMapBacking(new IdentityHashMap<>(codes));
+  }
+
+  @Benchmark
+  public int generate() {
+    FileWriter writer =
+        new FileWriter(
+            consumer,
+            mapping,
+            codeMapping,
+            application,
+            options,
+            NamingLens.getIdentityLens());
+    ByteBufferResult result = writer.collect().generate();
+    consumer.releaseByteBuffer(result.buffer.asByteBuffer());
+    return result.length;
+  }
+}
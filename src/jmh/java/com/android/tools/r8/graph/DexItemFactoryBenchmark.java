@@ -0,0 +1,109 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.graph;
+
+import com.android.tools.r8.benchmarks.BenchmarkInputs;
+import com.android.tools.r8.utils.InternalOptions;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the interning of the strings and types of the examples in a {@link DexItemFactory}.
+ *
+ * <p>The factory is shared by the benchmark threads, such that running with more threads, e.g.,
+ * with the JMH option <code>-t 8</code>, measures the interning under contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class DexItemFactoryBenchmark {
+
+  private List<String> strings;
+  private List<String> descriptors;
+  private DexItemFactory populatedFactory;
+
+  @Setup(Level.Trial)
+  public void collectStrings() throws Exception {
+    DexApplication application =
+        BenchmarkInputs.readApplication(
+            BenchmarkInputs.getExampleClasses(), new InternalOptions());
+    Set<String> strings = new LinkedHashSet<>();
+    Set<String> descriptors = new LinkedHashSet<>();
+    for (DexProgramClass clazz : application.classesWithDeterministicOrder()) {
+      descriptors.add(clazz.type.toDescriptorString());
+      for (DexEncodedField field : clazz.fields()) {
+        strings.add(field.field.name.toString());
+        descriptors.add(field.field.type.toDescriptorString());
+      }
+      for (DexEncodedMethod method : clazz.methods()) {
+        strings.add(method.method.name.toString());
+        descriptors.add(method.method.proto.returnType.toDescriptorString());
+        for (DexType parameter : method.method.proto.parameters.values) {
+          descriptors.add(parameter.toDescriptorString());
+        }
+      }
+    }
+    strings.addAll(descriptors);
+    this.strings = new ArrayList<>(strings);
+    this.descriptors = new ArrayList<>(descriptors);
+    populatedFactory = new DexItemFactory();
+    for (String descriptor : descriptors) {
+      populatedFactory.createType(descriptor);
+    }
+    for (String string : strings) {
+      populatedFactory.createString(string);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class EmptyFactory {
+    DexItemFactory factory;
+
+    @Setup(Level.Invocation)
+    public void createFactory() {
+      factory = new DexItemFactory();
+    }
+  }
+
+  @Benchmark
+  public void createNewStrings(EmptyFactory state, Blackhole blackhole) {
+    for (String string : strings) {
+      blackhole.consume(state.factory.createString(string));
+    }
+  }
+
+  @Benchmark
+  public void createExistingStrings(Blackhole blackhole) {
+    for (String string : strings) {
+      blackhole.consume(populatedFactory.createString(string));
+    }
+  }
+
+  @Benchmark
+  public void createNewTypes(EmptyFactory state, Blackhole blackhole) {
+    for (String descriptor : descriptors) {
+      blackhole.consume(state.factory.createType(descriptor));
+    }
+  }
+
+  @Benchmark
+  public void createExistingTypes(Blackhole blackhole) {
+    for (String descriptor : descriptors) {
+      blackhole.consume(populatedFactory.createType(descriptor));
+    }
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.ir.conversion;
+
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexMethod;
+import com.android.tools.r8.graph.DexProto;
+import com.android.tools.r8.graph.DexType;
+import com.android.tools.r8.ir.conversion.CallGraph.Node;
+import com.android.tools.r8.utils.IROrdering.IdentityIROrdering;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.ThreadUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the extraction of the waves of leaves from a synthetic call graph made of
+ * <code>width</code> independent call chains of length <code>depth</code>.
+ *
+ * <p>The methods are processed on a single thread and do no work, such that mostly the cost of
+ * maintaining the graph is measured. Deep chains are the worst case for extracting the leaves by
+ * scanning all remaining nodes of the graph, as each wave only contains <code>width</code> nodes.
+ *
+ * <p>The <code>forEachMethodByScanning</code> baseline extracts the waves as {@link
+ * CallGraph#forEachMethod} did before it kept a counter of the pending callees of each node: it
+ * scans all remaining nodes for leaves and removes the leaves from the graph.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class CallGraphBenchmark {
+
+  @Param({"1000", "10000"})
+  public int depth;
+
+  @Param({"1", "10"})
+  public int width;
+
+  private final DexItemFactory dexItemFactory = new DexItemFactory();
+  private final ExecutorService executorService = ThreadUtils.getExecutorService(1);
+  private final InternalOptions options = new InternalOptions();
+
+  private List<DexEncodedMethod> methods;
+  private CallGraph callGraph;
+  private ScanningCallGraph scanningCallGraph;
+
+  @Setup(Level.Trial)
+  public void createMethods() {
+    options.testing.irOrdering = IdentityIROrdering.getInstance();
+    DexType holder = dexItemFactory.createType("LBenchmark;");
+    DexProto proto = dexItemFactory.createProto(dexItemFactory.voidType);
+    methods = new ArrayList<>(depth * width);
+    for (int i = 0; i < depth * width; i++) {
+      DexMethod method = dexItemFactory.createMethod(holder, proto, "m" + i);
+      methods.add(new DexEncodedMethod(method, null, null, null, null));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void shutdown() {
+    executorService.shutdown();
+  }
+
+  // The call graph is consumed by processing it, so a new graph is needed for each invocation.
+  @Setup(Level.Invocation)
+  public void createCallGraph() {
+    List<Node> nodes = new ArrayList<>(methods.size());
+    for (DexEncodedMethod method : methods) {
+      nodes.add(new Node(method));
+    }
+    for (int chain = 0; chain < width; chain++) {
+      for (int i = 1; i < depth; i++) {
+        nodes.get(chain * depth + i - 1).addCallee(nodes.get(chain * depth + i));
+      }
+    }
+    callGraph = CallGraph.createForTesting(nodes, options);
+
+    List<ScanningNode> scanningNodes = new ArrayList<>(methods.size());
+    for (DexEncodedMethod method : methods) {
+      scanningNodes.add(new ScanningNode(method));
+    }
+    for (int chain = 0; chain < width; chain++) {
+      for (int i = 1; i < depth; i++) {
+        scanningNodes
+            .get(chain * depth + i - 1)
+            .addCallee(scanningNodes.get(chain * depth + i));
+      }
+    }
+    scanningCallGraph = new ScanningCallGraph(scanningNodes, options);
+  }
+
+  @Benchmark
+  public void forEachMethod(Blackhole blackhole) throws ExecutionException {
+    callGraph.forEachMethod(
+        (method, isProcessedConcurrently) -> blackhole.consume(method),
+        () -> {},
+        () -> {},
+        executorService);
+  }
+
+  @Benchmark
+  public void forEachMethodInDependencyOrder(Blackhole blackhole) throws ExecutionException {
+    callGraph.forEachMethodInDependencyOrder(
+        (method, isProcessedConcurrently) -> blackhole.consume(method),
+        blackhole::consume,
+        executorService);
+  }
+
+  @Benchmark
+  public void forEachMethodByScanning(Blackhole blackhole) throws ExecutionException {
+    scanningCallGraph.forEachMethod(
+        (method, isProcessedConcurrently) -> blackhole.consume(method), executorService);
+  }
+
+  private static class ScanningNode {
+
+    private final DexEncodedMethod method;
+    private final Set<ScanningNode> callees = new LinkedHashSet<>();
+    private final Set<ScanningNode> callers = new LinkedHashSet<>();
+
+    ScanningNode(DexEncodedMethod method) {
+      this.method = method;
+    }
+
+    void addCallee(ScanningNode callee) {
+      callees.add(callee);
+      callee.callers.add(this);
+    }
+
+    boolean isLeaf() {
+      return callees.isEmpty();
+    }
+  }
+
+  // The leaf extraction of CallGraph#forEachMethod before the pending callees were counted.
+  private static class ScanningCallGraph {
+
+    private final Map<DexEncodedMethod, ScanningNode> nodes = new LinkedHashMap<>();
+    private final InternalOptions options;
+
+    ScanningCallGraph(List<ScanningNode> nodes, InternalOptions options) {
+      for (ScanningNode node : nodes) {
+        this.nodes.put(node.method, node);
+      }
+      this.options = options;
+    }
+
+    private Collection<DexEncodedMethod> extractLeaves() {
+      // First identify all leaves before removing them from the graph.
+      List<ScanningNode> leaves =
+          nodes.values().stream().filter(ScanningNode::isLeaf).collect(Collectors.toList());
+      leaves.forEach(
+          leaf -> {
+            leaf.callers.forEach(caller -> caller.callees.remove(leaf));
+            nodes.remove(leaf.method);
+          });
+      Set<DexEncodedMethod> methods =
+          leaves.stream()
+              .map(leaf -> leaf.method)
+              .collect(Collectors.toCollection(LinkedHashSet::new));
+      return options.testing.irOrdering.order(methods);
+    }
+
+    void forEachMethod(
+        BiConsumer<DexEncodedMethod, Predicate<DexEncodedMethod>> consumer,
+        ExecutorService executorService)
+        throws ExecutionException {
+      while (!nodes.isEmpty()) {
+        Collection<DexEncodedMethod> methods = extractLeaves();
+        List<Future<?>> futures = new ArrayList<>();
+        for (DexEncodedMethod method : methods) {
+          futures.add(
+              executorService.submit(
+                  () -> {
+                    consumer.accept(method, methods::contains);
+                    return null;
+                  }));
+        }
+        ThreadUtils.awaitFutures(futures);
+      }
+    }
+  }
+}
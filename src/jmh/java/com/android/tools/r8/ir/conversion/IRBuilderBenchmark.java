@@ -0,0 +1,55 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.ir.conversion;
+
+import com.android.tools.r8.benchmarks.BenchmarkInputs;
+import com.android.tools.r8.graph.AppInfo;
+import com.android.tools.r8.graph.AppView;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.utils.AndroidApp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures building the SSA IR for all methods of the examples, from class files (<code>CF</code>)
+ * or from the examples compiled to dex (<code>DEX</code>).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class IRBuilderBenchmark {
+
+  @Param({"CF", "DEX"})
+  public String input;
+
+  private AppView<AppInfo> appView;
+  private List<DexEncodedMethod> methods;
+
+  @Setup(Level.Trial)
+  public void readApplication() throws Exception {
+    AndroidApp app =
+        input.equals("CF") ? BenchmarkInputs.getExampleClasses() : BenchmarkInputs.getExampleDex();
+    appView = BenchmarkInputs.readApplicationForD8(app);
+    methods = BenchmarkInputs.getMethodsWithCode(appView.appInfo().app());
+  }
+
+  @Benchmark
+  public void buildIR(Blackhole blackhole) {
+    for (DexEncodedMethod method : methods) {
+      blackhole.consume(method.buildIR(appView, Origin.unknown()));
+    }
+  }
+}
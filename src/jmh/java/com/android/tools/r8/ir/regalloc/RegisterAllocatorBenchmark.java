@@ -0,0 +1,69 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.ir.regalloc;
+
+import com.android.tools.r8.benchmarks.BenchmarkInputs;
+import com.android.tools.r8.graph.AppInfo;
+import com.android.tools.r8.graph.AppView;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.ir.code.IRCode;
+import com.android.tools.r8.ir.optimize.CodeRewriter;
+import com.android.tools.r8.ir.optimize.DeadCodeRemover;
+import com.android.tools.r8.origin.Origin;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the linear scan register allocation of all methods of the examples compiled to dex.
+ *
+ * <p>Allocation rewrites the IR, so the IR is built anew before each invocation. Dead code is
+ * removed first, as IRConverter does before register allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class RegisterAllocatorBenchmark {
+
+  private AppView<AppInfo> appView;
+  private DeadCodeRemover deadCodeRemover;
+  private List<DexEncodedMethod> methods;
+  private List<IRCode> codes;
+
+  @Setup(Level.Trial)
+  public void readApplication() throws Exception {
+    appView = BenchmarkInputs.readApplicationForD8(BenchmarkInputs.getExampleDex());
+    deadCodeRemover = new DeadCodeRemover(appView, new CodeRewriter(appView, null));
+    methods = BenchmarkInputs.getMethodsWithCode(appView.appInfo().app());
+  }
+
+  @Setup(Level.Invocation)
+  public void buildIR() {
+    codes = new ArrayList<>(methods.size());
+    for (DexEncodedMethod method : methods) {
+      IRCode code = method.buildIR(appView, Origin.unknown());
+      deadCodeRemover.run(code);
+      codes.add(code);
+    }
+  }
+
+  @Benchmark
+  public void allocateRegisters(Blackhole blackhole) {
+    for (IRCode code : codes) {
+      LinearScanRegisterAllocator allocator = new LinearScanRegisterAllocator(appView, code);
+      allocator.allocateRegisters();
+      blackhole.consume(allocator.registersUsed());
+    }
+  }
+}
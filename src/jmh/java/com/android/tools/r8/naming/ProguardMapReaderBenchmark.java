@@ -0,0 +1,43 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.naming;
+
+import com.android.tools.r8.benchmarks.BenchmarkInputs;
+import com.android.tools.r8.utils.InternalOptions;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures parsing a Proguard map into a {@link ClassNameMapper}. The map is generated from the
+ * classes of the examples, as if all classes and members were renamed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class ProguardMapReaderBenchmark {
+
+  private String proguardMap;
+
+  @Setup(Level.Trial)
+  public void generateProguardMap() throws Exception {
+    proguardMap =
+        BenchmarkInputs.generateProguardMap(
+            BenchmarkInputs.readApplication(
+                BenchmarkInputs.getExampleClasses(), new InternalOptions()));
+  }
+
+  @Benchmark
+  public ClassNameMapper parseProguardMap() throws IOException {
+    return ClassNameMapper.mapperFromString(proguardMap);
+  }
+}
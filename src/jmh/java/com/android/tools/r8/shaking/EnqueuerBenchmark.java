@@ -0,0 +1,182 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.shaking;
+
+import com.android.tools.r8.benchmarks.BenchmarkInputs;
+import com.android.tools.r8.graph.AppInfoWithSubtyping;
+import com.android.tools.r8.graph.AppServices;
+import com.android.tools.r8.graph.AppView;
+import com.android.tools.r8.graph.DexApplication;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.shaking.RootSetBuilder.RootSet;
+import com.android.tools.r8.utils.AndroidApp;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.Reporter;
+import com.android.tools.r8.utils.ThreadUtils;
+import com.android.tools.r8.utils.Timing;
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures tracing a synthetic app with the {@link Enqueuer}.
+ *
+ * <p>The app has <code>classes</code> classes forming a binary class hierarchy, where each class
+ * overrides a virtual method of its super class. A static method of each class instantiates its
+ * two subclasses, calls the virtual method on them and calls the static method of the subclasses,
+ * such that all classes are live when tracing from the kept main method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class EnqueuerBenchmark {
+
+  private static final String PACKAGE = "benchmark/";
+
+  @Param({"1000", "10000"})
+  public int classes;
+
+  private final ExecutorService executorService = ThreadUtils.getExecutorService(1);
+  private final Timing timing = new Timing("Benchmark");
+
+  private InternalOptions options;
+  private DexApplication application;
+  private RootSet rootSet;
+  private AppView<AppInfoWithSubtyping> appView;
+
+  @Setup(Level.Trial)
+  public void computeRootSet() throws Exception {
+    AndroidApp.Builder builder = AndroidApp.builder();
+    builder.addClassProgramData(generateMainClass(), Origin.unknown());
+    for (int i = 0; i < classes; i++) {
+      builder.addClassProgramData(generateClass(i), Origin.unknown());
+    }
+    Reporter reporter = new Reporter();
+    ProguardConfigurationParser parser =
+        new ProguardConfigurationParser(new DexItemFactory(), reporter);
+    parser.parse(
+        new ProguardConfigurationSourceStrings(
+            ImmutableList.of(
+                "-keep class benchmark.Main { public static void main(java.lang.String[]); }"),
+            Paths.get(""),
+            Origin.unknown()));
+    options = new InternalOptions(parser.getConfig(), reporter);
+    application = BenchmarkInputs.readApplication(builder.build(), options);
+    createAppView();
+    rootSet =
+        new RootSetBuilder(appView, application, options.getProguardConfiguration().getRules())
+            .run(executorService);
+  }
+
+  @TearDown(Level.Trial)
+  public void shutdown() {
+    executorService.shutdown();
+  }
+
+  // The enqueuer is consumed by tracing, and updates the app info of the view.
+  @Setup(Level.Invocation)
+  public void createAppView() {
+    appView = AppView.createForR8(new AppInfoWithSubtyping(application), options);
+    appView.setAppServices(AppServices.builder(appView).build());
+  }
+
+  @Benchmark
+  public AppInfoWithLiveness traceApplication() throws ExecutionException {
+    return new Enqueuer(appView, options, null)
+        .traceApplication(
+            rootSet,
+            options.getProguardConfiguration().getDontWarnPatterns(),
+            executorService,
+            timing);
+  }
+
+  private static String className(int index) {
+    return PACKAGE + "C" + index;
+  }
+
+  private static byte[] generateMainClass() {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(
+        Opcodes.V1_8,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER,
+        PACKAGE + "Main",
+        null,
+        "java/lang/Object",
+        null);
+    MethodVisitor main =
+        writer.visitMethod(
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+    main.visitCode();
+    main.visitMethodInsn(Opcodes.INVOKESTATIC, className(0), "entry", "()V", false);
+    main.visitInsn(Opcodes.RETURN);
+    main.visitMaxs(0, 0);
+    main.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private byte[] generateClass(int index) {
+    String name = className(index);
+    String superName = index == 0 ? "java/lang/Object" : className((index - 1) / 2);
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+    writer.visitField(Opcodes.ACC_PUBLIC, "f" + index, "I", null, null).visitEnd();
+
+    MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    init.visitCode();
+    init.visitVarInsn(Opcodes.ALOAD, 0);
+    init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+    init.visitInsn(Opcodes.RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    MethodVisitor virtual = writer.visitMethod(Opcodes.ACC_PUBLIC, "m", "(I)I", null, null);
+    virtual.visitCode();
+    virtual.visitVarInsn(Opcodes.ILOAD, 1);
+    virtual.visitVarInsn(Opcodes.ALOAD, 0);
+    virtual.visitFieldInsn(Opcodes.GETFIELD, name, "f" + index, "I");
+    virtual.visitInsn(Opcodes.IADD);
+    virtual.visitInsn(Opcodes.IRETURN);
+    virtual.visitMaxs(0, 0);
+    virtual.visitEnd();
+
+    MethodVisitor entry =
+        writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "entry", "()V", null, null);
+    entry.visitCode();
+    for (int child = 2 * index + 1; child <= 2 * index + 2 && child < classes; child++) {
+      String childName = className(child);
+      entry.visitTypeInsn(Opcodes.NEW, childName);
+      entry.visitInsn(Opcodes.DUP);
+      entry.visitMethodInsn(Opcodes.INVOKESPECIAL, childName, "<init>", "()V", false);
+      entry.visitInsn(Opcodes.ICONST_1);
+      // Invoke the method through the type of this class, which dispatches to the override.
+      entry.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "m", "(I)I", false);
+      entry.visitInsn(Opcodes.POP);
+      entry.visitMethodInsn(Opcodes.INVOKESTATIC, childName, "entry", "()V", false);
+    }
+    entry.visitInsn(Opcodes.RETURN);
+    entry.visitMaxs(0, 0);
+    entry.visitEnd();
+
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
@@ -0,0 +1,382 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.shaking;
+
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexString;
+import com.android.tools.r8.graph.DexType;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.shaking.ProguardWildcard.BackReference;
+import com.android.tools.r8.shaking.ProguardWildcard.Pattern;
+import com.android.tools.r8.utils.Reporter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the compiled wildcard matchers of {@link ProguardTypeMatcher} and {@link
+ * ProguardNameMatcher} to the recursive interpretation of the patterns that they replaced.
+ *
+ * <p>The wildcard patterns are taken from rules that are common in library and application
+ * configurations, and they are matched against the names of the classes and members of R8 itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class ProguardNameMatchingBenchmark {
+
+  private static final List<String> RULES =
+      ImmutableList.of(
+          "-keep class android.support.** { *; }",
+          "-keep class androidx.** { *; }",
+          "-keep class com.google.gson.** { *; }",
+          "-keep class **.R$* { public static <fields>; }",
+          "-keep class **$Companion { *; }",
+          "-keep class **$$Lambda$* { *; }",
+          "-keepclassmembers class **$WhenMappings { <fields>; }",
+          "-keepclassmembers class * { void set*(***); *** get*(); boolean is*(); }",
+          "-keepclassmembers class * { *** access$*(...); *** lambda$*$*(...); }",
+          "-keepclassmembers class * { *** on*Event(...); *** *Callback(...); }",
+          "-keepclassmembers class * { private void write*(java.io.ObjectOutputStream); }",
+          "-keep class com.android.tools.r8.**Builder { *** build*(...); }",
+          "-keep class com.android.tools.r8.*.*Utils { public static *** to*(...); }",
+          "-keep class com.android.tools.r8.ir.**.*Optimizer { *** optimize*(...); }",
+          "-keep class com.android.tools.r8.graph.Dex*Method { *** lookup*(...); }",
+          "-keep class com.android.tools.r8.**$*Impl { *** create*(...); }",
+          "-keep class com.android.tools.r8.**.?ex* { *** *$*(...); }");
+
+  private final DexItemFactory dexItemFactory = new DexItemFactory();
+
+  private final List<ProguardTypeMatcher> classNameMatchers = new ArrayList<>();
+  private final List<ProguardNameMatcher> memberNameMatchers = new ArrayList<>();
+
+  private final List<DexType> classTypes = new ArrayList<>();
+  private final List<DexString> memberNames = new ArrayList<>();
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    ProguardConfigurationParser parser =
+        new ProguardConfigurationParser(dexItemFactory, new Reporter());
+    parser.parse(new ProguardConfigurationSourceStrings(RULES, Paths.get(""), Origin.unknown()));
+    for (ProguardConfigurationRule rule : parser.getConfig().getRules()) {
+      rule.getClassNames()
+          .forEachTypeMatcher(
+              matcher -> {
+                if (isWildcardPattern(matcher.toString(), matcher.getWildcards())) {
+                  classNameMatchers.add(matcher);
+                }
+              });
+      for (ProguardMemberRule memberRule : rule.getMemberRules()) {
+        ProguardNameMatcher matcher = memberRule.getName();
+        if (matcher != null && isWildcardPattern(matcher.toString(), matcher.getWildcards())) {
+          memberNameMatchers.add(matcher);
+        }
+      }
+    }
+    readNames();
+  }
+
+  // Only patterns with wildcards that are not matched trivially are compiled.
+  private static boolean isWildcardPattern(String pattern, Iterable<ProguardWildcard> wildcards) {
+    return wildcards.iterator().hasNext()
+        && !pattern.equals("*")
+        && !pattern.equals("**")
+        && !pattern.equals("***");
+  }
+
+  private void readNames() throws Exception {
+    Set<String> descriptors = new LinkedHashSet<>();
+    Set<String> names = new LinkedHashSet<>();
+    ClassVisitor visitor =
+        new ClassVisitor(Opcodes.ASM6) {
+          @Override
+          public void visit(
+              int version,
+              int access,
+              String name,
+              String signature,
+              String superName,
+              String[] interfaces) {
+            descriptors.add("L" + name + ";");
+          }
+
+          @Override
+          public FieldVisitor visitField(
+              int access, String name, String desc, String signature, Object value) {
+            names.add(name);
+            return null;
+          }
+
+          @Override
+          public MethodVisitor visitMethod(
+              int access, String name, String desc, String signature, String[] exceptions) {
+            names.add(name);
+            return null;
+          }
+        };
+    Path codeSource =
+        Paths.get(
+            ProguardTypeMatcher.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    if (Files.isDirectory(codeSource)) {
+      List<Path> classFiles;
+      try (Stream<Path> paths = Files.walk(codeSource)) {
+        classFiles =
+            paths.filter(path -> path.toString().endsWith(".class")).collect(Collectors.toList());
+      }
+      for (Path classFile : classFiles) {
+        try (InputStream input = Files.newInputStream(classFile)) {
+          readClass(input, visitor);
+        }
+      }
+    } else {
+      try (ZipFile zipFile = new ZipFile(codeSource.toFile())) {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.getName().endsWith(".class")) {
+            try (InputStream input = zipFile.getInputStream(entry)) {
+              readClass(input, visitor);
+            }
+          }
+        }
+      }
+    }
+    for (String descriptor : descriptors) {
+      classTypes.add(dexItemFactory.createType(descriptor));
+    }
+    for (String name : names) {
+      memberNames.add(dexItemFactory.createString(name));
+    }
+  }
+
+  private static void readClass(InputStream input, ClassVisitor visitor) throws IOException {
+    new ClassReader(input)
+        .accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+  }
+
+  @Benchmark
+  public void matchClassNames(Blackhole blackhole) {
+    for (ProguardTypeMatcher matcher : classNameMatchers) {
+      for (DexType type : classTypes) {
+        blackhole.consume(matcher.matches(type));
+      }
+    }
+  }
+
+  @Benchmark
+  public void matchClassNamesInterpreted(Blackhole blackhole) {
+    for (ProguardTypeMatcher matcher : classNameMatchers) {
+      String pattern = matcher.toString();
+      List<ProguardWildcard> wildcards = Lists.newArrayList(matcher.getWildcards());
+      for (DexType type : classTypes) {
+        boolean matched =
+            matchClassNameImpl(pattern, 0, type.toSourceString(), 0, wildcards, 0);
+        if (!matched) {
+          wildcards.forEach(ProguardWildcard::clearCaptured);
+        }
+        blackhole.consume(matched);
+      }
+    }
+  }
+
+  @Benchmark
+  public void matchMemberNames(Blackhole blackhole) {
+    // A new cache for each invocation, as the cache is per root set.
+    DexStringCache stringCache = new DexStringCache();
+    for (ProguardNameMatcher matcher : memberNameMatchers) {
+      for (DexString name : memberNames) {
+        blackhole.consume(matcher.matches(name, stringCache));
+      }
+    }
+  }
+
+  @Benchmark
+  public void matchMemberNamesInterpreted(Blackhole blackhole) {
+    DexStringCache stringCache = new DexStringCache();
+    for (ProguardNameMatcher matcher : memberNameMatchers) {
+      String pattern = matcher.toString();
+      List<ProguardWildcard> wildcards = Lists.newArrayList(matcher.getWildcards());
+      for (DexString name : memberNames) {
+        boolean matched =
+            matchFieldOrMethodNameImpl(
+                pattern, 0, stringCache.lookupString(name), 0, wildcards, 0);
+        if (!matched) {
+          wildcards.forEach(ProguardWildcard::clearCaptured);
+        }
+        blackhole.consume(matched);
+      }
+    }
+  }
+
+  // The recursive interpretation of field and method name patterns that the compiled matchers
+  // replaced, kept as the baseline of this benchmark.
+  private static boolean matchFieldOrMethodNameImpl(
+      String pattern, int patternIndex,
+      String name, int nameIndex,
+      List<ProguardWildcard> wildcards, int wildcardIndex) {
+    ProguardWildcard wildcard;
+    Pattern wildcardPattern;
+    BackReference backReference;
+    for (int i = patternIndex; i < pattern.length(); i++) {
+      char patternChar = pattern.charAt(i);
+      switch (patternChar) {
+        case '*':
+          wildcard = wildcards.get(wildcardIndex);
+          wildcardPattern = wildcard.asPattern();
+          // Match the rest of the pattern against the rest of the name.
+          for (int nextNameIndex = nameIndex; nextNameIndex <= name.length(); nextNameIndex++) {
+            wildcardPattern.setCaptured(name.substring(nameIndex, nextNameIndex));
+            if (matchFieldOrMethodNameImpl(
+                pattern, i + 1, name, nextNameIndex, wildcards, wildcardIndex + 1)) {
+              return true;
+            }
+          }
+          return false;
+        case '?':
+          wildcard = wildcards.get(wildcardIndex);
+          if (nameIndex == name.length()) {
+            return false;
+          }
+          wildcardPattern = wildcard.asPattern();
+          wildcardPattern.setCaptured(name.substring(nameIndex, nameIndex + 1));
+          nameIndex++;
+          wildcardIndex++;
+          break;
+        case '<':
+          wildcard = wildcards.get(wildcardIndex);
+          backReference = wildcard.asBackReference();
+          String captured = backReference.getCaptured();
+          if (captured == null
+              || name.length() < nameIndex + captured.length()
+              || !captured.equals(name.substring(nameIndex, nameIndex + captured.length()))) {
+            return false;
+          }
+          nameIndex = nameIndex + captured.length();
+          wildcardIndex++;
+          i = pattern.indexOf(">", i);
+          break;
+        default:
+          if (nameIndex == name.length() || patternChar != name.charAt(nameIndex++)) {
+            return false;
+          }
+          break;
+      }
+    }
+    return nameIndex == name.length();
+  }
+
+  // The recursive interpretation of class name patterns that the compiled matchers replaced, kept
+  // as the baseline of this benchmark.
+  private static boolean matchClassNameImpl(
+      String pattern, int patternIndex,
+      String name, int nameIndex,
+      List<ProguardWildcard> wildcards, int wildcardIndex) {
+    ProguardWildcard wildcard;
+    Pattern wildcardPattern;
+    BackReference backReference;
+    for (int i = patternIndex; i < pattern.length(); i++) {
+      char patternChar = pattern.charAt(i);
+      switch (patternChar) {
+        case '*':
+          wildcard = wildcards.get(wildcardIndex);
+          wildcardPattern = wildcard.asPattern();
+
+          boolean includeSeparators = pattern.length() > (i + 1) && pattern.charAt(i + 1) == '*';
+          boolean includeAll =
+              includeSeparators && pattern.length() > (i + 2) && pattern.charAt(i + 2) == '*';
+          int nextPatternIndex = i + 1;
+          if (includeAll) {
+            nextPatternIndex += 2;
+          } else if (includeSeparators) {
+            nextPatternIndex += 1;
+          }
+
+          // Fast cases for the common case where a pattern ends with  '*', '**', or '***'.
+          if (nextPatternIndex == pattern.length()) {
+            wildcardPattern.setCaptured(name.substring(nameIndex));
+            return includeSeparators || name.indexOf('.', nameIndex) == -1;
+          }
+
+          // Match the rest of the pattern against the (non-empty) rest of the class name.
+          for (int nextNameIndex = nameIndex; nextNameIndex < name.length(); nextNameIndex++) {
+            wildcardPattern.setCaptured(name.substring(nameIndex, nextNameIndex));
+            if (!includeSeparators && name.charAt(nextNameIndex) == '.') {
+              return matchClassNameImpl(
+                  pattern, nextPatternIndex, name, nextNameIndex, wildcards, wildcardIndex + 1);
+            }
+            if (matchClassNameImpl(
+                pattern, nextPatternIndex, name, nextNameIndex, wildcards, wildcardIndex + 1)) {
+              return true;
+            }
+          }
+
+          // Finally, check the case where the '*', '**', or '***' eats all of the class name.
+          wildcardPattern.setCaptured(name.substring(nameIndex));
+          return matchClassNameImpl(
+              pattern, nextPatternIndex, name, name.length(), wildcards, wildcardIndex + 1);
+
+        case '?':
+          wildcard = wildcards.get(wildcardIndex);
+          if (nameIndex == name.length() || name.charAt(nameIndex) == '.') {
+            return false;
+          }
+          wildcardPattern = wildcard.asPattern();
+          wildcardPattern.setCaptured(name.substring(nameIndex, nameIndex + 1));
+          nameIndex++;
+          wildcardIndex++;
+          break;
+
+        case '<':
+          wildcard = wildcards.get(wildcardIndex);
+          backReference = wildcard.asBackReference();
+          String captured = backReference.getCaptured();
+          if (captured == null
+              || name.length() < nameIndex + captured.length()
+              || !captured.equals(name.substring(nameIndex, nameIndex + captured.length()))) {
+            return false;
+          }
+          nameIndex = nameIndex + captured.length();
+          wildcardIndex++;
+          i = pattern.indexOf(">", i);
+          break;
+
+        default:
+          if (nameIndex == name.length() || patternChar != name.charAt(nameIndex++)) {
+            return false;
+          }
+          break;
+      }
+    }
+    return nameIndex == name.length();
+  }
+}
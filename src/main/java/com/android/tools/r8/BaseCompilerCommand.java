@@ -26,6 +26,8 @@ public abstract class BaseCompilerCommand extends BaseCommand {
   private final CompilationMode mode;
   private final ProgramConsumer programConsumer;
   private final StringConsumer mainDexListConsumer;
+  private final StringConsumer timingReportConsumer;
+  private final StringConsumer methodProcessingProfileConsumer;
   private final int minApiLevel;
   private final Reporter reporter;
   private final boolean enableDesugaring;
@@ -35,6 +37,8 @@ public abstract class BaseCompilerCommand extends BaseCommand {
     super(printHelp, printVersion);
     programConsumer = null;
     mainDexListConsumer = null;
+    timingReportConsumer = null;
+    methodProcessingProfileConsumer = null;
     mode = null;
     minApiLevel = 0;
     reporter = new Reporter();
@@ -47,6 +51,8 @@ public abstract class BaseCompilerCommand extends BaseCommand {
       CompilationMode mode,
       ProgramConsumer programConsumer,
       StringConsumer mainDexListConsumer,
+      StringConsumer timingReportConsumer,
+      StringConsumer methodProcessingProfileConsumer,
       int minApiLevel,
       Reporter reporter,
       boolean enableDesugaring,
@@ -57,6 +63,8 @@ public abstract class BaseCompilerCommand extends BaseCommand {
     this.mode = mode;
     this.programConsumer = programConsumer;
     this.mainDexListConsumer = mainDexListConsumer;
+    this.timingReportConsumer = timingReportConsumer;
+    this.methodProcessingProfileConsumer = methodProcessingProfileConsumer;
     this.minApiLevel = minApiLevel;
     this.reporter = reporter;
     this.enableDesugaring = enableDesugaring;
@@ -92,6 +100,16 @@ public abstract class BaseCompilerCommand extends BaseCommand {
     return mainDexListConsumer;
   }
 
+  /** Get the consumer that will receive the timing report of the compilation. */
+  public StringConsumer getTimingReportConsumer() {
+    return timingReportConsumer;
+  }
+
+  /** Get the consumer that will receive the processing profile of the compiled methods. */
+  public StringConsumer getMethodProcessingProfileConsumer() {
+    return methodProcessingProfileConsumer;
+  }
+
   /** Get the use-desugaring state. True if enabled, false otherwise. */
   public boolean getEnableDesugaring() {
     return enableDesugaring;
@@ -121,6 +139,8 @@ public abstract class BaseCompilerCommand extends BaseCommand {
 
     private ProgramConsumer programConsumer = null;
     private StringConsumer mainDexListConsumer = null;
+    private StringConsumer timingReportConsumer = null;
+    private StringConsumer methodProcessingProfileConsumer = null;
     private Path outputPath = null;
     // TODO(b/70656566): Remove default output mode when deprecated API is removed.
     private OutputMode outputMode = OutputMode.DexIndexed;
@@ -269,6 +289,50 @@ public abstract class BaseCompilerCommand extends BaseCommand {
       return self();
     }
 
+    /** Get the consumer that will receive the timing report of the compilation. */
+    public StringConsumer getTimingReportConsumer() {
+      return timingReportConsumer;
+    }
+
+    /**
+     * Set a consumer for receiving the timing report of the compilation.
+     *
+     * <p>The report is a JSON object in the trace event format, as read by chrome://tracing and
+     * other trace viewers. It holds an event for each phase of the compilation with its wall time,
+     * CPU time and allocated bytes, and for work done concurrently an event for each thread
+     * participating in it. The report is passed to the consumer when the compilation ends, also if
+     * the compilation fails.
+     *
+     * @param timingReportConsumer Consumer to receive the report once the compilation ends.
+     */
+    public B setTimingReportConsumer(StringConsumer timingReportConsumer) {
+      this.timingReportConsumer = timingReportConsumer;
+      return self();
+    }
+
+    /** Get the consumer that will receive the processing profile of the compiled methods. */
+    public StringConsumer getMethodProcessingProfileConsumer() {
+      return methodProcessingProfileConsumer;
+    }
+
+    /**
+     * Set a consumer for receiving the processing profile of the compiled methods.
+     *
+     * <p>Setting a consumer enables profiling of the processing of each method. The profile is in
+     * CSV format, with a header line and a line per method, the most expensive methods to process
+     * first. For each method it holds the time spent processing it, the number of instructions and
+     * blocks before and after optimization, the number of inlined calls and the maximal inlining
+     * depth, the number of register allocation retries and registers used, and the number of
+     * outlines called. The profile is passed to the consumer when the compilation ends, also if
+     * the compilation fails.
+     *
+     * @param methodProcessingProfileConsumer Consumer to receive the profile once produced.
+     */
+    public B setMethodProcessingProfileConsumer(StringConsumer methodProcessingProfileConsumer) {
+      this.methodProcessingProfileConsumer = methodProcessingProfileConsumer;
+      return self();
+    }
+
     /**
      * Set the output path-and-mode.
      *
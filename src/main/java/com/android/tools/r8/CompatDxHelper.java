@@ -6,6 +6,7 @@ package com.android.tools.r8;
 
 import com.android.tools.r8.utils.AndroidApp;
 import com.android.tools.r8.utils.InternalOptions;
+import java.util.concurrent.ExecutorService;
 
 public class CompatDxHelper {
   public static void run(D8Command command, Boolean minimalMainDex)
@@ -24,6 +25,17 @@ public class CompatDxHelper {
     D8.runForTesting(app, options);
   }
 
+  /**
+   * Runs a file per class compilation of CompatDexBuilder, in which each output file gets the
+   * markers like the output of a compilation of a single class.
+   */
+  public static void runFilePerClass(D8Command command, ExecutorService executor)
+      throws CompilationFailedException {
+    InternalOptions options = command.getInternalOptions();
+    options.addMarkersToFilePerClassFiles = true;
+    D8.runWithSharedExecutor(command.getInputApp(), options, executor);
+  }
+
   public static void ignoreDexInArchive(BaseCommand.Builder builder) {
     builder.setIgnoreDexInArchive(true);
   }
@@ -16,10 +16,13 @@ import com.android.tools.r8.graph.GraphLense;
 import com.android.tools.r8.ir.conversion.IRConverter;
 import com.android.tools.r8.naming.NamingLens;
 import com.android.tools.r8.origin.CommandLineOrigin;
+import com.android.tools.r8.origin.PathOrigin;
 import com.android.tools.r8.utils.AndroidApp;
 import com.android.tools.r8.utils.CfgPrinter;
+import com.android.tools.r8.utils.DexFileCache;
 import com.android.tools.r8.utils.ExceptionUtils;
 import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.StringDiagnostic;
 import com.android.tools.r8.utils.ThreadUtils;
 import com.android.tools.r8.utils.Timing;
 import com.android.tools.r8.utils.VersionProperties;
@@ -140,6 +143,18 @@ public final class D8 {
         });
   }
 
+  // Entry for compilations that share the executor with other compilations, such as the
+  // compilations of D8Worker. The executor is not shut down.
+  static void runWithSharedExecutor(
+      AndroidApp inputApp, InternalOptions options, ExecutorService executor)
+      throws CompilationFailedException {
+    ExceptionUtils.withD8CompilationHandler(
+        options.reporter,
+        () -> {
+          run(inputApp, options, executor);
+        });
+  }
+
   // Compute the marker to be placed in the main dex file.
   static Marker getMarker(InternalOptions options) {
     if (options.hasMarker()) {
@@ -160,7 +175,7 @@ public final class D8 {
 
   private static void run(AndroidApp inputApp, InternalOptions options, ExecutorService executor)
       throws IOException {
-    Timing timing = new Timing("D8");
+    Timing timing = new Timing("D8", options.isTimingReported());
     try {
       // Disable global optimizations.
       options.enableArgumentRemoval = false;
@@ -174,6 +189,9 @@ public final class D8 {
       options.enableClassStaticizer = false;
       options.outline.enabled = false;
 
+      if (options.dexFileCacheDirectory != null && options.isGeneratingDexFilePerClassFile()) {
+        inputApp = applyDexFileCache(inputApp, options, timing);
+      }
       DexApplication app = new ApplicationReader(inputApp, options, timing).read(executor);
       AppInfo appInfo = new AppInfo(app);
       app = optimize(app, appInfo, options, timing, executor);
@@ -219,9 +237,31 @@ public final class D8 {
     } finally {
       options.signalFinishedToConsumers();
       // Dump timings.
-      if (options.printTimes) {
-        timing.report();
-      }
+      options.reportTiming(timing);
+      options.reportMethodProcessingProfile();
+    }
+  }
+
+  // Passes the cached dex files to the program consumer, and returns the classes to compile.
+  private static AndroidApp applyDexFileCache(
+      AndroidApp inputApp, InternalOptions options, Timing timing) throws IOException {
+    DexFileCache cache;
+    try {
+      cache = DexFileCache.getInstance(options.dexFileCacheDirectory, options.dexFileCacheMaxBytes);
+    } catch (IOException e) {
+      options.reporter.warning(
+          new StringDiagnostic(
+              "Failed to open the dex file cache: " + e.getMessage(),
+              new PathOrigin(options.dexFileCacheDirectory)));
+      return inputApp;
+    }
+    timing.begin("Dex file cache");
+    try {
+      return cache.apply(inputApp, options);
+    } catch (ResourceException e) {
+      throw options.reporter.fatalError(new StringDiagnostic(e.getMessage(), e.getOrigin()));
+    } finally {
+      timing.end();
     }
   }
 
@@ -161,6 +161,8 @@ public final class D8Command extends BaseCompilerCommand {
           getMode(),
           getProgramConsumer(),
           getMainDexListConsumer(),
+          getTimingReportConsumer(),
+          getMethodProcessingProfileConsumer(),
           getMinApiLevel(),
           getReporter(),
           !getDisableDesugaring(),
@@ -218,6 +220,8 @@ public final class D8Command extends BaseCompilerCommand {
       CompilationMode mode,
       ProgramConsumer programConsumer,
       StringConsumer mainDexListConsumer,
+      StringConsumer timingReportConsumer,
+      StringConsumer methodProcessingProfileConsumer,
       int minApiLevel,
       Reporter diagnosticsHandler,
       boolean enableDesugaring,
@@ -228,6 +232,8 @@ public final class D8Command extends BaseCompilerCommand {
         mode,
         programConsumer,
         mainDexListConsumer,
+        timingReportConsumer,
+        methodProcessingProfileConsumer,
         minApiLevel,
         diagnosticsHandler,
         enableDesugaring,
@@ -246,6 +252,8 @@ public final class D8Command extends BaseCompilerCommand {
     internal.debug = getMode() == CompilationMode.DEBUG;
     internal.programConsumer = getProgramConsumer();
     internal.mainDexListConsumer = getMainDexListConsumer();
+    internal.timingReportConsumer = getTimingReportConsumer();
+    internal.methodProcessingProfileConsumer = getMethodProcessingProfileConsumer();
     internal.minimalMainDex = internal.debug;
     internal.minApiLevel = getMinApiLevel();
     internal.intermediate = intermediate;
@@ -0,0 +1,372 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8;
+
+import com.android.tools.r8.origin.CommandLineOrigin;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.position.Position;
+import com.android.tools.r8.utils.AbortException;
+import com.android.tools.r8.utils.ByteBufferPool;
+import com.android.tools.r8.utils.ExceptionUtils;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.OpenLibrarySnapshots;
+import com.android.tools.r8.utils.ThreadUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Long-lived D8 process that runs the compilations requested on its standard input, in the style
+ * of a persistent build worker.
+ *
+ * <p>Each request and each response is a message of a 4-byte big-endian length followed by that
+ * many bytes of a UTF-8 encoded JSON object. A request has the D8 command-line arguments, and
+ * optionally asks for the timings of the compilation in the Chrome trace event format:
+ *
+ * <pre>
+ *   {"requestId": 1, "arguments": ["--output", "out.zip", "in.jar"], "trace": true}
+ * </pre>
+ *
+ * The response has the exit code of the compilation, the diagnostics that D8 would print, the
+ * duration of the request and the timings if they were requested:
+ *
+ * <pre>
+ *   {"requestId": 1, "exitCode": 0, "output": "", "durationMs": 812.5, "trace": "{...}"}
+ * </pre>
+ *
+ * <p>A request that cannot be read, for example a message that is not a JSON object or has
+ * arguments that are not strings, gets a response with the exit code of a failed compilation and
+ * a description of the problem in the output. The request id of the response is the id of the
+ * request if it could be read, and null otherwise. A message with an invalid length gets such a
+ * response as well, after which the worker reads no further requests and exits, because the
+ * following messages cannot be found in the input.
+ *
+ * <p>Requests are compiled concurrently, so responses may come in a different order than the
+ * requests. Each compilation has its own item factory, options and diagnostics. The compilations
+ * share the thread pool, the pool of output buffers, the code compiled by the JIT and the library
+ * class cache, in which each library archive is parsed once. The worker process lets the pool of
+ * output buffers retain up to {@link #OUTPUT_BUFFER_POOL_MAX_BYTES} of released buffers, unless
+ * the system property {@code com.android.tools.r8.outputBufferPoolMaxBytes} is set. The worker
+ * exits when its standard input is closed, after the pending requests are done.
+ */
+public class D8Worker {
+
+  // Upper bound on the length of a request, which only has the command-line arguments.
+  private static final int MAX_MESSAGE_LENGTH = 1 << 26;
+
+  // Bytes of released output buffers that the default pool retains in the worker process.
+  static final long OUTPUT_BUFFER_POOL_MAX_BYTES = 64 * 1024 * 1024;
+
+  private static final String USAGE_MESSAGE =
+      String.join(
+          "\n",
+          ImmutableList.of(
+              "Usage: d8worker [options]",
+              " Reads length-prefixed JSON requests from standard input and writes length-prefixed",
+              " JSON responses to standard output.",
+              " Options are:",
+              "  --threads <number>         # Number of compilation threads.",
+              "  --requests <number>        # Number of concurrent requests (default 2).",
+              "  --library-cache <dir>      # Directory of the library class cache (default a",
+              "                             # temporary directory that is deleted on exit)."));
+
+  private final Path libraryCacheDirectory;
+  private final ExecutorService executor;
+  private final ExecutorService requestExecutor;
+  private final OpenLibrarySnapshots openLibrarySnapshots = new OpenLibrarySnapshots();
+
+  public D8Worker(Path libraryCacheDirectory, int threads, int concurrentRequests) {
+    this.libraryCacheDirectory = libraryCacheDirectory;
+    this.executor = ThreadUtils.getExecutorService(threads);
+    this.requestExecutor = Executors.newFixedThreadPool(concurrentRequests);
+  }
+
+  /** Returns the library snapshots that are kept open between requests. */
+  public OpenLibrarySnapshots getOpenLibrarySnapshots() {
+    return openLibrarySnapshots;
+  }
+
+  /**
+   * Runs the requests read from the input until the input is closed, and writes their responses
+   * to the output. Returns when all responses are written.
+   */
+  public void run(InputStream in, OutputStream out) throws IOException, InterruptedException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+    try {
+      while (true) {
+        int length;
+        try {
+          length = input.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        if (length < 0 || length > MAX_MESSAGE_LENGTH) {
+          // The frame cannot be skipped, so the rest of the input cannot be read as messages.
+          writeMessage(output, invalidRequestResponse(null, "Invalid message length " + length));
+          break;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        String message = new String(bytes, StandardCharsets.UTF_8);
+        requestExecutor.execute(
+            () -> {
+              JsonObject response = handle(message);
+              try {
+                writeMessage(output, response);
+              } catch (IOException e) {
+                // The client is gone, so there is no one to report to.
+                throw new RuntimeException(e);
+              }
+            });
+      }
+    } finally {
+      requestExecutor.shutdown();
+      requestExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  public void shutdown() {
+    requestExecutor.shutdown();
+    executor.shutdown();
+    openLibrarySnapshots.close();
+  }
+
+  private static JsonObject invalidRequestResponse(JsonElement requestId, String message) {
+    JsonObject response = new JsonObject();
+    response.add("requestId", requestId);
+    response.addProperty("exitCode", ExceptionUtils.STATUS_ERROR);
+    response.addProperty("output", "Invalid request: " + message + "\n");
+    response.addProperty("durationMs", 0.0);
+    return response;
+  }
+
+  private JsonObject handle(String message) {
+    long start = System.nanoTime();
+    JsonObject response = new JsonObject();
+    response.add("requestId", null);
+    StringWriter output = new StringWriter();
+    String[] trace = new String[1];
+    int exitCode = ExceptionUtils.STATUS_ERROR;
+    try (PrintWriter printer = new PrintWriter(output)) {
+      try {
+        JsonElement request = new JsonParser().parse(message);
+        if (!request.isJsonObject()) {
+          throw new JsonParseException("Expected a JSON object");
+        }
+        response.add("requestId", request.getAsJsonObject().get("requestId"));
+        String[] args = getArguments(request.getAsJsonObject());
+        StringConsumer traceConsumer =
+            isTraceRequested(request.getAsJsonObject())
+                ? (string, handler) -> trace[0] = string
+                : null;
+        exitCode = compile(args, traceConsumer, printer);
+      } catch (JsonParseException e) {
+        printer.println("Invalid request: " + e.getMessage());
+      } catch (Throwable e) {
+        // Any failure, including errors such as running out of memory, is reported in the
+        // response, as the client waits for a response to each request.
+        printer.println("Compilation failed with an internal error.");
+        Throwable cause = e.getCause() == null ? e : e.getCause();
+        cause.printStackTrace(printer);
+      }
+    }
+    response.addProperty("exitCode", exitCode);
+    response.addProperty("output", output.toString());
+    response.addProperty("durationMs", (System.nanoTime() - start) / 1000000.0);
+    if (trace[0] != null) {
+      response.addProperty("trace", trace[0]);
+    }
+    return response;
+  }
+
+  private static String[] getArguments(JsonObject request) {
+    JsonElement arguments = request.get("arguments");
+    if (arguments == null || arguments.isJsonNull()) {
+      return new String[0];
+    }
+    if (!arguments.isJsonArray()) {
+      throw new JsonParseException("Expected an array of strings as arguments");
+    }
+    JsonArray array = arguments.getAsJsonArray();
+    String[] args = new String[array.size()];
+    for (int i = 0; i < args.length; i++) {
+      JsonElement argument = array.get(i);
+      if (!argument.isJsonPrimitive() || !argument.getAsJsonPrimitive().isString()) {
+        throw new JsonParseException("Expected a string as argument " + i);
+      }
+      args[i] = argument.getAsString();
+    }
+    return args;
+  }
+
+  private static boolean isTraceRequested(JsonObject request) {
+    JsonElement trace = request.get("trace");
+    if (trace == null || trace.isJsonNull()) {
+      return false;
+    }
+    if (!trace.isJsonPrimitive() || !trace.getAsJsonPrimitive().isBoolean()) {
+      throw new JsonParseException("Expected a boolean as trace");
+    }
+    return trace.getAsBoolean();
+  }
+
+  private int compile(String[] args, StringConsumer traceConsumer, PrintWriter output) {
+    try {
+      D8Command.Builder builder =
+          D8Command.parse(args, CommandLineOrigin.INSTANCE, new OutputDiagnosticsHandler(output));
+      if (traceConsumer != null) {
+        builder.setTimingReportConsumer(traceConsumer);
+      }
+      D8Command command = builder.build();
+      if (command.isPrintHelp()) {
+        output.println(D8Command.USAGE_MESSAGE);
+        return 0;
+      }
+      if (command.isPrintVersion()) {
+        output.println("D8 " + Version.LABEL);
+        return 0;
+      }
+      InternalOptions options = command.getInternalOptions();
+      options.libraryCacheDirectory = libraryCacheDirectory;
+      options.openLibrarySnapshots = openLibrarySnapshots;
+      D8.runWithSharedExecutor(command.getInputApp(), options, executor);
+      return 0;
+    } catch (CompilationFailedException | AbortException e) {
+      // Detail of the errors were already reported.
+      output.println("Compilation failed");
+    }
+    return ExceptionUtils.STATUS_ERROR;
+  }
+
+  private static void writeMessage(DataOutputStream output, JsonObject message)
+      throws IOException {
+    byte[] bytes = message.toString().getBytes(StandardCharsets.UTF_8);
+    synchronized (output) {
+      output.writeInt(bytes.length);
+      output.write(bytes);
+      output.flush();
+    }
+  }
+
+  // Formats the diagnostics like the default diagnostics handler, into the output of a request.
+  private static class OutputDiagnosticsHandler implements DiagnosticsHandler {
+    private final PrintWriter output;
+
+    OutputDiagnosticsHandler(PrintWriter output) {
+      this.output = output;
+    }
+
+    @Override
+    public void error(Diagnostic error) {
+      if (error.getOrigin() != Origin.unknown()) {
+        output.print("Error in " + error.getOrigin());
+        if (error.getPosition() != Position.UNKNOWN) {
+          output.print(" at " + error.getPosition().getDescription());
+        }
+        output.println(":");
+      } else {
+        output.print("Error: ");
+      }
+      output.println(error.getDiagnosticMessage());
+    }
+
+    @Override
+    public void warning(Diagnostic warning) {
+      if (warning.getOrigin() != Origin.unknown()) {
+        output.print("Warning in " + warning.getOrigin() + ":\n  ");
+      } else {
+        output.print("Warning: ");
+      }
+      output.println(warning.getDiagnosticMessage());
+    }
+
+    @Override
+    public void info(Diagnostic info) {
+      if (info.getOrigin() != Origin.unknown()) {
+        output.print("In " + info.getOrigin() + ":\n  ");
+      }
+      output.println(info.getDiagnosticMessage());
+    }
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int threads = ThreadUtils.NOT_SPECIFIED;
+    int concurrentRequests = 2;
+    Path libraryCacheDirectory = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.equals("--help")) {
+        System.out.println(USAGE_MESSAGE);
+        return;
+      }
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("Missing argument to option " + arg);
+      }
+      String value = args[++i];
+      switch (arg) {
+        case "--threads":
+          threads = Integer.parseInt(value);
+          break;
+        case "--requests":
+          concurrentRequests = Integer.parseInt(value);
+          break;
+        case "--library-cache":
+          libraryCacheDirectory = Paths.get(value);
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported option " + arg + "\n" + USAGE_MESSAGE);
+      }
+    }
+
+    Path temporaryDirectory = null;
+    if (libraryCacheDirectory == null) {
+      temporaryDirectory = Files.createTempDirectory("d8worker");
+      libraryCacheDirectory = temporaryDirectory;
+    }
+    // Standard output carries the responses, so anything else that is printed goes to standard
+    // error.
+    PrintStream responses = System.out;
+    System.setOut(System.err);
+    if (System.getProperty(ByteBufferPool.MAX_RETAINED_BYTES_PROPERTY) == null) {
+      ByteBufferPool.getDefault().setMaxRetainedBytes(OUTPUT_BUFFER_POOL_MAX_BYTES);
+    }
+    D8Worker worker = new D8Worker(libraryCacheDirectory, threads, concurrentRequests);
+    try {
+      worker.run(System.in, responses);
+    } finally {
+      worker.shutdown();
+      if (temporaryDirectory != null) {
+        try (Stream<Path> paths = Files.walk(temporaryDirectory)) {
+          for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+            Files.delete(path);
+          }
+        }
+      }
+    }
+  }
+}
@@ -18,8 +18,11 @@ import com.android.tools.r8.utils.InternalOptions;
 import com.android.tools.r8.utils.ThreadUtils;
 import com.android.tools.r8.utils.Timing;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 
@@ -60,14 +63,41 @@ public class DexFileMergerHelper {
     InternalOptions options = command.getInternalOptions();
     ExceptionUtils.withD8CompilationHandler(
         options.reporter,
-        () -> runInternal(command.getInputApp(), options, minimalMainDex, inputOrdering));
+        () ->
+            runInternal(
+                command.getInputApp(),
+                options,
+                minimalMainDex,
+                inputOrdering,
+                Collections.emptySet(),
+                ThreadUtils.NOT_SPECIFIED));
+  }
+
+  /**
+   * Merges one output file of a merge that is split into several output files, which are merged
+   * concurrently. The merge is done on a single thread and leaves out the classes with the given
+   * descriptors, which are defined by inputs of the previous output files.
+   */
+  public static void runForShard(
+      D8Command command,
+      Map<String, Integer> inputOrdering,
+      Set<String> excludedClassDescriptors)
+      throws CompilationFailedException {
+    InternalOptions options = command.getInternalOptions();
+    ExceptionUtils.withD8CompilationHandler(
+        options.reporter,
+        () ->
+            runInternal(
+                command.getInputApp(), options, false, inputOrdering, excludedClassDescriptors, 1));
   }
 
   private static void runInternal(
       AndroidApp inputApp,
       InternalOptions options,
       Boolean minimalMainDex,
-      Map<String, Integer> inputOrdering)
+      Map<String, Integer> inputOrdering,
+      Set<String> excludedClassDescriptors,
+      int threads)
       throws IOException {
     options.enableDesugaring = false;
     options.enableMainDexListCheck = false;
@@ -76,7 +106,7 @@ public class DexFileMergerHelper {
     options.enableInlining = false;
     options.outline.enabled = false;
 
-    ExecutorService executor = ThreadUtils.getExecutorService(ThreadUtils.NOT_SPECIFIED);
+    ExecutorService executor = ThreadUtils.getExecutorService(threads);
     try {
       try {
         Timing timing = new Timing("DexFileMerger");
@@ -86,6 +116,15 @@ public class DexFileMergerHelper {
                     null,
                     executor,
                     new DexFileMergerHelper(inputOrdering)::keepFirstProgramClassConflictResolver);
+        if (!excludedClassDescriptors.isEmpty()) {
+          List<DexProgramClass> classes = new ArrayList<>();
+          for (DexProgramClass clazz : app.classes()) {
+            if (!excludedClassDescriptors.contains(clazz.type.toDescriptorString())) {
+              classes.add(clazz);
+            }
+          }
+          app = app.builder().replaceProgramClasses(classes).build();
+        }
         AppInfo appInfo = new AppInfo(app);
         app = D8.optimize(app, appInfo, options, timing, executor);
 
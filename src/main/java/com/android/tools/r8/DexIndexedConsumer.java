@@ -6,15 +6,18 @@ package com.android.tools.r8;
 import com.android.tools.r8.origin.Origin;
 import com.android.tools.r8.origin.PathOrigin;
 import com.android.tools.r8.utils.ArchiveBuilder;
+import com.android.tools.r8.utils.ByteBufferPool;
 import com.android.tools.r8.utils.DirectoryBuilder;
 import com.android.tools.r8.utils.ExceptionDiagnostic;
 import com.android.tools.r8.utils.FileUtils;
 import com.android.tools.r8.utils.OutputBuilder;
+import com.android.tools.r8.utils.PrecompressingConsumer;
 import com.android.tools.r8.utils.StringDiagnostic;
 import com.android.tools.r8.utils.ZipUtils;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Closer;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
@@ -70,6 +73,24 @@ public interface DexIndexedConsumer extends ProgramConsumer, ByteBufferProvider
         new StringDiagnostic("Deprecated use of DexIndexedConsumer::accept(..., byte[], ...)"));
   }
 
+  /**
+   * Acquire a byte buffer for the DEX data of an output file.
+   *
+   * <p>By default buffers are taken from a pool shared by all compilations in the process, and
+   * returned to it by {@link #releaseByteBuffer} once the data has been accepted. The pool only
+   * retains released buffers if the system property
+   * {@code com.android.tools.r8.outputBufferPoolMaxBytes} sets its maximum retained bytes.
+   */
+  @Override
+  default ByteBuffer acquireByteBuffer(int capacity) {
+    return ByteBufferPool.getDefault().acquireByteBuffer(capacity);
+  }
+
+  @Override
+  default void releaseByteBuffer(ByteBuffer buffer) {
+    ByteBufferPool.getDefault().releaseByteBuffer(buffer);
+  }
+
   /** Empty consumer to request the production of the resource but ignore its value. */
   static DexIndexedConsumer emptyConsumer() {
     return ForwardingConsumer.EMPTY_CONSUMER;
@@ -121,7 +142,7 @@ public interface DexIndexedConsumer extends ProgramConsumer, ByteBufferProvider
   /** Consumer to write program resources to an output. */
   @Keep
   class ArchiveConsumer extends ForwardingConsumer
-      implements DataResourceConsumer, InternalProgramOutputPathConsumer {
+      implements DataResourceConsumer, InternalProgramOutputPathConsumer, PrecompressingConsumer {
     protected final OutputBuilder outputBuilder;
     protected final boolean consumeDataResources;
 
@@ -138,8 +159,21 @@ public interface DexIndexedConsumer extends ProgramConsumer, ByteBufferProvider
     }
 
     public ArchiveConsumer(Path archive, DexIndexedConsumer consumer, boolean consumeDataResouces) {
+      this(archive, consumer, consumeDataResouces, true);
+    }
+
+    /**
+     * Creates an archive consumer whose entries are stored uncompressed if {@code compressEntries}
+     * is false, which trades archive size for the time spent deflating the DEX files.
+     */
+    public ArchiveConsumer(
+        Path archive,
+        DexIndexedConsumer consumer,
+        boolean consumeDataResouces,
+        boolean compressEntries) {
       super(consumer);
-      this.outputBuilder = new ArchiveBuilder(archive);
+      this.outputBuilder =
+          new ArchiveBuilder(archive, compressEntries ? ZipEntry.DEFLATED : ZipEntry.STORED);
       this.consumeDataResources = consumeDataResouces;
       this.outputBuilder.open();
       if (getDataResourceConsumer() != null) {
@@ -156,6 +190,11 @@ public interface DexIndexedConsumer extends ProgramConsumer, ByteBufferProvider
       return consumeDataResources ? this : null;
     }
 
+    @Override
+    public void precompress(int fileIndex, String primaryClassDescriptor, ByteDataView data) {
+      ((ArchiveBuilder) outputBuilder).precompress(getDexFileName(fileIndex), data);
+    }
+
     @Override
     public void accept(
         int fileIndex, ByteDataView data, Set<String> descriptors, DiagnosticsHandler handler) {
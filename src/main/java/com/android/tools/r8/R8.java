@@ -125,11 +125,12 @@ import java.util.concurrent.ExecutorService;
 @Keep
 public class R8 {
 
-  private final Timing timing = new Timing("R8");
+  private final Timing timing;
   private final InternalOptions options;
 
   private R8(InternalOptions options) {
     this.options = options;
+    this.timing = new Timing("R8", options.isTimingReported());
     options.itemFactory.resetSortedIndices();
   }
 
@@ -685,9 +686,8 @@ public class R8 {
     } finally {
       options.signalFinishedToConsumers();
       // Dump timings.
-      if (options.printTimes) {
-        timing.report();
-      }
+      options.reportTiming(timing);
+      options.reportMethodProcessingProfile();
     }
   }
 
@@ -444,6 +444,8 @@ public final class R8Command extends BaseCompilerCommand {
               getProgramConsumer(),
               mainDexKeepRules,
               getMainDexListConsumer(),
+              getTimingReportConsumer(),
+              getMethodProcessingProfileConsumer(),
               configuration,
               getMode(),
               getMinApiLevel(),
@@ -588,6 +590,8 @@ public final class R8Command extends BaseCompilerCommand {
       ProgramConsumer programConsumer,
       List<ProguardConfigurationRule> mainDexKeepRules,
       StringConsumer mainDexListConsumer,
+      StringConsumer timingReportConsumer,
+      StringConsumer methodProcessingProfileConsumer,
       ProguardConfiguration proguardConfiguration,
       CompilationMode mode,
       int minApiLevel,
@@ -603,8 +607,17 @@ public final class R8Command extends BaseCompilerCommand {
       GraphConsumer mainDexKeptGraphConsumer,
       Consumer<List<ProguardConfigurationRule>> syntheticProguardRulesConsumer,
       boolean optimizeMultidexForLinearAlloc) {
-    super(inputApp, mode, programConsumer, mainDexListConsumer, minApiLevel, reporter,
-        enableDesugaring, optimizeMultidexForLinearAlloc);
+    super(
+        inputApp,
+        mode,
+        programConsumer,
+        mainDexListConsumer,
+        timingReportConsumer,
+        methodProcessingProfileConsumer,
+        minApiLevel,
+        reporter,
+        enableDesugaring,
+        optimizeMultidexForLinearAlloc);
     assert proguardConfiguration != null;
     assert mainDexKeepRules != null;
     this.mainDexKeepRules = mainDexKeepRules;
@@ -673,6 +686,8 @@ public final class R8Command extends BaseCompilerCommand {
     internal.mainDexKeepRules = mainDexKeepRules;
     internal.minimalMainDex = getMode() == CompilationMode.DEBUG;
     internal.mainDexListConsumer = getMainDexListConsumer();
+    internal.timingReportConsumer = getTimingReportConsumer();
+    internal.methodProcessingProfileConsumer = getMethodProcessingProfileConsumer();
     internal.lineNumberOptimization =
         !internal.debug && (proguardConfiguration.isOptimizing() || internal.enableMinification)
             ? LineNumberOptimization.ON
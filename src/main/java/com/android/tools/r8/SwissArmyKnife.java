@@ -43,6 +43,9 @@ public class SwissArmyKnife {
       case "d8logger":
         D8Logger.main(shift(args));
         break;
+      case "d8worker":
+        D8Worker.main(shift(args));
+        break;
       case "dexfilemerger":
         DexFileMerger.main(shift(args));
         break;
@@ -12,4 +12,12 @@ public class BenchmarkUtils {
   public static void printRuntimeMilliseconds(String name, double ms) {
     System.out.println(name + "(RunTime): " + ms + " ms");
   }
+
+  public static void printMemoryUse(String name, long bytes) {
+    System.out.println(name + "(MemoryUse): " + bytes);
+  }
+
+  public static void printCodeSize(String name, long bytes) {
+    System.out.println(name + "(CodeSize): " + bytes);
+  }
 }
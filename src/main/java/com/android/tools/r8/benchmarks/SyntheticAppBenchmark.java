@@ -0,0 +1,308 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.benchmarks;
+
+import static com.android.tools.r8.benchmarks.BenchmarkUtils.printCodeSize;
+import static com.android.tools.r8.benchmarks.BenchmarkUtils.printMemoryUse;
+import static com.android.tools.r8.benchmarks.BenchmarkUtils.printRuntimeMilliseconds;
+import static com.android.tools.r8.benchmarks.BenchmarkUtils.printRuntimeNanoseconds;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.CompilationFailedException;
+import com.android.tools.r8.CompilationMode;
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.R8;
+import com.android.tools.r8.R8Command;
+import com.android.tools.r8.StringConsumer;
+import com.android.tools.r8.benchmarks.SyntheticAppGenerator.SyntheticApp;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.utils.ThreadUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiles a program generated by {@link SyntheticAppGenerator} with R8 or D8 and prints the
+ * compile time, the time of each top-level phase of the compilation, the peak heap usage and the
+ * size of the dex output.
+ *
+ * <p>The peak heap usage is the sum of the peak usage of each heap memory pool, which is an upper
+ * bound on the peak usage of the heap.
+ */
+public class SyntheticAppBenchmark {
+
+  private static final String USAGE_MESSAGE =
+      String.join(
+          "\n",
+          ImmutableList.of(
+              "Usage: SyntheticAppBenchmark [options]",
+              " Options are:",
+              "  --r8 | --d8                # Compiler to benchmark (default R8).",
+              "  --classes <number>         # Number of classes (default 1000).",
+              "  --hierarchy-depth <number> # Length of the chains of subclasses (default 4).",
+              "  --interfaces <number>      # Number of interfaces (default 100).",
+              "  --interface-fan-out <num>  # Interfaces implemented by each class (default 2).",
+              "  --lambdas <number>         # Lambdas in each class (default 1).",
+              "  --calls <number>           # Calls to other classes in each class (default 2).",
+              "  --kotlin-metadata          # Annotate the classes with kotlin.Metadata.",
+              "  --keep-rule-density <frac> # Fraction of classes with a keep rule (default 0.01).",
+              "  --seed <number>            # Seed of the generator (default 0).",
+              "  --lib <file>               # Library (default the android.jar of API 28).",
+              "  --min-api <number>         # Minimum API level (default 21).",
+              "  --iterations <number>      # Number of compilations (default 1).",
+              "  --threads <number>         # Number of compilation threads.",
+              "  --dump <directory>         # Write the program and keep rules to <directory>.",
+              "  --trace <file>             # Write the timings of the last compilation to <file>",
+              "                             # in the Chrome trace event format."));
+
+  private static final Path DEFAULT_LIB =
+      Paths.get("third_party", "android_jar", "lib-v28", "android.jar");
+
+  private final SyntheticApp app;
+  private final boolean useR8;
+  private final Path lib;
+  private final int minApi;
+  private final String name;
+
+  private SyntheticAppBenchmark(
+      SyntheticApp app, boolean useR8, Path lib, int minApi, int classes) {
+    this.app = app;
+    this.useR8 = useR8;
+    this.lib = lib;
+    this.minApi = minApi;
+    this.name = "Synthetic" + (useR8 ? "R8" : "D8") + "-" + classes;
+  }
+
+  private static class Result {
+    final long runtime;
+    final long peakHeapUsage;
+    final long codeSize;
+    final String trace;
+
+    Result(long runtime, long peakHeapUsage, long codeSize, String trace) {
+      this.runtime = runtime;
+      this.peakHeapUsage = peakHeapUsage;
+      this.codeSize = codeSize;
+      this.trace = trace;
+    }
+  }
+
+  private Result compile(ExecutorService executor) throws CompilationFailedException {
+    AtomicLong codeSize = new AtomicLong();
+    DexIndexedConsumer consumer =
+        new DexIndexedConsumer.ForwardingConsumer(null) {
+          @Override
+          public void accept(
+              int fileIndex,
+              ByteDataView data,
+              Set<String> descriptors,
+              DiagnosticsHandler handler) {
+            codeSize.addAndGet(data.getLength());
+          }
+        };
+    String[] trace = new String[1];
+    StringConsumer traceConsumer = (string, handler) -> trace[0] = string;
+    List<MemoryPoolMXBean> heapPools = getHeapPools();
+    System.gc();
+    heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+    long start = System.nanoTime();
+    if (useR8) {
+      R8.run(
+          app.addProgramClasses(R8Command.builder())
+              .addLibraryFiles(lib)
+              .addProguardConfiguration(app.getKeepRules(), Origin.unknown())
+              .setMinApiLevel(minApi)
+              .setProgramConsumer(consumer)
+              .setTimingReportConsumer(traceConsumer)
+              .build(),
+          executor);
+    } else {
+      D8.run(
+          app.addProgramClasses(D8Command.builder())
+              .addLibraryFiles(lib)
+              .setMode(CompilationMode.RELEASE)
+              .setMinApiLevel(minApi)
+              .setProgramConsumer(consumer)
+              .setTimingReportConsumer(traceConsumer)
+              .build(),
+          executor);
+    }
+    long runtime = System.nanoTime() - start;
+    long peakHeapUsage = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      peakHeapUsage += pool.getPeakUsage().getUsed();
+    }
+    return new Result(runtime, peakHeapUsage, codeSize.get(), trace[0]);
+  }
+
+  private static List<MemoryPoolMXBean> getHeapPools() {
+    ImmutableList.Builder<MemoryPoolMXBean> builder = ImmutableList.builder();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+        builder.add(pool);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the total duration in milliseconds of each top-level phase in the trace, in the order
+   * the phases first ran. The threads of concurrent phases are not counted separately.
+   */
+  static Map<String, Double> getPhaseDurations(String trace) {
+    Map<String, Double> durations = new LinkedHashMap<>();
+    JsonObject json = new JsonParser().parse(trace).getAsJsonObject();
+    for (JsonElement element : json.getAsJsonArray("traceEvents")) {
+      JsonObject event = element.getAsJsonObject();
+      if (!event.get("ph").getAsString().equals("X")) {
+        continue;
+      }
+      JsonObject args = event.getAsJsonObject("args");
+      String path = args.get("path").getAsString();
+      int separator = path.indexOf('/');
+      if (separator < 0 || path.indexOf('/', separator + 1) >= 0 || args.has("tasks")) {
+        continue;
+      }
+      // Durations in the trace are in microseconds.
+      durations.merge(
+          path.substring(separator + 1), event.get("dur").getAsDouble() / 1000.0, Double::sum);
+    }
+    return durations;
+  }
+
+  private void report(Result result) {
+    printRuntimeNanoseconds(name, result.runtime);
+    if (result.trace != null) {
+      getPhaseDurations(result.trace)
+          .forEach((phase, duration) -> printRuntimeMilliseconds(name + "-" + phase, duration));
+    }
+    printMemoryUse(name, result.peakHeapUsage);
+    printCodeSize(name, result.codeSize);
+  }
+
+  public static void main(String[] args) throws IOException, CompilationFailedException {
+    SyntheticAppGenerator.Builder generator = SyntheticAppGenerator.builder();
+    boolean useR8 = true;
+    int classes = 1000;
+    Path lib = DEFAULT_LIB;
+    int minApi = 21;
+    int iterations = 1;
+    int threads = ThreadUtils.NOT_SPECIFIED;
+    Path dump = null;
+    Path trace = null;
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      switch (arg) {
+        case "--help":
+          System.out.println(USAGE_MESSAGE);
+          return;
+        case "--r8":
+          useR8 = true;
+          continue;
+        case "--d8":
+          useR8 = false;
+          continue;
+        case "--kotlin-metadata":
+          generator.setKotlinMetadata(true);
+          continue;
+        default:
+          break;
+      }
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("Missing argument to option " + arg);
+      }
+      String value = args[++i];
+      switch (arg) {
+        case "--classes":
+          classes = Integer.parseInt(value);
+          generator.setClasses(classes);
+          break;
+        case "--hierarchy-depth":
+          generator.setHierarchyDepth(Integer.parseInt(value));
+          break;
+        case "--interfaces":
+          generator.setInterfaces(Integer.parseInt(value));
+          break;
+        case "--interface-fan-out":
+          generator.setInterfaceFanOut(Integer.parseInt(value));
+          break;
+        case "--lambdas":
+          generator.setLambdasPerClass(Integer.parseInt(value));
+          break;
+        case "--calls":
+          generator.setCallsPerClass(Integer.parseInt(value));
+          break;
+        case "--keep-rule-density":
+          generator.setKeepRuleDensity(Double.parseDouble(value));
+          break;
+        case "--seed":
+          generator.setSeed(Long.parseLong(value));
+          break;
+        case "--lib":
+          lib = Paths.get(value);
+          break;
+        case "--min-api":
+          minApi = Integer.parseInt(value);
+          break;
+        case "--iterations":
+          iterations = Integer.parseInt(value);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(value);
+          break;
+        case "--dump":
+          dump = Paths.get(value);
+          break;
+        case "--trace":
+          trace = Paths.get(value);
+          break;
+        default:
+          throw new IllegalArgumentException(
+              "Unsupported option " + arg + "\n" + USAGE_MESSAGE);
+      }
+    }
+
+    long start = System.nanoTime();
+    SyntheticApp app = generator.build().generate();
+    printRuntimeNanoseconds("SyntheticAppGenerator-" + classes, System.nanoTime() - start);
+    if (dump != null) {
+      Files.createDirectories(dump);
+      app.writeJar(dump.resolve("program.jar"));
+      app.writeKeepRules(dump.resolve("keep-rules.txt"));
+    }
+
+    SyntheticAppBenchmark benchmark = new SyntheticAppBenchmark(app, useR8, lib, minApi, classes);
+    ExecutorService executor = ThreadUtils.getExecutorService(threads);
+    try {
+      Result result = null;
+      for (int i = 0; i < iterations; i++) {
+        result = benchmark.compile(executor);
+        benchmark.report(result);
+      }
+      if (trace != null && result != null && result.trace != null) {
+        Files.write(trace, result.trace.getBytes(StandardCharsets.UTF_8));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,541 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.benchmarks;
+
+import com.android.tools.r8.BaseCommand;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.utils.DescriptorUtils;
+import com.android.tools.r8.utils.ZipUtils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import kotlinx.metadata.Flag;
+import kotlinx.metadata.FlagsKt;
+import kotlinx.metadata.KmTypeVisitor;
+import kotlinx.metadata.jvm.KotlinClassHeader;
+import kotlinx.metadata.jvm.KotlinClassMetadata;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates deterministic synthetic programs of a configurable size and shape, together with keep
+ * rules for compiling them with R8.
+ *
+ * <p>The program consists of the classes <code>synthetic.pN.CI</code> and the functional
+ * interfaces <code>synthetic.pN.II</code>, with 100 of each per package. The classes form chains
+ * of subclasses of the configured hierarchy depth, and each class implements a number of randomly
+ * chosen interfaces. The static <code>run</code> method of class I instantiates the class, calls
+ * its interface methods, creates and calls its lambdas, calls the static helper methods of randomly
+ * chosen classes and calls <code>run</code> of the classes 2I+1 and 2I+2. The main class calls
+ * <code>run</code> of the first class, so all classes are live. Each class also has an unused
+ * method, which is removed unless the class is kept.
+ *
+ * <p>All choices are made by a {@link Random} with a fixed seed, so the same configuration always
+ * generates the same program.
+ */
+public class SyntheticAppGenerator {
+
+  public static final String MAIN_CLASS = "synthetic.Main";
+
+  private static final int CLASSES_PER_PACKAGE = 100;
+  private static final String OBJECT = "java/lang/Object";
+  private static final String KOTLIN_METADATA = "kotlin/Metadata";
+  private static final Handle LAMBDA_METAFACTORY =
+      new Handle(
+          Opcodes.H_INVOKESTATIC,
+          "java/lang/invoke/LambdaMetafactory",
+          "metafactory",
+          "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+              + "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;"
+              + "Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;",
+          false);
+
+  private final int classes;
+  private final int hierarchyDepth;
+  private final int interfaces;
+  private final int interfaceFanOut;
+  private final int lambdasPerClass;
+  private final int callsPerClass;
+  private final boolean kotlinMetadata;
+  private final double keepRuleDensity;
+  private final long seed;
+
+  private SyntheticAppGenerator(Builder builder) {
+    this.classes = builder.classes;
+    this.hierarchyDepth = builder.hierarchyDepth;
+    this.interfaces = builder.interfaces;
+    this.interfaceFanOut = Math.min(builder.interfaceFanOut, builder.interfaces);
+    this.lambdasPerClass = builder.interfaces == 0 ? 0 : builder.lambdasPerClass;
+    this.callsPerClass = builder.callsPerClass;
+    this.kotlinMetadata = builder.kotlinMetadata;
+    this.keepRuleDensity = builder.keepRuleDensity;
+    this.seed = builder.seed;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private int classes = 1000;
+    private int hierarchyDepth = 4;
+    private int interfaces = 100;
+    private int interfaceFanOut = 2;
+    private int lambdasPerClass = 1;
+    private int callsPerClass = 2;
+    private boolean kotlinMetadata = false;
+    private double keepRuleDensity = 0.01;
+    private long seed = 0;
+
+    private Builder() {}
+
+    /** Number of classes, not counting the interfaces and the main class. */
+    public Builder setClasses(int classes) {
+      checkArgument(classes > 0, "The number of classes must be positive");
+      this.classes = classes;
+      return this;
+    }
+
+    /** Length of the chains of subclasses, where 1 means that all classes extend Object. */
+    public Builder setHierarchyDepth(int hierarchyDepth) {
+      checkArgument(hierarchyDepth > 0, "The hierarchy depth must be positive");
+      this.hierarchyDepth = hierarchyDepth;
+      return this;
+    }
+
+    /** Number of functional interfaces, which have a default method each. */
+    public Builder setInterfaces(int interfaces) {
+      checkArgument(interfaces >= 0, "The number of interfaces must not be negative");
+      this.interfaces = interfaces;
+      return this;
+    }
+
+    /** Number of interfaces implemented by each class. */
+    public Builder setInterfaceFanOut(int interfaceFanOut) {
+      checkArgument(interfaceFanOut >= 0, "The interface fan-out must not be negative");
+      this.interfaceFanOut = interfaceFanOut;
+      return this;
+    }
+
+    /** Number of lambdas in each class, which requires at least one interface. */
+    public Builder setLambdasPerClass(int lambdasPerClass) {
+      checkArgument(lambdasPerClass >= 0, "The number of lambdas must not be negative");
+      this.lambdasPerClass = lambdasPerClass;
+      return this;
+    }
+
+    /** Number of calls from each class to the helper methods of randomly chosen classes. */
+    public Builder setCallsPerClass(int callsPerClass) {
+      checkArgument(callsPerClass >= 0, "The number of calls must not be negative");
+      this.callsPerClass = callsPerClass;
+      return this;
+    }
+
+    /** Annotate the classes with kotlin.Metadata, as the Kotlin compiler does. */
+    public Builder setKotlinMetadata(boolean kotlinMetadata) {
+      this.kotlinMetadata = kotlinMetadata;
+      return this;
+    }
+
+    /** Fraction of the classes that are kept by a keep rule of their own. */
+    public Builder setKeepRuleDensity(double keepRuleDensity) {
+      checkArgument(
+          0 <= keepRuleDensity && keepRuleDensity <= 1,
+          "The keep rule density must be between 0 and 1");
+      this.keepRuleDensity = keepRuleDensity;
+      return this;
+    }
+
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public SyntheticAppGenerator build() {
+      return new SyntheticAppGenerator(this);
+    }
+
+    private static void checkArgument(boolean condition, String message) {
+      if (!condition) {
+        throw new IllegalArgumentException(message);
+      }
+    }
+  }
+
+  /** The class files and the keep rules of a generated program. */
+  public static class SyntheticApp {
+
+    private final Map<String, byte[]> classes;
+    private final List<String> keepRules;
+
+    private SyntheticApp(Map<String, byte[]> classes, List<String> keepRules) {
+      this.classes = Collections.unmodifiableMap(classes);
+      this.keepRules = Collections.unmodifiableList(keepRules);
+    }
+
+    /** Returns the class files by internal class name, in the order of the names. */
+    public Map<String, byte[]> getClasses() {
+      return classes;
+    }
+
+    public List<String> getKeepRules() {
+      return keepRules;
+    }
+
+    public <B extends BaseCommand.Builder<?, B>> B addProgramClasses(B builder) {
+      for (byte[] bytes : classes.values()) {
+        builder.addClassProgramData(bytes, Origin.unknown());
+      }
+      return builder;
+    }
+
+    public void writeJar(Path path) throws IOException {
+      try (ZipOutputStream stream = new ZipOutputStream(Files.newOutputStream(path))) {
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+          ZipUtils.writeToZipStream(
+              stream, entry.getKey() + ".class", entry.getValue(), ZipEntry.DEFLATED);
+        }
+      }
+    }
+
+    public void writeKeepRules(Path path) throws IOException {
+      try (OutputStream stream = Files.newOutputStream(path)) {
+        for (String rule : keepRules) {
+          stream.write((rule + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    }
+  }
+
+  public SyntheticApp generate() {
+    Random random = new Random(seed);
+    Map<String, byte[]> classFiles = new TreeMap<>();
+    List<String> keepRules = new ArrayList<>();
+    keepRules.add(
+        "-keep class " + MAIN_CLASS + " { public static void main(java.lang.String[]); }");
+    if (kotlinMetadata) {
+      keepRules.add("-keepattributes RuntimeVisibleAnnotations");
+      keepRules.add("-keep class kotlin.Metadata { *; }");
+      classFiles.put(KOTLIN_METADATA, generateKotlinMetadataAnnotation());
+    }
+    for (int i = 0; i < interfaces; i++) {
+      classFiles.put(interfaceName(i), generateInterface(i));
+    }
+    for (int i = 0; i < classes; i++) {
+      classFiles.put(className(i), generateClass(i, random));
+      if (random.nextDouble() < keepRuleDensity) {
+        keepRules.add(keepRule(i));
+      }
+    }
+    String mainClass = DescriptorUtils.getBinaryNameFromJavaType(MAIN_CLASS);
+    classFiles.put(mainClass, generateMainClass(mainClass));
+    return new SyntheticApp(classFiles, keepRules);
+  }
+
+  private static String packageName(int index) {
+    return "synthetic/p" + (index / CLASSES_PER_PACKAGE) + "/";
+  }
+
+  private static String className(int index) {
+    return packageName(index) + "C" + index;
+  }
+
+  private static String interfaceName(int index) {
+    return packageName(index) + "I" + index;
+  }
+
+  // A class cannot inherit two default methods with the same signature, so the default method of
+  // each interface has a name of its own.
+  private static String defaultMethodName(int index) {
+    return "applyTwice" + index;
+  }
+
+  private String superClassName(int index) {
+    return index % hierarchyDepth == 0 ? OBJECT : className(index - 1);
+  }
+
+  // Cycle through the kinds of keep rules commonly found in apps.
+  private static String keepRule(int index) {
+    String name = className(index).replace('/', '.');
+    switch (index % 3) {
+      case 0:
+        return "-keep class " + name + " { *; }";
+      case 1:
+        return "-keepclassmembers class " + name + " { public void unused(); }";
+      default:
+        return "-keepnames class " + name;
+    }
+  }
+
+  private static byte[] generateMainClass(String name) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, OBJECT, null);
+    MethodVisitor main =
+        writer.visitMethod(
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
+    main.visitCode();
+    main.visitVarInsn(Opcodes.ALOAD, 0);
+    main.visitInsn(Opcodes.ARRAYLENGTH);
+    main.visitMethodInsn(Opcodes.INVOKESTATIC, className(0), "run", "(I)I", false);
+    main.visitInsn(Opcodes.POP);
+    main.visitInsn(Opcodes.RETURN);
+    main.visitMaxs(0, 0);
+    main.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private static byte[] generateInterface(int index) {
+    String name = interfaceName(index);
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(
+        Opcodes.V1_8,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+        name,
+        null,
+        OBJECT,
+        null);
+    writer
+        .visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "apply", "(I)I", null, null)
+        .visitEnd();
+    MethodVisitor applyTwice =
+        writer.visitMethod(Opcodes.ACC_PUBLIC, defaultMethodName(index), "(I)I", null, null);
+    applyTwice.visitCode();
+    applyTwice.visitVarInsn(Opcodes.ALOAD, 0);
+    applyTwice.visitVarInsn(Opcodes.ALOAD, 0);
+    applyTwice.visitVarInsn(Opcodes.ILOAD, 1);
+    applyTwice.visitMethodInsn(Opcodes.INVOKEINTERFACE, name, "apply", "(I)I", true);
+    applyTwice.visitMethodInsn(Opcodes.INVOKEINTERFACE, name, "apply", "(I)I", true);
+    applyTwice.visitInsn(Opcodes.IRETURN);
+    applyTwice.visitMaxs(0, 0);
+    applyTwice.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private byte[] generateClass(int index, Random random) {
+    String name = className(index);
+    String superName = superClassName(index);
+    String[] implemented = new String[interfaceFanOut];
+    List<Integer> chosen = new ArrayList<>(interfaceFanOut);
+    while (chosen.size() < interfaceFanOut) {
+      int candidate = random.nextInt(interfaces);
+      if (!chosen.contains(candidate)) {
+        implemented[chosen.size()] = interfaceName(candidate);
+        chosen.add(candidate);
+      }
+    }
+    String field = "f" + index;
+
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(
+        Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, implemented);
+    if (kotlinMetadata) {
+      addKotlinMetadata(writer, name, superName, implemented);
+    }
+    writer.visitField(Opcodes.ACC_PROTECTED, field, "I", null, null).visitEnd();
+
+    MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    init.visitCode();
+    init.visitVarInsn(Opcodes.ALOAD, 0);
+    init.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+    init.visitVarInsn(Opcodes.ALOAD, 0);
+    init.visitLdcInsn(index);
+    init.visitFieldInsn(Opcodes.PUTFIELD, name, field, "I");
+    init.visitInsn(Opcodes.RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+
+    // Implements the interface method, and overrides the method of the super class if any.
+    MethodVisitor apply = writer.visitMethod(Opcodes.ACC_PUBLIC, "apply", "(I)I", null, null);
+    apply.visitCode();
+    apply.visitVarInsn(Opcodes.ILOAD, 1);
+    apply.visitLdcInsn(31);
+    apply.visitInsn(Opcodes.IMUL);
+    apply.visitVarInsn(Opcodes.ALOAD, 0);
+    apply.visitFieldInsn(Opcodes.GETFIELD, name, field, "I");
+    apply.visitInsn(Opcodes.IADD);
+    apply.visitInsn(Opcodes.IRETURN);
+    apply.visitMaxs(0, 0);
+    apply.visitEnd();
+
+    MethodVisitor helper =
+        writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "helper", "(I)I", null, null);
+    helper.visitCode();
+    helper.visitVarInsn(Opcodes.ILOAD, 0);
+    helper.visitLdcInsn(index);
+    helper.visitInsn(Opcodes.IXOR);
+    helper.visitInsn(Opcodes.IRETURN);
+    helper.visitMaxs(0, 0);
+    helper.visitEnd();
+
+    MethodVisitor unused = writer.visitMethod(Opcodes.ACC_PUBLIC, "unused", "()V", null, null);
+    unused.visitCode();
+    unused.visitVarInsn(Opcodes.ALOAD, 0);
+    unused.visitVarInsn(Opcodes.ALOAD, 0);
+    unused.visitVarInsn(Opcodes.ALOAD, 0);
+    unused.visitFieldInsn(Opcodes.GETFIELD, name, field, "I");
+    unused.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "apply", "(I)I", false);
+    unused.visitFieldInsn(Opcodes.PUTFIELD, name, field, "I");
+    unused.visitInsn(Opcodes.RETURN);
+    unused.visitMaxs(0, 0);
+    unused.visitEnd();
+
+    // The accumulated value is kept in local 0, the instance in local 1.
+    MethodVisitor run =
+        writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "run", "(I)I", null, null);
+    run.visitCode();
+    run.visitTypeInsn(Opcodes.NEW, name);
+    run.visitInsn(Opcodes.DUP);
+    run.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "<init>", "()V", false);
+    run.visitVarInsn(Opcodes.ASTORE, 1);
+    for (int interfaceIndex : chosen) {
+      run.visitVarInsn(Opcodes.ALOAD, 1);
+      run.visitVarInsn(Opcodes.ILOAD, 0);
+      run.visitMethodInsn(
+          Opcodes.INVOKEINTERFACE,
+          interfaceName(interfaceIndex),
+          defaultMethodName(interfaceIndex),
+          "(I)I",
+          true);
+      run.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+    for (int lambda = 0; lambda < lambdasPerClass; lambda++) {
+      String lambdaInterface = interfaceName(random.nextInt(interfaces));
+      String lambdaMethod = "lambda$run$" + lambda;
+      run.visitInvokeDynamicInsn(
+          "apply",
+          "()L" + lambdaInterface + ";",
+          LAMBDA_METAFACTORY,
+          Type.getType("(I)I"),
+          new Handle(Opcodes.H_INVOKESTATIC, name, lambdaMethod, "(I)I", false),
+          Type.getType("(I)I"));
+      run.visitVarInsn(Opcodes.ILOAD, 0);
+      run.visitMethodInsn(Opcodes.INVOKEINTERFACE, lambdaInterface, "apply", "(I)I", true);
+      run.visitVarInsn(Opcodes.ISTORE, 0);
+      generateLambdaMethod(writer, lambdaMethod, lambda, random);
+    }
+    for (int call = 0; call < callsPerClass; call++) {
+      run.visitVarInsn(Opcodes.ILOAD, 0);
+      run.visitMethodInsn(
+          Opcodes.INVOKESTATIC, className(random.nextInt(classes)), "helper", "(I)I", false);
+      run.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+    for (int child = 2 * index + 1; child <= 2 * index + 2 && child < classes; child++) {
+      run.visitVarInsn(Opcodes.ILOAD, 0);
+      run.visitMethodInsn(Opcodes.INVOKESTATIC, className(child), "run", "(I)I", false);
+      run.visitVarInsn(Opcodes.ISTORE, 0);
+    }
+    run.visitVarInsn(Opcodes.ALOAD, 1);
+    run.visitVarInsn(Opcodes.ILOAD, 0);
+    run.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "apply", "(I)I", false);
+    run.visitInsn(Opcodes.IRETURN);
+    run.visitMaxs(0, 0);
+    run.visitEnd();
+
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private void generateLambdaMethod(
+      ClassWriter writer, String lambdaMethod, int lambda, Random random) {
+    MethodVisitor method =
+        writer.visitMethod(
+            Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+            lambdaMethod,
+            "(I)I",
+            null,
+            null);
+    method.visitCode();
+    method.visitVarInsn(Opcodes.ILOAD, 0);
+    method.visitLdcInsn(lambda);
+    method.visitInsn(Opcodes.IADD);
+    method.visitMethodInsn(
+        Opcodes.INVOKESTATIC, className(random.nextInt(classes)), "helper", "(I)I", false);
+    method.visitInsn(Opcodes.IRETURN);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+  }
+
+  private static void addKotlinMetadata(
+      ClassWriter writer, String name, String superName, String[] implemented) {
+    KotlinClassMetadata.Class.Writer metadataWriter = new KotlinClassMetadata.Class.Writer();
+    metadataWriter.visit(FlagsKt.flagsOf(Flag.IS_PUBLIC, Flag.IS_OPEN), name);
+    addKotlinSupertype(metadataWriter.visitSupertype(0), superName);
+    for (String implementedInterface : implemented) {
+      addKotlinSupertype(metadataWriter.visitSupertype(0), implementedInterface);
+    }
+    metadataWriter.visitConstructor(FlagsKt.flagsOf(Flag.IS_PUBLIC)).visitEnd();
+    metadataWriter.visitEnd();
+    KotlinClassHeader header = metadataWriter.write().getHeader();
+
+    AnnotationVisitor annotation = writer.visitAnnotation("L" + KOTLIN_METADATA + ";", true);
+    annotation.visit("k", header.getKind());
+    annotation.visit("mv", header.getMetadataVersion());
+    annotation.visit("bv", header.getBytecodeVersion());
+    addStrings(annotation.visitArray("d1"), header.getData1());
+    addStrings(annotation.visitArray("d2"), header.getData2());
+    annotation.visitEnd();
+  }
+
+  private static void addKotlinSupertype(KmTypeVisitor visitor, String name) {
+    visitor.visitClass(name.equals(OBJECT) ? "kotlin/Any" : name);
+    visitor.visitEnd();
+  }
+
+  private static void addStrings(AnnotationVisitor array, String[] strings) {
+    for (String string : strings) {
+      array.visit(null, string);
+    }
+    array.visitEnd();
+  }
+
+  // The program includes the annotation, as apps do that include the Kotlin standard library.
+  private static byte[] generateKotlinMetadataAnnotation() {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(
+        Opcodes.V1_8,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_ANNOTATION | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+        KOTLIN_METADATA,
+        null,
+        OBJECT,
+        new String[] {"java/lang/annotation/Annotation"});
+    AnnotationVisitor retention = writer.visitAnnotation("Ljava/lang/annotation/Retention;", true);
+    retention.visitEnum("value", "Ljava/lang/annotation/RetentionPolicy;", "RUNTIME");
+    retention.visitEnd();
+    String[][] elements = {
+      {"k", "I"},
+      {"mv", "[I"},
+      {"bv", "[I"},
+      {"d1", "[Ljava/lang/String;"},
+      {"d2", "[Ljava/lang/String;"},
+      {"xs", "Ljava/lang/String;"},
+      {"pn", "Ljava/lang/String;"},
+      {"xi", "I"}
+    };
+    for (String[] element : elements) {
+      writer
+          .visitMethod(
+              Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, element[0], "()" + element[1], null, null)
+          .visitEnd();
+    }
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
@@ -9,11 +9,15 @@ import com.android.tools.r8.CompilationFailedException;
 import com.android.tools.r8.CompilationMode;
 import com.android.tools.r8.D8;
 import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
 import com.android.tools.r8.DexIndexedConsumer;
 import com.android.tools.r8.DiagnosticsHandler;
 import com.android.tools.r8.origin.ArchiveEntryOrigin;
+import com.android.tools.r8.origin.Origin;
 import com.android.tools.r8.origin.PathOrigin;
 import com.android.tools.r8.utils.AndroidApiLevel;
+import com.android.tools.r8.utils.DescriptorUtils;
+import com.android.tools.r8.utils.ExceptionDiagnostic;
 import com.android.tools.r8.utils.ThreadUtils;
 import com.google.common.io.ByteStreams;
 import java.io.IOException;
@@ -23,7 +27,9 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -32,6 +38,7 @@ import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
+import org.objectweb.asm.ClassReader;
 
 public class CompatDexBuilder {
 
@@ -142,15 +149,8 @@ public class CompatDexBuilder {
           }
         }
 
-        List<Future<DexConsumer>> futures = new ArrayList<>(toDex.size());
-        for (int i = 0; i < toDex.size(); i++) {
-          ZipEntry classEntry = toDex.get(i);
-          futures.add(executor.submit(() -> dexEntry(zipFile, classEntry, executor)));
-        }
-        for (int i = 0; i < futures.size(); i++) {
-          ZipEntry entry = toDex.get(i);
-          DexConsumer consumer = futures.get(i).get();
-          addEntry(entry.getName() + ".dex", consumer.getBytes(), out);
+        if (!dexEntriesInBatch(zipFile, toDex, out, executor)) {
+          dexEntries(zipFile, toDex, out, executor);
         }
       }
     } finally {
@@ -158,6 +158,127 @@ public class CompatDexBuilder {
     }
   }
 
+  /**
+   * Dexes all class entries in a single compilation, which reads the classes once into a shared
+   * factory and converts them in parallel. Each class gets a dex file of its own.
+   *
+   * <p>Returns false without writing any output if the entries cannot be dexed together, which is
+   * the case if several entries define the same class or an entry is not a valid class file.
+   */
+  private boolean dexEntriesInBatch(
+      ZipFile zipFile, List<ZipEntry> toDex, ZipOutputStream out, ExecutorService executor)
+      throws IOException, ExecutionException {
+    D8Command.Builder builder = D8Command.builder();
+    CompatDxHelper.ignoreDexInArchive(builder);
+    Map<String, Integer> entryIndices = new HashMap<>(toDex.size());
+    for (int i = 0; i < toDex.size(); i++) {
+      ZipEntry classEntry = toDex.get(i);
+      byte[] bytes;
+      try (InputStream stream = zipFile.getInputStream(classEntry)) {
+        bytes = ByteStreams.toByteArray(stream);
+      }
+      String descriptor;
+      try {
+        descriptor =
+            DescriptorUtils.getDescriptorFromClassBinaryName(new ClassReader(bytes).getClassName());
+      } catch (RuntimeException e) {
+        return false;
+      }
+      if (entryIndices.put(descriptor, i) != null) {
+        return false;
+      }
+      builder.addClassProgramData(bytes, getOrigin(zipFile, classEntry));
+    }
+    OrderedEntryConsumer consumer = new OrderedEntryConsumer(toDex, entryIndices, out);
+    builder
+        .setProgramConsumer(consumer)
+        .setMode(noLocals ? CompilationMode.RELEASE : CompilationMode.DEBUG)
+        .setMinApiLevel(AndroidApiLevel.H_MR2.getLevel())
+        .setDisableDesugaring(true);
+    try {
+      CompatDxHelper.runFilePerClass(builder.build(), executor);
+    } catch (CompilationFailedException e) {
+      throw new ExecutionException(e);
+    }
+    return true;
+  }
+
+  /**
+   * Writes the dex file of each class to the output as soon as the dex files of all preceding
+   * entries have been written. The entries are thus written in the order of the input while the
+   * classes are compiled, and the output does not depend on the order in which they complete.
+   */
+  private static class OrderedEntryConsumer extends DexFilePerClassFileConsumer.ForwardingConsumer {
+
+    private final List<ZipEntry> entries;
+    private final Map<String, Integer> entryIndices;
+    private final ZipOutputStream out;
+    private final byte[][] pending;
+    private int nextEntryIndex = 0;
+
+    OrderedEntryConsumer(
+        List<ZipEntry> entries, Map<String, Integer> entryIndices, ZipOutputStream out) {
+      super(null);
+      this.entries = entries;
+      this.entryIndices = entryIndices;
+      this.out = out;
+      this.pending = new byte[entries.size()][];
+    }
+
+    @Override
+    public synchronized void accept(
+        String primaryClassDescriptor,
+        ByteDataView data,
+        Set<String> descriptors,
+        DiagnosticsHandler handler) {
+      super.accept(primaryClassDescriptor, data, descriptors, handler);
+      int entryIndex = entryIndices.get(primaryClassDescriptor);
+      assert pending[entryIndex] == null;
+      pending[entryIndex] = data.copyByteData();
+      while (nextEntryIndex < pending.length && pending[nextEntryIndex] != null) {
+        writeNextEntry(handler);
+      }
+    }
+
+    @Override
+    public synchronized void finished(DiagnosticsHandler handler) {
+      super.finished(handler);
+      // Entries for which no dex file was produced are skipped.
+      while (nextEntryIndex < pending.length) {
+        if (pending[nextEntryIndex] != null) {
+          writeNextEntry(handler);
+        } else {
+          nextEntryIndex++;
+        }
+      }
+    }
+
+    private void writeNextEntry(DiagnosticsHandler handler) {
+      ZipEntry entry = entries.get(nextEntryIndex);
+      try {
+        addEntry(entry.getName() + ".dex", pending[nextEntryIndex], out);
+      } catch (IOException e) {
+        handler.error(new ExceptionDiagnostic(e, Origin.unknown()));
+      }
+      pending[nextEntryIndex++] = null;
+    }
+  }
+
+  private void dexEntries(
+      ZipFile zipFile, List<ZipEntry> toDex, ZipOutputStream out, ExecutorService executor)
+      throws IOException, InterruptedException, ExecutionException {
+    List<Future<DexConsumer>> futures = new ArrayList<>(toDex.size());
+    for (int i = 0; i < toDex.size(); i++) {
+      ZipEntry classEntry = toDex.get(i);
+      futures.add(executor.submit(() -> dexEntry(zipFile, classEntry, executor)));
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      ZipEntry entry = toDex.get(i);
+      DexConsumer consumer = futures.get(i).get();
+      addEntry(entry.getName() + ".dex", consumer.getBytes(), out);
+    }
+  }
+
   private DexConsumer dexEntry(ZipFile zipFile, ZipEntry classEntry, ExecutorService executor)
       throws IOException, CompilationFailedException {
     DexConsumer consumer = new DexConsumer();
@@ -170,14 +291,17 @@ public class CompatDexBuilder {
         .setDisableDesugaring(true);
     try (InputStream stream = zipFile.getInputStream(classEntry)) {
       builder.addClassProgramData(
-          ByteStreams.toByteArray(stream),
-          new ArchiveEntryOrigin(
-              classEntry.getName(), new PathOrigin(Paths.get(zipFile.getName()))));
+          ByteStreams.toByteArray(stream), getOrigin(zipFile, classEntry));
     }
     D8.run(builder.build(), executor);
     return consumer;
   }
 
+  private static Origin getOrigin(ZipFile zipFile, ZipEntry classEntry) {
+    return new ArchiveEntryOrigin(
+        classEntry.getName(), new PathOrigin(Paths.get(zipFile.getName())));
+  }
+
   private static void addEntry(String name, InputStream stream, ZipOutputStream out)
       throws IOException {
     addEntry(name, ByteStreams.toByteArray(stream), out);
@@ -221,11 +221,17 @@ public class ApplicationReader {
         List<DexParser> dexParsers = new ArrayList<>(dexSources.size());
         int computedMinApiLevel = options.minApiLevel;
         for (ProgramResource input : dexSources) {
-          DexReader dexReader = new DexReader(input);
+          DexReader dexReader = new DexReader(input, options.enableMappedDexReading);
           if (options.passthroughDexCode) {
             computedMinApiLevel = validateOrComputeMinApiLevel(computedMinApiLevel, dexReader);
           }
-          dexParsers.add(new DexParser(dexReader, classKind, itemFactory, options.reporter));
+          dexParsers.add(
+              new DexParser(
+                  dexReader,
+                  classKind,
+                  itemFactory,
+                  options.reporter,
+                  options.passthroughDexCode && options.enableLazyDexCode));
         }
         options.minApiLevel = computedMinApiLevel;
         for (DexParser dexParser : dexParsers) {
@@ -22,7 +22,6 @@ import com.android.tools.r8.graph.DexAnnotation;
 import com.android.tools.r8.graph.DexAnnotationDirectory;
 import com.android.tools.r8.graph.DexAnnotationSet;
 import com.android.tools.r8.graph.DexApplication;
-import com.android.tools.r8.graph.DexCode;
 import com.android.tools.r8.graph.DexDebugInfo;
 import com.android.tools.r8.graph.DexEncodedArray;
 import com.android.tools.r8.graph.DexEncodedMethod;
@@ -31,6 +30,7 @@ import com.android.tools.r8.graph.DexString;
 import com.android.tools.r8.graph.DexType;
 import com.android.tools.r8.graph.DexTypeList;
 import com.android.tools.r8.graph.DexValue;
+import com.android.tools.r8.graph.DexWritableCode;
 import com.android.tools.r8.graph.EnclosingMethodAttribute;
 import com.android.tools.r8.graph.GraphLense;
 import com.android.tools.r8.graph.InnerClassAttribute;
@@ -39,21 +39,30 @@ import com.android.tools.r8.graph.ParameterAnnotationsList;
 import com.android.tools.r8.naming.ClassNameMapper;
 import com.android.tools.r8.naming.NamingLens;
 import com.android.tools.r8.naming.ProguardMapSupplier;
+import com.android.tools.r8.utils.ByteBufferPool;
 import com.android.tools.r8.utils.DescriptorUtils;
 import com.android.tools.r8.utils.ExceptionUtils;
 import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.PrecompressingConsumer;
 import com.android.tools.r8.utils.StringDiagnostic;
 import com.android.tools.r8.utils.ThreadUtils;
+import com.android.tools.r8.utils.Timing;
+import com.android.tools.r8.utils.Timing.ConcurrentPhase;
+import com.android.tools.r8.utils.Timing.PhaseScope;
 import com.google.common.collect.ObjectArrays;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -102,7 +111,7 @@ public class ApplicationWriter {
     }
 
     @Override
-    public boolean add(DexCode dexCode) {
+    public boolean add(DexWritableCode dexCode) {
       return true;
     }
 
@@ -215,70 +224,19 @@ public class ApplicationWriter {
       }
     }
     try {
-      insertAttributeAnnotations();
-
-      application.dexItemFactory.sort(namingLens);
+      prepareForWriting();
       assert markers == null
           || markers.isEmpty()
           || application.dexItemFactory.extractMarker() != null;
 
-      SortAnnotations sortAnnotations = new SortAnnotations();
-      application.classes().forEach((clazz) -> clazz.addDependencies(sortAnnotations));
-
       // Generate the dex file contents.
-      List<Future<Boolean>> dexDataFutures = new ArrayList<>();
-      Iterable<VirtualFile> virtualFiles = distribute(executorService);
-      for (VirtualFile virtualFile : virtualFiles) {
-        if (virtualFile.isEmpty()) {
-          continue;
+      List<VirtualFile> virtualFiles = new ArrayList<>();
+      for (VirtualFile virtualFile : distribute(executorService)) {
+        if (!virtualFile.isEmpty()) {
+          virtualFiles.add(virtualFile);
         }
-        dexDataFutures.add(
-            executorService.submit(
-                () -> {
-                  ProgramConsumer consumer;
-                  ByteBufferProvider byteBufferProvider;
-                  if (programConsumer != null) {
-                    consumer = programConsumer;
-                    byteBufferProvider = programConsumer;
-                  } else if (virtualFile.getPrimaryClassDescriptor() != null) {
-                    consumer = options.getDexFilePerClassFileConsumer();
-                    byteBufferProvider = options.getDexFilePerClassFileConsumer();
-                  } else {
-                    consumer = options.getDexIndexedConsumer();
-                    byteBufferProvider = options.getDexIndexedConsumer();
-                  }
-                  ObjectToOffsetMapping objectMapping = virtualFile.computeMapping(application);
-                  MethodToCodeObjectMapping codeMapping =
-                      rewriteCodeWithJumboStrings(
-                          objectMapping, virtualFile.classes(), application);
-                  ByteBufferResult result =
-                      writeDexFile(objectMapping, codeMapping, byteBufferProvider);
-                  ByteDataView data =
-                      new ByteDataView(
-                          result.buffer.array(), result.buffer.arrayOffset(), result.length);
-                  if (consumer instanceof DexFilePerClassFileConsumer) {
-                    ((DexFilePerClassFileConsumer) consumer)
-                        .accept(
-                            virtualFile.getPrimaryClassDescriptor(),
-                            data,
-                            virtualFile.getClassDescriptors(),
-                            options.reporter);
-                  } else {
-                    ((DexIndexedConsumer) consumer)
-                        .accept(
-                            virtualFile.getId(),
-                            data,
-                            virtualFile.getClassDescriptors(),
-                            options.reporter);
-                  }
-                  // Release use of the backing buffer now that accept has returned.
-                  data.invalidate();
-                  byteBufferProvider.releaseByteBuffer(result.buffer.asByteBuffer());
-                  return true;
-                }));
       }
-      // Wait for all files to be processed before moving on.
-      ThreadUtils.awaitFutures(dexDataFutures);
+      writeVirtualFiles(virtualFiles, executorService);
       // Fail if there are pending errors, e.g., the program consumers may have reported errors.
       options.reporter.failIfPendingErrors();
       // Supply info to all additional resource consumers.
@@ -380,6 +338,17 @@ public class ApplicationWriter {
     return true;
   }
 
+  /**
+   * Converts the class attributes to annotations and assigns the sorted indices of all items, after
+   * which no new items can be created. Must be called once before the dex files are written.
+   */
+  void prepareForWriting() {
+    insertAttributeAnnotations();
+    application.dexItemFactory.sort(namingLens);
+    SortAnnotations sortAnnotations = new SortAnnotations();
+    application.classes().forEach((clazz) -> clazz.addDependencies(sortAnnotations));
+  }
+
   private void insertAttributeAnnotations() {
     // Convert inner-class attributes to DEX annotations
     for (DexProgramClass clazz : application.classes()) {
@@ -479,12 +448,12 @@ public class ApplicationWriter {
     }
     // At least one method needs a jumbo string in which case we construct a thread local mapping
     // for all code objects and write the processed results into that map.
-    Map<DexEncodedMethod, DexCode> codeMapping = new IdentityHashMap<>();
+    Map<DexEncodedMethod, DexWritableCode> codeMapping = new IdentityHashMap<>();
     for (DexProgramClass clazz : classes) {
       boolean isSharedSynthetic = clazz.getSynthesizedFrom().size() > 1;
       clazz.forEachMethod(
           method -> {
-            DexCode code =
+            DexWritableCode code =
                 method.rewriteCodeWithJumboStrings(
                     mapping,
                     application.dexItemFactory,
@@ -501,6 +470,168 @@ public class ApplicationWriter {
     return MethodToCodeObjectMapping.fromMapBacking(codeMapping);
   }
 
+  /**
+   * Encodes the virtual files in parallel and passes the encoded files to the program consumer on
+   * the current thread, such that a slow consumer does not hold up the encoding. The archive
+   * entries of a {@link PrecompressingConsumer} are compressed by the encoding threads. At most one
+   * file per thread is encoded ahead of the consumer, which bounds the memory held by encoded
+   * files.
+   */
+  private void writeVirtualFiles(List<VirtualFile> virtualFiles, ExecutorService executorService)
+      throws ExecutionException {
+    int maxPendingFiles =
+        options.numberOfThreads == ThreadUtils.NOT_SPECIFIED
+            ? Runtime.getRuntime().availableProcessors()
+            : options.numberOfThreads;
+    EncodingPhases phases = new EncodingPhases(application.timing);
+    CompletionService<EncodedFile> completionService =
+        new ExecutorCompletionService<>(executorService);
+    Iterator<VirtualFile> iterator = virtualFiles.iterator();
+    List<Future<EncodedFile>> futures = new ArrayList<>();
+    int pendingFiles = 0;
+    try {
+      while (pendingFiles < maxPendingFiles && iterator.hasNext()) {
+        VirtualFile virtualFile = iterator.next();
+        futures.add(completionService.submit(() -> encodeVirtualFile(virtualFile, phases)));
+        pendingFiles++;
+      }
+      while (pendingFiles > 0) {
+        EncodedFile encodedFile = completionService.take().get();
+        pendingFiles--;
+        if (iterator.hasNext()) {
+          VirtualFile virtualFile = iterator.next();
+          futures.add(completionService.submit(() -> encodeVirtualFile(virtualFile, phases)));
+          pendingFiles++;
+        }
+        application.timing.begin("Consume dex files");
+        try {
+          encodedFile.accept(options);
+        } finally {
+          application.timing.end();
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Interrupted while waiting for future.", e);
+    } finally {
+      if (pendingFiles > 0) {
+        // Wait for the files still being encoded, as ThreadUtils.awaitFutures does on failure.
+        for (Future<EncodedFile> future : futures) {
+          try {
+            future.get();
+          } catch (Throwable t) {
+            // Ignore any new Exception.
+          }
+        }
+      }
+    }
+  }
+
+  private EncodedFile encodeVirtualFile(VirtualFile virtualFile, EncodingPhases phases) {
+    ProgramConsumer consumer;
+    ByteBufferProvider byteBufferProvider;
+    if (programConsumer != null) {
+      consumer = programConsumer;
+      byteBufferProvider = programConsumer;
+    } else if (virtualFile.getPrimaryClassDescriptor() != null) {
+      consumer = options.getDexFilePerClassFileConsumer();
+      byteBufferProvider = options.getDexFilePerClassFileConsumer();
+    } else {
+      consumer = options.getDexIndexedConsumer();
+      byteBufferProvider = options.getDexIndexedConsumer();
+    }
+    ObjectToOffsetMapping objectMapping;
+    try (PhaseScope ignored = phases.mapping.begin()) {
+      objectMapping = virtualFile.computeMapping(application);
+    }
+    MethodToCodeObjectMapping codeMapping;
+    try (PhaseScope ignored = phases.jumboStrings.begin()) {
+      codeMapping = rewriteCodeWithJumboStrings(objectMapping, virtualFile.classes(), application);
+    }
+    ByteBuffer data;
+    ByteBufferProvider dataProvider;
+    ByteBufferResult result;
+    try (PhaseScope ignored = phases.encoding.begin()) {
+      result = writeDexFile(objectMapping, codeMapping, byteBufferProvider);
+      if (ByteBufferPool.isDefaultProvider(byteBufferProvider)) {
+        // The buffers of the default pool can be released on any thread.
+        data = result.buffer.asByteBuffer();
+        dataProvider = byteBufferProvider;
+      } else {
+        // The provider requires its buffer to be released on the thread that acquired it, so the
+        // consumer is handed a copy in a buffer of the thread-safe pool.
+        data = ByteBufferPool.getDefault().acquireByteBuffer(result.length);
+        data.put(result.buffer.array(), result.buffer.arrayOffset(), result.length);
+        byteBufferProvider.releaseByteBuffer(result.buffer.asByteBuffer());
+        dataProvider = ByteBufferPool.getDefault();
+      }
+    }
+    if (consumer instanceof PrecompressingConsumer) {
+      // Compress the archive entry on this thread, such that the consumer only appends it.
+      try (PhaseScope ignored = phases.compression.begin()) {
+        ((PrecompressingConsumer) consumer)
+            .precompress(
+                virtualFile.getId(),
+                virtualFile.getPrimaryClassDescriptor(),
+                new ByteDataView(data.array(), data.arrayOffset(), result.length));
+      }
+    }
+    return new EncodedFile(virtualFile, consumer, data, dataProvider, result.length);
+  }
+
+  private static class EncodingPhases {
+    final ConcurrentPhase mapping;
+    final ConcurrentPhase jumboStrings;
+    final ConcurrentPhase encoding;
+    final ConcurrentPhase compression;
+
+    EncodingPhases(Timing timing) {
+      mapping = timing.concurrentPhase("Compute mapping");
+      jumboStrings = timing.concurrentPhase("Rewrite jumbo strings");
+      encoding = timing.concurrentPhase("Encode dex files");
+      compression = timing.concurrentPhase("Compress dex files");
+    }
+  }
+
+  private static class EncodedFile {
+    private final VirtualFile virtualFile;
+    private final ProgramConsumer consumer;
+    private final ByteBuffer buffer;
+    private final ByteBufferProvider bufferProvider;
+    private final int length;
+
+    EncodedFile(
+        VirtualFile virtualFile,
+        ProgramConsumer consumer,
+        ByteBuffer buffer,
+        ByteBufferProvider bufferProvider,
+        int length) {
+      this.virtualFile = virtualFile;
+      this.consumer = consumer;
+      this.buffer = buffer;
+      this.bufferProvider = bufferProvider;
+      this.length = length;
+    }
+
+    void accept(InternalOptions options) {
+      ByteDataView data = new ByteDataView(buffer.array(), buffer.arrayOffset(), length);
+      if (consumer instanceof DexFilePerClassFileConsumer) {
+        ((DexFilePerClassFileConsumer) consumer)
+            .accept(
+                virtualFile.getPrimaryClassDescriptor(),
+                data,
+                virtualFile.getClassDescriptors(),
+                options.reporter);
+      } else {
+        ((DexIndexedConsumer) consumer)
+            .accept(
+                virtualFile.getId(), data, virtualFile.getClassDescriptors(), options.reporter);
+      }
+      // Release use of the backing buffer now that accept has returned.
+      data.invalidate();
+      bufferProvider.releaseByteBuffer(buffer);
+    }
+  }
+
   private ByteBufferResult writeDexFile(
       ObjectToOffsetMapping objectMapping,
       MethodToCodeObjectMapping codeMapping,
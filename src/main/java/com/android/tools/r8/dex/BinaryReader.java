@@ -4,12 +4,10 @@
 
 package com.android.tools.r8.dex;
 
-import com.android.tools.r8.ProgramResource;
-import com.android.tools.r8.ResourceException;
 import com.android.tools.r8.origin.Origin;
 import com.android.tools.r8.utils.LebUtils;
-import com.android.tools.r8.utils.StreamUtils;
-import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * Base class for reading binary content.
@@ -18,14 +16,14 @@ public abstract class BinaryReader {
   protected final Origin origin;
   protected final CompatByteBuffer buffer;
 
-  protected BinaryReader(ProgramResource resource) throws ResourceException, IOException {
-    this(resource.getOrigin(), StreamUtils.StreamToByteArrayClose(resource.getByteStream()));
+  protected BinaryReader(Origin origin, byte[] bytes) {
+    this(origin, ByteBuffer.wrap(bytes));
   }
 
-  protected BinaryReader(Origin origin, byte[] bytes) {
+  protected BinaryReader(Origin origin, ByteBuffer content) {
     assert origin != null;
     this.origin = origin;
-    buffer = CompatByteBuffer.wrap(bytes);
+    buffer = new CompatByteBuffer(content);
   }
 
   public Origin getOrigin() {
@@ -34,6 +32,18 @@ public abstract class BinaryReader {
 
   abstract void setByteOrder();
 
+  /**
+   * Returns a view of the content as 16-bit units in the byte order of the reader, which shares the
+   * content of the reader. Must be called after the byte order is set.
+   */
+  ShortBuffer getShortBufferView() {
+    int saved = buffer.position();
+    buffer.position(0);
+    ShortBuffer result = buffer.asShortBuffer();
+    buffer.position(saved);
+    return result;
+  }
+
   byte[] getByteArray(int size) {
     byte[] result = new byte[size];
     buffer.get(result);
@@ -97,6 +107,10 @@ public abstract class BinaryReader {
     return buffer.get();
   }
 
+  byte get(int offset) {
+    return buffer.get(offset);
+  }
+
   int getUbyte() {
     int result = buffer.get() & 0xff;
     assert result >= 0;  // Ensure we have a non-negative result.
@@ -132,4 +132,8 @@ public class CompatByteBuffer {
   public void put(byte[] bytes) {
     asByteBuffer().put(bytes);
   }
+
+  public void put(byte[] bytes, int offset, int length) {
+    asByteBuffer().put(bytes, offset, length);
+  }
 }
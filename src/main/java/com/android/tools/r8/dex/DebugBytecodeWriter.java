@@ -3,30 +3,44 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.android.tools.r8.dex;
 
+import com.android.tools.r8.ByteBufferProvider;
 import com.android.tools.r8.graph.DexDebugEvent;
 import com.android.tools.r8.graph.DexDebugInfo;
 import com.android.tools.r8.graph.DexString;
 import com.android.tools.r8.graph.DexType;
 import com.android.tools.r8.graph.ObjectToOffsetMapping;
-import com.android.tools.r8.utils.LebUtils;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 public class DebugBytecodeWriter {
 
   private final ObjectToOffsetMapping mapping;
   private final DexDebugInfo info;
-  private ByteBuffer buffer;
+  private final DexOutputBuffer dest;
 
   public DebugBytecodeWriter(DexDebugInfo info, ObjectToOffsetMapping mapping) {
-    this.info = info;
-    this.mapping = mapping;
     // Never allocate a zero-sized buffer, as we need to write the header, and the growth policy
     // requires it to have a positive capacity.
-    this.buffer = ByteBuffer.allocate(info.events.length * 5 + 4);
+    this(
+        info,
+        mapping,
+        new DexOutputBuffer(new ByteBufferProvider() {}, info.events.length * 5 + 4));
+  }
+
+  /** Creates a writer that writes the debug info directly to the given output buffer. */
+  public DebugBytecodeWriter(
+      DexDebugInfo info, ObjectToOffsetMapping mapping, DexOutputBuffer dest) {
+    this.info = info;
+    this.mapping = mapping;
+    this.dest = dest;
   }
 
   public byte[] generate() {
+    int start = dest.position();
+    write();
+    return Arrays.copyOfRange(dest.asArray(), start, dest.position());
+  }
+
+  public void write() {
     // Header.
     putUleb128(info.startLine); // line_start
     putUleb128(info.parameters.length);
@@ -39,32 +53,18 @@ public class DebugBytecodeWriter {
     }
     // Tail.
     putByte(Constants.DBG_END_SEQUENCE);
-    return Arrays.copyOf(buffer.array(), buffer.position());
-  }
-
-  private void maybeGrow(int size) {
-    if (buffer.remaining() < size) {
-      ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
-      newBuffer.put(buffer.array(), 0, buffer.position());
-      buffer = newBuffer;
-    }
   }
 
   public void putByte(int item) {
-    maybeGrow(1);
-    buffer.put((byte) item);
+    dest.putByte((byte) item);
   }
 
   public void putSleb128(int item) {
-    byte[] encoded = LebUtils.encodeSleb128(item);
-    maybeGrow(encoded.length);
-    buffer.put(encoded, 0, encoded.length);
+    dest.putSleb128(item);
   }
 
   public void putUleb128(int item) {
-    byte[] encoded = LebUtils.encodeUleb128(item);
-    maybeGrow(encoded.length);
-    buffer.put(encoded, 0, encoded.length);
+    dest.putUleb128(item);
   }
 
   private void putUleb128p1(int item) {
@@ -4,8 +4,8 @@
 package com.android.tools.r8.dex;
 
 import com.android.tools.r8.ByteBufferProvider;
-import com.android.tools.r8.code.Instruction;
 import com.android.tools.r8.errors.CompilationError;
+import com.android.tools.r8.graph.DexWritableCode;
 import com.android.tools.r8.graph.ObjectToOffsetMapping;
 import com.android.tools.r8.utils.EncodedValueUtils;
 import com.android.tools.r8.utils.LebUtils;
@@ -30,8 +30,17 @@ public class DexOutputBuffer {
   }
 
   public DexOutputBuffer(ByteBufferProvider byteBufferProvider) {
+    this(byteBufferProvider, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a buffer with the given initial capacity. If the capacity is large enough for all of
+   * the output, the backing buffer is never grown and copied.
+   */
+  public DexOutputBuffer(ByteBufferProvider byteBufferProvider, int initialCapacity) {
+    assert initialCapacity > 0;
     this.byteBufferProvider = byteBufferProvider;
-    byteBuffer = allocateByteBuffer(DEFAULT_BUFFER_SIZE);
+    byteBuffer = allocateByteBuffer(initialCapacity);
   }
 
   private void ensureSpaceFor(int bytes) {
@@ -90,17 +99,13 @@ public class DexOutputBuffer {
     return EncodedValueUtils.putUnsigned(this, value, expectedSize);
   }
 
-  public void putInstructions(Instruction[] insns, ObjectToOffsetMapping mapping) {
-    int size = 0;
-    for (Instruction insn : insns) {
-      size += insn.getSize();
-    }
+  public void putInstructions(DexWritableCode code, ObjectToOffsetMapping mapping) {
+    int size = code.getInstructionsSize();
     ensureSpaceFor(size * Short.BYTES);
     assert byteBuffer.position() % 2 == 0;
     ShortBuffer shortBuffer = byteBuffer.asShortBuffer();
-    for (int i = 0; i < insns.length; i++) {
-      insns[i].write(shortBuffer, mapping);
-    }
+    code.writeInstructions(shortBuffer, mapping);
+    assert shortBuffer.position() == size;
     byteBuffer.position(byteBuffer.position() + shortBuffer.position() * Short.BYTES);
   }
 
@@ -114,6 +119,11 @@ public class DexOutputBuffer {
     byteBuffer.put(bytes);
   }
 
+  public void putBytes(byte[] bytes, int offset, int length) {
+    ensureSpaceFor(length);
+    byteBuffer.put(bytes, offset, length);
+  }
+
   public void putShort(short aShort) {
     ensureSpaceFor(Short.BYTES);
     byteBuffer.putShort(aShort);
@@ -15,6 +15,7 @@ import com.android.tools.r8.code.InstructionFactory;
 import com.android.tools.r8.errors.CompilationError;
 import com.android.tools.r8.graph.ClassAccessFlags;
 import com.android.tools.r8.graph.ClassKind;
+import com.android.tools.r8.graph.Code;
 import com.android.tools.r8.graph.Descriptor;
 import com.android.tools.r8.graph.DexAnnotation;
 import com.android.tools.r8.graph.DexAnnotationElement;
@@ -53,6 +54,7 @@ import com.android.tools.r8.graph.DexValue.DexValueString;
 import com.android.tools.r8.graph.EnclosingMethodAttribute;
 import com.android.tools.r8.graph.FieldAccessFlags;
 import com.android.tools.r8.graph.InnerClassAttribute;
+import com.android.tools.r8.graph.LazyDexCode;
 import com.android.tools.r8.graph.MethodAccessFlags;
 import com.android.tools.r8.graph.OffsetToObjectMapping;
 import com.android.tools.r8.graph.ParameterAnnotationsList;
@@ -64,7 +66,6 @@ import com.google.common.io.ByteStreams;
 import it.unimi.dsi.fastutil.ints.Int2IntArrayMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ShortBuffer;
@@ -82,10 +83,14 @@ public class DexParser {
   private final int NO_INDEX = -1;
   private final Origin origin;
   private DexReader dexReader;
+  // View of the content of the reader as 16-bit code units, from which instructions are decoded.
+  private ShortBuffer insns;
   private final DexSection[] dexSections;
   private int[] stringIDs;
   private final ClassKind classKind;
   private final DiagnosticsHandler reporter;
+  // Create code objects for which the instructions are only decoded when needed.
+  private final boolean lazyDexCode;
 
   public static DexSection[] parseMapFrom(Path file) throws IOException {
     return parseMapFrom(Files.newInputStream(file), new PathOrigin(file));
@@ -108,6 +113,7 @@ public class DexParser {
     codes = null;
     offsetMap = null;
     dexReader = null;
+    insns = null;
     stringIDs = null;
   }
 
@@ -115,7 +121,7 @@ public class DexParser {
   private OffsetToObjectMapping indexedItems = new OffsetToObjectMapping();
 
   // Mapping from offset to code item;
-  private Int2ObjectMap<DexCode> codes = new Int2ObjectOpenHashMap<>();
+  private Int2ObjectMap<Code> codes = new Int2ObjectOpenHashMap<>();
 
   // Mapping from offset to dex item;
   private Int2ObjectMap<Object> offsetMap = new Int2ObjectOpenHashMap<>();
@@ -125,6 +131,15 @@ public class DexParser {
 
   public DexParser(DexReader dexReader,
       ClassKind classKind, DexItemFactory dexItemFactory, DiagnosticsHandler reporter) {
+    this(dexReader, classKind, dexItemFactory, reporter, false);
+  }
+
+  public DexParser(
+      DexReader dexReader,
+      ClassKind classKind,
+      DexItemFactory dexItemFactory,
+      DiagnosticsHandler reporter,
+      boolean lazyDexCode) {
     assert dexReader.getOrigin() != null;
     this.origin = dexReader.getOrigin();
     this.dexReader = dexReader;
@@ -134,6 +149,7 @@ public class DexParser {
     parseStringIDs();
     this.classKind = classKind;
     this.reporter = reporter;
+    this.lazyDexCode = lazyDexCode;
   }
 
   private void ensureCodesInited() {
@@ -153,7 +169,7 @@ public class DexParser {
     for (int i = 0; i < dexSection.length; i++) {
       dexReader.align(4);  // code items are 4 byte aligned.
       int offset = dexReader.position();
-      DexCode code = parseCodeItem();
+      Code code = parseCodeItem();
       codes.put(offset, code);  // Update the file local offset to code mapping.
     }
   }
@@ -601,7 +617,7 @@ public class DexParser {
       methodIndex += dexReader.getUleb128();
       MethodAccessFlags accessFlags = MethodAccessFlags.fromDexAccessFlags(dexReader.getUleb128());
       int codeOff = dexReader.getUleb128();
-      DexCode code = null;
+      Code code = null;
       if (!skipCodes) {
         assert codeOff == 0 || codes.get(codeOff) != null;
         code = codes.get(codeOff);
@@ -764,21 +780,20 @@ public class DexParser {
     return result;
   }
 
-  private DexCode parseCodeItem() {
+  private Code parseCodeItem() {
     int registerSize = dexReader.getUshort();
     int insSize = dexReader.getUshort();
     int outsSize = dexReader.getUshort();
     int triesSize = dexReader.getUshort();
     int debugInfoOff = dexReader.getUint();
     int insnsSize = dexReader.getUint();
-    short[] code = new short[insnsSize];
+    // The instructions are decoded directly from the content of the reader.
+    int insnsOffset = dexReader.position();
     Try[] tries = new Try[triesSize];
     DexCode.TryHandler[] handlers = null;
 
     if (insnsSize != 0) {
-      for (int i = 0; i < insnsSize; i++) {
-        code[i] = dexReader.getShort();
-      }
+      dexReader.position(insnsOffset + 2 * insnsSize);
       if (insnsSize % 2 != 0) {
         dexReader.getUshort();  // Skip padding ushort
       }
@@ -827,9 +842,25 @@ public class DexParser {
     int saved = dexReader.position();
     DexDebugInfo debugInfo = debugInfoAt(debugInfoOff);
     dexReader.position(saved);
+    if (insns == null) {
+      insns = dexReader.getShortBufferView();
+    }
+    if (lazyDexCode) {
+      return new LazyDexCode(
+          registerSize,
+          insSize,
+          outsSize,
+          insns,
+          insnsOffset / 2,
+          insnsSize,
+          indexedItems,
+          tries,
+          handlers,
+          debugInfo);
+    }
     InstructionFactory factory = new InstructionFactory();
     Instruction[] instructions =
-        factory.readSequenceFrom(ShortBuffer.wrap(code), 0, code.length, indexedItems);
+        factory.readSequenceFrom(insns, insnsOffset / 2, insnsSize, indexedItems);
     return new DexCode(registerSize, insSize, outsSize, instructions, tries, handlers, debugInfo);
   }
 
@@ -1062,13 +1093,14 @@ public class DexParser {
     final int offset = stringIDs[index];
     dexReader.position(offset);
     int size = dexReader.getUleb128();
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-    byte read;
-    do {
-      read = dexReader.get();
-      os.write(read);
-    } while (read != 0);
-    return dexItemFactory.createString(size, os.toByteArray());
+    // Copy the MUTF-8 content including the terminating zero byte. The content is only decoded when
+    // the string is used as a Java string.
+    int end = dexReader.position();
+    while (dexReader.get(end) != 0) {
+      end++;
+    }
+    byte[] content = dexReader.getByteArray(end + 1 - dexReader.position());
+    return dexItemFactory.createString(size, content);
   }
 
   private DexType typeAt(int index) {
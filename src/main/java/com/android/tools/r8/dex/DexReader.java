@@ -6,13 +6,20 @@ package com.android.tools.r8.dex;
 import static com.android.tools.r8.dex.Constants.DEX_FILE_MAGIC_PREFIX;
 
 import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.ProgramResource.FileResource;
 import com.android.tools.r8.ResourceException;
 import com.android.tools.r8.errors.CompilationError;
 import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
 import com.android.tools.r8.utils.DexVersion;
+import com.android.tools.r8.utils.StreamUtils;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 
 /**
  * {@link BinaryReader} for Dex content.
@@ -22,7 +29,16 @@ public class DexReader extends BinaryReader {
   private final int version;
 
   public DexReader(ProgramResource resource) throws ResourceException, IOException {
-    super(resource);
+    this(resource, false);
+  }
+
+  /**
+   * Creates a reader for the given resource. If mapFile is set and the resource is a file, the file
+   * is memory mapped instead of read onto the heap.
+   */
+  public DexReader(ProgramResource resource, boolean mapFile)
+      throws ResourceException, IOException {
+    super(resource.getOrigin(), readContent(resource, mapFile));
     version = parseMagic(buffer);
   }
 
@@ -36,6 +52,20 @@ public class DexReader extends BinaryReader {
     version = parseMagic(buffer);
   }
 
+  private static ByteBuffer readContent(ProgramResource resource, boolean mapFile)
+      throws ResourceException, IOException {
+    if (mapFile && resource instanceof FileResource) {
+      // The origin of a file resource is the path of the file.
+      PathOrigin origin = (PathOrigin) resource.getOrigin();
+      try (FileChannel channel = FileChannel.open(origin.getPath(), StandardOpenOption.READ)) {
+        return channel.map(MapMode.READ_ONLY, 0, channel.size());
+      } catch (IOException e) {
+        throw new ResourceException(origin, e);
+      }
+    }
+    return ByteBuffer.wrap(StreamUtils.StreamToByteArrayClose(resource.getByteStream()));
+  }
+
   // Parse the magic header and determine the dex file version.
   private int parseMagic(CompatByteBuffer buffer) {
     try {
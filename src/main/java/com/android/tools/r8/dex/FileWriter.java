@@ -7,7 +7,7 @@ import static com.android.tools.r8.utils.LebUtils.sizeAsUleb128;
 
 import com.android.tools.r8.ApiLevelException;
 import com.android.tools.r8.ByteBufferProvider;
-import com.android.tools.r8.code.Instruction;
+import com.android.tools.r8.ByteDataView;
 import com.android.tools.r8.errors.CompilationError;
 import com.android.tools.r8.graph.Descriptor;
 import com.android.tools.r8.graph.DexAnnotation;
@@ -17,10 +17,11 @@ import com.android.tools.r8.graph.DexAnnotationSet;
 import com.android.tools.r8.graph.DexApplication;
 import com.android.tools.r8.graph.DexCallSite;
 import com.android.tools.r8.graph.DexClass;
-import com.android.tools.r8.graph.DexCode;
 import com.android.tools.r8.graph.DexCode.Try;
 import com.android.tools.r8.graph.DexCode.TryHandler;
 import com.android.tools.r8.graph.DexCode.TryHandler.TypeAddrPair;
+import com.android.tools.r8.graph.DexDebugEvent;
+import com.android.tools.r8.graph.DexDebugEvent.Default;
 import com.android.tools.r8.graph.DexDebugInfo;
 import com.android.tools.r8.graph.DexEncodedAnnotation;
 import com.android.tools.r8.graph.DexEncodedArray;
@@ -37,6 +38,9 @@ import com.android.tools.r8.graph.DexString;
 import com.android.tools.r8.graph.DexType;
 import com.android.tools.r8.graph.DexTypeList;
 import com.android.tools.r8.graph.DexValue;
+import com.android.tools.r8.graph.DexValue.DexValueAnnotation;
+import com.android.tools.r8.graph.DexValue.DexValueArray;
+import com.android.tools.r8.graph.DexWritableCode;
 import com.android.tools.r8.graph.IndexedDexItem;
 import com.android.tools.r8.graph.KeyedDexItem;
 import com.android.tools.r8.graph.ObjectToOffsetMapping;
@@ -73,6 +77,11 @@ import java.util.zip.Adler32;
 
 public class FileWriter {
 
+  private static final int MAX_ULEB128_SIZE = 5;
+  // A local with a signature has an opcode and four LEB128 operands.
+  private static final int MAX_DEBUG_EVENT_SIZE = 1 + 4 * MAX_ULEB128_SIZE;
+  private static final int MAX_MAP_ITEMS = 20;
+
   /** Simple pair of a byte buffer and its written length. */
   public static class ByteBufferResult {
     // Ownership of the buffer is transferred to the receiver of this result structure.
@@ -90,7 +99,8 @@ public class FileWriter {
   private final DexApplication application;
   private final InternalOptions options;
   private final NamingLens namingLens;
-  private final DexOutputBuffer dest;
+  private final ByteBufferProvider provider;
+  private DexOutputBuffer dest;
   private final MixedSectionOffsets mixedSectionOffsets;
 
   public FileWriter(
@@ -105,7 +115,7 @@ public class FileWriter {
     this.application = application;
     this.options = options;
     this.namingLens = namingLens;
-    this.dest = new DexOutputBuffer(provider);
+    this.provider = provider;
     this.mixedSectionOffsets = new MixedSectionOffsets(options, codeMapping);
   }
 
@@ -161,7 +171,10 @@ public class FileWriter {
     assert codeMapping.verifyCodeObjects(mixedSectionOffsets.getCodes());
 
     // Sort the codes first, as their order might impact size due to alignment constraints.
-    List<DexCode> codes = sortDexCodesByClassName();
+    List<DexWritableCode> codes = sortDexCodesByClassName();
+
+    // Allocate the output buffer once, as growing it copies everything written so far.
+    dest = new DexOutputBuffer(provider, fileSizeUpperBound(layout, codes));
 
     // Output the debug_info_items first, as they have no dependencies.
     dest.moveTo(layout.getCodesOffset() + sizeOfCodeItems(codes));
@@ -282,13 +295,13 @@ public class FileWriter {
     }
   }
 
-  private List<DexCode> sortDexCodesByClassName() {
-    Map<DexCode, String> codeToSignatureMap = new IdentityHashMap<>();
-    List<DexCode> codesSorted = new ArrayList<>();
+  private List<DexWritableCode> sortDexCodesByClassName() {
+    Map<DexWritableCode, String> codeToSignatureMap = new IdentityHashMap<>();
+    List<DexWritableCode> codesSorted = new ArrayList<>();
     for (DexProgramClass clazz : mapping.getClasses()) {
       clazz.forEachMethod(
           method -> {
-            DexCode code = codeMapping.getCode(method);
+            DexWritableCode code = codeMapping.getCode(method);
             assert code != null || method.shouldNotHaveCode();
             if (code != null) {
               codesSorted.add(code);
@@ -303,8 +316,8 @@ public class FileWriter {
 
   private static void addSignaturesFromMethod(
       DexEncodedMethod method,
-      DexCode code,
-      Map<DexCode, String> codeToSignatureMap,
+      DexWritableCode code,
+      Map<DexWritableCode, String> codeToSignatureMap,
       ClassNameMapper proguardMap) {
     Signature signature;
     String originalClassName;
@@ -334,12 +347,12 @@ public class FileWriter {
     }
   }
 
-  private <T extends DexItem> void writeItems(Collection<T> items, Consumer<Integer> offsetSetter,
+  private <T> void writeItems(Collection<T> items, Consumer<Integer> offsetSetter,
       Consumer<T> writer) {
     writeItems(items, offsetSetter, writer, 1);
   }
 
-  private <T extends DexItem> void writeItems(Collection<T> items, Consumer<Integer> offsetSetter,
+  private <T> void writeItems(Collection<T> items, Consumer<Integer> offsetSetter,
       Consumer<T> writer, int alignment) {
     if (items.isEmpty()) {
       offsetSetter.accept(0);
@@ -349,27 +362,100 @@ public class FileWriter {
     }
   }
 
-  private int sizeOfCodeItems(Iterable<DexCode> codes) {
+  /**
+   * Computes an upper bound of the size of the file. The fixed sections and most of the data
+   * section have exact sizes. For the encoded items of the data section each LEB128 and encoded
+   * value is assumed to have its maximal size.
+   */
+  private int fileSizeUpperBound(Layout layout, List<DexWritableCode> codes) {
+    long size = layout.dataSectionOffset;
+    size += sizeOfCodeItems(codes);
+    for (DexDebugInfo debugInfo : mixedSectionOffsets.getDebugInfos()) {
+      size += MAX_ULEB128_SIZE * (2 + debugInfo.parameters.length);
+      for (DexDebugEvent event : debugInfo.events) {
+        // Most events are special opcodes without operands.
+        size += event instanceof Default ? 1 : MAX_DEBUG_EVENT_SIZE;
+      }
+      size += 1;
+    }
+    // Items that need alignment are padded by at most 3 bytes.
+    for (DexTypeList list : mixedSectionOffsets.getTypeLists()) {
+      size += 3 + 4 + list.values.length * 2;
+    }
+    for (DexString string : mixedSectionOffsets.getStringData()) {
+      size += sizeAsUleb128(string.size) + string.getContentLength();
+    }
+    for (DexAnnotation annotation : mixedSectionOffsets.getAnnotations()) {
+      size += 1 + encodedAnnotationSizeUpperBound(annotation.annotation);
+    }
+    for (DexProgramClass clazz : mixedSectionOffsets.getClassesWithData()) {
+      size += MAX_ULEB128_SIZE * 4;
+      size += MAX_ULEB128_SIZE * 2 * (clazz.staticFields().size() + clazz.instanceFields().size());
+      size += MAX_ULEB128_SIZE * 3 * (clazz.directMethods().size() + clazz.virtualMethods().size());
+    }
+    for (DexEncodedArray array : mixedSectionOffsets.getEncodedArrays()) {
+      size += encodedArraySizeUpperBound(array.values);
+    }
+    for (DexAnnotationSet set : mixedSectionOffsets.getAnnotationSets()) {
+      size += 3 + 4 + set.annotations.length * 4;
+    }
+    for (ParameterAnnotationsList list : mixedSectionOffsets.getAnnotationSetRefLists()) {
+      size += 3 + 4 + list.size() * 4;
+    }
+    for (DexAnnotationDirectory directory : mixedSectionOffsets.getAnnotationDirectories()) {
+      size += 3 + 16;
+      size += directory.getFieldAnnotations().size() * 8;
+      size += directory.getMethodAnnotations().size() * 8;
+      size += directory.getParameterAnnotations().size() * 8;
+    }
+    size += 3 + 4 + MAX_MAP_ITEMS * Constants.TYPE_MAP_LIST_ITEM_SIZE;
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  private static long encodedAnnotationSizeUpperBound(DexEncodedAnnotation annotation) {
+    long size = MAX_ULEB128_SIZE * 2;
+    for (DexAnnotationElement element : annotation.elements) {
+      size += MAX_ULEB128_SIZE + encodedValueSizeUpperBound(element.value);
+    }
+    return size;
+  }
+
+  private static long encodedArraySizeUpperBound(DexValue[] values) {
+    long size = MAX_ULEB128_SIZE;
+    for (DexValue value : values) {
+      size += encodedValueSizeUpperBound(value);
+    }
+    return size;
+  }
+
+  private static long encodedValueSizeUpperBound(DexValue value) {
+    if (value instanceof DexValueArray) {
+      return 1 + encodedArraySizeUpperBound(((DexValueArray) value).getValues());
+    }
+    if (value instanceof DexValueAnnotation) {
+      return 1 + encodedAnnotationSizeUpperBound(((DexValueAnnotation) value).value);
+    }
+    // The value type and argument byte followed by at most eight bytes of value.
+    return 1 + Long.BYTES;
+  }
+
+  private int sizeOfCodeItems(Iterable<DexWritableCode> codes) {
     int size = 0;
-    for (DexCode code : codes) {
+    for (DexWritableCode code : codes) {
       size = alignSize(4, size);
       size += sizeOfCodeItem(code);
     }
     return size;
   }
 
-  private int sizeOfCodeItem(DexCode code) {
+  private int sizeOfCodeItem(DexWritableCode code) {
     int result = 16;
-    int insnSize = 0;
-    for (Instruction insn : code.instructions) {
-      insnSize += insn.getSize();
-    }
-    result += insnSize * 2;
-    result += code.tries.length * 8;
-    if ((code.handlers != null) && (code.handlers.length > 0)) {
+    result += code.getInstructionsSize() * 2;
+    result += code.getTries().length * 8;
+    if ((code.getHandlers() != null) && (code.getHandlers().length > 0)) {
       result = alignSize(4, result);
-      result += LebUtils.sizeAsUleb128(code.handlers.length);
-      for (TryHandler handler : code.handlers) {
+      result += LebUtils.sizeAsUleb128(code.getHandlers().length);
+      for (TryHandler handler : code.getHandlers()) {
         boolean hasCatchAll = handler.catchAllAddr != TryHandler.NO_HANDLER;
         result += LebUtils
             .sizeAsSleb128(hasCatchAll ? -handler.pairs.length : handler.pairs.length);
@@ -441,37 +527,37 @@ public class FileWriter {
 
   private void writeDebugItem(DexDebugInfo debugInfo) {
     mixedSectionOffsets.setOffsetFor(debugInfo, dest.position());
-    dest.putBytes(new DebugBytecodeWriter(debugInfo, mapping).generate());
+    new DebugBytecodeWriter(debugInfo, mapping, dest).write();
   }
 
-  private void writeCodeItem(DexCode code) {
+  private void writeCodeItem(DexWritableCode code) {
     mixedSectionOffsets.setOffsetFor(code, dest.align(4));
     // Fixed size header information.
-    dest.putShort((short) code.registerSize);
-    dest.putShort((short) code.incomingRegisterSize);
-    dest.putShort((short) code.outgoingRegisterSize);
-    dest.putShort((short) code.tries.length);
+    dest.putShort((short) code.getRegisterSize());
+    dest.putShort((short) code.getIncomingRegisterSize());
+    dest.putShort((short) code.getOutgoingRegisterSize());
+    dest.putShort((short) code.getTries().length);
     dest.putInt(mixedSectionOffsets.getOffsetFor(code.getDebugInfoForWriting()));
     // Jump over the size.
     int insnSizeOffset = dest.position();
     dest.forward(4);
     // Write instruction stream.
-    dest.putInstructions(code.instructions, mapping);
+    dest.putInstructions(code, mapping);
     // Compute size and do the backward/forward dance to write the size at the beginning.
     int insnSize = dest.position() - insnSizeOffset - 4;
     dest.rewind(insnSize + 4);
     dest.putInt(insnSize / 2);
     dest.forward(insnSize);
-    if (code.tries.length > 0) {
+    if (code.getTries().length > 0) {
       // The tries need to be 4 byte aligned.
       int beginOfTriesOffset = dest.align(4);
       // First write the handlers, so that we know their mixedSectionOffsets.
-      dest.forward(code.tries.length * 8);
+      dest.forward(code.getTries().length * 8);
       int beginOfHandlersOffset = dest.position();
-      dest.putUleb128(code.handlers.length);
-      short[] offsets = new short[code.handlers.length];
+      dest.putUleb128(code.getHandlers().length);
+      short[] offsets = new short[code.getHandlers().length];
       int i = 0;
-      for (TryHandler handler : code.handlers) {
+      for (TryHandler handler : code.getHandlers()) {
         offsets[i++] = (short) (dest.position() - beginOfHandlersOffset);
         boolean hasCatchAll = handler.catchAllAddr != TryHandler.NO_HANDLER;
         dest.putSleb128(hasCatchAll ? -handler.pairs.length : handler.pairs.length);
@@ -486,7 +572,7 @@ public class FileWriter {
       int endOfCodeOffset = dest.position();
       // Now write the tries.
       dest.moveTo(beginOfTriesOffset);
-      for (Try aTry : code.tries) {
+      for (Try aTry : code.getTries()) {
         dest.putInt(aTry.startAddress);
         dest.putShort((short) aTry.instructionCount);
         dest.putShort(offsets[aTry.handlerIndex]);
@@ -509,7 +595,8 @@ public class FileWriter {
   private void writeStringData(DexString string) {
     mixedSectionOffsets.setOffsetFor(string, dest.position());
     dest.putUleb128(string.size);
-    dest.putBytes(string.content);
+    ByteDataView content = string.getContentView();
+    dest.putBytes(content.getBuffer(), content.getOffset(), content.getLength());
   }
 
   private void writeAnnotation(DexAnnotation annotation) {
@@ -594,7 +681,7 @@ public class FileWriter {
       dest.putUleb128(nextOffset - currentOffset);
       currentOffset = nextOffset;
       dest.putUleb128(method.accessFlags.getAsDexAccessFlags());
-      DexCode code = codeMapping.getCode(method);
+      DexWritableCode code = codeMapping.getCode(method);
       if (code == null) {
         assert method.shouldNotHaveCode();
         dest.putUleb128(0);
@@ -1013,7 +1100,7 @@ public class FileWriter {
 
     private final MethodToCodeObjectMapping codeMapping;
 
-    private final Reference2IntMap<DexCode> codes = createReference2IntMap();
+    private final Reference2IntMap<DexWritableCode> codes = createReference2IntMap();
     private final Object2IntMap<DexDebugInfo> debugInfos = createObject2IntMap();
     private final Object2IntMap<DexTypeList> typeLists = createObject2IntMap();
     private final Reference2IntMap<DexString> stringData = createReference2IntMap();
@@ -1089,7 +1176,7 @@ public class FileWriter {
     }
 
     @Override
-    public boolean add(DexCode code) {
+    public boolean add(DexWritableCode code) {
       return add(codes, code);
     }
 
@@ -1131,7 +1218,7 @@ public class FileWriter {
       return add(stringData, string);
     }
 
-    public Collection<DexCode> getCodes() {
+    public Collection<DexWritableCode> getCodes() {
       return codes.keySet();
     }
 
@@ -1242,7 +1329,7 @@ public class FileWriter {
       return lookup(annotationSetRefList, annotationSetRefLists);
     }
 
-    public int getOffsetFor(DexCode code) {
+    public int getOffsetFor(DexWritableCode code) {
       return lookup(code, codes);
     }
 
@@ -1260,7 +1347,7 @@ public class FileWriter {
       setOffsetFor(debugInfo, offset, debugInfos);
     }
 
-    void setOffsetFor(DexCode code, int offset) {
+    void setOffsetFor(DexWritableCode code, int offset) {
       setOffsetFor(code, offset, codes);
     }
 
@@ -4,24 +4,25 @@
 package com.android.tools.r8.dex;
 
 import com.android.tools.r8.graph.Code;
-import com.android.tools.r8.graph.DexCode;
 import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexWritableCode;
 import java.util.Collection;
 import java.util.Map;
 
 public abstract class MethodToCodeObjectMapping {
 
-  public abstract DexCode getCode(DexEncodedMethod method);
+  public abstract DexWritableCode getCode(DexEncodedMethod method);
 
   public abstract void clearCode(DexEncodedMethod method, boolean isSharedSynthetic);
 
-  public abstract boolean verifyCodeObjects(Collection<DexCode> codes);
+  public abstract boolean verifyCodeObjects(Collection<DexWritableCode> codes);
 
   public static MethodToCodeObjectMapping fromMethodBacking() {
     return MethodBacking.INSTANCE;
   }
 
-  public static MethodToCodeObjectMapping fromMapBacking(Map<DexEncodedMethod, DexCode> map) {
+  public static MethodToCodeObjectMapping fromMapBacking(
+      Map<DexEncodedMethod, DexWritableCode> map) {
     return new MapBacking(map);
   }
 
@@ -30,10 +31,10 @@ public abstract class MethodToCodeObjectMapping {
     private static final MethodBacking INSTANCE = new MethodBacking();
 
     @Override
-    public DexCode getCode(DexEncodedMethod method) {
+    public DexWritableCode getCode(DexEncodedMethod method) {
       Code code = method.getCode();
       assert code == null || code.isDexCode();
-      return code == null ? null : code.asDexCode();
+      return code == null ? null : code.asDexWritableCode();
     }
 
     @Override
@@ -45,21 +46,21 @@ public abstract class MethodToCodeObjectMapping {
     }
 
     @Override
-    public boolean verifyCodeObjects(Collection<DexCode> codes) {
+    public boolean verifyCodeObjects(Collection<DexWritableCode> codes) {
       return true;
     }
   }
 
   private static class MapBacking extends MethodToCodeObjectMapping {
 
-    private final Map<DexEncodedMethod, DexCode> codes;
+    private final Map<DexEncodedMethod, DexWritableCode> codes;
 
-    public MapBacking(Map<DexEncodedMethod, DexCode> codes) {
+    public MapBacking(Map<DexEncodedMethod, DexWritableCode> codes) {
       this.codes = codes;
     }
 
     @Override
-    public DexCode getCode(DexEncodedMethod method) {
+    public DexWritableCode getCode(DexEncodedMethod method) {
       return codes.get(method);
     }
 
@@ -70,7 +71,7 @@ public abstract class MethodToCodeObjectMapping {
     }
 
     @Override
-    public boolean verifyCodeObjects(Collection<DexCode> codes) {
+    public boolean verifyCodeObjects(Collection<DexWritableCode> codes) {
       assert this.codes.values().containsAll(codes);
       return true;
     }
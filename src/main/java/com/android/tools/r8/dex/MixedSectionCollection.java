@@ -6,13 +6,13 @@ package com.android.tools.r8.dex;
 import com.android.tools.r8.graph.DexAnnotation;
 import com.android.tools.r8.graph.DexAnnotationDirectory;
 import com.android.tools.r8.graph.DexAnnotationSet;
-import com.android.tools.r8.graph.DexCode;
 import com.android.tools.r8.graph.DexDebugInfo;
 import com.android.tools.r8.graph.DexEncodedArray;
 import com.android.tools.r8.graph.DexEncodedMethod;
 import com.android.tools.r8.graph.DexItem;
 import com.android.tools.r8.graph.DexProgramClass;
 import com.android.tools.r8.graph.DexTypeList;
+import com.android.tools.r8.graph.DexWritableCode;
 import com.android.tools.r8.graph.ParameterAnnotationsList;
 
 /**
@@ -70,7 +70,7 @@ public abstract class MixedSectionCollection {
    *
    * @return true if the item was not added before
    */
-  public abstract boolean add(DexCode dexCode);
+  public abstract boolean add(DexWritableCode dexCode);
 
   /**
    * Adds the given debug info to the collection.
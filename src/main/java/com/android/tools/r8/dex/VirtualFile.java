@@ -253,6 +253,11 @@ public class VirtualFile {
           VirtualFile file = new VirtualFile(virtualFiles.size(), writer.namingLens, clazz);
           virtualFiles.add(file);
           file.addClass(clazz);
+          if (writer.markerStrings != null && writer.options.addMarkersToFilePerClassFiles) {
+            for (DexString markerString : writer.markerStrings) {
+              file.transaction.addString(markerString);
+            }
+          }
           files.put(clazz, file);
           // Commit this early, so that we do not keep the transaction state around longer than
           // needed and clear the underlying sets.
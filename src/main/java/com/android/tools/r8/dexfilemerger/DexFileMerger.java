@@ -10,31 +10,49 @@ import com.android.tools.r8.D8Command;
 import com.android.tools.r8.DexFileMergerHelper;
 import com.android.tools.r8.DexIndexedConsumer;
 import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.dexfilemerger.DexIndexEstimator.DexIds;
 import com.android.tools.r8.errors.Unreachable;
+import com.android.tools.r8.origin.ArchiveEntryOrigin;
 import com.android.tools.r8.origin.Origin;
 import com.android.tools.r8.origin.PathOrigin;
 import com.android.tools.r8.utils.ExceptionDiagnostic;
+import com.android.tools.r8.utils.ExceptionUtils;
 import com.android.tools.r8.utils.FileUtils;
 import com.android.tools.r8.utils.OptionsParsing;
 import com.android.tools.r8.utils.OptionsParsing.ParseContext;
+import com.android.tools.r8.utils.PrecompressedZipWriter;
+import com.android.tools.r8.utils.PrecompressedZipWriter.Entry;
+import com.android.tools.r8.utils.Reporter;
 import com.android.tools.r8.utils.StringDiagnostic;
+import com.android.tools.r8.utils.ThreadUtils;
 import com.android.tools.r8.utils.ZipUtils;
+import com.google.common.io.ByteStreams;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 public class DexFileMerger {
@@ -200,10 +218,10 @@ public class DexFileMerger {
     private final String prefix;
     private final Integer singleFixedFileIndex;
     private final Origin origin;
-    private ZipOutputStream stream = null;
+    private PrecompressedZipWriter stream = null;
 
     private int highestIndexWritten = -1;
-    private final Map<Integer, Runnable> writers = new TreeMap<>();
+    private final Map<Integer, Entry> entries = new TreeMap<>();
     private boolean hasWrittenSomething = false;
 
     /** If singleFixedFileIndex is not null then we expect only one output dex file */
@@ -226,29 +244,32 @@ public class DexFileMerger {
     }
 
     @Override
-    public synchronized void accept(
+    public void accept(
         int fileIndex, ByteDataView data, Set<String> descriptors, DiagnosticsHandler handler) {
       if (singleFixedFileIndex != null && fileIndex != 0) {
         handler.error(new StringDiagnostic("Result does not fit into a single dex file."));
         return;
       }
-      // Make a copy of the actual bytes as they will possibly be accessed later by the runner.
-      final byte[] bytes = data.copyByteData();
-      writers.put(fileIndex, () -> writeEntry(fileIndex, bytes, descriptors, handler));
+      // The entry is compressed by the calling thread, only the writes are ordered by the lock.
+      Entry entry =
+          PrecompressedZipWriter.compress(getDexFileName(fileIndex), data, ZipEntry.DEFLATED);
+      writeInOrder(fileIndex, entry, handler);
+    }
 
-      while (writers.containsKey(highestIndexWritten + 1)) {
+    private synchronized void writeInOrder(int fileIndex, Entry entry, DiagnosticsHandler handler) {
+      entries.put(fileIndex, entry);
+      while (entries.containsKey(highestIndexWritten + 1)) {
         ++highestIndexWritten;
-        writers.get(highestIndexWritten).run();
-        writers.remove(highestIndexWritten);
+        writeEntry(entries.remove(highestIndexWritten), handler);
       }
     }
 
     /** Get or open the zip output stream. */
-    private synchronized ZipOutputStream getStream(DiagnosticsHandler handler) {
+    private synchronized PrecompressedZipWriter getStream(DiagnosticsHandler handler) {
       if (stream == null) {
         try {
           stream =
-              new ZipOutputStream(
+              new PrecompressedZipWriter(
                   Files.newOutputStream(
                       path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
         } catch (IOException e) {
@@ -258,14 +279,9 @@ public class DexFileMerger {
       return stream;
     }
 
-    private void writeEntry(
-        int fileIndex, byte[] data, Set<String> descriptors, DiagnosticsHandler handler) {
+    private void writeEntry(Entry entry, DiagnosticsHandler handler) {
       try {
-        ZipUtils.writeToZipStream(
-            getStream(handler),
-            getDexFileName(fileIndex),
-            ByteDataView.of(data),
-            ZipEntry.DEFLATED);
+        getStream(handler).write(entry);
         hasWrittenSomething = true;
       } catch (IOException e) {
         handler.error(new ExceptionDiagnostic(e, origin));
@@ -273,8 +289,8 @@ public class DexFileMerger {
     }
 
     @Override
-    public void finished(DiagnosticsHandler handler) {
-      if (!writers.isEmpty()) {
+    public synchronized void finished(DiagnosticsHandler handler) {
+      if (!entries.isEmpty()) {
         handler.error(
             new StringDiagnostic(
                 "Failed to write zip, for a multidex output some of the classes.dex files were"
@@ -291,6 +307,164 @@ public class DexFileMerger {
     }
   }
 
+  /** Forwards the single DEX file of the merge of a shard to its file of the output archive. */
+  private static class ShardConsumer implements DexIndexedConsumer {
+    private final DexFileMerger.ArchiveConsumer consumer;
+    private final int fileIndex;
+
+    private ShardConsumer(DexFileMerger.ArchiveConsumer consumer, int fileIndex) {
+      this.consumer = consumer;
+      this.fileIndex = fileIndex;
+    }
+
+    @Override
+    public void accept(
+        int fileIndex, ByteDataView data, Set<String> descriptors, DiagnosticsHandler handler) {
+      if (fileIndex != 0) {
+        handler.error(new StringDiagnostic("Result does not fit into a single dex file."));
+        return;
+      }
+      consumer.accept(this.fileIndex, data, descriptors, handler);
+    }
+
+    @Override
+    public void finished(DiagnosticsHandler handler) {
+      // The archive is finished when all shards have been merged.
+    }
+  }
+
+  /** The inputs that are merged into one output file. */
+  private static class Shard {
+    private final D8Command.Builder builder = D8Command.builder();
+    private final Map<String, Integer> inputOrdering = new HashMap<>();
+    private final DexIndexEstimator estimator = new DexIndexEstimator();
+    // Classes defined by the inputs of this shard, and those defined by inputs of previous shards.
+    private final Set<String> classDescriptors = new HashSet<>();
+    private final Set<String> excludedClassDescriptors = new HashSet<>();
+  }
+
+  /**
+   * Merges the inputs into output files that are filled in the order of the inputs. An input DEX
+   * file is added to the current output file if the estimated number of ids still fits, and
+   * otherwise starts the next output file. The classes of each output file are merged and written
+   * concurrently with reading the inputs of the next output files, and only the inputs of the
+   * output files that are being merged are kept in memory.
+   *
+   * <p>A class that is defined by several inputs is kept from the first of these inputs, as when
+   * merging all inputs at once.
+   */
+  private static class ShardedMerger {
+    private final ArchiveConsumer consumer;
+    private final ExecutorService executor;
+    private final int maxShardsInProgress;
+    private final Deque<Future<?>> shardsInProgress = new ArrayDeque<>();
+    private final Set<String> classDescriptors = new HashSet<>();
+    private final Reporter reporter = new Reporter();
+    private Shard shard = new Shard();
+    private int numberOfShards = 0;
+
+    private ShardedMerger(ArchiveConsumer consumer, ExecutorService executor, int threads) {
+      this.consumer = consumer;
+      this.executor = executor;
+      this.maxShardsInProgress = threads;
+    }
+
+    private void addInput(String inputArchive, int inputIndex)
+        throws CompilationFailedException, IOException {
+      Path path = Paths.get(inputArchive);
+      Origin archiveOrigin = new PathOrigin(path);
+      try (ZipFile zipFile = new ZipFile(inputArchive, StandardCharsets.UTF_8)) {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          assert !ZipUtils.isClassFile(entry.getName());
+          if (!ZipUtils.isDexFile(entry.getName())) {
+            continue;
+          }
+          byte[] content;
+          try (InputStream input = zipFile.getInputStream(entry)) {
+            content = ByteStreams.toByteArray(input);
+          }
+          Origin origin = new ArchiveEntryOrigin(entry.getName(), archiveOrigin);
+          DexIds ids = readIds(content, origin);
+          if (!shard.estimator.addIfFits(ids)) {
+            mergeShard();
+            boolean added = shard.estimator.addIfFits(ids);
+            assert added;
+          }
+          for (String descriptor : ids.getClassDescriptors()) {
+            if (classDescriptors.contains(descriptor)) {
+              shard.excludedClassDescriptors.add(descriptor);
+            } else {
+              shard.classDescriptors.add(descriptor);
+            }
+          }
+          shard.builder.addDexProgramData(content, origin);
+          shard.inputOrdering.put(path.toString(), inputIndex);
+        }
+      }
+    }
+
+    // Reports an invalid input like the compilations of the shards do.
+    private DexIds readIds(byte[] content, Origin origin) throws CompilationFailedException {
+      DexIds[] ids = new DexIds[1];
+      ExceptionUtils.withD8CompilationHandler(
+          reporter, () -> ids[0] = DexIds.read(content, origin));
+      return ids[0];
+    }
+
+    private void mergeShard() throws CompilationFailedException {
+      Shard merged = shard;
+      shard = new Shard();
+      if (merged.classDescriptors.isEmpty()) {
+        // All classes are defined by inputs of previous shards.
+        return;
+      }
+      while (shardsInProgress.size() >= maxShardsInProgress) {
+        await(shardsInProgress.removeFirst());
+      }
+      classDescriptors.addAll(merged.classDescriptors);
+      D8Command command =
+          merged
+              .builder
+              .setProgramConsumer(new ShardConsumer(consumer, numberOfShards++))
+              .build();
+      shardsInProgress.addLast(
+          executor.submit(
+              () -> {
+                DexFileMergerHelper.runForShard(
+                    command, merged.inputOrdering, merged.excludedClassDescriptors);
+                return null;
+              }));
+    }
+
+    private void finish() throws CompilationFailedException {
+      mergeShard();
+      while (!shardsInProgress.isEmpty()) {
+        await(shardsInProgress.removeFirst());
+      }
+      ExceptionUtils.withD8CompilationHandler(
+          reporter,
+          () -> {
+            consumer.finished(reporter);
+            reporter.failIfPendingErrors();
+          });
+    }
+
+    private static void await(Future<?> future) throws CompilationFailedException {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof CompilationFailedException) {
+          throw (CompilationFailedException) e.getCause();
+        }
+        throw new RuntimeException(e.getCause());
+      }
+    }
+  }
+
   private static int parseFileIndexFromShardFilename(String inputArchive) {
     Pattern namingPattern = Pattern.compile("([0-9]+)\\..*");
     String name = new File(inputArchive).getName();
@@ -333,6 +507,15 @@ public class DexFileMerger {
       }
     }
 
+    // Inputs with class files are compiled by D8 in one application.
+    if (options.multidexMode == MultidexStrategy.BEST_EFFORT
+        && options.mainDexListFile == null
+        && !options.minimalMainDex
+        && !containsClassFiles(options.inputArchives)) {
+      runSharded(options);
+      return;
+    }
+
     D8Command.Builder builder = D8Command.builder();
 
     Map<String, Integer> inputOrdering = new HashMap<>(options.inputArchives.size());
@@ -373,6 +556,42 @@ public class DexFileMerger {
 
     DexFileMergerHelper.run(builder.build(), options.minimalMainDex, inputOrdering);
 
+    writeEmptyArchiveIfNeeded(consumer, options);
+  }
+
+  private static boolean containsClassFiles(List<String> inputArchives) throws IOException {
+    for (String inputArchive : inputArchives) {
+      try (ZipFile zipFile = new ZipFile(inputArchive, StandardCharsets.UTF_8)) {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          if (ZipUtils.isClassFile(entries.nextElement().getName())) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void runSharded(Options options) throws CompilationFailedException, IOException {
+    ArchiveConsumer consumer =
+        new ArchiveConsumer(Paths.get(options.outputArchive), options.dexPrefix, null);
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = ThreadUtils.getExecutorService(threads);
+    try {
+      ShardedMerger merger = new ShardedMerger(consumer, executor, threads);
+      for (int i = 0; i < options.inputArchives.size(); i++) {
+        merger.addInput(options.inputArchives.get(i), i);
+      }
+      merger.finish();
+    } finally {
+      executor.shutdown();
+    }
+    writeEmptyArchiveIfNeeded(consumer, options);
+  }
+
+  private static void writeEmptyArchiveIfNeeded(ArchiveConsumer consumer, Options options)
+      throws IOException {
     // If input was empty we still need to write out an empty zip.
     if (!consumer.hasWrittenSomething()) {
       File f = new File(options.outputArchive);
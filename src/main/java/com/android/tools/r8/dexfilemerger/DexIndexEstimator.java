@@ -0,0 +1,276 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.dexfilemerger;
+
+import com.android.tools.r8.dex.Constants;
+import com.android.tools.r8.dex.VirtualFile;
+import com.android.tools.r8.errors.CompilationError;
+import com.android.tools.r8.origin.Origin;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Estimates the number of ids of a DEX file merged from input DEX files.
+ *
+ * <p>The ids of the merged file are a subset of the union of the ids of the inputs, so the size
+ * of the union is an upper bound that is computed from the id sections alone, without reading
+ * the classes and their code. The ids are compared by their MUTF-8 encoded names, which are used
+ * as they are in the input.
+ */
+public class DexIndexEstimator {
+
+  // Separator of the names of an id, MUTF-8 encoded strings do not contain zero bytes.
+  private static final char SEPARATOR = '\0';
+
+  /** The ids of an input DEX file. */
+  public static class DexIds {
+    private final String[] types;
+    private final String[] fields;
+    private final String[] methods;
+    private final String[] classDescriptors;
+
+    private DexIds(String[] types, String[] fields, String[] methods, String[] classDescriptors) {
+      this.types = types;
+      this.fields = fields;
+      this.methods = methods;
+      this.classDescriptors = classDescriptors;
+    }
+
+    /** Returns the descriptors of the classes defined in the input, as Java strings. */
+    public String[] getClassDescriptors() {
+      return classDescriptors;
+    }
+
+    /**
+     * Reads the ids of the DEX file in the given bytes, and throws a {@link CompilationError} if
+     * the bytes are not a valid DEX file.
+     */
+    public static DexIds read(byte[] bytes, Origin origin) {
+      if (bytes.length < Constants.TYPE_HEADER_ITEM_SIZE) {
+        throw new CompilationError("Not a DEX file", origin);
+      }
+      for (int i = 0; i < Constants.DEX_FILE_MAGIC_PREFIX.length; i++) {
+        if (bytes[Constants.MAGIC_OFFSET + i] != Constants.DEX_FILE_MAGIC_PREFIX[i]) {
+          throw new CompilationError("Not a DEX file", origin);
+        }
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+      try {
+        return read(buffer, origin);
+      } catch (IndexOutOfBoundsException e) {
+        // An offset of a data item or an index of an id is out of bounds.
+        throw new CompilationError("Invalid DEX file", e, origin);
+      }
+    }
+
+    private static DexIds read(ByteBuffer buffer, Origin origin) {
+      String[] strings =
+          new String[
+              getSectionSize(
+                  buffer,
+                  Constants.STRING_IDS_SIZE_OFFSET,
+                  Constants.STRING_IDS_OFF_OFFSET,
+                  Constants.TYPE_STRING_ID_ITEM_SIZE,
+                  origin)];
+      int offset = buffer.getInt(Constants.STRING_IDS_OFF_OFFSET);
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = readString(buffer, buffer.getInt(offset + i * 4));
+      }
+      String[] types =
+          new String[
+              getSectionSize(
+                  buffer,
+                  Constants.TYPE_IDS_SIZE_OFFSET,
+                  Constants.TYPE_IDS_OFF_OFFSET,
+                  Constants.TYPE_TYPE_ID_ITEM_SIZE,
+                  origin)];
+      offset = buffer.getInt(Constants.TYPE_IDS_OFF_OFFSET);
+      for (int i = 0; i < types.length; i++) {
+        types[i] = strings[buffer.getInt(offset + i * 4)];
+      }
+      String[] protos =
+          new String[
+              getSectionSize(
+                  buffer,
+                  Constants.PROTO_IDS_SIZE_OFFSET,
+                  Constants.PROTO_IDS_OFF_OFFSET,
+                  Constants.TYPE_PROTO_ID_ITEM_SIZE,
+                  origin)];
+      offset = buffer.getInt(Constants.PROTO_IDS_OFF_OFFSET);
+      for (int i = 0; i < protos.length; i++) {
+        int protoOffset = offset + i * 12;
+        StringBuilder builder = new StringBuilder();
+        builder.append(types[buffer.getInt(protoOffset + 4)]);
+        int parametersOffset = buffer.getInt(protoOffset + 8);
+        if (parametersOffset != Constants.NO_OFFSET) {
+          int size = buffer.getInt(parametersOffset);
+          for (int j = 0; j < size; j++) {
+            builder
+                .append(SEPARATOR)
+                .append(types[buffer.getShort(parametersOffset + 4 + j * 2) & 0xffff]);
+          }
+        }
+        protos[i] = builder.toString();
+      }
+      String[] fields =
+          new String[
+              getSectionSize(
+                  buffer,
+                  Constants.FIELD_IDS_SIZE_OFFSET,
+                  Constants.FIELD_IDS_OFF_OFFSET,
+                  Constants.TYPE_FIELD_ID_ITEM_SIZE,
+                  origin)];
+      offset = buffer.getInt(Constants.FIELD_IDS_OFF_OFFSET);
+      for (int i = 0; i < fields.length; i++) {
+        int fieldOffset = offset + i * 8;
+        fields[i] =
+            types[buffer.getShort(fieldOffset) & 0xffff]
+                + SEPARATOR
+                + types[buffer.getShort(fieldOffset + 2) & 0xffff]
+                + SEPARATOR
+                + strings[buffer.getInt(fieldOffset + 4)];
+      }
+      String[] methods =
+          new String[
+              getSectionSize(
+                  buffer,
+                  Constants.METHOD_IDS_SIZE_OFFSET,
+                  Constants.METHOD_IDS_OFF_OFFSET,
+                  Constants.TYPE_METHOD_ID_ITEM_SIZE,
+                  origin)];
+      offset = buffer.getInt(Constants.METHOD_IDS_OFF_OFFSET);
+      for (int i = 0; i < methods.length; i++) {
+        int methodOffset = offset + i * 8;
+        methods[i] =
+            types[buffer.getShort(methodOffset) & 0xffff]
+                + SEPARATOR
+                + strings[buffer.getInt(methodOffset + 4)]
+                + SEPARATOR
+                + protos[buffer.getShort(methodOffset + 2) & 0xffff];
+      }
+      String[] classDescriptors =
+          new String[
+              getSectionSize(
+                  buffer,
+                  Constants.CLASS_DEFS_SIZE_OFFSET,
+                  Constants.CLASS_DEFS_OFF_OFFSET,
+                  Constants.TYPE_CLASS_DEF_ITEM_SIZE,
+                  origin)];
+      offset = buffer.getInt(Constants.CLASS_DEFS_OFF_OFFSET);
+      for (int i = 0; i < classDescriptors.length; i++) {
+        int classDefOffset = offset + i * Constants.TYPE_CLASS_DEF_ITEM_SIZE;
+        classDescriptors[i] = decode(types[buffer.getInt(classDefOffset)], origin);
+      }
+      return new DexIds(types, fields, methods, classDescriptors);
+    }
+
+    // Returns the number of items of a section of the id sections, after checking that the section
+    // is within the file.
+    private static int getSectionSize(
+        ByteBuffer buffer, int sizeOffset, int offOffset, int itemSize, Origin origin) {
+      int size = buffer.getInt(sizeOffset);
+      int offset = buffer.getInt(offOffset);
+      if (size < 0
+          || (size > 0 && offset < 0)
+          || (size > 0 && (long) offset + (long) size * itemSize > buffer.capacity())) {
+        throw new CompilationError("Invalid DEX file", origin);
+      }
+      return size;
+    }
+
+    // Decodes the MUTF-8 encoded content of a string, which is the modified UTF-8 encoding of
+    // DataInput.
+    private static String decode(String content, Origin origin) {
+      boolean ascii = true;
+      for (int i = 0; i < content.length() && ascii; i++) {
+        ascii = content.charAt(i) < 0x80;
+      }
+      if (ascii) {
+        return content;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length() + 2);
+      bytes.write(content.length() >>> 8);
+      bytes.write(content.length());
+      bytes.write(content.getBytes(StandardCharsets.ISO_8859_1), 0, content.length());
+      try {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())).readUTF();
+      } catch (IOException e) {
+        throw new CompilationError("Invalid string in DEX file", e, origin);
+      }
+    }
+
+    // Returns the MUTF-8 encoded content of the string data item at the offset, with each byte
+    // as a char.
+    private static String readString(ByteBuffer buffer, int offset) {
+      // Skip the length in UTF-16 code units.
+      while ((buffer.get(offset++) & 0x80) != 0) {}
+      int end = offset;
+      while (buffer.get(end) != 0) {
+        end++;
+      }
+      return new String(buffer.array(), offset, end - offset, StandardCharsets.ISO_8859_1);
+    }
+  }
+
+  private final Set<String> types = new HashSet<>();
+  private final Set<String> fields = new HashSet<>();
+  private final Set<String> methods = new HashSet<>();
+
+  public boolean isEmpty() {
+    return types.isEmpty();
+  }
+
+  public int getNumberOfTypes() {
+    return types.size();
+  }
+
+  public int getNumberOfFields() {
+    return fields.size();
+  }
+
+  public int getNumberOfMethods() {
+    return methods.size();
+  }
+
+  /**
+   * Adds the ids of the input if the merged file still fits into a single DEX file, and returns
+   * true if they were added.
+   */
+  public boolean addIfFits(DexIds ids) {
+    if (countNew(types, ids.types) > VirtualFile.MAX_ENTRIES
+        || countNew(fields, ids.fields) > VirtualFile.MAX_ENTRIES
+        || countNew(methods, ids.methods) > VirtualFile.MAX_ENTRIES) {
+      return false;
+    }
+    addAll(types, ids.types);
+    addAll(fields, ids.fields);
+    addAll(methods, ids.methods);
+    return true;
+  }
+
+  // Returns the size of the union of the existing ids and the given ids.
+  private static int countNew(Set<String> existing, String[] ids) {
+    int count = existing.size();
+    for (String id : ids) {
+      if (!existing.contains(id)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static void addAll(Set<String> existing, String[] ids) {
+    for (String id : ids) {
+      existing.add(id);
+    }
+  }
+}
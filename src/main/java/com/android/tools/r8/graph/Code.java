@@ -90,6 +90,10 @@ public abstract class Code extends CachedHashValueDexItem {
     throw new Unreachable(getClass().getCanonicalName() + ".asDexCode()");
   }
 
+  public DexWritableCode asDexWritableCode() {
+    throw new Unreachable(getClass().getCanonicalName() + ".asDexWritableCode()");
+  }
+
   public JarCode asJarCode() {
     throw new Unreachable(getClass().getCanonicalName() + ".asJarCode()");
   }
@@ -3,6 +3,7 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.android.tools.r8.graph;
 
+import com.android.tools.r8.ByteDataView;
 import com.android.tools.r8.dex.IndexedItemCollection;
 import com.android.tools.r8.dex.MixedSectionCollection;
 import com.android.tools.r8.errors.Unreachable;
@@ -172,7 +173,8 @@ public final class DexCallSite extends IndexedDexItem implements Comparable<DexC
 
     private void write(DexString string) throws IOException {
       out.writeInt(string.size); // To avoid same-prefix problem
-      out.write(string.content);
+      ByteDataView content = string.getContentView();
+      out.write(content.getBuffer(), content.getOffset(), content.getLength());
     }
 
     private void write(DexType type) throws IOException {
@@ -21,6 +21,7 @@ import com.android.tools.r8.origin.Origin;
 import com.android.tools.r8.utils.StringUtils;
 import com.google.common.base.Strings;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,7 +31,7 @@ import java.util.Map;
 import java.util.Set;
 
 // DexCode corresponds to code item in dalvik/dex-format.html
-public class DexCode extends Code {
+public class DexCode extends Code implements DexWritableCode {
 
   private static final String FAKE_THIS_PREFIX = "_";
   private static final String FAKE_THIS_SUFFIX = "this";
@@ -96,6 +97,57 @@ public class DexCode extends Code {
     return this;
   }
 
+  @Override
+  public DexWritableCode asDexWritableCode() {
+    return this;
+  }
+
+  @Override
+  public int getRegisterSize() {
+    return registerSize;
+  }
+
+  @Override
+  public int getIncomingRegisterSize() {
+    return incomingRegisterSize;
+  }
+
+  @Override
+  public int getOutgoingRegisterSize() {
+    return outgoingRegisterSize;
+  }
+
+  @Override
+  public Try[] getTries() {
+    return tries;
+  }
+
+  @Override
+  public TryHandler[] getHandlers() {
+    return handlers;
+  }
+
+  @Override
+  public DexString getHighestSortingString() {
+    return highestSortingString;
+  }
+
+  @Override
+  public int getInstructionsSize() {
+    int size = 0;
+    for (Instruction insn : instructions) {
+      size += insn.getSize();
+    }
+    return size;
+  }
+
+  @Override
+  public void writeInstructions(ShortBuffer dest, ObjectToOffsetMapping mapping) {
+    for (Instruction insn : instructions) {
+      insn.write(dest, mapping);
+    }
+  }
+
   public DexDebugInfo getDebugInfo() {
     return debugInfo;
   }
@@ -416,6 +468,7 @@ public class DexCode extends Code {
     }
   }
 
+  @Override
   public DexDebugInfoForWriting getDebugInfoForWriting() {
     if (debugInfo == null) {
       return null;
@@ -439,7 +492,7 @@ public class DexCode extends Code {
   }
 
   @Override
-  void collectMixedSectionItems(MixedSectionCollection mixedItems) {
+  public void collectMixedSectionItems(MixedSectionCollection mixedItems) {
     if (mixedItems.add(this)) {
       if (debugInfo != null) {
         getDebugInfoForWriting().collectMixedSectionItems(mixedItems);
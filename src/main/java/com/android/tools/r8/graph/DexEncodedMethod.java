@@ -391,7 +391,7 @@ public class DexEncodedMethod extends KeyedDexItem<DexMethod> implements Resolut
 
   public void collectMixedSectionItemsWithCodeMapping(
       MixedSectionCollection mixedItems, MethodToCodeObjectMapping mapping) {
-    DexCode code = mapping.getCode(this);
+    DexWritableCode code = mapping.getCode(this);
     if (code != null) {
       code.collectMixedSectionItems(mixedItems);
     }
@@ -705,23 +705,22 @@ public class DexEncodedMethod extends KeyedDexItem<DexMethod> implements Resolut
   }
 
   /** Rewrites the code in this method to have JumboString bytecode if required by mapping. */
-  public DexCode rewriteCodeWithJumboStrings(
+  public DexWritableCode rewriteCodeWithJumboStrings(
       ObjectToOffsetMapping mapping, DexItemFactory factory, boolean force) {
     checkIfObsolete();
     assert code == null || code.isDexCode();
     if (code == null) {
       return null;
     }
-    DexCode code = this.code.asDexCode();
+    DexWritableCode code = this.code.asDexWritableCode();
     DexString firstJumboString = null;
     if (force) {
       firstJumboString = mapping.getFirstString();
     } else {
-      assert code.highestSortingString != null
-          || Arrays.stream(code.instructions).noneMatch(Instruction::isConstString);
-      assert Arrays.stream(code.instructions).noneMatch(Instruction::isDexItemBasedConstString);
-      if (code.highestSortingString != null
-          && mapping.getOffsetFor(code.highestSortingString) > Constants.MAX_NON_JUMBO_INDEX) {
+      assert verifyConstStrings(code);
+      DexString highestSortingString = code.getHighestSortingString();
+      if (highestSortingString != null
+          && mapping.getOffsetFor(highestSortingString) > Constants.MAX_NON_JUMBO_INDEX) {
         firstJumboString = mapping.getFirstJumboString();
       }
     }
@@ -732,6 +731,18 @@ public class DexEncodedMethod extends KeyedDexItem<DexMethod> implements Resolut
     return code;
   }
 
+  // The highest sorting string of code with decoded instructions must account for all const-string
+  // instructions. The instructions of lazily decoded code are not inspected, to not decode them.
+  private static boolean verifyConstStrings(DexWritableCode code) {
+    if (code instanceof DexCode) {
+      DexCode dexCode = (DexCode) code;
+      assert dexCode.highestSortingString != null
+          || Arrays.stream(dexCode.instructions).noneMatch(Instruction::isConstString);
+      assert Arrays.stream(dexCode.instructions).noneMatch(Instruction::isDexItemBasedConstString);
+    }
+    return true;
+  }
+
   public String codeToString() {
     checkIfObsolete();
     return code == null ? "<no code>" : code.toString(this, null);
@@ -24,6 +24,7 @@ import com.android.tools.r8.ir.code.Position;
 import com.android.tools.r8.kotlin.Kotlin;
 import com.android.tools.r8.naming.NamingLens;
 import com.android.tools.r8.utils.ArrayUtils;
+import com.android.tools.r8.utils.ConcurrentIntInterningTable;
 import com.android.tools.r8.utils.LRUCacheTable;
 import com.google.common.base.Strings;
 import com.google.common.collect.BiMap;
@@ -31,12 +32,9 @@ import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +48,11 @@ public class DexItemFactory {
   public static final String throwableDescriptorString = "Ljava/lang/Throwable;";
 
   private final ConcurrentHashMap<DexString, DexString> strings = new ConcurrentHashMap<>();
+  // If set, the content of new strings is allocated in shared slabs rather than in an array each.
+  private final DexStringArena stringArena =
+      System.getProperty("com.android.tools.r8.dexStringArena") != null
+          ? new DexStringArena()
+          : null;
   private final ConcurrentHashMap<DexString, DexType> types = new ConcurrentHashMap<>();
   private final ConcurrentHashMap<DexField, DexField> fields = new ConcurrentHashMap<>();
   private final ConcurrentHashMap<DexProto, DexProto> protos = new ConcurrentHashMap<>();
@@ -57,16 +60,24 @@ public class DexItemFactory {
   private final ConcurrentHashMap<DexMethodHandle, DexMethodHandle> methodHandles =
       new ConcurrentHashMap<>();
 
-  // DexDebugEvent Canonicalization.
-  private final Int2ObjectMap<AdvanceLine> advanceLines = new Int2ObjectOpenHashMap<>();
-  private final Int2ObjectMap<AdvancePC> advancePCs = new Int2ObjectOpenHashMap<>();
-  private final Int2ObjectMap<Default> defaults = new Int2ObjectOpenHashMap<>();
-  private final Int2ObjectMap<EndLocal> endLocals = new Int2ObjectOpenHashMap<>();
-  private final Int2ObjectMap<RestartLocal> restartLocals = new Int2ObjectOpenHashMap<>();
+  // DexDebugEvent Canonicalization. The events are created concurrently by the IR workers, so the
+  // tables are lock-free. Small line and pc deltas and low registers are looked up in arrays.
+  private final ConcurrentIntInterningTable<AdvanceLine> advanceLines =
+      new ConcurrentIntInterningTable<>(-256, 1023, AdvanceLine::new);
+  private final ConcurrentIntInterningTable<AdvancePC> advancePCs =
+      new ConcurrentIntInterningTable<>(0, 1023, AdvancePC::new);
+  private final ConcurrentIntInterningTable<Default> defaults =
+      new ConcurrentIntInterningTable<>(
+          Constants.DBG_FIRST_SPECIAL, Constants.DBG_LAST_SPECIAL, Default::new);
+  private final ConcurrentIntInterningTable<EndLocal> endLocals =
+      new ConcurrentIntInterningTable<>(0, 255, EndLocal::new);
+  private final ConcurrentIntInterningTable<RestartLocal> restartLocals =
+      new ConcurrentIntInterningTable<>(0, 255, RestartLocal::new);
   private final SetEpilogueBegin setEpilogueBegin = new SetEpilogueBegin();
   private final SetPrologueEnd setPrologueEnd = new SetPrologueEnd();
-  private final Map<DexString, SetFile> setFiles = new HashMap<>();
-  private final Map<SetInlineFrame, SetInlineFrame> setInlineFrames = new HashMap<>();
+  private final ConcurrentHashMap<DexString, SetFile> setFiles = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<SetInlineFrame, SetInlineFrame> setInlineFrames =
+      new ConcurrentHashMap<>();
 
   // ReferenceTypeLattice canonicalization.
   private final ConcurrentHashMap<DexType, ReferenceTypeLatticeElement>
@@ -921,16 +932,44 @@ public class DexItemFactory {
 
   public DexString createString(int size, byte[] content) {
     assert !sorted;
+    if (stringArena != null) {
+      return createString(size, content, 0, content.length);
+    }
     return canonicalize(strings, new DexString(size, content));
   }
 
-  public DexString createString(String source) {
+  /**
+   * Creates a string from a range of MUTF-8 content, laid out as the content of {@link DexString}.
+   * The content is only copied if the string is not already present.
+   */
+  public DexString createString(int size, byte[] content, int offset, int length) {
+    assert !sorted;
+    DexString result = strings.get(DexStringLookupKey.of(size, content, offset, length));
+    if (result != null) {
+      return result;
+    }
+    if (stringArena != null) {
+      return canonicalize(strings, stringArena.createString(size, content, offset, length));
+    }
+    return canonicalize(
+        strings, new DexString(size, Arrays.copyOfRange(content, offset, offset + length)));
+  }
+
+  /** Creates a string, which is only encoded if it is not already present. */
+  public DexString createString(CharSequence source) {
     assert !sorted;
-    return canonicalize(strings, new DexString(source));
+    DexString result = lookupString(source);
+    if (result != null) {
+      return result;
+    }
+    if (stringArena != null) {
+      return canonicalize(strings, stringArena.createString(source));
+    }
+    return canonicalize(strings, new DexString(source.toString()));
   }
 
-  public DexString lookupString(String source) {
-    return strings.get(new DexString(source));
+  public DexString lookupString(CharSequence source) {
+    return strings.get(DexStringLookupKey.of(source));
   }
 
   // Debugging support to extract marking string.
@@ -960,22 +999,33 @@ public class DexItemFactory {
     return markers;
   }
 
-  synchronized public DexType createType(DexString descriptor) {
+  public DexType createType(DexString descriptor) {
     assert !sorted;
     assert descriptor != null;
     DexType result = types.get(descriptor);
     if (result == null) {
-      result = new DexType(descriptor);
-      assert result.isArrayType() || result.isClassType() || result.isPrimitiveType() ||
-          result.isVoidType();
-      assert !isInternalSentinel(result);
-      types.put(descriptor, result);
+      DexType type = new DexType(descriptor);
+      assert type.isArrayType() || type.isClassType() || type.isPrimitiveType() ||
+          type.isVoidType();
+      assert !isInternalSentinel(type);
+      result = types.putIfAbsent(descriptor, type);
+      if (result == null) {
+        result = type;
+      }
     }
     return result;
   }
 
-  public DexType createType(String descriptor) {
-    return createType(createString(descriptor));
+  /** Creates a type, the descriptor is only encoded if the type is not already present. */
+  public DexType createType(CharSequence descriptor) {
+    DexString string = lookupString(descriptor);
+    if (string != null) {
+      DexType result = types.get(string);
+      if (result != null) {
+        return result;
+      }
+    }
+    return createType(string != null ? string : createString(descriptor));
   }
 
   public DexType lookupType(DexString descriptor) {
@@ -1097,33 +1147,23 @@ public class DexItemFactory {
   }
 
   public AdvanceLine createAdvanceLine(int delta) {
-    synchronized (advanceLines) {
-      return advanceLines.computeIfAbsent(delta, AdvanceLine::new);
-    }
+    return advanceLines.get(delta);
   }
 
   public AdvancePC createAdvancePC(int delta) {
-    synchronized (advancePCs) {
-      return advancePCs.computeIfAbsent(delta, AdvancePC::new);
-    }
+    return advancePCs.get(delta);
   }
 
   public Default createDefault(int value) {
-    synchronized (defaults) {
-      return defaults.computeIfAbsent(value, Default::new);
-    }
+    return defaults.get(value);
   }
 
   public EndLocal createEndLocal(int registerNum) {
-    synchronized (endLocals) {
-      return endLocals.computeIfAbsent(registerNum, EndLocal::new);
-    }
+    return endLocals.get(registerNum);
   }
 
   public RestartLocal createRestartLocal(int registerNum) {
-    synchronized (restartLocals) {
-      return restartLocals.computeIfAbsent(registerNum, RestartLocal::new);
-    }
+    return restartLocals.get(registerNum);
   }
 
   public SetEpilogueBegin createSetEpilogueBegin() {
@@ -1135,16 +1175,22 @@ public class DexItemFactory {
   }
 
   public SetFile createSetFile(DexString fileName) {
-    synchronized (setFiles) {
-      return setFiles.computeIfAbsent(fileName, SetFile::new);
+    SetFile result = setFiles.get(fileName);
+    if (result == null) {
+      SetFile setFile = new SetFile(fileName);
+      result = setFiles.putIfAbsent(fileName, setFile);
+      if (result == null) {
+        result = setFile;
+      }
     }
+    return result;
   }
 
   // TODO(tamaskenez) b/69024229 Measure if canonicalization is worth it.
   public SetInlineFrame createSetInlineFrame(DexMethod callee, Position caller) {
-    synchronized (setInlineFrames) {
-      return setInlineFrames.computeIfAbsent(new SetInlineFrame(callee, caller), p -> p);
-    }
+    SetInlineFrame setInlineFrame = new SetInlineFrame(callee, caller);
+    SetInlineFrame previous = setInlineFrames.putIfAbsent(setInlineFrame, setInlineFrame);
+    return previous == null ? setInlineFrame : previous;
   }
 
   public boolean isConstructor(DexMethod method) {
@@ -3,45 +3,89 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.android.tools.r8.graph;
 
+import com.android.tools.r8.ByteDataView;
 import com.android.tools.r8.dex.Constants;
 import com.android.tools.r8.dex.IndexedItemCollection;
 import com.android.tools.r8.naming.NamingLens;
 import com.android.tools.r8.utils.IdentifierUtils;
 import com.android.tools.r8.utils.StringUtils;
 import java.io.UTFDataFormatException;
-import java.util.Arrays;
 
 public class DexString extends IndexedDexItem implements PresortedComparable<DexString> {
 
   public static final DexString[] EMPTY_ARRAY = new DexString[]{};
 
   public final int size;  // size of this string, in UTF-16
-  public final byte[] content;
+  // The MUTF-8 content, including the terminating zero byte, is the range [contentOffset,
+  // contentOffset + contentLength) of the array. The array is either owned by this string or is a
+  // slab of a DexStringArena shared with other strings.
+  private final byte[] content;
+  private final int contentOffset;
+  private final int contentLength;
 
   DexString(int size, byte[] content) {
+    this(size, content, 0, content.length);
+  }
+
+  DexString(int size, byte[] content, int contentOffset, int contentLength) {
+    assert contentLength > 0 && content[contentOffset + contentLength - 1] == 0;
     this.size = size;
     this.content = content;
+    this.contentOffset = contentOffset;
+    this.contentLength = contentLength;
   }
 
   DexString(String string) {
-    this.size = string.length();
-    this.content = encodeToMutf8(string);
+    this(string.length(), encodeToMutf8(string));
+  }
+
+  /** Returns the byte at the given index of the MUTF-8 content. */
+  public byte byteAt(int index) {
+    assert 0 <= index && index < contentLength;
+    return content[contentOffset + index];
+  }
+
+  /** Length of the MUTF-8 content, including the terminating zero byte. */
+  public int getContentLength() {
+    return contentLength;
+  }
+
+  /** View of the MUTF-8 content, including the terminating zero byte. Must not be modified. */
+  public ByteDataView getContentView() {
+    return new ByteDataView(content, contentOffset, contentLength);
   }
 
   @Override
   public int computeHashCode() {
-    return size * 7 + Arrays.hashCode(content);
+    // Same as Arrays.hashCode() of the content.
+    int contentHash = 1;
+    for (int i = contentOffset; i < contentOffset + contentLength; i++) {
+      contentHash = 31 * contentHash + content[i];
+    }
+    return size * 7 + contentHash;
   }
 
   @Override
   public boolean computeEquals(Object other) {
     if (other instanceof DexString) {
       DexString o = (DexString) other;
-      return size == o.size && Arrays.equals(content, o.content);
+      return size == o.size && contentEquals(o.content, o.contentOffset, o.contentLength);
     }
     return false;
   }
 
+  boolean contentEquals(byte[] bytes, int offset, int length) {
+    if (contentLength != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (content[contentOffset + i] != bytes[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   @Override
   public String toString() {
     try {
@@ -61,7 +105,7 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
 
   public int numberOfLeadingSquareBrackets() {
     int result = 0;
-    while (content.length > result && content[result] == ((byte) '[')) {
+    while (contentLength > result && content[contentOffset + result] == ((byte) '[')) {
       result++;
     }
     return result;
@@ -70,7 +114,7 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
   // Inspired from /dex/src/main/java/com/android/dex/Mutf8.java
   private String decode() throws UTFDataFormatException {
     int s = 0;
-    int p = 0;
+    int p = contentOffset;
     char[] out = new char[size];
     while (true) {
       char a = (char) (content[p++] & 0xff);
@@ -100,7 +144,7 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
   }
 
   // Inspired from /dex/src/main/java/com/android/dex/Mutf8.java
-  private static int countBytes(String string) {
+  static int countBytes(CharSequence string) {
     int result = 0;
     for (int i = 0; i < string.length(); ++i) {
       char ch = string.charAt(i);
@@ -120,7 +164,12 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
   // Inspired from /dex/src/main/java/com/android/dex/Mutf8.java
   public static byte[] encodeToMutf8(String string) {
     byte[] result = new byte[countBytes(string)];
-    int offset = 0;
+    encodeToMutf8(string, result, 0);
+    return result;
+  }
+
+  /** Encodes the string including the terminating zero byte, which takes countBytes() bytes. */
+  static void encodeToMutf8(CharSequence string, byte[] result, int offset) {
     for (int i = 0; i < string.length(); i++) {
       char ch = string.charAt(i);
       if (ch != 0 && ch <= 127) { // U+0000 uses two bytes.
@@ -135,7 +184,6 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
       }
     }
     result[offset] = 0;
-    return result;
   }
 
   @Override
@@ -162,10 +210,13 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
     // the null character (U+0000) to allow embedded null characters.
     // Supplementary characters (unicode code points above U+FFFF) are always represented as
     // surrogate pairs and are compared using UTF-16 code units as per Java string semantics.
-    int index = 0;
+    byte[] content = this.content;
+    byte[] otherContent = other.content;
+    int index = contentOffset;
+    int otherIndex = other.contentOffset;
     while (true) {
       char b1 = (char) (content[index] & 0xff);
-      char b2 = (char) (other.content[index] & 0xff);
+      char b2 = (char) (otherContent[otherIndex] & 0xff);
       int diff = b1 - b2;
       if (diff != 0) {
         // Check if either string ends here.
@@ -175,7 +226,7 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
         // If either of the strings have the null character starting here, the null character
         // sort lowest.
         if ((b1 == 0xc0 && (content[index + 1] & 0xff) == 0x80) ||
-            (b2 == 0xc0 && (other.content[index + 1] & 0xff) == 0x80)) {
+            (b2 == 0xc0 && (otherContent[otherIndex + 1] & 0xff) == 0x80)) {
           return b1 == 0xc0 && (content[index + 1] & 0xff) == 0x80 ? -1 : 1;
         }
         return diff;
@@ -184,6 +235,7 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
         return 0;
       }
       index++;
+      otherIndex++;
     }
   }
 
@@ -292,22 +344,22 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
     StringBuilder builder = new StringBuilder();
     builder.append(toString());
     builder.append(" [");
-    for (int i = 0; i < content.length; i++) {
+    for (int i = 0; i < contentLength; i++) {
       if (i > 0) {
         builder.append(" ");
       }
-      builder.append(Integer.toHexString(content[i] & 0xff));
+      builder.append(Integer.toHexString(byteAt(i) & 0xff));
     }
     builder.append("]");
     return builder.toString();
   }
 
   public boolean startsWith(DexString prefix) {
-    if (content.length < prefix.content.length) {
+    if (contentLength < prefix.contentLength) {
       return false;
     }
-    for (int i = 0; i < prefix.content.length - 1; i++) {
-      if (content[i] != prefix.content[i]) {
+    for (int i = 0; i < prefix.contentLength - 1; i++) {
+      if (content[contentOffset + i] != prefix.content[prefix.contentOffset + i]) {
         return false;
       }
     }
@@ -315,11 +367,12 @@ public class DexString extends IndexedDexItem implements PresortedComparable<Dex
   }
 
   public boolean endsWith(DexString suffix) {
-    if (content.length < suffix.content.length) {
+    if (contentLength < suffix.contentLength) {
       return false;
     }
-    for (int i = content.length - suffix.content.length, j = 0; i < content.length; i++, j++) {
-      if (content[i] != suffix.content[j]) {
+    int start = contentOffset + contentLength - suffix.contentLength;
+    for (int i = 0; i < suffix.contentLength; i++) {
+      if (content[start + i] != suffix.content[suffix.contentOffset + i]) {
         return false;
       }
     }
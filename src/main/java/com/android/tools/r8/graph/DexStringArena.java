@@ -0,0 +1,88 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.graph;
+
+/**
+ * Allocator of the content of {@link DexString}s in large shared arrays.
+ *
+ * <p>Each string otherwise owns a small array, and large applications intern millions of strings.
+ * Here the content of small strings is copied into slabs shared by many strings, which leaves far
+ * fewer objects for the garbage collector to trace. Slabs are never freed individually, they are
+ * collected when no string referencing them is live. Large strings still get their own array.
+ *
+ * <p>Allocation is striped over a few slabs to keep threads from contending on a single lock.
+ */
+class DexStringArena {
+
+  private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+  private static final int STRIPES = 8;
+
+  private final int slabSize;
+  private final int maxSlabAllocation;
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  DexStringArena() {
+    this(DEFAULT_SLAB_SIZE);
+  }
+
+  DexStringArena(int slabSize) {
+    this.slabSize = slabSize;
+    // Bound the space wasted at the end of a slab.
+    this.maxSlabAllocation = slabSize / 64;
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /** Creates a string with a copy of the given range of MUTF-8 content. */
+  DexString createString(int size, byte[] content, int offset, int length) {
+    if (length > maxSlabAllocation) {
+      byte[] copy = new byte[length];
+      System.arraycopy(content, offset, copy, 0, length);
+      return new DexString(size, copy);
+    }
+    Stripe stripe = getStripe();
+    synchronized (stripe) {
+      int position = stripe.reserve(length);
+      System.arraycopy(content, offset, stripe.slab, position, length);
+      return new DexString(size, stripe.slab, position, length);
+    }
+  }
+
+  /** Creates a string with the MUTF-8 encoding of the given characters. */
+  DexString createString(CharSequence chars) {
+    int length = DexString.countBytes(chars);
+    if (length > maxSlabAllocation) {
+      byte[] content = new byte[length];
+      DexString.encodeToMutf8(chars, content, 0);
+      return new DexString(chars.length(), content);
+    }
+    Stripe stripe = getStripe();
+    synchronized (stripe) {
+      int position = stripe.reserve(length);
+      DexString.encodeToMutf8(chars, stripe.slab, position);
+      return new DexString(chars.length(), stripe.slab, position, length);
+    }
+  }
+
+  private Stripe getStripe() {
+    return stripes[(int) (Thread.currentThread().getId() % STRIPES)];
+  }
+
+  private class Stripe {
+    private byte[] slab = null;
+    private int position = 0;
+
+    // Returns the position of length free bytes in the current slab, starting a new slab if needed.
+    private int reserve(int length) {
+      if (slab == null || position + length > slab.length) {
+        slab = new byte[slabSize];
+        position = 0;
+      }
+      int result = position;
+      position += length;
+      return result;
+    }
+  }
+}
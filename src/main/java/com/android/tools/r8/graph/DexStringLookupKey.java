@@ -0,0 +1,144 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.graph;
+
+/**
+ * Key for looking up an interned {@link DexString} without encoding or copying its content.
+ *
+ * <p>A key has the hash code of the {@link DexString} with the same content and is equal to it,
+ * such that it can be passed to {@link java.util.Map#get} of a map keyed by {@link DexString}. The
+ * relation is not symmetric, keys must never be stored in such a map.
+ */
+abstract class DexStringLookupKey {
+
+  private final int size;
+  private int hash = 0;
+
+  private DexStringLookupKey(int size) {
+    this.size = size;
+  }
+
+  /** Key for the MUTF-8 encoding of the given characters. */
+  static DexStringLookupKey of(CharSequence chars) {
+    return new CharsKey(chars);
+  }
+
+  /**
+   * Key for a MUTF-8 encoded string of the given UTF-16 size. The range has the layout of the
+   * content of a {@link DexString}, that is, it includes the terminating zero byte.
+   */
+  static DexStringLookupKey of(int size, byte[] bytes, int offset, int length) {
+    return new BytesKey(size, bytes, offset, length);
+  }
+
+  abstract int computeContentHashCode();
+
+  abstract boolean contentEquals(DexString string);
+
+  @Override
+  public final int hashCode() {
+    if (hash == 0) {
+      // Same as DexString.computeHashCode(), where the content hash is Arrays.hashCode().
+      hash = CachedHashValueDexItem.cachedHashValue(size * 7 + computeContentHashCode());
+    }
+    return hash;
+  }
+
+  @Override
+  public final boolean equals(Object other) {
+    if (other instanceof DexString) {
+      DexString string = (DexString) other;
+      return size == string.size && contentEquals(string);
+    }
+    return false;
+  }
+
+  private static class CharsKey extends DexStringLookupKey {
+
+    private final CharSequence chars;
+
+    private CharsKey(CharSequence chars) {
+      super(chars.length());
+      this.chars = chars;
+    }
+
+    // Encodes as DexString.encodeToMutf8(), one byte at a time.
+    @Override
+    int computeContentHashCode() {
+      int result = 1;
+      for (int i = 0; i < chars.length(); i++) {
+        char ch = chars.charAt(i);
+        if (ch != 0 && ch <= 127) {
+          result = 31 * result + (byte) ch;
+        } else if (ch <= 2047) {
+          result = 31 * result + (byte) (0xc0 | (0x1f & (ch >> 6)));
+          result = 31 * result + (byte) (0x80 | (0x3f & ch));
+        } else {
+          result = 31 * result + (byte) (0xe0 | (0x0f & (ch >> 12)));
+          result = 31 * result + (byte) (0x80 | (0x3f & (ch >> 6)));
+          result = 31 * result + (byte) (0x80 | (0x3f & ch));
+        }
+      }
+      // Terminating zero byte.
+      return 31 * result;
+    }
+
+    @Override
+    boolean contentEquals(DexString string) {
+      int length = string.getContentLength();
+      int p = 0;
+      for (int i = 0; i < chars.length(); i++) {
+        char ch = chars.charAt(i);
+        if (ch != 0 && ch <= 127) {
+          if (p + 1 > length || string.byteAt(p++) != (byte) ch) {
+            return false;
+          }
+        } else if (ch <= 2047) {
+          if (p + 2 > length
+              || string.byteAt(p++) != (byte) (0xc0 | (0x1f & (ch >> 6)))
+              || string.byteAt(p++) != (byte) (0x80 | (0x3f & ch))) {
+            return false;
+          }
+        } else {
+          if (p + 3 > length
+              || string.byteAt(p++) != (byte) (0xe0 | (0x0f & (ch >> 12)))
+              || string.byteAt(p++) != (byte) (0x80 | (0x3f & (ch >> 6)))
+              || string.byteAt(p++) != (byte) (0x80 | (0x3f & ch))) {
+            return false;
+          }
+        }
+      }
+      return p == length - 1 && string.byteAt(p) == 0;
+    }
+  }
+
+  private static class BytesKey extends DexStringLookupKey {
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    private BytesKey(int size, byte[] bytes, int offset, int length) {
+      super(size);
+      assert length > 0 && bytes[offset + length - 1] == 0;
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    int computeContentHashCode() {
+      int result = 1;
+      for (int i = offset; i < offset + length; i++) {
+        result = 31 * result + bytes[i];
+      }
+      return result;
+    }
+
+    @Override
+    boolean contentEquals(DexString string) {
+      return string.contentEquals(bytes, offset, length);
+    }
+  }
+}
@@ -8,6 +8,7 @@ import static com.android.tools.r8.ir.desugar.InterfaceMethodRewriter.DISPATCH_C
 import static com.android.tools.r8.ir.desugar.LambdaRewriter.LAMBDA_CLASS_NAME_PREFIX;
 import static com.android.tools.r8.ir.desugar.LambdaRewriter.LAMBDA_GROUP_CLASS_NAME_PREFIX;
 
+import com.android.tools.r8.ByteDataView;
 import com.android.tools.r8.dex.IndexedItemCollection;
 import com.android.tools.r8.errors.Unreachable;
 import com.android.tools.r8.ir.desugar.Java8MethodRewriter;
@@ -346,7 +347,7 @@ public class DexType extends DexReference implements PresortedComparable<DexType
   }
 
   public char toShorty() {
-    char c = (char) descriptor.content[0];
+    char c = (char) descriptor.byteAt(0);
     return c == '[' ? 'L' : c;
   }
 
@@ -415,7 +416,7 @@ public class DexType extends DexReference implements PresortedComparable<DexType
   }
 
   public boolean isPrimitiveType() {
-    return isPrimitiveType((char) descriptor.content[0]);
+    return isPrimitiveType((char) descriptor.byteAt(0));
   }
 
   private boolean isPrimitiveType(char c) {
@@ -424,48 +425,48 @@ public class DexType extends DexReference implements PresortedComparable<DexType
   }
 
   public boolean isVoidType() {
-    return (char) descriptor.content[0] == 'V';
+    return (char) descriptor.byteAt(0) == 'V';
   }
 
   public boolean isBooleanType() {
-    return descriptor.content[0] == 'Z';
+    return descriptor.byteAt(0) == 'Z';
   }
 
   public boolean isByteType() {
-    return descriptor.content[0] == 'B';
+    return descriptor.byteAt(0) == 'B';
   }
 
   public boolean isCharType() {
-    return descriptor.content[0] == 'C';
+    return descriptor.byteAt(0) == 'C';
   }
 
   public boolean isShortType() {
-    return descriptor.content[0] == 'S';
+    return descriptor.byteAt(0) == 'S';
   }
 
   public boolean isIntType() {
-    return descriptor.content[0] == 'I';
+    return descriptor.byteAt(0) == 'I';
   }
 
   public boolean isFloatType() {
-    return descriptor.content[0] == 'F';
+    return descriptor.byteAt(0) == 'F';
   }
 
   public boolean isLongType() {
-    return descriptor.content[0] == 'J';
+    return descriptor.byteAt(0) == 'J';
   }
 
   public boolean isDoubleType() {
-    return descriptor.content[0] == 'D';
+    return descriptor.byteAt(0) == 'D';
   }
 
   public boolean isArrayType() {
-    char firstChar = (char) descriptor.content[0];
+    char firstChar = (char) descriptor.byteAt(0);
     return firstChar == '[';
   }
 
   public boolean isClassType() {
-    char firstChar = (char) descriptor.content[0];
+    char firstChar = (char) descriptor.byteAt(0);
     return firstChar == 'L';
   }
 
@@ -473,7 +474,7 @@ public class DexType extends DexReference implements PresortedComparable<DexType
     if (!isArrayType()) {
       return false;
     }
-    return isPrimitiveType((char) descriptor.content[1]);
+    return isPrimitiveType((char) descriptor.byteAt(1));
   }
 
   public boolean isD8R8SynthesizedClassType() {
@@ -489,7 +490,7 @@ public class DexType extends DexReference implements PresortedComparable<DexType
 
   public int elementSizeForPrimitiveArrayType() {
     assert isPrimitiveArrayType();
-    switch (descriptor.content[1]) {
+    switch (descriptor.byteAt(1)) {
       case 'Z':  // boolean
       case 'B':  // byte
         return 1;
@@ -509,7 +510,7 @@ public class DexType extends DexReference implements PresortedComparable<DexType
 
   public int getNumberOfLeadingSquareBrackets() {
     int leadingSquareBrackets = 0;
-    while (descriptor.content[leadingSquareBrackets] == '[') {
+    while (descriptor.byteAt(leadingSquareBrackets) == '[') {
       leadingSquareBrackets++;
     }
     return leadingSquareBrackets;
@@ -520,8 +521,10 @@ public class DexType extends DexReference implements PresortedComparable<DexType
     if (leadingSquareBrackets == 0) {
       return this;
     }
+    ByteDataView content = descriptor.getContentView();
     DexString newDesc = dexItemFactory.createString(descriptor.size - leadingSquareBrackets,
-        Arrays.copyOfRange(descriptor.content, leadingSquareBrackets, descriptor.content.length));
+        content.getBuffer(), content.getOffset() + leadingSquareBrackets,
+        content.getLength() - leadingSquareBrackets);
     return dexItemFactory.createType(newDesc);
   }
 
@@ -529,10 +532,11 @@ public class DexType extends DexReference implements PresortedComparable<DexType
     assert this.isArrayType();
     assert !newBase.isArrayType();
     int leadingSquareBrackets = getNumberOfLeadingSquareBrackets();
-    byte[] content = new byte[newBase.descriptor.content.length + leadingSquareBrackets];
+    ByteDataView baseContent = newBase.descriptor.getContentView();
+    byte[] content = new byte[baseContent.getLength() + leadingSquareBrackets];
     Arrays.fill(content, 0, leadingSquareBrackets, (byte) '[');
-    System.arraycopy(newBase.descriptor.content, 0, content, leadingSquareBrackets,
-        newBase.descriptor.content.length);
+    System.arraycopy(baseContent.getBuffer(), baseContent.getOffset(), content,
+        leadingSquareBrackets, baseContent.getLength());
     DexString newDesc = dexItemFactory
         .createString(newBase.descriptor.size + leadingSquareBrackets, content);
     return dexItemFactory.createType(newDesc);
@@ -540,8 +544,9 @@ public class DexType extends DexReference implements PresortedComparable<DexType
 
   public DexType toArrayElementType(DexItemFactory dexItemFactory) {
     assert this.isArrayType();
+    ByteDataView content = descriptor.getContentView();
     DexString newDesc = dexItemFactory.createString(descriptor.size - 1,
-        Arrays.copyOfRange(descriptor.content, 1, descriptor.content.length));
+        content.getBuffer(), content.getOffset() + 1, content.getLength() - 1);
     return dexItemFactory.createType(newDesc);
   }
 
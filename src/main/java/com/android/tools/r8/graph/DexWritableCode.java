@@ -0,0 +1,39 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.graph;
+
+import com.android.tools.r8.dex.MixedSectionCollection;
+import com.android.tools.r8.graph.DexCode.Try;
+import com.android.tools.r8.graph.DexCode.TryHandler;
+import java.nio.ShortBuffer;
+
+/** Code that can be written as a code item of a dex file. */
+public interface DexWritableCode {
+
+  int getRegisterSize();
+
+  int getIncomingRegisterSize();
+
+  int getOutgoingRegisterSize();
+
+  Try[] getTries();
+
+  TryHandler[] getHandlers();
+
+  DexDebugInfoForWriting getDebugInfoForWriting();
+
+  /**
+   * Returns the highest sorting string that is referenced by the instructions, as computed when
+   * the indexed items of the code were last collected.
+   */
+  DexString getHighestSortingString();
+
+  /** Returns the size of the instructions in 16-bit code units. */
+  int getInstructionsSize();
+
+  /** Writes the instructions with the indices of the given mapping. */
+  void writeInstructions(ShortBuffer dest, ObjectToOffsetMapping mapping);
+
+  void collectMixedSectionItems(MixedSectionCollection mixedItems);
+}
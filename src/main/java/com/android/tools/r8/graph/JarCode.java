@@ -69,6 +69,10 @@ public class JarCode extends Code {
     this.reachabilitySensitive = true;
   }
 
+  public JarApplicationReader getApplication() {
+    return application;
+  }
+
   public MethodNode getNode() {
     triggerDelayedParsingIfNeccessary();
     return node;
@@ -0,0 +1,427 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.graph;
+
+import com.android.tools.r8.code.ConstString;
+import com.android.tools.r8.code.ConstStringJumbo;
+import com.android.tools.r8.code.Instruction;
+import com.android.tools.r8.code.InstructionFactory;
+import com.android.tools.r8.code.InvokePolymorphic;
+import com.android.tools.r8.code.InvokePolymorphicRange;
+import com.android.tools.r8.code.Nop;
+import com.android.tools.r8.code.ReturnVoid;
+import com.android.tools.r8.dex.IndexedItemCollection;
+import com.android.tools.r8.dex.MixedSectionCollection;
+import com.android.tools.r8.errors.InternalCompilerError;
+import com.android.tools.r8.errors.Unimplemented;
+import com.android.tools.r8.errors.Unreachable;
+import com.android.tools.r8.graph.DexCode.Try;
+import com.android.tools.r8.graph.DexCode.TryHandler;
+import com.android.tools.r8.ir.code.IRCode;
+import com.android.tools.r8.ir.code.Position;
+import com.android.tools.r8.ir.code.ValueNumberGenerator;
+import com.android.tools.r8.naming.ClassNameMapper;
+import com.android.tools.r8.origin.Origin;
+import java.nio.ShortBuffer;
+
+/**
+ * Code item of a dex input, for which the instructions are only decoded when they are needed.
+ *
+ * <p>The code keeps the 16-bit code units of the instructions of the input and the mapping from
+ * the indices of the input to items. When the code is passed through to the output unchanged, the
+ * indexed items are collected from, and the instructions are written from, the code units, with
+ * the references rewritten to the indices of the output. The {@link DexCode} with the decoded
+ * instructions is only created when the code is used otherwise, for example to build IR. From then
+ * on the decoded code is written instead, as the decoded instructions may have been changed.
+ */
+public class LazyDexCode extends Code implements DexWritableCode {
+
+  private static final byte NO_REFERENCE = 0;
+  private static final byte STRING_REFERENCE = 1;
+  private static final byte TYPE_REFERENCE = 2;
+  private static final byte FIELD_REFERENCE = 3;
+  private static final byte METHOD_REFERENCE = 4;
+  private static final byte CALL_SITE_REFERENCE = 5;
+  private static final byte METHOD_HANDLE_REFERENCE = 6;
+  private static final byte PROTO_REFERENCE = 7;
+
+  // Size in code units of the instructions by opcode, or 0 for unused opcodes.
+  private static final byte[] SIZES = new byte[256];
+  // Kind of the item that is referenced by the instructions by opcode. The reference is the second
+  // code unit of the instructions. Invoke-polymorphic in addition references a proto in the fourth
+  // code unit and const-string/jumbo references the string with the second and third code unit.
+  private static final byte[] REFERENCES = new byte[256];
+
+  static {
+    define(0x00, 0x01, 1, NO_REFERENCE); // nop, move
+    define(0x02, 0x02, 2, NO_REFERENCE); // move/from16
+    define(0x03, 0x03, 3, NO_REFERENCE); // move/16
+    define(0x04, 0x04, 1, NO_REFERENCE); // move-wide
+    define(0x05, 0x05, 2, NO_REFERENCE); // move-wide/from16
+    define(0x06, 0x06, 3, NO_REFERENCE); // move-wide/16
+    define(0x07, 0x07, 1, NO_REFERENCE); // move-object
+    define(0x08, 0x08, 2, NO_REFERENCE); // move-object/from16
+    define(0x09, 0x09, 3, NO_REFERENCE); // move-object/16
+    define(0x0a, 0x12, 1, NO_REFERENCE); // move-result*, move-exception, return*, const/4
+    define(0x13, 0x13, 2, NO_REFERENCE); // const/16
+    define(0x14, 0x14, 3, NO_REFERENCE); // const
+    define(0x15, 0x16, 2, NO_REFERENCE); // const/high16, const-wide/16
+    define(0x17, 0x17, 3, NO_REFERENCE); // const-wide/32
+    define(0x18, 0x18, 5, NO_REFERENCE); // const-wide
+    define(0x19, 0x19, 2, NO_REFERENCE); // const-wide/high16
+    define(0x1a, 0x1a, 2, STRING_REFERENCE); // const-string
+    define(0x1b, 0x1b, 3, STRING_REFERENCE); // const-string/jumbo
+    define(0x1c, 0x1c, 2, TYPE_REFERENCE); // const-class
+    define(0x1d, 0x1e, 1, NO_REFERENCE); // monitor-enter, monitor-exit
+    define(0x1f, 0x20, 2, TYPE_REFERENCE); // check-cast, instance-of
+    define(0x21, 0x21, 1, NO_REFERENCE); // array-length
+    define(0x22, 0x23, 2, TYPE_REFERENCE); // new-instance, new-array
+    define(0x24, 0x25, 3, TYPE_REFERENCE); // filled-new-array, filled-new-array/range
+    define(0x26, 0x26, 3, NO_REFERENCE); // fill-array-data
+    define(0x27, 0x28, 1, NO_REFERENCE); // throw, goto
+    define(0x29, 0x29, 2, NO_REFERENCE); // goto/16
+    define(0x2a, 0x2c, 3, NO_REFERENCE); // goto/32, packed-switch, sparse-switch
+    define(0x2d, 0x3d, 2, NO_REFERENCE); // cmp*, if-*
+    define(0x44, 0x51, 2, NO_REFERENCE); // aget*, aput*
+    define(0x52, 0x6d, 2, FIELD_REFERENCE); // iget*, iput*, sget*, sput*
+    define(0x6e, 0x72, 3, METHOD_REFERENCE); // invoke-*
+    define(0x74, 0x78, 3, METHOD_REFERENCE); // invoke-*/range
+    define(0x7b, 0x8f, 1, NO_REFERENCE); // unary operations
+    define(0x90, 0xaf, 2, NO_REFERENCE); // binary operations
+    define(0xb0, 0xcf, 1, NO_REFERENCE); // binary operations/2addr
+    define(0xd0, 0xe2, 2, NO_REFERENCE); // binary operations/lit16, binary operations/lit8
+    define(0xfa, 0xfb, 4, METHOD_REFERENCE); // invoke-polymorphic, invoke-polymorphic/range
+    define(0xfc, 0xfd, 3, CALL_SITE_REFERENCE); // invoke-custom, invoke-custom/range
+    define(0xfe, 0xfe, 2, METHOD_HANDLE_REFERENCE); // const-method-handle
+    define(0xff, 0xff, 2, PROTO_REFERENCE); // const-method-type
+  }
+
+  private static void define(int firstOpcode, int lastOpcode, int size, byte reference) {
+    for (int opcode = firstOpcode; opcode <= lastOpcode; opcode++) {
+      SIZES[opcode] = (byte) size;
+      REFERENCES[opcode] = reference;
+    }
+  }
+
+  private interface ReferenceConsumer {
+    void accept(int opcode, int instructionOffset, int referenceOffset, IndexedDexItem item);
+  }
+
+  public final int registerSize;
+  public final int incomingRegisterSize;
+  public final int outgoingRegisterSize;
+  public final Try[] tries;
+  public final TryHandler[] handlers;
+
+  private final ShortBuffer source;
+  private final int startIndex;
+  private final int size;
+  private final OffsetToObjectMapping mapping;
+  private final DexDebugInfo debugInfo;
+
+  private DexString highestSortingString;
+  private DexDebugInfoForWriting debugInfoForWriting;
+  private volatile DexCode code;
+
+  public LazyDexCode(
+      int registerSize,
+      int insSize,
+      int outsSize,
+      ShortBuffer source,
+      int startIndex,
+      int size,
+      OffsetToObjectMapping mapping,
+      Try[] tries,
+      TryHandler[] handlers,
+      DexDebugInfo debugInfo) {
+    this.registerSize = registerSize;
+    this.incomingRegisterSize = insSize;
+    this.outgoingRegisterSize = outsSize;
+    this.source = source;
+    this.startIndex = startIndex;
+    this.size = size;
+    this.mapping = mapping;
+    this.tries = tries;
+    this.handlers = handlers;
+    this.debugInfo = debugInfo;
+  }
+
+  @Override
+  public boolean isDexCode() {
+    return true;
+  }
+
+  @Override
+  public synchronized DexCode asDexCode() {
+    if (code == null) {
+      Instruction[] instructions =
+          new InstructionFactory().readSequenceFrom(source, startIndex, size, mapping);
+      DexCode code =
+          new DexCode(
+              registerSize,
+              incomingRegisterSize,
+              outgoingRegisterSize,
+              instructions,
+              tries,
+              handlers,
+              debugInfo);
+      // Propagate the ownership of LazyDexCode to DexCode.
+      code.setOwner(getOwner());
+      this.code = code;
+    }
+    return code;
+  }
+
+  @Override
+  public DexWritableCode asDexWritableCode() {
+    DexCode code = this.code;
+    return code != null ? code : this;
+  }
+
+  @Override
+  public void setOwner(DexEncodedMethod encodedMethod) {
+    super.setOwner(encodedMethod);
+    DexCode code = this.code;
+    if (code != null) {
+      code.setOwner(encodedMethod);
+    }
+  }
+
+  @Override
+  protected int computeHashCode() {
+    throw new Unimplemented();
+  }
+
+  @Override
+  protected boolean computeEquals(Object other) {
+    throw new Unimplemented();
+  }
+
+  @Override
+  public boolean isEmptyVoidMethod() {
+    return size == 1 && (getCodeUnit(0) & 0xff) == ReturnVoid.OPCODE;
+  }
+
+  @Override
+  public int estimatedSizeForInlining() {
+    return asDexCode().estimatedSizeForInlining();
+  }
+
+  @Override
+  public IRCode buildIR(
+      DexEncodedMethod encodedMethod, AppView<? extends AppInfo> appView, Origin origin) {
+    assert getOwner() == encodedMethod;
+    return asDexCode().buildIR(encodedMethod, appView, origin);
+  }
+
+  @Override
+  public IRCode buildInliningIR(
+      DexEncodedMethod context,
+      DexEncodedMethod encodedMethod,
+      AppView<? extends AppInfo> appView,
+      ValueNumberGenerator valueNumberGenerator,
+      Position callerPosition,
+      Origin origin) {
+    assert getOwner() == encodedMethod;
+    return asDexCode()
+        .buildInliningIR(
+            context, encodedMethod, appView, valueNumberGenerator, callerPosition, origin);
+  }
+
+  @Override
+  public void registerCodeReferences(UseRegistry registry) {
+    asDexCode().registerCodeReferences(registry);
+  }
+
+  @Override
+  public String toString() {
+    return asDexCode().toString();
+  }
+
+  @Override
+  public String toString(DexEncodedMethod method, ClassNameMapper naming) {
+    return asDexCode().toString(method, naming);
+  }
+
+  @Override
+  public int getRegisterSize() {
+    return registerSize;
+  }
+
+  @Override
+  public int getIncomingRegisterSize() {
+    return incomingRegisterSize;
+  }
+
+  @Override
+  public int getOutgoingRegisterSize() {
+    return outgoingRegisterSize;
+  }
+
+  @Override
+  public Try[] getTries() {
+    return tries;
+  }
+
+  @Override
+  public TryHandler[] getHandlers() {
+    return handlers;
+  }
+
+  @Override
+  public DexDebugInfoForWriting getDebugInfoForWriting() {
+    if (debugInfo == null) {
+      return null;
+    }
+    if (debugInfoForWriting == null) {
+      debugInfoForWriting = new DexDebugInfoForWriting(debugInfo);
+    }
+    return debugInfoForWriting;
+  }
+
+  @Override
+  public DexString getHighestSortingString() {
+    return highestSortingString;
+  }
+
+  @Override
+  public int getInstructionsSize() {
+    return size;
+  }
+
+  @Override
+  public void writeInstructions(ShortBuffer dest, ObjectToOffsetMapping mapping) {
+    int start = dest.position();
+    ShortBuffer units = source.duplicate();
+    units.limit(startIndex + size);
+    units.position(startIndex);
+    dest.put(units);
+    forEachReference(
+        (opcode, instructionOffset, referenceOffset, item) -> {
+          int index = item.getOffset(mapping);
+          if (opcode == ConstStringJumbo.OPCODE) {
+            dest.put(start + referenceOffset, (short) (index & 0xffff));
+            dest.put(start + referenceOffset + 1, (short) ((index >> 16) & 0xffff));
+          } else {
+            if (index != (index & 0xffff)) {
+              throw new InternalCompilerError("Index overflow for " + item);
+            }
+            dest.put(start + referenceOffset, (short) index);
+          }
+        });
+  }
+
+  @Override
+  public void collectIndexedItems(
+      IndexedItemCollection indexedItems, DexMethod method, int instructionOffset) {
+    assert instructionOffset == -1;
+    DexCode code = this.code;
+    if (code != null) {
+      code.collectIndexedItems(indexedItems, method, instructionOffset);
+      return;
+    }
+    highestSortingString = null;
+    forEachReference(
+        (opcode, offset, referenceOffset, item) -> {
+          item.collectIndexedItems(indexedItems, method, offset);
+          if (opcode == ConstString.OPCODE || opcode == ConstStringJumbo.OPCODE) {
+            updateHighestSortingString((DexString) item);
+          }
+        });
+    if (debugInfo != null) {
+      getDebugInfoForWriting().collectIndexedItems(indexedItems);
+    }
+    if (handlers != null) {
+      for (TryHandler handler : handlers) {
+        handler.collectIndexedItems(indexedItems);
+      }
+    }
+  }
+
+  private void updateHighestSortingString(DexString candidate) {
+    if (highestSortingString == null || highestSortingString.slowCompareTo(candidate) < 0) {
+      highestSortingString = candidate;
+    }
+  }
+
+  @Override
+  public void collectMixedSectionItems(MixedSectionCollection mixedItems) {
+    if (mixedItems.add(this)) {
+      if (debugInfo != null) {
+        getDebugInfoForWriting().collectMixedSectionItems(mixedItems);
+      }
+    }
+  }
+
+  private void forEachReference(ReferenceConsumer consumer) {
+    int offset = 0;
+    while (offset < size) {
+      int unit = getCodeUnit(offset);
+      int opcode = unit & 0xff;
+      int instructionSize = SIZES[opcode];
+      if (instructionSize == 0) {
+        throw new IllegalArgumentException("Illegal Opcode: 0x" + Integer.toString(opcode, 16));
+      }
+      byte reference = REFERENCES[opcode];
+      if (opcode == Nop.OPCODE) {
+        instructionSize = getPayloadSize(unit >> 8, offset);
+      } else if (opcode == ConstStringJumbo.OPCODE) {
+        int index = getCodeUnit(offset + 1) | (getCodeUnit(offset + 2) << 16);
+        consumer.accept(opcode, offset, offset + 1, mapping.getString(index));
+      } else if (reference != NO_REFERENCE) {
+        int index = getCodeUnit(offset + 1);
+        consumer.accept(opcode, offset, offset + 1, getItem(reference, index));
+        if (opcode == InvokePolymorphic.OPCODE || opcode == InvokePolymorphicRange.OPCODE) {
+          consumer.accept(opcode, offset, offset + 3, mapping.getProto(getCodeUnit(offset + 3)));
+        }
+      }
+      offset += instructionSize;
+    }
+  }
+
+  private int getPayloadSize(int identifier, int offset) {
+    switch (identifier) {
+      case 0x01:
+        // packed-switch-payload: identifier, size, first key and targets.
+        return 4 + getCodeUnit(offset + 1) * 2;
+      case 0x02:
+        // sparse-switch-payload: identifier, size, keys and targets.
+        return 2 + getCodeUnit(offset + 1) * 4;
+      case 0x03:
+        {
+          // fill-array-data-payload: identifier, element width, size and data.
+          long elementWidth = getCodeUnit(offset + 1);
+          long elements = getCodeUnit(offset + 2) | ((long) getCodeUnit(offset + 3) << 16);
+          return 4 + (int) ((elements * elementWidth + 1) / 2);
+        }
+      default:
+        return 1;
+    }
+  }
+
+  private IndexedDexItem getItem(byte reference, int index) {
+    switch (reference) {
+      case STRING_REFERENCE:
+        return mapping.getString(index);
+      case TYPE_REFERENCE:
+        return mapping.getType(index);
+      case FIELD_REFERENCE:
+        return mapping.getField(index);
+      case METHOD_REFERENCE:
+        return mapping.getMethod(index);
+      case CALL_SITE_REFERENCE:
+        return mapping.getCallSite(index);
+      case METHOD_HANDLE_REFERENCE:
+        return mapping.getMethodHandle(index);
+      case PROTO_REFERENCE:
+        return mapping.getProto(index);
+      default:
+        throw new Unreachable();
+    }
+  }
+
+  private int getCodeUnit(int offset) {
+    return source.get(startIndex + offset) & 0xffff;
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Use registry that records the uses registered by the code of a method, such that they can be
+ * replayed on another registry later.
+ *
+ * <p>Only the calls made by the code are recorded. For example, a registered method handle is
+ * replayed as a call to {@link UseRegistry#registerMethodHandle} and not as the calls that the
+ * default implementation of that method makes. Replaying the uses on a registry is therefore
+ * equivalent to calling {@link DexEncodedMethod#registerCodeReferences} with that registry.
+ *
+ * <p>This allows scanning the code of methods on other threads than the thread that consumes the
+ * uses.
+ */
+public class RecordingUseRegistry extends UseRegistry {
+
+  private enum Kind {
+    INVOKE_VIRTUAL,
+    INVOKE_DIRECT,
+    INVOKE_STATIC,
+    INVOKE_INTERFACE,
+    INVOKE_SUPER,
+    INSTANCE_FIELD_WRITE,
+    INSTANCE_FIELD_READ,
+    NEW_INSTANCE,
+    STATIC_FIELD_READ,
+    STATIC_FIELD_WRITE,
+    TYPE_REFERENCE,
+    CONST_CLASS,
+    CHECK_CAST,
+    METHOD_HANDLE,
+    CALL_SITE,
+    PROTO
+  }
+
+  private final List<Kind> kinds = new ArrayList<>();
+  private final List<Object> items = new ArrayList<>();
+  private final List<MethodHandleUse> methodHandleUses = new ArrayList<>();
+
+  public RecordingUseRegistry(DexItemFactory factory) {
+    super(factory);
+  }
+
+  /** Records the uses of the code of the given method. */
+  public static RecordingUseRegistry record(DexEncodedMethod method, DexItemFactory factory) {
+    RecordingUseRegistry registry = new RecordingUseRegistry(factory);
+    method.registerCodeReferences(registry);
+    return registry;
+  }
+
+  private boolean add(Kind kind, Object item) {
+    kinds.add(kind);
+    items.add(item);
+    return true;
+  }
+
+  /** Registers the recorded uses on the given registry, in the order they were recorded. */
+  public void replay(UseRegistry registry) {
+    int methodHandleIndex = 0;
+    for (int i = 0; i < kinds.size(); i++) {
+      Object item = items.get(i);
+      switch (kinds.get(i)) {
+        case INVOKE_VIRTUAL:
+          registry.registerInvokeVirtual((DexMethod) item);
+          break;
+        case INVOKE_DIRECT:
+          registry.registerInvokeDirect((DexMethod) item);
+          break;
+        case INVOKE_STATIC:
+          registry.registerInvokeStatic((DexMethod) item);
+          break;
+        case INVOKE_INTERFACE:
+          registry.registerInvokeInterface((DexMethod) item);
+          break;
+        case INVOKE_SUPER:
+          registry.registerInvokeSuper((DexMethod) item);
+          break;
+        case INSTANCE_FIELD_WRITE:
+          registry.registerInstanceFieldWrite((DexField) item);
+          break;
+        case INSTANCE_FIELD_READ:
+          registry.registerInstanceFieldRead((DexField) item);
+          break;
+        case NEW_INSTANCE:
+          registry.registerNewInstance((DexType) item);
+          break;
+        case STATIC_FIELD_READ:
+          registry.registerStaticFieldRead((DexField) item);
+          break;
+        case STATIC_FIELD_WRITE:
+          registry.registerStaticFieldWrite((DexField) item);
+          break;
+        case TYPE_REFERENCE:
+          registry.registerTypeReference((DexType) item);
+          break;
+        case CONST_CLASS:
+          registry.registerConstClass((DexType) item);
+          break;
+        case CHECK_CAST:
+          registry.registerCheckCast((DexType) item);
+          break;
+        case METHOD_HANDLE:
+          registry.registerMethodHandle(
+              (DexMethodHandle) item, methodHandleUses.get(methodHandleIndex++));
+          break;
+        case CALL_SITE:
+          registry.registerCallSite((DexCallSite) item);
+          break;
+        case PROTO:
+          registry.registerProto((DexProto) item);
+          break;
+        default:
+          throw new AssertionError();
+      }
+    }
+    assert methodHandleIndex == methodHandleUses.size();
+  }
+
+  @Override
+  public boolean registerInvokeVirtual(DexMethod method) {
+    return add(Kind.INVOKE_VIRTUAL, method);
+  }
+
+  @Override
+  public boolean registerInvokeDirect(DexMethod method) {
+    return add(Kind.INVOKE_DIRECT, method);
+  }
+
+  @Override
+  public boolean registerInvokeStatic(DexMethod method) {
+    return add(Kind.INVOKE_STATIC, method);
+  }
+
+  @Override
+  public boolean registerInvokeInterface(DexMethod method) {
+    return add(Kind.INVOKE_INTERFACE, method);
+  }
+
+  @Override
+  public boolean registerInvokeSuper(DexMethod method) {
+    return add(Kind.INVOKE_SUPER, method);
+  }
+
+  @Override
+  public boolean registerInstanceFieldWrite(DexField field) {
+    return add(Kind.INSTANCE_FIELD_WRITE, field);
+  }
+
+  @Override
+  public boolean registerInstanceFieldRead(DexField field) {
+    return add(Kind.INSTANCE_FIELD_READ, field);
+  }
+
+  @Override
+  public boolean registerNewInstance(DexType type) {
+    return add(Kind.NEW_INSTANCE, type);
+  }
+
+  @Override
+  public boolean registerStaticFieldRead(DexField field) {
+    return add(Kind.STATIC_FIELD_READ, field);
+  }
+
+  @Override
+  public boolean registerStaticFieldWrite(DexField field) {
+    return add(Kind.STATIC_FIELD_WRITE, field);
+  }
+
+  @Override
+  public boolean registerTypeReference(DexType type) {
+    return add(Kind.TYPE_REFERENCE, type);
+  }
+
+  @Override
+  public boolean registerConstClass(DexType type) {
+    return add(Kind.CONST_CLASS, type);
+  }
+
+  @Override
+  public boolean registerCheckCast(DexType type) {
+    return add(Kind.CHECK_CAST, type);
+  }
+
+  @Override
+  public void registerMethodHandle(DexMethodHandle methodHandle, MethodHandleUse use) {
+    add(Kind.METHOD_HANDLE, methodHandle);
+    methodHandleUses.add(use);
+  }
+
+  @Override
+  public void registerCallSite(DexCallSite callSite) {
+    add(Kind.CALL_SITE, callSite);
+  }
+
+  @Override
+  public void registerProto(DexProto proto) {
+    add(Kind.PROTO, proto);
+  }
+}
@@ -31,7 +31,7 @@ public abstract class PrimitiveTypeLatticeElement extends TypeLatticeElement {
 
   static PrimitiveTypeLatticeElement fromDexType(DexType type, boolean asArrayElementType) {
     assert type.isPrimitiveType();
-    return fromTypeDescriptorChar((char) type.descriptor.content[0], asArrayElementType);
+    return fromTypeDescriptorChar((char) type.descriptor.byteAt(0), asArrayElementType);
   }
 
   DexType toDexType(DexItemFactory factory) {
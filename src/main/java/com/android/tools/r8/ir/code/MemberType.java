@@ -102,6 +102,6 @@ public enum MemberType {
   }
 
   public static MemberType fromDexType(DexType type) {
-    return fromTypeDescriptorChar((char) type.descriptor.content[0]);
+    return fromTypeDescriptorChar((char) type.descriptor.byteAt(0));
   }
 }
@@ -38,7 +38,7 @@ public enum NumericType {
   }
 
   public static NumericType fromDexType(DexType type) {
-    switch (type.descriptor.content[0]) {
+    switch (type.descriptor.byteAt(0)) {
       case 'B':  // byte
         return NumericType.BYTE;
       case 'S':  // short
@@ -32,6 +32,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -40,11 +41,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * Call graph representation.
@@ -73,6 +77,13 @@ public class CallGraph extends CallSiteInformation {
     private int invokeCount = 0;
     private boolean isSelfRecursive = false;
 
+    // Position of this node in the graph, used to order the leaves extracted from the graph.
+    private int index = -1;
+
+    // Number of callees that have not yet been extracted from the graph or, when processing the
+    // methods of the graph in dependency order, not yet been processed.
+    private final AtomicInteger pendingCallees = new AtomicInteger();
+
     // Outgoing calls from this method.
     private final Set<Node> callees = new LinkedHashSet<>();
 
@@ -152,15 +163,45 @@ public class CallGraph extends CallSiteInformation {
       DexApplication application,
       AppView<AppInfoWithLiveness> appView,
       InternalOptions options,
-      Timing timing) {
+      Timing timing,
+      ExecutorService executorService)
+      throws ExecutionException {
     CallGraph graph = new CallGraph(options);
     DexClass[] classes = application.classes().toArray(DexClass.EMPTY_ARRAY);
     Arrays.sort(classes, (DexClass a, DexClass b) -> a.type.slowCompareTo(b.type));
-    for (DexClass clazz : classes) {
-      for (DexEncodedMethod method : clazz.allMethodsSorted()) {
-        Node node = graph.ensureMethodNode(method);
-        InvokeExtractor extractor = new InvokeExtractor(appView, node, graph);
-        method.registerCodeReferences(extractor);
+
+    // The call targets of each class are extracted concurrently into a buffer per class, unless
+    // disabled for testing. The buffers are then added to the graph in the order of the sorted
+    // classes and methods, such that the resulting graph is identical to the graph built by a
+    // sequential extraction.
+    timing.begin("Extract call targets");
+    MethodCallTargets[][] callTargets = new MethodCallTargets[classes.length][];
+    if (options.enableConcurrentCallGraphConstruction) {
+      List<Future<?>> futures = new ArrayList<>(classes.length);
+      for (int i = 0; i < classes.length; i++) {
+        DexClass clazz = classes[i];
+        int index = i;
+        futures.add(
+            executorService.submit(
+                () -> {
+                  callTargets[index] = extractCallTargets(clazz, appView);
+                  return null; // we want a Callable not a Runnable to be able to throw
+                }));
+      }
+      ThreadUtils.awaitFutures(futures);
+    } else {
+      for (int i = 0; i < classes.length; i++) {
+        callTargets[i] = extractCallTargets(classes[i], appView);
+      }
+    }
+    timing.end();
+
+    for (MethodCallTargets[] classCallTargets : callTargets) {
+      for (MethodCallTargets methodCallTargets : classCallTargets) {
+        Node caller = graph.ensureMethodNode(methodCallTargets.method);
+        for (DexEncodedMethod target : methodCallTargets.targets) {
+          graph.addCall(caller, graph.ensureMethodNode(target));
+        }
       }
     }
     assert allMethodsExists(application, graph);
@@ -175,6 +216,32 @@ public class CallGraph extends CallSiteInformation {
     return graph;
   }
 
+  public static CallGraph createForTesting(Collection<Node> nodes, InternalOptions options) {
+    CallGraph graph = new CallGraph(options);
+    for (Node node : nodes) {
+      node.index = graph.nodes.size();
+      graph.nodes.put(node.method, node);
+    }
+    return graph;
+  }
+
+  public Collection<Node> getNodesForTesting() {
+    return Collections.unmodifiableCollection(nodes.values());
+  }
+
+  private static MethodCallTargets[] extractCallTargets(
+      DexClass clazz, AppView<AppInfoWithLiveness> appView) {
+    DexEncodedMethod[] methods = clazz.allMethodsSorted();
+    MethodCallTargets[] result = new MethodCallTargets[methods.length];
+    for (int i = 0; i < methods.length; i++) {
+      MethodCallTargets methodCallTargets = new MethodCallTargets(methods[i]);
+      methodCallTargets.method.registerCodeReferences(
+          new InvokeExtractor(appView, methodCallTargets));
+      result[i] = methodCallTargets;
+    }
+    return result;
+  }
+
   /**
    * Check if the <code>method</code> is guaranteed to only have a single call site.
    * <p>
@@ -215,25 +282,50 @@ public class CallGraph extends CallSiteInformation {
   }
 
   /**
-   * Extract the next set of leaves (nodes with an call (outgoing) degree of 0) if any.
+   * Extract the first set of leaves (nodes with an call (outgoing) degree of 0).
    *
-   * <p>All nodes in the graph are extracted if called repeatedly until null is returned. Please
-   * note that there are no cycles in this graph (see {@link CycleEliminator#breakCycles}).
+   * <p>Instead of removing the extracted leaves from the graph, each node keeps a counter of its
+   * callees that have not yet been extracted. The leaves are returned in the order of the nodes in
+   * the graph.
+   */
+  private List<Node> extractFirstLeaves() {
+    List<Node> leaves = new ArrayList<>();
+    for (Node node : nodes.values()) {
+      node.pendingCallees.set(node.callees.size());
+      if (node.isLeaf()) {
+        leaves.add(node);
+      }
+    }
+    return leaves;
+  }
+
+  /**
+   * Extract the next set of leaves, which are the nodes for which the last callee was among the
+   * given <code>previousLeaves</code>.
    *
-   * <p>
+   * <p>All nodes in the graph are extracted if called repeatedly until an empty list is returned.
+   * Please note that there are no cycles in this graph (see {@link CycleEliminator#breakCycles}).
+   * The cost of each call is proportional to the number of edges into the previous leaves, and the
+   * leaves are returned in the order of the nodes in the graph.
    */
-  private Collection<DexEncodedMethod> extractLeaves() {
-    if (isEmpty()) {
-      return Collections.emptySet();
-    }
-    // First identify all leaves before removing them from the graph.
-    List<Node> leaves = nodes.values().stream().filter(Node::isLeaf).collect(Collectors.toList());
-    leaves.forEach(leaf -> {
-      leaf.callers.forEach(caller -> caller.callees.remove(leaf));
-      nodes.remove(leaf.method);
-    });
-    Set<DexEncodedMethod> methods =
-        leaves.stream().map(x -> x.method).collect(Collectors.toCollection(LinkedHashSet::new));
+  private static List<Node> extractNextLeaves(List<Node> previousLeaves) {
+    List<Node> leaves = new ArrayList<>();
+    for (Node leaf : previousLeaves) {
+      for (Node caller : leaf.callers) {
+        if (caller.pendingCallees.decrementAndGet() == 0) {
+          leaves.add(caller);
+        }
+      }
+    }
+    leaves.sort(Comparator.comparingInt(node -> node.index));
+    return leaves;
+  }
+
+  private Collection<DexEncodedMethod> orderLeaves(List<Node> leaves) {
+    List<DexEncodedMethod> methods = new ArrayList<>(leaves.size());
+    for (Node leaf : leaves) {
+      methods.add(leaf.method);
+    }
     return shuffle.order(methods);
   }
 
@@ -431,7 +523,13 @@ public class CallGraph extends CallSiteInformation {
   }
 
   synchronized private Node ensureMethodNode(DexEncodedMethod method) {
-    return nodes.computeIfAbsent(method, k -> new Node(method));
+    return nodes.computeIfAbsent(
+        method,
+        k -> {
+          Node node = new Node(method);
+          node.index = nodes.size();
+          return node;
+        });
   }
 
   synchronized private void addCall(Node caller, Node callee) {
@@ -461,12 +559,18 @@ public class CallGraph extends CallSiteInformation {
       Action waveDone,
       ExecutorService executorService)
       throws ExecutionException {
-    while (!isEmpty()) {
-      Collection<DexEncodedMethod> methods = extractLeaves();
-      assert methods.size() > 0;
+    if (isEmpty()) {
+      return;
+    }
+    int numberOfExtractedNodes = 0;
+    List<Node> leaves = extractFirstLeaves();
+    while (!leaves.isEmpty()) {
+      numberOfExtractedNodes += leaves.size();
+      Set<DexEncodedMethod> methods = Sets.newIdentityHashSet();
+      leaves.forEach(leaf -> methods.add(leaf.method));
       List<Future<?>> futures = new ArrayList<>();
       waveStart.execute();
-      for (DexEncodedMethod method : methods) {
+      for (DexEncodedMethod method : orderLeaves(leaves)) {
         futures.add(executorService.submit(() -> {
           consumer.accept(method, methods::contains);
           return null; // we want a Callable not a Runnable to be able to throw
@@ -474,6 +578,126 @@ public class CallGraph extends CallSiteInformation {
       }
       ThreadUtils.awaitFutures(futures);
       waveDone.execute();
+      leaves = extractNextLeaves(leaves);
+    }
+    assert numberOfExtractedNodes == nodes.size();
+    nodes.clear();
+  }
+
+  /**
+   * Applies the given method to all nodes of the graph, such that a method is processed only when
+   * all of its callees have been processed.
+   *
+   * <p>Unlike {@link #forEachMethod} there is no barrier between waves of leaves. Each node keeps
+   * a counter of its unprocessed callees, and a caller is submitted to the executor as soon as the
+   * counter of the caller drops to zero.
+   *
+   * <p>The predicate passed as second parameter answers true for all methods in the graph except
+   * the callees of the method being processed, which are guaranteed to be completely processed.
+   * This is independent of the actual scheduling, and therefore deterministic.
+   *
+   * <p>The <code>methodDone</code> action is run for each method after the method has been
+   * processed and before any of its callers are released. Calls to <code>methodDone</code> are not
+   * synchronized.
+   */
+  public <E extends Exception> void forEachMethodInDependencyOrder(
+      ThrowingBiConsumer<DexEncodedMethod, Predicate<DexEncodedMethod>, E> consumer,
+      Consumer<DexEncodedMethod> methodDone,
+      ExecutorService executorService)
+      throws ExecutionException {
+    if (isEmpty()) {
+      return;
+    }
+    List<Node> leaves = extractFirstLeaves();
+    assert !leaves.isEmpty();
+    DependencyOrderScheduler<E> scheduler =
+        new DependencyOrderScheduler<>(consumer, methodDone, executorService);
+    for (DexEncodedMethod leaf : orderLeaves(leaves)) {
+      scheduler.submit(nodes.get(leaf));
+    }
+    scheduler.awaitCompletion(nodes.size());
+    nodes.clear();
+  }
+
+  private class DependencyOrderScheduler<E extends Exception> {
+
+    private final ThrowingBiConsumer<DexEncodedMethod, Predicate<DexEncodedMethod>, E> consumer;
+    private final Consumer<DexEncodedMethod> methodDone;
+    private final ExecutorService executorService;
+
+    // All futures are added to this queue before the task that submitted them completes. Once the
+    // number of futures taken from the queue is equal to the number of submitted tasks, all tasks
+    // have therefore completed.
+    private final BlockingQueue<Future<?>> futures = new LinkedBlockingQueue<>();
+    private final AtomicInteger numberOfSubmittedTasks = new AtomicInteger();
+    private volatile boolean failed = false;
+
+    DependencyOrderScheduler(
+        ThrowingBiConsumer<DexEncodedMethod, Predicate<DexEncodedMethod>, E> consumer,
+        Consumer<DexEncodedMethod> methodDone,
+        ExecutorService executorService) {
+      this.consumer = consumer;
+      this.methodDone = methodDone;
+      this.executorService = executorService;
+    }
+
+    void submit(Node node) {
+      assert node.pendingCallees.get() == 0;
+      futures.add(
+          executorService.submit(
+              () -> {
+                process(node);
+                return null; // we want a Callable not a Runnable to be able to throw
+              }));
+      numberOfSubmittedTasks.incrementAndGet();
+    }
+
+    private void process(Node node) throws E {
+      if (failed) {
+        return;
+      }
+      try {
+        consumer.accept(node.method, method -> isProcessedConcurrently(node, method));
+        methodDone.accept(node.method);
+      } catch (Throwable e) {
+        failed = true;
+        throw e;
+      }
+      for (Node caller : node.callers) {
+        if (caller.pendingCallees.decrementAndGet() == 0) {
+          submit(caller);
+        }
+      }
+    }
+
+    private boolean isProcessedConcurrently(Node node, DexEncodedMethod method) {
+      Node other = nodes.get(method);
+      return other != null && !node.callees.contains(other);
+    }
+
+    void awaitCompletion(int numberOfNodes) throws ExecutionException {
+      int numberOfCompletedTasks = 0;
+      ExecutionException exception = null;
+      try {
+        while (numberOfCompletedTasks < numberOfSubmittedTasks.get()) {
+          Future<?> future = futures.take();
+          numberOfCompletedTasks++;
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            // Keep waiting for the tasks that are still running, see ThreadUtils#awaitFutures.
+            if (exception == null) {
+              exception = e;
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        throw new RuntimeException("Interrupted while waiting for future.", e);
+      }
+      if (exception != null) {
+        throw exception;
+      }
+      assert numberOfCompletedTasks == numberOfNodes;
     }
   }
 
@@ -481,19 +705,30 @@ public class CallGraph extends CallSiteInformation {
     nodes.forEach((m, n) -> System.out.println(n + "\n"));
   }
 
+  // The call targets of a method in the order they are found, including duplicates.
+  private static class MethodCallTargets {
+
+    private final DexEncodedMethod method;
+    private final List<DexEncodedMethod> targets = new ArrayList<>();
+
+    MethodCallTargets(DexEncodedMethod method) {
+      this.method = method;
+    }
+  }
+
   private static class InvokeExtractor extends UseRegistry {
 
     private final AppInfoWithLiveness appInfo;
     private final GraphLense graphLense;
-    private final Node caller;
-    private final CallGraph graph;
+    private final DexEncodedMethod caller;
+    private final List<DexEncodedMethod> targets;
 
-    InvokeExtractor(AppView<AppInfoWithLiveness> appView, Node caller, CallGraph graph) {
+    InvokeExtractor(AppView<AppInfoWithLiveness> appView, MethodCallTargets callTargets) {
       super(appView.dexItemFactory());
       this.appInfo = appView.appInfo();
       this.graphLense = appView.graphLense();
-      this.caller = caller;
-      this.graph = graph;
+      this.caller = callTargets.method;
+      this.targets = callTargets.targets;
     }
 
     private void addClassInitializerTarget(DexClass clazz) {
@@ -512,8 +747,7 @@ public class CallGraph extends CallSiteInformation {
     }
 
     private void addTarget(DexEncodedMethod target) {
-      Node callee = graph.ensureMethodNode(target);
-      graph.addCall(caller, callee);
+      targets.add(target);
     }
 
     private void addPossibleTarget(DexEncodedMethod possibleTarget) {
@@ -534,13 +768,13 @@ public class CallGraph extends CallSiteInformation {
     }
 
     private void processInvoke(Type type, DexMethod method) {
-      DexEncodedMethod source = caller.method;
+      DexEncodedMethod source = caller;
       GraphLenseLookupResult result = graphLense.lookupMethod(method, source.method, type);
       method = result.getMethod();
       type = result.getType();
       DexEncodedMethod definition = appInfo.lookup(type, method, source.method.holder);
       if (definition != null) {
-        assert !source.accessFlags.isBridge() || definition != caller.method;
+        assert !source.accessFlags.isBridge() || definition != caller;
         DexClass clazz = appInfo.definitionFor(definition.method.holder);
         assert clazz != null;
         if (clazz.isProgramClass()) {
@@ -18,6 +18,7 @@ import com.android.tools.r8.graph.DexApplication;
 import com.android.tools.r8.graph.DexApplication.Builder;
 import com.android.tools.r8.graph.DexCallSite;
 import com.android.tools.r8.graph.DexClass;
+import com.android.tools.r8.graph.DexCode;
 import com.android.tools.r8.graph.DexEncodedMethod;
 import com.android.tools.r8.graph.DexItemFactory;
 import com.android.tools.r8.graph.DexMethod;
@@ -79,6 +80,8 @@ import com.android.tools.r8.utils.InternalOptions.OutlineOptions;
 import com.android.tools.r8.utils.StringDiagnostic;
 import com.android.tools.r8.utils.ThreadUtils;
 import com.android.tools.r8.utils.Timing;
+import com.android.tools.r8.utils.Timing.ConcurrentPhase;
+import com.android.tools.r8.utils.Timing.PhaseScope;
 import com.google.common.base.Predicates;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.ArrayListMultimap;
@@ -123,6 +126,7 @@ public class IRConverter {
   private final ClassInliner classInliner;
   private final ClassStaticizer classStaticizer;
   private final InternalOptions options;
+  private final MethodProcessingProfile methodProcessingProfile;
   private final CfgPrinter printer;
   private final CodeRewriter codeRewriter;
   private final MemberValuePropagation memberValuePropagation;
@@ -136,6 +140,7 @@ public class IRConverter {
   private final UninstantiatedTypeOptimization uninstantiatedTypeOptimization;
   private final TypeChecker typeChecker;
   private final IdempotentFunctionCallCanonicalizer idempotentFunctionCallCanonicalizer;
+  private final TrivialCodeDexBuilder trivialCodeDexBuilder;
 
   final DeadCodeRemover deadCodeRemover;
 
@@ -163,6 +168,8 @@ public class IRConverter {
     this.timing = timing != null ? timing : new Timing("internal");
     this.appView = appView;
     this.options = appView.options();
+    options.ensureMethodProcessingProfile();
+    this.methodProcessingProfile = options.methodProcessingProfile;
     this.rootSet = rootSet;
     this.printer = printer;
     this.mainDexClasses = mainDexClasses.getClasses();
@@ -233,6 +240,31 @@ public class IRConverter {
     this.deadCodeRemover = new DeadCodeRemover(appView, codeRewriter);
     this.idempotentFunctionCallCanonicalizer =
         new IdempotentFunctionCallCanonicalizer(appView.dexItemFactory());
+    this.trivialCodeDexBuilder =
+        enableTrivialCodeDexBuilder()
+            ? new TrivialCodeDexBuilder(
+                appView,
+                java8MethodRewriter,
+                interfaceMethodRewriter != null,
+                twrCloseResourceRewriter != null,
+                options.enableDesugaring && enableTryWithResourcesDesugaring())
+            : null;
+  }
+
+  // The code of trivial methods is only built without IR when IR would not change it, and when
+  // nothing needs to observe the IR.
+  private boolean enableTrivialCodeDexBuilder() {
+    return (options.enableTrivialCodeDexBuilder || options.testing.compareTrivialCodeDexBuilder)
+        && options.debug
+        && options.isGeneratingDex()
+        && !appView.enableWholeProgramOptimizations()
+        && !options.skipIR
+        && !options.verbose
+        && printer == null
+        && methodProcessingProfile == null
+        && options.testing.irModifier == null
+        && !options.testing.noLocalsTableOnInput
+        && !options.testing.alwaysUsePessimisticRegisterAllocation;
   }
 
   public Set<DexCallSite> getDesugaredCallSites() {
@@ -422,9 +454,16 @@ public class IRConverter {
 
   private void convertClassesToDex(Iterable<DexProgramClass> classes,
       ExecutorService executor) throws ExecutionException {
+    ConcurrentPhase phase = timing.concurrentPhase("Convert methods");
     List<Future<?>> futures = new ArrayList<>();
     for (DexProgramClass clazz : classes) {
-      futures.add(executor.submit(() -> convertMethodsToDex(clazz)));
+      futures.add(
+          executor.submit(
+              () -> {
+                try (PhaseScope ignored = phase.begin()) {
+                  convertMethodsToDex(clazz);
+                }
+              }));
     }
     ThreadUtils.awaitFutures(futures);
   }
@@ -453,7 +492,8 @@ public class IRConverter {
     if (method.getCode() != null) {
       boolean matchesMethodFilter = options.methodMatchesFilter(method);
       if (matchesMethodFilter) {
-        if (!(options.passthroughDexCode && method.getCode().isDexCode())) {
+        if (!(options.passthroughDexCode && method.getCode().isDexCode())
+            && !buildTrivialDexCode(method)) {
           // We do not process in call graph order, so anything could be a leaf.
           rewriteCode(method, simpleOptimizationFeedback, x -> true, CallSiteInformation.empty(),
               Outliner::noProcessing);
@@ -463,6 +503,33 @@ public class IRConverter {
     }
   }
 
+  // Returns true if the method is trivial and its code was built without IR.
+  private boolean buildTrivialDexCode(DexEncodedMethod method) {
+    if (trivialCodeDexBuilder == null || options.methodMatchesLogArgumentsFilter(method)) {
+      return false;
+    }
+    DexCode code = trivialCodeDexBuilder.build(method);
+    if (code == null) {
+      return false;
+    }
+    if (options.testing.compareTrivialCodeDexBuilder) {
+      rewriteCode(method, simpleOptimizationFeedback, x -> true, CallSiteInformation.empty(),
+          Outliner::noProcessing);
+      if (!code.equals(method.getCode())) {
+        throw new Unreachable(
+            "Unexpected code for trivial method " + method.toSourceString()
+                + ":\n" + code + "\nExpected:\n" + method.getCode());
+      }
+    } else {
+      method.setCode(code);
+      simpleOptimizationFeedback.markProcessed(method, ConstraintWithTarget.NEVER);
+    }
+    if (options.testing.trivialCodeDexBuilderConsumer != null) {
+      options.testing.trivialCodeDexBuilderConsumer.accept(method);
+    }
+    return true;
+  }
+
   public DexApplication optimize(DexApplication application) throws ExecutionException {
     ExecutorService executor = Executors.newSingleThreadExecutor();
     try {
@@ -497,17 +564,40 @@ public class IRConverter {
     OptimizationFeedbackDelayed feedback = delayedOptimizationFeedback;
     {
       timing.begin("Build call graph");
-      CallGraph callGraph = CallGraph.build(application, appView.withLiveness(), options, timing);
+      CallGraph callGraph =
+          CallGraph.build(application, appView.withLiveness(), options, timing, executorService);
       timing.end();
       timing.begin("IR conversion phase 1");
       BiConsumer<IRCode, DexEncodedMethod> outlineHandler =
           outliner == null ? Outliner::noProcessing : outliner.identifyCandidateMethods();
-      callGraph.forEachMethod(
-          (method, isProcessedConcurrently) ->
-              processMethod(method, feedback, isProcessedConcurrently, callGraph, outlineHandler),
-          this::waveStart,
-          this::waveDone,
-          executorService);
+      ConcurrentPhase phase = timing.concurrentPhase("Process methods");
+      if (options.enableDependencyDrivenMethodProcessing) {
+        // There are no waves, so all methods are processed in a single wave and the wave done
+        // actions, which update the app info and the static field values, only run once all
+        // methods are done and no other thread reads them.
+        waveStart();
+        callGraph.forEachMethodInDependencyOrder(
+            (method, isProcessedConcurrently) -> {
+              try (PhaseScope ignored = phase.begin()) {
+                processMethod(method, feedback, isProcessedConcurrently, callGraph, outlineHandler);
+              }
+            },
+            this::methodDone,
+            executorService);
+        // Optimization info recorded for methods other than the processed method is only made
+        // visible at this point.
+        waveDone();
+      } else {
+        callGraph.forEachMethod(
+            (method, isProcessedConcurrently) -> {
+              try (PhaseScope ignored = phase.begin()) {
+                processMethod(method, feedback, isProcessedConcurrently, callGraph, outlineHandler);
+              }
+            },
+            this::waveStart,
+            this::waveDone,
+            executorService);
+      }
       timing.end();
       assert graphLenseForIR == appView.graphLense();
     }
@@ -603,6 +693,10 @@ public class IRConverter {
     onWaveDoneActions = null;
   }
 
+  private void methodDone(DexEncodedMethod method) {
+    delayedOptimizationFeedback.updateVisibleOptimizationInfo(method);
+  }
+
   public void addWaveDoneAction(Action action) {
     if (!appView.enableWholeProgramOptimizations()) {
       throw new Unreachable("addWaveDoneAction() should never be used in D8.");
@@ -802,6 +896,26 @@ public class IRConverter {
       Predicate<DexEncodedMethod> isProcessedConcurrently,
       CallSiteInformation callSiteInformation,
       BiConsumer<IRCode, DexEncodedMethod> outlineHandler) {
+    if (methodProcessingProfile == null) {
+      rewriteCodeInternal(
+          method, feedback, isProcessedConcurrently, callSiteInformation, outlineHandler);
+      return;
+    }
+    long start = System.nanoTime();
+    try {
+      rewriteCodeInternal(
+          method, feedback, isProcessedConcurrently, callSiteInformation, outlineHandler);
+    } finally {
+      methodProcessingProfile.get(method).addProcessingTime(System.nanoTime() - start);
+    }
+  }
+
+  private void rewriteCodeInternal(
+      DexEncodedMethod method,
+      OptimizationFeedback feedback,
+      Predicate<DexEncodedMethod> isProcessedConcurrently,
+      CallSiteInformation callSiteInformation,
+      BiConsumer<IRCode, DexEncodedMethod> outlineHandler) {
     if (options.verbose) {
       options.reporter.info(
           new StringDiagnostic("Processing: " + method.toSourceString()));
@@ -819,6 +933,9 @@ public class IRConverter {
       feedback.markProcessed(method, ConstraintWithTarget.NEVER);
       return;
     }
+    if (methodProcessingProfile != null) {
+      methodProcessingProfile.get(method).recordInitialCode(code);
+    }
     if (Log.ENABLED) {
       Log.debug(getClass(), "Initial (SSA) flow graph for %s:\n%s", method.toSourceString(), code);
     }
@@ -1203,6 +1320,9 @@ public class IRConverter {
   }
 
   private void finalizeIR(DexEncodedMethod method, IRCode code, OptimizationFeedback feedback) {
+    if (methodProcessingProfile != null) {
+      methodProcessingProfile.get(method).recordFinalCode(code);
+    }
     code.traceBlocks();
     if (options.isGeneratingClassFiles()) {
       finalizeToCf(method, code, feedback);
@@ -1259,7 +1379,8 @@ public class IRConverter {
   }
 
   private synchronized void updateHighestSortingStrings(DexEncodedMethod method) {
-    DexString highestSortingReferencedString = method.getCode().asDexCode().highestSortingString;
+    DexString highestSortingReferencedString =
+        method.getCode().asDexWritableCode().getHighestSortingString();
     if (highestSortingReferencedString != null) {
       if (highestSortingString == null
           || highestSortingReferencedString.slowCompareTo(highestSortingString) > 0) {
@@ -1276,6 +1397,12 @@ public class IRConverter {
     workaroundForwardingInitializerBug(code);
     LinearScanRegisterAllocator registerAllocator = new LinearScanRegisterAllocator(appView, code);
     registerAllocator.allocateRegisters();
+    if (methodProcessingProfile != null) {
+      methodProcessingProfile
+          .get(method)
+          .recordRegisterAllocation(
+              registerAllocator.getNumberOfAllocationRetries(), registerAllocator.registersUsed());
+    }
     if (options.canHaveExceptionTargetingLoopHeaderBug()) {
       codeRewriter.workaroundExceptionTargetingLoopHeaderBug(code);
     }
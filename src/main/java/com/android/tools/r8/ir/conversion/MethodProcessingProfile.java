@@ -0,0 +1,224 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.ir.conversion;
+
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.ir.code.BasicBlock;
+import com.android.tools.r8.ir.code.IRCode;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-method profile of the IR processing, used for finding the methods that dominate the
+ * compilation time.
+ *
+ * <p>For each processed method the profile records the time spent processing it, the size of the
+ * IR before and after optimization, the number of inlined calls and the inlining depth, the
+ * number of register allocation retries, and the number of outlines called. A method may be
+ * processed more than once, in which case the times and counts are summed, the initial size is
+ * from the first processing and the final size is from the last.
+ */
+public class MethodProcessingProfile {
+
+  private static final String CSV_HEADER =
+      "method,times_processed,processing_time_us,initial_instructions,initial_blocks,"
+          + "final_instructions,final_blocks,inlined_calls,max_inlining_depth,"
+          + "register_allocation_retries,registers,outline_calls";
+
+  private final Map<DexEncodedMethod, Entry> entries = new ConcurrentHashMap<>();
+
+  /** Profile of a single method. */
+  public static class Entry {
+    private final DexEncodedMethod method;
+    private int timesProcessed = 0;
+    private long processingTime = 0;
+    private int initialInstructions = -1;
+    private int initialBlocks = -1;
+    private int finalInstructions = -1;
+    private int finalBlocks = -1;
+    private int inlinedCalls = 0;
+    private int maxInliningDepth = 0;
+    private int registerAllocationRetries = 0;
+    private int registers = -1;
+    private int outlineCalls = 0;
+
+    private Entry(DexEncodedMethod method) {
+      this.method = method;
+    }
+
+    public DexEncodedMethod getMethod() {
+      return method;
+    }
+
+    public synchronized long getProcessingTime() {
+      return processingTime;
+    }
+
+    public synchronized int getTimesProcessed() {
+      return timesProcessed;
+    }
+
+    public synchronized int getInitialInstructions() {
+      return initialInstructions;
+    }
+
+    public synchronized int getFinalInstructions() {
+      return finalInstructions;
+    }
+
+    public synchronized int getInlinedCalls() {
+      return inlinedCalls;
+    }
+
+    public synchronized int getMaxInliningDepth() {
+      return maxInliningDepth;
+    }
+
+    public synchronized int getRegisterAllocationRetries() {
+      return registerAllocationRetries;
+    }
+
+    public synchronized int getOutlineCalls() {
+      return outlineCalls;
+    }
+
+    synchronized void addProcessingTime(long nanos) {
+      timesProcessed++;
+      processingTime += nanos;
+    }
+
+    synchronized void recordInitialCode(IRCode code) {
+      if (initialInstructions < 0) {
+        initialInstructions = numberOfInstructions(code);
+        initialBlocks = code.blocks.size();
+      }
+    }
+
+    synchronized void recordFinalCode(IRCode code) {
+      finalInstructions = numberOfInstructions(code);
+      finalBlocks = code.blocks.size();
+    }
+
+    public synchronized void recordInlinedCall(int depth) {
+      inlinedCalls++;
+      maxInliningDepth = Math.max(maxInliningDepth, depth);
+    }
+
+    public synchronized void recordRegisterAllocation(int retries, int registers) {
+      this.registerAllocationRetries += retries;
+      this.registers = registers;
+    }
+
+    public synchronized void recordOutlineCalls(int outlineCalls) {
+      this.outlineCalls += outlineCalls;
+    }
+
+    private synchronized void appendCsv(StringBuilder builder) {
+      // Method names contain commas, e.g., between the parameter types.
+      builder
+          .append('"')
+          .append(method.toSourceString().replace("\"", "\"\""))
+          .append('"');
+      for (long value :
+          new long[] {
+            timesProcessed,
+            processingTime / 1000,
+            initialInstructions,
+            initialBlocks,
+            finalInstructions,
+            finalBlocks,
+            inlinedCalls,
+            maxInliningDepth,
+            registerAllocationRetries,
+            registers,
+            outlineCalls
+          }) {
+        builder.append(',').append(value);
+      }
+      builder.append('\n');
+    }
+
+    @Override
+    public synchronized String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(processingTime / 1000000).append("ms");
+      if (timesProcessed > 1) {
+        builder.append(" (processed ").append(timesProcessed).append(" times)");
+      }
+      builder
+          .append(", instructions: ")
+          .append(initialInstructions)
+          .append(" -> ")
+          .append(finalInstructions)
+          .append(", blocks: ")
+          .append(initialBlocks)
+          .append(" -> ")
+          .append(finalBlocks);
+      if (inlinedCalls > 0) {
+        builder
+            .append(", inlined calls: ")
+            .append(inlinedCalls)
+            .append(" (max depth ")
+            .append(maxInliningDepth)
+            .append(")");
+      }
+      if (registerAllocationRetries > 0) {
+        builder.append(", register allocation retries: ").append(registerAllocationRetries);
+      }
+      if (outlineCalls > 0) {
+        builder.append(", outline calls: ").append(outlineCalls);
+      }
+      return builder.append(": ").append(method.toSourceString()).toString();
+    }
+  }
+
+  private static int numberOfInstructions(IRCode code) {
+    int instructions = 0;
+    for (BasicBlock block : code.blocks) {
+      instructions += block.getInstructions().size();
+    }
+    return instructions;
+  }
+
+  public Entry get(DexEncodedMethod method) {
+    return entries.computeIfAbsent(method, Entry::new);
+  }
+
+  /** Returns the profiled methods, the most expensive to process first. */
+  public List<Entry> getEntries() {
+    List<Entry> result = new ArrayList<>(entries.values());
+    result.sort(
+        Comparator.comparingLong(Entry::getProcessingTime)
+            .reversed()
+            .thenComparing(entry -> entry.getMethod().method.toSourceString()));
+    return result;
+  }
+
+  /** Returns the profile in CSV format, with a header line and a line per method. */
+  public String toCsv() {
+    StringBuilder builder = new StringBuilder(CSV_HEADER).append('\n');
+    for (Entry entry : getEntries()) {
+      entry.appendCsv(builder);
+    }
+    return builder.toString();
+  }
+
+  /** Prints the profile of the given number of the most expensive methods to process. */
+  public void report(int numberOfMethods) {
+    List<Entry> sorted = getEntries();
+    System.out.println();
+    System.out.println(
+        "Most expensive methods to process, "
+            + Math.min(numberOfMethods, sorted.size())
+            + " of "
+            + sorted.size()
+            + ":");
+    for (Entry entry : sorted.subList(0, Math.min(numberOfMethods, sorted.size()))) {
+      System.out.println("  - " + entry);
+    }
+  }
+}
@@ -118,6 +118,24 @@ public class OptimizationFeedbackDelayed implements OptimizationFeedback {
     getOptimizationInfoForUpdating(method).setNonNullParamOnNormalExits(facts);
   }
 
+  /**
+   * Makes the optimization info recorded for the given method visible, leaving the info for other
+   * methods untouched.
+   */
+  public synchronized void updateVisibleOptimizationInfo(DexEncodedMethod method) {
+    UpdatableOptimizationInfo info = optimizationInfos.remove(method);
+    ConstraintWithTarget state = processed.remove(method);
+    if (method.isObsolete()) {
+      return;
+    }
+    if (info != null) {
+      method.setOptimizationInfo(info);
+    }
+    if (state != null) {
+      method.markProcessed(state);
+    }
+  }
+
   public void updateVisibleOptimizationInfo() {
     // Remove methods that have become obsolete. A method may become obsolete, for example, as a
     // result of the class staticizer, which aims to transform virtual methods on companion classes
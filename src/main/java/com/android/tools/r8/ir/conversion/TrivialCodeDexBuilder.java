@@ -0,0 +1,995 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.ir.conversion;
+
+import com.android.tools.r8.code.Const;
+import com.android.tools.r8.code.Const16;
+import com.android.tools.r8.code.Const4;
+import com.android.tools.r8.code.ConstHigh16;
+import com.android.tools.r8.code.ConstString;
+import com.android.tools.r8.code.ConstWide;
+import com.android.tools.r8.code.ConstWide16;
+import com.android.tools.r8.code.ConstWide32;
+import com.android.tools.r8.code.ConstWideHigh16;
+import com.android.tools.r8.code.Iget;
+import com.android.tools.r8.code.IgetBoolean;
+import com.android.tools.r8.code.IgetByte;
+import com.android.tools.r8.code.IgetChar;
+import com.android.tools.r8.code.IgetObject;
+import com.android.tools.r8.code.IgetShort;
+import com.android.tools.r8.code.IgetWide;
+import com.android.tools.r8.code.Instruction;
+import com.android.tools.r8.code.InvokeDirect;
+import com.android.tools.r8.code.InvokeInterface;
+import com.android.tools.r8.code.InvokeStatic;
+import com.android.tools.r8.code.InvokeSuper;
+import com.android.tools.r8.code.InvokeVirtual;
+import com.android.tools.r8.code.Iput;
+import com.android.tools.r8.code.IputBoolean;
+import com.android.tools.r8.code.IputByte;
+import com.android.tools.r8.code.IputChar;
+import com.android.tools.r8.code.IputObject;
+import com.android.tools.r8.code.IputShort;
+import com.android.tools.r8.code.IputWide;
+import com.android.tools.r8.code.MoveResult;
+import com.android.tools.r8.code.MoveResultObject;
+import com.android.tools.r8.code.MoveResultWide;
+import com.android.tools.r8.code.Return;
+import com.android.tools.r8.code.ReturnObject;
+import com.android.tools.r8.code.ReturnVoid;
+import com.android.tools.r8.code.ReturnWide;
+import com.android.tools.r8.code.Sget;
+import com.android.tools.r8.code.SgetBoolean;
+import com.android.tools.r8.code.SgetByte;
+import com.android.tools.r8.code.SgetChar;
+import com.android.tools.r8.code.SgetObject;
+import com.android.tools.r8.code.SgetShort;
+import com.android.tools.r8.code.SgetWide;
+import com.android.tools.r8.code.Sput;
+import com.android.tools.r8.code.SputBoolean;
+import com.android.tools.r8.code.SputByte;
+import com.android.tools.r8.code.SputChar;
+import com.android.tools.r8.code.SputObject;
+import com.android.tools.r8.code.SputShort;
+import com.android.tools.r8.code.SputWide;
+import com.android.tools.r8.errors.Unreachable;
+import com.android.tools.r8.graph.AppInfo;
+import com.android.tools.r8.graph.AppView;
+import com.android.tools.r8.graph.DebugLocalInfo;
+import com.android.tools.r8.graph.DexClass;
+import com.android.tools.r8.graph.DexCode;
+import com.android.tools.r8.graph.DexCode.Try;
+import com.android.tools.r8.graph.DexCode.TryHandler;
+import com.android.tools.r8.graph.DexDebugEvent;
+import com.android.tools.r8.graph.DexDebugEvent.StartLocal;
+import com.android.tools.r8.graph.DexDebugEventBuilder;
+import com.android.tools.r8.graph.DexDebugInfo;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexField;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexMethod;
+import com.android.tools.r8.graph.DexString;
+import com.android.tools.r8.graph.DexType;
+import com.android.tools.r8.graph.JarApplicationReader;
+import com.android.tools.r8.graph.JarCode;
+import com.android.tools.r8.ir.code.Invoke;
+import com.android.tools.r8.ir.code.MemberType;
+import com.android.tools.r8.ir.code.Position;
+import com.android.tools.r8.ir.desugar.Java8MethodRewriter;
+import com.android.tools.r8.ir.desugar.TwrCloseResourceRewriter;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.NumberUtils;
+import java.util.ArrayList;
+import java.util.List;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.LocalVariableNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Builds the DEX code of trivial methods directly from their class-file code, without building
+ * IR.
+ *
+ * <p>A method is trivial if its code is a single sequence of argument loads, constants, field
+ * accesses and invokes that ends in a return, such as getters, setters, empty constructors and
+ * methods that delegate to another method. In debug mode the only change that IR makes to such a
+ * method is to move each constant to right before its use, so the DEX code can be built in one
+ * pass over the instructions. The result is the code that IR would produce: the temporaries are
+ * allocated like the linear scan register allocator does, in the lowest free registers in
+ * instruction order, the arguments are in the highest registers, and the debug info has the same
+ * events.
+ *
+ * <p>Methods for which IR would do more, such as desugaring an invoke, canonicalizing a constant
+ * or inserting a nop for a line without instructions, are not trivial and are left to IR, as are
+ * methods with more registers than fit in the 4-bit register operands. Setting {@link
+ * InternalOptions.TestingOptions#compareTrivialCodeDexBuilder} checks that the code is the same as
+ * the code built through IR.
+ */
+public class TrivialCodeDexBuilder {
+
+  // All registers must fit in the 4-bit register operands of the non-range instructions.
+  private static final int MAX_REGISTERS = 16;
+  private static final int MAX_NON_RANGE_INVOKE_REGISTERS = 5;
+
+  // Line of the instructions before the first line number, and of no instruction.
+  private static final int PREAMBLE_LINE = -1;
+  private static final int NO_LINE = -2;
+
+  private enum Kind {
+    CONST_NUMBER,
+    CONST_STRING,
+    INSTANCE_GET,
+    INSTANCE_PUT,
+    STATIC_GET,
+    STATIC_PUT,
+    INVOKE,
+    RETURN
+  }
+
+  // Value of an argument or a temporary. Temporaries are used once.
+  private static class Value {
+    // Register of an argument relative to the first argument register, or -1 for a temporary.
+    final int argumentRegister;
+    final boolean wide;
+    DebugLocalInfo local;
+    int lastUse = -1;
+    // Register of a temporary.
+    int register = -1;
+    // The constant that defines a temporary, if it is not yet placed before its use.
+    Op constant;
+
+    Value(int argumentRegister, boolean wide) {
+      this.argumentRegister = argumentRegister;
+      this.wide = wide;
+    }
+
+    boolean isArgument() {
+      return argumentRegister >= 0;
+    }
+
+    int requiredRegisters() {
+      return wide ? 2 : 1;
+    }
+  }
+
+  // Instruction of IR, which is one DEX instruction or an invoke and its move-result.
+  private static class Op {
+    final Kind kind;
+    final Value[] inputs;
+    Value output;
+    // Field, method or string.
+    final Object item;
+    final long value;
+    final Invoke.Type invokeType;
+    int line;
+
+    Op(Kind kind, Value[] inputs, Value output, Object item, long value, Invoke.Type invokeType) {
+      this.kind = kind;
+      this.inputs = inputs;
+      this.output = output;
+      this.item = item;
+      this.value = value;
+      this.invokeType = invokeType;
+    }
+  }
+
+  private static final Value[] NO_VALUES = new Value[0];
+
+  private final AppView<? extends AppInfo> appView;
+  private final InternalOptions options;
+  private final DexItemFactory factory;
+  private final Java8MethodRewriter java8MethodRewriter;
+  private final boolean desugarInterfaceMethods;
+  private final boolean desugarCloseResource;
+  private final boolean desugarSuppressedExceptions;
+
+  public TrivialCodeDexBuilder(
+      AppView<? extends AppInfo> appView,
+      Java8MethodRewriter java8MethodRewriter,
+      boolean desugarInterfaceMethods,
+      boolean desugarCloseResource,
+      boolean desugarSuppressedExceptions) {
+    assert appView.options().debug;
+    assert appView.options().isGeneratingDex();
+    this.appView = appView;
+    this.options = appView.options();
+    this.factory = appView.dexItemFactory();
+    this.java8MethodRewriter = java8MethodRewriter;
+    this.desugarInterfaceMethods = desugarInterfaceMethods;
+    this.desugarCloseResource = desugarCloseResource;
+    this.desugarSuppressedExceptions = desugarSuppressedExceptions;
+  }
+
+  /** Returns the DEX code of the method, or null if the method is not trivial. */
+  public DexCode build(DexEncodedMethod method) {
+    if (method.getCode() == null
+        || !method.getCode().isJarCode()
+        || method.accessFlags.isSynchronized()
+        || hasForwardingInitializerBugSignature(method)) {
+      return null;
+    }
+    DexClass holder = appView.definitionFor(method.method.holder);
+    if (holder == null || holder.isInterface()) {
+      return null;
+    }
+    return new MethodBuilder(method, method.getCode().asJarCode()).build();
+  }
+
+  // See IRConverter.workaroundForwardingInitializerBug.
+  private boolean hasForwardingInitializerBugSignature(DexEncodedMethod method) {
+    if (!options.canHaveForwardingInitInliningBug() || !method.isInstanceInitializer()) {
+      return false;
+    }
+    DexType[] parameters = method.method.proto.parameters.values;
+    return parameters.length == 3
+        && parameters[0] == factory.doubleType
+        && parameters[1] == factory.doubleType
+        && parameters[2].isClassType();
+  }
+
+  // Returns true if IR would not rewrite the invoke.
+  private boolean isTrivialInvoke(
+      DexEncodedMethod context, DexMethod invokedMethod, Invoke.Type type) {
+    if (invokedMethod == context.method
+        || invokedMethod == factory.longMethods.compare
+        || invokedMethod == factory.objectsMethods.requireNonNull
+        || factory.libraryMethodsReturningReceiver.contains(invokedMethod)) {
+      return false;
+    }
+    if (desugarSuppressedExceptions
+        && (isMethodOfThrowable(invokedMethod, factory.throwableMethods.addSuppressed)
+            || isMethodOfThrowable(invokedMethod, factory.throwableMethods.getSuppressed))) {
+      return false;
+    }
+    if (type == Invoke.Type.STATIC) {
+      if (java8MethodRewriter != null && java8MethodRewriter.hasRewrite(invokedMethod)) {
+        return false;
+      }
+      if (desugarCloseResource
+          && TwrCloseResourceRewriter.isSynthesizedCloseResourceMethod(invokedMethod, appView)) {
+        return false;
+      }
+    }
+    if (desugarInterfaceMethods
+        && (type == Invoke.Type.STATIC
+            || type == Invoke.Type.SUPER
+            || (type == Invoke.Type.DIRECT && !factory.isConstructor(invokedMethod)))) {
+      DexClass clazz = appView.definitionFor(invokedMethod.holder);
+      return clazz != null && !clazz.isInterface();
+    }
+    return true;
+  }
+
+  private static boolean isMethodOfThrowable(DexMethod method, DexMethod throwableMethod) {
+    return method.name == throwableMethod.name && method.proto == throwableMethod.proto;
+  }
+
+  private class MethodBuilder {
+
+    private final DexEncodedMethod method;
+    private final MethodNode node;
+    private final JarApplicationReader application;
+
+    private final List<Value> arguments = new ArrayList<>();
+    // Arguments by local variable slot.
+    private final Value[] argumentSlots;
+    private int argumentRegisters = 0;
+
+    private final List<Value> stack = new ArrayList<>();
+    private final List<Op> ops = new ArrayList<>();
+    private final List<DexField> readFields = new ArrayList<>();
+    // Invoke that is not yet known to have its result used.
+    private Op pendingInvoke = null;
+    private boolean returned = false;
+
+    // Temporary registers that are in use, and the number of temporary registers.
+    private int usedRegisters = 0;
+    private int temporaries = 0;
+    private int lastTemporaryDefinition = -1;
+    private int outgoingRegisters = 0;
+
+    // State of IR's removal of redundant debug positions, see
+    // DexBuilder.removeRedundantDebugPositions.
+    private int currentLine = PREAMBLE_LINE;
+    private int materializedLine = NO_LINE;
+    private int unresolvedLine = NO_LINE;
+    private boolean hasLines = false;
+    private boolean hasPreambleInstructions = false;
+
+    MethodBuilder(DexEncodedMethod method, JarCode code) {
+      this.method = method;
+      this.node = code.getNode();
+      this.application = code.getApplication();
+      DexType[] parameters = method.method.proto.parameters.values;
+      argumentSlots = new Value[parameters.length * 2 + 1];
+      if (!method.accessFlags.isStatic()) {
+        addArgument(method.method.holder);
+      }
+      for (DexType parameter : parameters) {
+        addArgument(parameter);
+      }
+    }
+
+    private void addArgument(DexType type) {
+      Value argument = new Value(argumentRegisters, type.isLongType() || type.isDoubleType());
+      arguments.add(argument);
+      argumentSlots[argumentRegisters] = argument;
+      argumentRegisters += argument.requiredRegisters();
+    }
+
+    private DexType getArgumentType(int index) {
+      if (method.accessFlags.isStatic()) {
+        return method.method.proto.parameters.values[index];
+      }
+      return index == 0
+          ? method.method.holder
+          : method.method.proto.parameters.values[index - 1];
+    }
+
+    DexCode build() {
+      if (!node.tryCatchBlocks.isEmpty() || !addLocals()) {
+        return null;
+      }
+      for (AbstractInsnNode insn = node.instructions.getFirst();
+          insn != null;
+          insn = insn.getNext()) {
+        if (!add(insn)) {
+          return null;
+        }
+      }
+      if (!returned
+          || unresolvedLine != NO_LINE
+          || (hasLines && hasPreambleInstructions)
+          || temporaries + argumentRegisters > MAX_REGISTERS) {
+        return null;
+      }
+      // An argument that is dead before the definition of a temporary would have its register
+      // reused for the temporary.
+      boolean thisIsPinned =
+          !method.accessFlags.isStatic()
+              && (options.canHaveThisTypeVerifierBug()
+                  || options.canHaveThisJitCodeDebuggingBug());
+      for (int i = 0; i < arguments.size(); i++) {
+        Value argument = arguments.get(i);
+        boolean liveToEnd = argument.local != null || (i == 0 && thisIsPinned);
+        if (!liveToEnd
+            && lastTemporaryDefinition >= 0
+            && argument.lastUse <= lastTemporaryDefinition) {
+          return null;
+        }
+      }
+      return buildCode();
+    }
+
+    // Returns false if the locals are not the arguments, with their types, for the entire method.
+    private boolean addLocals() {
+      if (node.localVariables.isEmpty()) {
+        return true;
+      }
+      int lastInstruction = -1;
+      int index = 0;
+      for (AbstractInsnNode insn = node.instructions.getFirst();
+          insn != null;
+          insn = insn.getNext(), index++) {
+        if (insn.getOpcode() >= 0) {
+          lastInstruction = index;
+        }
+      }
+      for (LocalVariableNode local : node.localVariables) {
+        if (local.index >= argumentRegisters
+            || argumentSlots[local.index] == null
+            || argumentSlots[local.index].local != null
+            || node.instructions.indexOf(local.start) != 0
+            || node.instructions.indexOf(local.end) <= lastInstruction) {
+          return false;
+        }
+        Value argument = argumentSlots[local.index];
+        DexType type = getArgumentType(arguments.indexOf(argument));
+        if (!local.desc.equals(type.toDescriptorString())) {
+          return false;
+        }
+        argument.local =
+            new DebugLocalInfo(
+                application.getString(local.name),
+                type,
+                local.signature == null ? null : application.getString(local.signature));
+      }
+      return true;
+    }
+
+    // Returns false if the instruction is not trivial.
+    private boolean add(AbstractInsnNode insn) {
+      if (insn instanceof LineNumberNode) {
+        return addLine(((LineNumberNode) insn).line);
+      }
+      int opcode = insn.getOpcode();
+      if (opcode < 0) {
+        // Labels and frames.
+        return true;
+      }
+      if (returned) {
+        return false;
+      }
+      if (opcode == Opcodes.POP || opcode == Opcodes.POP2) {
+        // Only the unused result of an invoke can be popped, in which case the invoke has no
+        // move-result.
+        if (pendingInvoke == null
+            || stack.get(stack.size() - 1) != pendingInvoke.output
+            || pendingInvoke.output.wide != (opcode == Opcodes.POP2)) {
+          return false;
+        }
+        pop();
+        pendingInvoke.output = null;
+        pendingInvoke = null;
+        return true;
+      }
+      if (pendingInvoke != null) {
+        defineTemporary(pendingInvoke.output, ops.size() - 1);
+        pendingInvoke = null;
+      }
+      switch (opcode) {
+        case Opcodes.ILOAD:
+        case Opcodes.LLOAD:
+        case Opcodes.FLOAD:
+        case Opcodes.DLOAD:
+        case Opcodes.ALOAD:
+          {
+            int slot = ((VarInsnNode) insn).var;
+            if (slot >= argumentRegisters || argumentSlots[slot] == null) {
+              return false;
+            }
+            stack.add(argumentSlots[slot]);
+            return true;
+          }
+        case Opcodes.ACONST_NULL:
+          return addConstNumber(false, 0);
+        case Opcodes.ICONST_M1:
+        case Opcodes.ICONST_0:
+        case Opcodes.ICONST_1:
+        case Opcodes.ICONST_2:
+        case Opcodes.ICONST_3:
+        case Opcodes.ICONST_4:
+        case Opcodes.ICONST_5:
+          return addConstNumber(false, opcode - Opcodes.ICONST_0);
+        case Opcodes.LCONST_0:
+        case Opcodes.LCONST_1:
+          return addConstNumber(true, opcode - Opcodes.LCONST_0);
+        case Opcodes.FCONST_0:
+        case Opcodes.FCONST_1:
+        case Opcodes.FCONST_2:
+          return addConstNumber(false, Float.floatToRawIntBits(opcode - Opcodes.FCONST_0));
+        case Opcodes.DCONST_0:
+        case Opcodes.DCONST_1:
+          return addConstNumber(true, Double.doubleToRawLongBits(opcode - Opcodes.DCONST_0));
+        case Opcodes.BIPUSH:
+        case Opcodes.SIPUSH:
+          return addConstNumber(false, ((IntInsnNode) insn).operand);
+        case Opcodes.LDC:
+          return addLdc(((LdcInsnNode) insn).cst);
+        case Opcodes.GETFIELD:
+        case Opcodes.PUTFIELD:
+        case Opcodes.GETSTATIC:
+        case Opcodes.PUTSTATIC:
+          return addField((FieldInsnNode) insn);
+        case Opcodes.INVOKEVIRTUAL:
+        case Opcodes.INVOKESPECIAL:
+        case Opcodes.INVOKESTATIC:
+        case Opcodes.INVOKEINTERFACE:
+          return addInvoke((MethodInsnNode) insn);
+        case Opcodes.IRETURN:
+        case Opcodes.LRETURN:
+        case Opcodes.FRETURN:
+        case Opcodes.DRETURN:
+        case Opcodes.ARETURN:
+          place(new Op(Kind.RETURN, new Value[] {pop()}, null, null, 0, null));
+          returned = true;
+          return true;
+        case Opcodes.RETURN:
+          place(new Op(Kind.RETURN, NO_VALUES, null, null, 0, null));
+          returned = true;
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    // Returns false if the previous line has no instructions, in which case IR would keep it as a
+    // nop.
+    private boolean addLine(int line) {
+      hasLines = true;
+      currentLine = line;
+      if (unresolvedLine == NO_LINE && materializedLine == line) {
+        // The line is already active.
+        return true;
+      }
+      if (unresolvedLine != NO_LINE && unresolvedLine != line) {
+        return false;
+      }
+      unresolvedLine = line;
+      return true;
+    }
+
+    private boolean addConstNumber(boolean wide, long value) {
+      return addConstant(new Op(Kind.CONST_NUMBER, NO_VALUES, new Value(-1, wide), null, value,
+          null));
+    }
+
+    private boolean addLdc(Object constant) {
+      if (constant instanceof Integer) {
+        return addConstNumber(false, (Integer) constant);
+      }
+      if (constant instanceof Float) {
+        return addConstNumber(false, Float.floatToRawIntBits((Float) constant));
+      }
+      if (constant instanceof Long) {
+        return addConstNumber(true, (Long) constant);
+      }
+      if (constant instanceof Double) {
+        return addConstNumber(true, Double.doubleToRawLongBits((Double) constant));
+      }
+      if (constant instanceof String) {
+        return addConstant(new Op(Kind.CONST_STRING, NO_VALUES, new Value(-1, false),
+            application.getString((String) constant), 0, null));
+      }
+      return false;
+    }
+
+    // Constants are placed right before their use. Constants that are used more than once would
+    // be canonicalized by IR.
+    private boolean addConstant(Op constant) {
+      for (Op op : ops) {
+        if (isSameConstant(op, constant)) {
+          return false;
+        }
+      }
+      for (Value value : stack) {
+        if (value.constant != null && isSameConstant(value.constant, constant)) {
+          return false;
+        }
+      }
+      constant.output.constant = constant;
+      stack.add(constant.output);
+      return true;
+    }
+
+    private boolean isSameConstant(Op op, Op constant) {
+      if (op.kind != constant.kind) {
+        return false;
+      }
+      if (op.kind == Kind.CONST_STRING) {
+        return op.item == constant.item;
+      }
+      return op.kind == Kind.CONST_NUMBER && op.value == constant.value;
+    }
+
+    private boolean addField(FieldInsnNode insn) {
+      DexField field = application.getField(insn.owner, insn.name, insn.desc);
+      boolean wide = field.type.isLongType() || field.type.isDoubleType();
+      switch (insn.getOpcode()) {
+        case Opcodes.GETFIELD:
+        case Opcodes.GETSTATIC:
+          {
+            // Reads of the same field could be eliminated by IR.
+            if (readFields.contains(field)) {
+              return false;
+            }
+            readFields.add(field);
+            boolean isStatic = insn.getOpcode() == Opcodes.GETSTATIC;
+            Op op =
+                new Op(
+                    isStatic ? Kind.STATIC_GET : Kind.INSTANCE_GET,
+                    isStatic ? NO_VALUES : new Value[] {pop()},
+                    new Value(-1, wide),
+                    field,
+                    0,
+                    null);
+            place(op);
+            defineTemporary(op.output, ops.size() - 1);
+            stack.add(op.output);
+            return true;
+          }
+        case Opcodes.PUTFIELD:
+          {
+            Value value = pop();
+            Value object = pop();
+            place(new Op(Kind.INSTANCE_PUT, new Value[] {value, object}, null, field, 0, null));
+            return true;
+          }
+        case Opcodes.PUTSTATIC:
+          place(new Op(Kind.STATIC_PUT, new Value[] {pop()}, null, field, 0, null));
+          return true;
+        default:
+          throw new Unreachable();
+      }
+    }
+
+    private boolean addInvoke(MethodInsnNode insn) {
+      if (insn.owner.startsWith("[")
+          || insn.owner.startsWith("java/lang/invoke/")
+          || (insn.itf && insn.getOpcode() != Opcodes.INVOKEINTERFACE)) {
+        return false;
+      }
+      DexMethod invokedMethod = application.getMethod(insn.owner, insn.name, insn.desc);
+      Invoke.Type type;
+      switch (insn.getOpcode()) {
+        case Opcodes.INVOKEVIRTUAL:
+          type = Invoke.Type.VIRTUAL;
+          break;
+        case Opcodes.INVOKESTATIC:
+          type = Invoke.Type.STATIC;
+          break;
+        case Opcodes.INVOKEINTERFACE:
+          type = Invoke.Type.INTERFACE;
+          break;
+        case Opcodes.INVOKESPECIAL:
+          // See JarSourceCode.invokeType.
+          type =
+              invokedMethod.holder == method.method.holder
+                      || factory.isConstructor(invokedMethod)
+                  ? Invoke.Type.DIRECT
+                  : Invoke.Type.SUPER;
+          break;
+        default:
+          throw new Unreachable();
+      }
+      if (!isTrivialInvoke(method, invokedMethod, type)) {
+        return false;
+      }
+      int argumentCount =
+          invokedMethod.proto.parameters.size() + (type == Invoke.Type.STATIC ? 0 : 1);
+      Value[] inputs = new Value[argumentCount];
+      int registers = 0;
+      for (int i = argumentCount - 1; i >= 0; i--) {
+        inputs[i] = pop();
+        registers += inputs[i].requiredRegisters();
+      }
+      if (registers > MAX_NON_RANGE_INVOKE_REGISTERS) {
+        return false;
+      }
+      outgoingRegisters = Math.max(outgoingRegisters, registers);
+      DexType returnType = invokedMethod.proto.returnType;
+      Value output =
+          returnType.isVoidType()
+              ? null
+              : new Value(-1, returnType.isLongType() || returnType.isDoubleType());
+      Op op = new Op(Kind.INVOKE, inputs, output, invokedMethod, 0, type);
+      place(op);
+      if (output != null) {
+        // The result is defined when it is known to be used.
+        pendingInvoke = op;
+        stack.add(output);
+      }
+      return true;
+    }
+
+    private Value pop() {
+      return stack.remove(stack.size() - 1);
+    }
+
+    // Places the constant inputs and then the instruction, and frees the registers of the
+    // temporaries that it uses.
+    private void place(Op op) {
+      for (Value input : op.inputs) {
+        if (input.constant != null) {
+          input.constant.line = currentLine;
+          ops.add(input.constant);
+          defineTemporary(input, ops.size() - 1);
+          input.constant = null;
+        }
+      }
+      op.line = currentLine;
+      ops.add(op);
+      for (Value input : op.inputs) {
+        if (input.isArgument()) {
+          input.lastUse = ops.size() - 1;
+        } else {
+          usedRegisters &= ~registerMask(input, input.register);
+        }
+      }
+      // See DexBuilder.removeRedundantDebugPositions.
+      if (currentLine == PREAMBLE_LINE) {
+        hasPreambleInstructions = true;
+      }
+      assert unresolvedLine == NO_LINE || unresolvedLine == currentLine;
+      unresolvedLine = NO_LINE;
+      materializedLine = currentLine;
+    }
+
+    // Allocates the lowest free register, or register pair, like the linear scan register
+    // allocator does when no register is blocked by a later use.
+    private void defineTemporary(Value value, int definition) {
+      int register = 0;
+      while ((usedRegisters & registerMask(value, register)) != 0) {
+        register++;
+      }
+      value.register = register;
+      usedRegisters |= registerMask(value, register);
+      temporaries = Math.max(temporaries, register + value.requiredRegisters());
+      lastTemporaryDefinition = definition;
+    }
+
+    private int registerMask(Value value, int register) {
+      return (value.wide ? 3 : 1) << register;
+    }
+
+    private int register(Value value) {
+      return value.isArgument() ? temporaries + value.argumentRegister : value.register;
+    }
+
+    private DexCode buildCode() {
+      List<Instruction> instructions = new ArrayList<>(ops.size() + 2);
+      List<DexDebugEvent> events = hasLines ? new ArrayList<>() : null;
+      int startLine = NO_LINE;
+      int emittedLine = NO_LINE;
+      int emittedPc = 0;
+      Position emittedPosition = null;
+      int pc = 0;
+      for (Op op : ops) {
+        if (events != null && op.line != emittedLine) {
+          // See DexDebugEventBuilder.emitDebugPosition.
+          Position position = new Position(op.line, null, method.method, null);
+          if (startLine == NO_LINE) {
+            startLine = op.line;
+            emittedPosition = position;
+          }
+          DexDebugEventBuilder.emitAdvancementEvents(
+              emittedPc, emittedPosition, pc, position, events, factory);
+          if (emittedLine == NO_LINE) {
+            // Arguments with a generic signature are not implicitly started.
+            for (Value argument : arguments) {
+              if (argument.local != null && argument.local.signature != null) {
+                events.add(new StartLocal(register(argument), argument.local));
+              }
+            }
+          }
+          emittedPc = pc;
+          emittedPosition = position;
+          emittedLine = op.line;
+        }
+        int size = instructions.size();
+        addInstructions(op, instructions);
+        for (int i = size; i < instructions.size(); i++) {
+          Instruction instruction = instructions.get(i);
+          instruction.setOffset(pc);
+          pc += instruction.getSize();
+        }
+      }
+      DexDebugInfo debugInfo = null;
+      if (events != null) {
+        DexString[] parameters = new DexString[method.method.getArity()];
+        int firstParameter = method.accessFlags.isStatic() ? 0 : 1;
+        for (int i = 0; i < parameters.length; i++) {
+          DebugLocalInfo local = arguments.get(firstParameter + i).local;
+          parameters[i] = local == null || local.signature != null ? null : local.name;
+        }
+        debugInfo =
+            new DexDebugInfo(startLine, parameters, events.toArray(DexDebugEvent.EMPTY_ARRAY));
+      }
+      return new DexCode(
+          temporaries + argumentRegisters,
+          argumentRegisters,
+          outgoingRegisters,
+          instructions.toArray(Instruction.EMPTY_ARRAY),
+          new Try[0],
+          new TryHandler[0],
+          debugInfo);
+    }
+
+    private void addInstructions(Op op, List<Instruction> instructions) {
+      switch (op.kind) {
+        case CONST_NUMBER:
+          instructions.add(constNumber(register(op.output), op.output.wide, op.value));
+          break;
+        case CONST_STRING:
+          instructions.add(new ConstString(register(op.output), (DexString) op.item));
+          break;
+        case INSTANCE_GET:
+          instructions.add(
+              instanceGet(register(op.output), register(op.inputs[0]), (DexField) op.item));
+          break;
+        case INSTANCE_PUT:
+          instructions.add(
+              instancePut(register(op.inputs[0]), register(op.inputs[1]), (DexField) op.item));
+          break;
+        case STATIC_GET:
+          instructions.add(staticGet(register(op.output), (DexField) op.item));
+          break;
+        case STATIC_PUT:
+          instructions.add(staticPut(register(op.inputs[0]), (DexField) op.item));
+          break;
+        case INVOKE:
+          addInvokeInstructions(op, instructions);
+          break;
+        case RETURN:
+          instructions.add(returnInstruction(op));
+          break;
+        default:
+          throw new Unreachable("Unexpected kind: " + op.kind);
+      }
+    }
+
+    private void addInvokeInstructions(Op op, List<Instruction> instructions) {
+      int[] registers = new int[MAX_NON_RANGE_INVOKE_REGISTERS];
+      int count = 0;
+      for (Value input : op.inputs) {
+        int register = register(input);
+        registers[count++] = register;
+        if (input.wide) {
+          registers[count++] = register + 1;
+        }
+      }
+      DexMethod invokedMethod = (DexMethod) op.item;
+      int c = registers[0];
+      int d = registers[1];
+      int e = registers[2];
+      int f = registers[3];
+      int g = registers[4];
+      switch (op.invokeType) {
+        case DIRECT:
+          instructions.add(new InvokeDirect(count, invokedMethod, c, d, e, f, g));
+          break;
+        case INTERFACE:
+          instructions.add(new InvokeInterface(count, invokedMethod, c, d, e, f, g));
+          break;
+        case STATIC:
+          instructions.add(new InvokeStatic(count, invokedMethod, c, d, e, f, g));
+          break;
+        case SUPER:
+          instructions.add(new InvokeSuper(count, invokedMethod, c, d, e, f, g));
+          break;
+        case VIRTUAL:
+          instructions.add(new InvokeVirtual(count, invokedMethod, c, d, e, f, g));
+          break;
+        default:
+          throw new Unreachable("Unexpected invoke type: " + op.invokeType);
+      }
+      if (op.output != null) {
+        int register = register(op.output);
+        DexType returnType = invokedMethod.proto.returnType;
+        if (returnType.isClassType() || returnType.isArrayType()) {
+          instructions.add(new MoveResultObject(register));
+        } else if (op.output.wide) {
+          instructions.add(new MoveResultWide(register));
+        } else {
+          instructions.add(new MoveResult(register));
+        }
+      }
+    }
+
+    private Instruction returnInstruction(Op op) {
+      if (op.inputs.length == 0) {
+        return new ReturnVoid();
+      }
+      int register = register(op.inputs[0]);
+      DexType returnType = method.method.proto.returnType;
+      if (returnType.isClassType() || returnType.isArrayType()) {
+        return new ReturnObject(register);
+      }
+      return op.inputs[0].wide ? new ReturnWide(register) : new Return(register);
+    }
+  }
+
+  // See ConstNumber.buildDex.
+  private static Instruction constNumber(int register, boolean wide, long value) {
+    if (!wide) {
+      assert NumberUtils.is32Bit(value);
+      if ((register & 0xf) == register && NumberUtils.is4Bit(value)) {
+        return new Const4(register, (int) value);
+      } else if (NumberUtils.is16Bit(value)) {
+        return new Const16(register, (int) value);
+      } else if ((value & 0x0000ffffL) == 0) {
+        return new ConstHigh16(register, ((int) value) >>> 16);
+      } else {
+        return new Const(register, (int) value);
+      }
+    }
+    if (NumberUtils.is16Bit(value)) {
+      return new ConstWide16(register, (int) value);
+    } else if ((value & 0x0000ffffffffffffL) == 0) {
+      return new ConstWideHigh16(register, (int) (value >>> 48));
+    } else if (NumberUtils.is32Bit(value)) {
+      return new ConstWide32(register, (int) value);
+    } else {
+      return new ConstWide(register, value);
+    }
+  }
+
+  private static Instruction instanceGet(int dest, int object, DexField field) {
+    switch (MemberType.fromDexType(field.type)) {
+      case INT:
+      case FLOAT:
+        return new Iget(dest, object, field);
+      case LONG:
+      case DOUBLE:
+        return new IgetWide(dest, object, field);
+      case OBJECT:
+        return new IgetObject(dest, object, field);
+      case BOOLEAN:
+        return new IgetBoolean(dest, object, field);
+      case BYTE:
+        return new IgetByte(dest, object, field);
+      case CHAR:
+        return new IgetChar(dest, object, field);
+      case SHORT:
+        return new IgetShort(dest, object, field);
+      default:
+        throw new Unreachable("Unexpected type: " + field.type);
+    }
+  }
+
+  private static Instruction instancePut(int value, int object, DexField field) {
+    switch (MemberType.fromDexType(field.type)) {
+      case INT:
+      case FLOAT:
+        return new Iput(value, object, field);
+      case LONG:
+      case DOUBLE:
+        return new IputWide(value, object, field);
+      case OBJECT:
+        return new IputObject(value, object, field);
+      case BOOLEAN:
+        return new IputBoolean(value, object, field);
+      case BYTE:
+        return new IputByte(value, object, field);
+      case CHAR:
+        return new IputChar(value, object, field);
+      case SHORT:
+        return new IputShort(value, object, field);
+      default:
+        throw new Unreachable("Unexpected type: " + field.type);
+    }
+  }
+
+  private static Instruction staticGet(int dest, DexField field) {
+    switch (MemberType.fromDexType(field.type)) {
+      case INT:
+      case FLOAT:
+        return new Sget(dest, field);
+      case LONG:
+      case DOUBLE:
+        return new SgetWide(dest, field);
+      case OBJECT:
+        return new SgetObject(dest, field);
+      case BOOLEAN:
+        return new SgetBoolean(dest, field);
+      case BYTE:
+        return new SgetByte(dest, field);
+      case CHAR:
+        return new SgetChar(dest, field);
+      case SHORT:
+        return new SgetShort(dest, field);
+      default:
+        throw new Unreachable("Unexpected type: " + field.type);
+    }
+  }
+
+  private static Instruction staticPut(int value, DexField field) {
+    switch (MemberType.fromDexType(field.type)) {
+      case INT:
+      case FLOAT:
+        return new Sput(value, field);
+      case LONG:
+      case DOUBLE:
+        return new SputWide(value, field);
+      case OBJECT:
+        return new SputObject(value, field);
+      case BOOLEAN:
+        return new SputBoolean(value, field);
+      case BYTE:
+        return new SputByte(value, field);
+      case CHAR:
+        return new SputChar(value, field);
+      case SHORT:
+        return new SputShort(value, field);
+      default:
+        throw new Unreachable("Unexpected type: " + field.type);
+    }
+  }
+}
@@ -92,6 +92,10 @@ public final class Java8MethodRewriter {
     return null;
   }
 
+  public boolean hasRewrite(DexMethod method) {
+    return getMethodGeneratorOrNull(method) != null;
+  }
+
   public static boolean hasJava8MethodRewritePrefix(DexType clazz) {
     return clazz.descriptor.toString().startsWith(UTILITY_CLASS_DESCRIPTOR_PREFIX);
   }
@@ -28,6 +28,7 @@ import com.android.tools.r8.ir.code.ValueNumberGenerator;
 import com.android.tools.r8.ir.conversion.CallSiteInformation;
 import com.android.tools.r8.ir.conversion.IRConverter;
 import com.android.tools.r8.ir.conversion.LensCodeRewriter;
+import com.android.tools.r8.ir.conversion.MethodProcessingProfile;
 import com.android.tools.r8.ir.conversion.OptimizationFeedback;
 import com.android.tools.r8.ir.desugar.TwrCloseResourceRewriter;
 import com.android.tools.r8.origin.Origin;
@@ -650,6 +651,11 @@ public class Inliner {
 
               context.copyMetadata(target);
               code.copyMetadataFromInlinee(inlinee.code);
+
+              MethodProcessingProfile profile = appView.options().methodProcessingProfile;
+              if (profile != null) {
+                profile.get(context).recordInlinedCall(getInliningDepth(invokePosition));
+              }
             }
           }
         }
@@ -662,6 +668,18 @@ public class Inliner {
     assert code.isConsistentSSA();
   }
 
+  // The depth of code inlined at the given position, where code inlined into the method itself has
+  // depth one.
+  private static int getInliningDepth(Position invokePosition) {
+    int depth = 1;
+    for (Position caller = invokePosition.callerPosition;
+        caller != null;
+        caller = caller.callerPosition) {
+      depth++;
+    }
+    return depth;
+  }
+
   private static DexType getDowncastTypeIfNeeded(
       InliningStrategy strategy, InvokeMethod invoke, DexEncodedMethod target) {
     if (invoke.isInvokeMethodWithReceiver()) {
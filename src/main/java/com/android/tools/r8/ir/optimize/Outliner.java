@@ -53,6 +53,7 @@ import com.android.tools.r8.ir.code.ValueType;
 import com.android.tools.r8.ir.code.ValueTypeConstraint;
 import com.android.tools.r8.ir.conversion.IRBuilder;
 import com.android.tools.r8.ir.conversion.IRConverter;
+import com.android.tools.r8.ir.conversion.MethodProcessingProfile;
 import com.android.tools.r8.ir.conversion.SourceCode;
 import com.android.tools.r8.ir.optimize.Inliner.ConstraintWithTarget;
 import com.android.tools.r8.naming.ClassNameMapper;
@@ -1114,6 +1115,7 @@ public class Outliner {
     private final ListIterator<BasicBlock> blocksIterator;
     private final List<Integer> toRemove;
     int argumentsMapIndex;
+    int outlineCalls = 0;
 
     OutlineRewriter(
         DexEncodedMethod method, IRCode code,
@@ -1170,6 +1172,7 @@ public class Outliner {
           returnValue = null;
         }
         Invoke outlineInvoke = new InvokeStatic(m, returnValue, in);
+        outlineCalls++;
         outlineInvoke.setBlock(block);
         outlineInvoke.setPosition(position);
         if (position.isNone() && code.doAllThrowingInstructionsHavePositions()) {
@@ -1318,12 +1321,19 @@ public class Outliner {
   public void applyOutliningCandidate(IRCode code, DexEncodedMethod method) {
     assert !(method.getCode() instanceof OutlineCode);
     ListIterator<BasicBlock> blocksIterator = code.blocks.listIterator();
+    int outlineCalls = 0;
     while (blocksIterator.hasNext()) {
       BasicBlock block = blocksIterator.next();
       List<Integer> toRemove = new ArrayList<>();
-      new OutlineRewriter(method, code, blocksIterator, block, toRemove).process();
+      OutlineRewriter rewriter = new OutlineRewriter(method, code, blocksIterator, block, toRemove);
+      rewriter.process();
+      outlineCalls += rewriter.outlineCalls;
       block.removeInstructions(toRemove);
     }
+    MethodProcessingProfile profile = appView.options().methodProcessingProfile;
+    if (profile != null) {
+      profile.get(method).recordOutlineCalls(outlineCalls);
+    }
   }
 
   public boolean checkAllOutlineSitesFoundAgain() {
@@ -4,6 +4,7 @@
 
 package com.android.tools.r8.ir.optimize.lambda;
 
+import com.android.tools.r8.ByteDataView;
 import com.android.tools.r8.errors.Unreachable;
 import com.android.tools.r8.graph.AppInfo;
 import com.android.tools.r8.graph.AppInfoWithSubtyping;
@@ -183,7 +184,8 @@ public abstract class LambdaGroup {
       for (LambdaInfo lambda : lambdas) {
         DexString descriptor = lambda.clazz.type.descriptor;
         out.writeInt(descriptor.size); // To avoid same-prefix problem
-        out.write(descriptor.content);
+        ByteDataView content = descriptor.getContentView();
+        out.write(content.getBuffer(), content.getOffset(), content.getLength());
       }
       out.close();
 
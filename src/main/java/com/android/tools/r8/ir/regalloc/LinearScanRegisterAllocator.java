@@ -139,6 +139,8 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
 
   // The current register allocation mode.
   private ArgumentReuseMode mode = ArgumentReuseMode.ALLOW_ARGUMENT_REUSE_U4BIT;
+  // Number of times the allocation was redone in a more pessimistic mode.
+  private int numberOfAllocationRetries = 0;
   // The set of registers that are free for allocation.
   private TreeSet<Integer> freeRegisters = new TreeSet<>();
   // The max register number used.
@@ -650,6 +652,10 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
     return blocks;
   }
 
+  public int getNumberOfAllocationRetries() {
+    return numberOfAllocationRetries;
+  }
+
   private void performAllocation() {
     // Will automatically continue to ALLOW_ARGUMENT_REUSE_U8BIT and ALLOW_ARGUMENT_REUSE_U16BIT,
     // if needed.
@@ -661,6 +667,7 @@ public class LinearScanRegisterAllocator implements RegisterAllocator {
     this.mode = mode;
 
     if (isRetry) {
+      numberOfAllocationRetries++;
       clearRegisterAssignments(mode);
       removeSpillAndPhiMoves();
     }
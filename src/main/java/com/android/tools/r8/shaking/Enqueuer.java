@@ -43,6 +43,7 @@ import com.android.tools.r8.graph.DexString;
 import com.android.tools.r8.graph.DexType;
 import com.android.tools.r8.graph.KeyedDexItem;
 import com.android.tools.r8.graph.PresortedComparable;
+import com.android.tools.r8.graph.RecordingUseRegistry;
 import com.android.tools.r8.ir.code.ArrayPut;
 import com.android.tools.r8.ir.code.ConstantValueUtils;
 import com.android.tools.r8.ir.code.IRCode;
@@ -73,11 +74,13 @@ import it.unimi.dsi.fastutil.objects.Object2BooleanArrayMap;
 import it.unimi.dsi.fastutil.objects.Object2BooleanMap;
 import java.lang.reflect.InvocationHandler;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -88,6 +91,7 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -215,6 +219,18 @@ public class Enqueuer {
   private final SetWithReason<DexEncodedField> liveFields =
       new SetWithReason<>(this::registerField);
 
+  /**
+   * Set of types that became live, or that have members that became live or targeted, since the
+   * -if rules were last evaluated.
+   */
+  private final Set<DexType> typesToEvaluateIfRulesFor = new LinkedHashSet<>();
+
+  /** Index of the -if rules, created when the -if rules are evaluated for the first time. */
+  private IfRuleIndex ifRuleIndex;
+
+  /** Index of the classes, shared by the evaluations of the -if rules. */
+  private ProguardClassIndex classIndex;
+
   /**
    * Set of service types (from META-INF/services/) that may have been instantiated reflectively via
    * ServiceLoader.load() or ServiceLoader.loadInstalled().
@@ -238,6 +254,15 @@ public class Enqueuer {
    */
   private final Queue<Action> proguardCompatibilityWorkList = Queues.newArrayDeque();
 
+  /**
+   * References of the code of methods that have been enqueued to become live, which are being
+   * collected on the executor service when concurrent tracing is enabled.
+   */
+  private final Map<DexEncodedMethod, Future<RecordingUseRegistry>> pendingCodeReferences =
+      new IdentityHashMap<>();
+
+  private ExecutorService executorService;
+
   /**
    * A set of methods that need code inspection for Java reflection in use.
    */
@@ -322,6 +347,65 @@ public class Enqueuer {
     return new SetWithReason<>((f, r) -> {});
   }
 
+  private void enqueueMarkMethodLive(DexEncodedMethod method, KeepReason reason) {
+    workList.add(Action.markMethodLive(method, reason));
+    if (options.enableConcurrentTracing
+        && method.getCode() != null
+        && !liveMethods.contains(method)
+        && !pendingCodeReferences.containsKey(method)) {
+      DexClass holder = appView.definitionFor(method.method.holder);
+      if (holder != null && holder.isProgramClass()) {
+        pendingCodeReferences.put(
+            method, executorService.submit(() -> recordCodeReferences(method)));
+      }
+    }
+  }
+
+  // Lazily parsed code is parsed for all methods of a class at once, so the code of the methods
+  // of the same class must not be read concurrently. All reads of the code of a method during
+  // tracing hold the lock returned here.
+  private Object getCodeLock(DexEncodedMethod method) {
+    DexClass holder = appView.definitionFor(method.method.holder);
+    return holder != null ? holder : method;
+  }
+
+  private RecordingUseRegistry recordCodeReferences(DexEncodedMethod method) {
+    synchronized (getCodeLock(method)) {
+      return RecordingUseRegistry.record(method, options.itemFactory);
+    }
+  }
+
+  private void registerCodeReferences(DexEncodedMethod method) {
+    UseRegistry registry = new UseRegistry(options.itemFactory, method);
+    Future<RecordingUseRegistry> future = pendingCodeReferences.remove(method);
+    if (future == null) {
+      if (options.enableConcurrentTracing) {
+        // Background workers may be scanning other methods of the same class.
+        recordCodeReferences(method).replay(registry);
+      } else {
+        method.registerCodeReferences(registry);
+      }
+      return;
+    }
+    RecordingUseRegistry recording;
+    try {
+      recording = future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+    recording.replay(registry);
+  }
+
   private void enqueueRootItems(Map<DexReference, Set<ProguardKeepRule>> items) {
     items.entrySet().forEach(this::enqueueRootItem);
   }
@@ -369,7 +453,7 @@ public class Enqueuer {
                   KeepReason.dueToProguardCompatibilityKeepRule(compatRule)));
         }
         if (clazz.isExternalizable(appView)) {
-          workList.add(Action.markMethodLive(clazz.getDefaultInitializer(), reason));
+          enqueueMarkMethodLive(clazz.getDefaultInitializer(), reason);
         }
       }
     } else if (item.isDexEncodedField()) {
@@ -390,7 +474,7 @@ public class Enqueuer {
       clazz = appView.definitionFor(clazz.superType);
     }
     if (clazz != null && clazz.isProgramClass() && clazz.hasDefaultInitializer()) {
-      workList.add(Action.markMethodLive(clazz.getDefaultInitializer(), reason));
+      enqueueMarkMethodLive(clazz.getDefaultInitializer(), reason);
     }
   }
 
@@ -835,6 +919,7 @@ public class Enqueuer {
       return;
     }
     if (liveTypes.add(type)) {
+      typesToEvaluateIfRulesFor.add(type);
       if (Log.ENABLED) {
         Log.verbose(getClass(), "Type `%s` has become live.", type);
       }
@@ -1010,6 +1095,7 @@ public class Enqueuer {
     if (!targetedMethods.add(method, reason)) {
       return;
     }
+    typesToEvaluateIfRulesFor.add(method.method.holder);
     markTypeAsLive(method.method.holder);
     markParameterAndReturnTypesAsLive(method);
     if (appView.definitionFor(method.method.holder).isProgramClass()) {
@@ -1200,7 +1286,9 @@ public class Enqueuer {
       }
     }
     processAnnotations(encodedField, encodedField.annotations.annotations);
-    liveFields.add(encodedField, reason);
+    if (liveFields.add(encodedField, reason)) {
+      typesToEvaluateIfRulesFor.add(encodedField.field.holder);
+    }
     collectProguardCompatibilityRule(reason);
 
     // Add all dependent members to the workqueue.
@@ -1216,7 +1304,9 @@ public class Enqueuer {
       Log.verbose(getClass(), "Adding instance field `%s` to live set.", field.field);
     }
     processAnnotations(field, field.annotations.annotations);
-    liveFields.add(field, reason);
+    if (liveFields.add(field, reason)) {
+      typesToEvaluateIfRulesFor.add(field.field.holder);
+    }
     collectProguardCompatibilityRule(reason);
     // Add all dependent members to the workqueue.
     enqueueRootItems(rootSet.getDependentItems(field));
@@ -1275,7 +1365,7 @@ public class Enqueuer {
         Log.verbose(getClass(), "Method `%s` has become live due to direct invoke",
             encodedMethod.method);
       }
-      workList.add(Action.markMethodLive(encodedMethod, reason));
+      enqueueMarkMethodLive(encodedMethod, reason);
     }
   }
 
@@ -1289,7 +1379,7 @@ public class Enqueuer {
       if (Log.ENABLED) {
         Log.verbose(getClass(), "Adding virtual method `%s` to live set.", method.method);
       }
-      workList.add(Action.markMethodLive(method, reason));
+      enqueueMarkMethodLive(method, reason);
     }
   }
 
@@ -1486,6 +1576,7 @@ public class Enqueuer {
       RootSet rootSet, ExecutorService executorService, Timing timing) throws ExecutionException {
     this.tracingMainDex = true;
     this.rootSet = rootSet;
+    this.executorService = executorService;
     // Translate the result of root-set computation into enqueuer actions.
     enqueueRootItems(rootSet.noShrinking);
     trace(executorService, timing);
@@ -1501,6 +1592,7 @@ public class Enqueuer {
       throws ExecutionException {
     this.rootSet = rootSet;
     this.dontWarnPatterns = dontWarnPatterns;
+    this.executorService = executorService;
     // Translate the result of root-set computation into enqueuer actions.
     enqueueRootItems(rootSet.noShrinking);
     appInfo.libraryClasses().forEach(this::markAllLibraryVirtualMethodsReachable);
@@ -1653,14 +1745,32 @@ public class Enqueuer {
         numOfLiveItemsAfterProcessing += (long) liveMethods.items.size();
         numOfLiveItemsAfterProcessing += (long) liveFields.items.size();
         if (numOfLiveItemsAfterProcessing > numOfLiveItems) {
-          RootSetBuilder consequentSetBuilder = new RootSetBuilder(appView, rootSet.ifRules);
+          if (classIndex == null) {
+            classIndex = new ProguardClassIndex(appView.appInfo().app().asDirect());
+          }
+          RootSetBuilder consequentSetBuilder =
+              new RootSetBuilder(appView, rootSet.ifRules, classIndex);
           IfRuleEvaluator ifRuleEvaluator =
               consequentSetBuilder.getIfRuleEvaluator(
                   liveFields.getItems(),
                   liveMethods.getItems(),
                   targetedMethods.getItems(),
                   executorService);
-          ConsequentRootSet consequentRootSet = ifRuleEvaluator.run(liveTypes);
+          if (ifRuleIndex == null) {
+            ifRuleIndex = new IfRuleIndex(rootSet.ifRules);
+          }
+          // Only the types that changed since the previous evaluation can enable new -if rules.
+          List<DexType> typesToEvaluate = new ArrayList<>();
+          Iterator<DexType> iterator = typesToEvaluateIfRulesFor.iterator();
+          while (iterator.hasNext()) {
+            DexType type = iterator.next();
+            if (liveTypes.contains(type)) {
+              typesToEvaluate.add(type);
+              iterator.remove();
+            }
+          }
+          ConsequentRootSet consequentRootSet =
+              ifRuleEvaluator.run(typesToEvaluate, ifRuleIndex);
           rootSet.addConsequentRootSet(consequentRootSet);
           enqueueRootItems(consequentRootSet.noShrinking);
           // Check if any newly dependent members are not static, and in that case find the holder
@@ -1709,6 +1819,7 @@ public class Enqueuer {
         Log.debug(getClass(), "%s methods are targeted but not live", targetedButNotLive.size());
         Log.info(getClass(), "Targeted but not live: %s", targetedButNotLive);
       }
+      assert pendingCodeReferences.isEmpty();
       assert liveTypes.stream().allMatch(DexType::isClassType);
       assert instantiatedTypes.getItems().stream().allMatch(DexType::isClassType);
     } finally {
@@ -1784,6 +1895,7 @@ public class Enqueuer {
 
   private void processNewlyLiveMethod(DexEncodedMethod method, KeepReason reason) {
     if (liveMethods.add(method, reason)) {
+      typesToEvaluateIfRulesFor.add(method.method.holder);
       collectProguardCompatibilityRule(reason);
       DexClass holder = appView.definitionFor(method.method.holder);
       assert holder != null;
@@ -1808,7 +1920,7 @@ public class Enqueuer {
         method.parameterAnnotationsList.forEachAnnotation(
             annotation -> processAnnotation(method, annotation));
       }
-      method.registerCodeReferences(new UseRegistry(options.itemFactory, method));
+      registerCodeReferences(method);
       // Add all dependent members to the workqueue.
       enqueueRootItems(rootSet.getDependentItems(method));
     }
@@ -1845,7 +1957,7 @@ public class Enqueuer {
     assert clazz.isProgramClass();
     workList.add(Action.markInstantiated(clazz, reason));
     if (clazz.hasDefaultInitializer()) {
-      workList.add(Action.markMethodLive(clazz.getDefaultInitializer(), reason));
+      enqueueMarkMethodLive(clazz.getDefaultInitializer(), reason);
     }
   }
 
@@ -1871,7 +1983,10 @@ public class Enqueuer {
   private void handleReflectiveBehavior(DexEncodedMethod method) {
     DexType originHolder = method.method.holder;
     Origin origin = appInfo.originFor(originHolder);
-    IRCode code = method.buildIR(appView, origin);
+    IRCode code;
+    synchronized (getCodeLock(method)) {
+      code = method.buildIR(appView, origin);
+    }
     Iterator<Instruction> iterator = code.instructionIterator();
     while (iterator.hasNext()) {
       Instruction instruction = iterator.next();
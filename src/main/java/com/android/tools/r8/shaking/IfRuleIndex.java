@@ -0,0 +1,137 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.shaking;
+
+import com.android.tools.r8.graph.DexAnnotation;
+import com.android.tools.r8.graph.DexClass;
+import com.android.tools.r8.graph.DexType;
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Index of -if rules by the class names that their conditions can match.
+ *
+ * <p>As in {@link ProguardClassIndex}, rules whose class names have wildcards are indexed by the
+ * prefixes that the source names of the matched classes start with, or, if the class names can
+ * match any name, by the type of their class annotation. Only the remaining rules are checked for
+ * every type.
+ *
+ * <p>The index also records the types that the -if rules have already been evaluated for. The
+ * class part of a condition only depends on the class itself, so a condition without member rules
+ * only has to be evaluated once per live type. Conditions with member rules have to be evaluated
+ * again when a member of the type becomes live or targeted.
+ */
+class IfRuleIndex {
+
+  private final Map<DexType, List<ProguardIfRule>> rulesForSpecificTypes = new IdentityHashMap<>();
+  private final Map<String, List<ProguardIfRule>> rulesForNamePrefixes = new HashMap<>();
+  // Distinct lengths of the keys of rulesForNamePrefixes, in increasing order.
+  private final int[] namePrefixLengths;
+  private final Map<DexType, List<ProguardIfRule>> rulesForClassAnnotations =
+      new IdentityHashMap<>();
+  private final List<ProguardIfRule> rulesForAnyType = new ArrayList<>();
+
+  private final Set<DexType> evaluatedTypes = Sets.newIdentityHashSet();
+
+  IfRuleIndex(Set<ProguardIfRule> rules) {
+    SortedSet<Integer> prefixLengths = new TreeSet<>();
+    for (ProguardIfRule rule : rules) {
+      List<DexType> specificTypes = rule.getClassNames().asSpecificDexTypes();
+      if (specificTypes != null) {
+        for (DexType type : specificTypes) {
+          add(rulesForSpecificTypes, type, rule);
+        }
+        continue;
+      }
+      List<String> prefixes = rule.getClassNames().getSourceNamePrefixes();
+      if (prefixes != null) {
+        for (String prefix : withoutRedundantPrefixes(prefixes)) {
+          add(rulesForNamePrefixes, prefix, rule);
+          prefixLengths.add(prefix.length());
+        }
+        continue;
+      }
+      ProguardTypeMatcher classAnnotation = rule.getClassAnnotation();
+      if (classAnnotation != null && classAnnotation.matchesSpecificType()) {
+        add(rulesForClassAnnotations, classAnnotation.getSpecificType(), rule);
+        continue;
+      }
+      rulesForAnyType.add(rule);
+    }
+    namePrefixLengths = prefixLengths.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static <K> void add(Map<K, List<ProguardIfRule>> map, K key, ProguardIfRule rule) {
+    map.computeIfAbsent(key, ignore -> new ArrayList<>()).add(rule);
+  }
+
+  // Drops the prefixes that start with another prefix, such that a name starts with at most one of
+  // the remaining prefixes, and a rule is found at most once for a class.
+  private static List<String> withoutRedundantPrefixes(List<String> prefixes) {
+    List<String> result = new ArrayList<>();
+    for (String prefix : new TreeSet<>(prefixes)) {
+      // In sorted order, a prefix follows the prefixes that it starts with.
+      if (result.isEmpty() || !prefix.startsWith(result.get(result.size() - 1))) {
+        result.add(prefix);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns true if the -if rules have not been evaluated for the given type before, and records
+   * that they have.
+   */
+  boolean markEvaluated(DexType type) {
+    return evaluatedTypes.add(type);
+  }
+
+  /** Calls the consumer with the -if rules whose class names can match the given class. */
+  void forEachRuleMatchingClass(
+      DexClass clazz, boolean includeRulesWithoutMemberRules, Consumer<ProguardIfRule> consumer) {
+    forEachRule(
+        rulesForSpecificTypes.get(clazz.type), includeRulesWithoutMemberRules, consumer);
+    if (namePrefixLengths.length > 0) {
+      String name = clazz.type.toSourceString();
+      for (int length : namePrefixLengths) {
+        if (length > name.length()) {
+          break;
+        }
+        forEachRule(
+            rulesForNamePrefixes.get(name.substring(0, length)),
+            includeRulesWithoutMemberRules,
+            consumer);
+      }
+    }
+    for (DexAnnotation annotation : clazz.annotations.annotations) {
+      forEachRule(
+          rulesForClassAnnotations.get(annotation.annotation.type),
+          includeRulesWithoutMemberRules,
+          consumer);
+    }
+    forEachRule(rulesForAnyType, includeRulesWithoutMemberRules, consumer);
+  }
+
+  private static void forEachRule(
+      List<ProguardIfRule> rules,
+      boolean includeRulesWithoutMemberRules,
+      Consumer<ProguardIfRule> consumer) {
+    if (rules == null) {
+      return;
+    }
+    for (ProguardIfRule rule : rules) {
+      if (includeRulesWithoutMemberRules || !rule.getMemberRules().isEmpty()) {
+        consumer.accept(rule);
+      }
+    }
+  }
+}
@@ -0,0 +1,221 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.shaking;
+
+import com.android.tools.r8.graph.DexAnnotation;
+import com.android.tools.r8.graph.DexClass;
+import com.android.tools.r8.graph.DexType;
+import com.android.tools.r8.graph.DirectMappedDexApplication;
+import com.google.common.collect.Sets;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index over the program and library classes of an application, which is used to find the classes
+ * that can match a class specification without visiting all classes.
+ *
+ * <p>The classes are numbered by their position in the application, program classes first. The
+ * index consists of the class names in sorted order, which allows looking up the classes in a
+ * package or with a given name prefix, and of postings from types to the classes that directly
+ * extend or implement them and to the classes that are annotated with them.
+ *
+ * <p>The candidates returned for a rule are a superset of the classes that the rule matches, so the
+ * candidates must still be checked against the rule.
+ *
+ * <p>The index is built when it is used for the first time, which may happen concurrently on the
+ * threads matching the rules. It is not modified once built.
+ */
+class ProguardClassIndex {
+
+  private final DirectMappedDexApplication application;
+
+  // Set once the index has been built, after all other fields of the index.
+  private volatile DexClass[] classes;
+  private int numberOfProgramClasses;
+
+  // Indices of the classes, sorted by the source names of the classes.
+  private int[] sortedIndices;
+  private String[] sortedNames;
+
+  private final Map<DexType, List<DexType>> directSubtypes = new IdentityHashMap<>();
+  private final Map<DexType, IntList> classesByType = new IdentityHashMap<>();
+  private final Map<DexType, IntList> annotatedClasses = new IdentityHashMap<>();
+
+  ProguardClassIndex(DirectMappedDexApplication application) {
+    this.application = application;
+  }
+
+  private void ensureBuilt() {
+    if (classes == null) {
+      synchronized (this) {
+        if (classes == null) {
+          build();
+        }
+      }
+    }
+  }
+
+  private void build() {
+    List<DexClass> classList = new ArrayList<>(application.classes());
+    numberOfProgramClasses = classList.size();
+    classList.addAll(application.libraryClasses());
+    DexClass[] classes = classList.toArray(new DexClass[0]);
+
+    String[] names = new String[classes.length];
+    Integer[] order = new Integer[classes.length];
+    for (int i = 0; i < classes.length; i++) {
+      DexClass clazz = classes[i];
+      names[i] = clazz.type.toSourceString();
+      order[i] = i;
+      classesByType.computeIfAbsent(clazz.type, ignore -> new IntArrayList()).add(i);
+      for (DexAnnotation annotation : clazz.annotations.annotations) {
+        annotatedClasses
+            .computeIfAbsent(annotation.annotation.type, ignore -> new IntArrayList())
+            .add(i);
+      }
+    }
+    Arrays.sort(order, Comparator.comparing(index -> names[index]));
+    sortedIndices = new int[order.length];
+    sortedNames = new String[order.length];
+    for (int i = 0; i < order.length; i++) {
+      sortedIndices[i] = order[i];
+      sortedNames[i] = names[order[i]];
+    }
+
+    // The subtype relation also needs the classpath classes, since a program class may extend a
+    // type through a classpath class.
+    for (DexClass clazz : application.allClasses()) {
+      if (clazz.superType != null) {
+        addDirectSubtype(clazz.superType, clazz.type);
+      }
+      for (DexType iface : clazz.interfaces.values) {
+        addDirectSubtype(iface, clazz.type);
+      }
+    }
+    this.classes = classes;
+  }
+
+  private void addDirectSubtype(DexType type, DexType subtype) {
+    directSubtypes.computeIfAbsent(type, ignore -> new ArrayList<>()).add(subtype);
+  }
+
+  /** Returns true if the class with the given index is a program class. */
+  boolean isProgramClass(int index) {
+    return index < numberOfProgramClasses;
+  }
+
+  DexClass getClass(int index) {
+    return classes[index];
+  }
+
+  /**
+   * Returns the indices of the classes that can match the class name, the class annotation and the
+   * inheritance part of the given rule, in increasing order, or null if all classes can match.
+   */
+  int[] getCandidates(ProguardConfigurationRule rule, boolean includeInheritance) {
+    ensureBuilt();
+    int[] candidates = getCandidatesByName(rule.getClassNames());
+    candidates = smallest(candidates, getCandidatesByAnnotation(rule.getClassAnnotation()));
+    if (includeInheritance && rule.hasInheritanceClassName()) {
+      candidates = smallest(candidates, getSubtypes(rule.getInheritanceClassName()));
+    }
+    return candidates;
+  }
+
+  private static int[] smallest(int[] candidates, int[] other) {
+    if (candidates == null) {
+      return other;
+    }
+    if (other == null) {
+      return candidates;
+    }
+    return other.length < candidates.length ? other : candidates;
+  }
+
+  private int[] getCandidatesByName(ProguardClassNameList classNames) {
+    List<String> prefixes = classNames.getSourceNamePrefixes();
+    if (prefixes == null) {
+      return null;
+    }
+    IntList result = new IntArrayList();
+    for (String prefix : prefixes) {
+      for (int i = lowerBound(prefix);
+          i < sortedNames.length && sortedNames[i].startsWith(prefix);
+          i++) {
+        result.add(sortedIndices[i]);
+      }
+    }
+    return toSortedUniqueArray(result);
+  }
+
+  // Returns the position of the first name that is not less than the given prefix.
+  private int lowerBound(String prefix) {
+    int low = 0;
+    int high = sortedNames.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (sortedNames[middle].compareTo(prefix) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private int[] getCandidatesByAnnotation(ProguardTypeMatcher classAnnotation) {
+    if (classAnnotation == null || !classAnnotation.matchesSpecificType()) {
+      return null;
+    }
+    IntList result = annotatedClasses.get(classAnnotation.getSpecificType());
+    return result == null ? new int[0] : toSortedUniqueArray(result);
+  }
+
+  private int[] getSubtypes(ProguardTypeMatcher inheritanceClassName) {
+    if (!inheritanceClassName.matchesSpecificType()) {
+      return null;
+    }
+    IntList result = new IntArrayList();
+    Set<DexType> visited = Sets.newIdentityHashSet();
+    Deque<DexType> worklist = new ArrayDeque<>();
+    worklist.add(inheritanceClassName.getSpecificType());
+    while (!worklist.isEmpty()) {
+      List<DexType> subtypes = directSubtypes.get(worklist.removeFirst());
+      if (subtypes == null) {
+        continue;
+      }
+      for (DexType subtype : subtypes) {
+        if (visited.add(subtype)) {
+          IntList indices = classesByType.get(subtype);
+          if (indices != null) {
+            result.addAll(indices);
+          }
+          worklist.addLast(subtype);
+        }
+      }
+    }
+    return toSortedUniqueArray(result);
+  }
+
+  private static int[] toSortedUniqueArray(IntList list) {
+    int[] array = list.toIntArray();
+    Arrays.sort(array);
+    int size = 0;
+    for (int i = 0; i < array.length; i++) {
+      if (size == 0 || array[size - 1] != array[i]) {
+        array[size++] = array[i];
+      }
+    }
+    return size == array.length ? array : Arrays.copyOf(array, size);
+  }
+}
@@ -9,6 +9,7 @@ import com.google.common.collect.Iterables;
 import it.unimi.dsi.fastutil.objects.Object2BooleanArrayMap;
 import it.unimi.dsi.fastutil.objects.Object2BooleanMap;
 import it.unimi.dsi.fastutil.objects.Object2BooleanMap.Entry;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -75,6 +76,24 @@ public abstract class ProguardClassNameList {
 
   public abstract boolean matches(DexType type);
 
+  /**
+   * Returns prefixes such that the source name of every class type that this list matches starts
+   * with one of them, or null if there are no such prefixes.
+   */
+  public abstract List<String> getSourceNamePrefixes();
+
+  static List<String> getSourceNamePrefixes(Iterable<ProguardTypeMatcher> classNames) {
+    List<String> prefixes = new ArrayList<>();
+    for (ProguardTypeMatcher className : classNames) {
+      String prefix = className.getSourceNamePrefix();
+      if (prefix.isEmpty()) {
+        return null;
+      }
+      prefixes.add(prefix);
+    }
+    return prefixes;
+  }
+
   protected Iterable<ProguardWildcard> getWildcards() {
     return Collections::emptyIterator;
   }
@@ -113,6 +132,11 @@ public abstract class ProguardClassNameList {
       return false;
     }
 
+    @Override
+    public List<String> getSourceNamePrefixes() {
+      return Collections.emptyList();
+    }
+
     @Override
     public void forEachTypeMatcher(Consumer<ProguardTypeMatcher> consumer) {
     }
@@ -147,6 +171,11 @@ public abstract class ProguardClassNameList {
       return className.matches(type);
     }
 
+    @Override
+    public List<String> getSourceNamePrefixes() {
+      return getSourceNamePrefixes(Collections.singletonList(className));
+    }
+
     @Override
     protected Iterable<ProguardWildcard> getWildcards() {
       return className.getWildcards();
@@ -202,6 +231,11 @@ public abstract class ProguardClassNameList {
       return classNames.stream().anyMatch(name -> name.matches(type));
     }
 
+    @Override
+    public List<String> getSourceNamePrefixes() {
+      return getSourceNamePrefixes(classNames);
+    }
+
     @Override
     protected Iterable<ProguardWildcard> getWildcards() {
       return classNames.stream()
@@ -266,6 +300,18 @@ public abstract class ProguardClassNameList {
       return false;
     }
 
+    @Override
+    public List<String> getSourceNamePrefixes() {
+      // Only the non-negated class names can make the list match.
+      List<ProguardTypeMatcher> positiveClassNames = new ArrayList<>();
+      for (Entry<ProguardTypeMatcher> className : classNames.object2BooleanEntrySet()) {
+        if (!className.getBooleanValue()) {
+          positiveClassNames.add(className.getKey());
+        }
+      }
+      return getSourceNamePrefixes(positiveClassNames);
+    }
+
     @Override
     protected Iterable<ProguardWildcard> getWildcards() {
       return classNames.keySet().stream()
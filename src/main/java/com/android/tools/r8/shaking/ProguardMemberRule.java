@@ -184,8 +184,7 @@ public class ProguardMemberRule {
         return RootSetBuilder.containsAnnotation(annotation, field.annotations);
       case FIELD:
         // Name check.
-        String name = stringCache.lookupString(originalSignature.name);
-        if (!getName().matches(name)) {
+        if (!getName().matches(originalSignature.name, stringCache)) {
           break;
         }
         // Access flags check.
@@ -237,8 +236,7 @@ public class ProguardMemberRule {
       case CONSTRUCTOR:
       case INIT:
         // Name check.
-        String name = stringCache.lookupString(originalSignature.name);
-        if (!getName().matches(name)) {
+        if (!getName().matches(originalSignature.name, stringCache)) {
           break;
         }
         // Access flags check.
@@ -3,8 +3,8 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.android.tools.r8.shaking;
 
+import com.android.tools.r8.graph.DexString;
 import com.android.tools.r8.shaking.ProguardConfigurationParser.IdentifierPatternWithWildcards;
-import com.android.tools.r8.shaking.ProguardWildcard.BackReference;
 import com.android.tools.r8.shaking.ProguardWildcard.Pattern;
 import com.google.common.collect.ImmutableList;
 import java.util.Collections;
@@ -29,66 +29,14 @@ public abstract class ProguardNameMatcher {
     }
   }
 
-  private static boolean matchFieldOrMethodNameImpl(
-      String pattern, int patternIndex,
-      String name, int nameIndex,
-      List<ProguardWildcard> wildcards, int wildcardIndex) {
-    ProguardWildcard wildcard;
-    Pattern wildcardPattern;
-    BackReference backReference;
-    for (int i = patternIndex; i < pattern.length(); i++) {
-      char patternChar = pattern.charAt(i);
-      switch (patternChar) {
-        case '*':
-          wildcard = wildcards.get(wildcardIndex);
-          assert wildcard.isPattern();
-          wildcardPattern = wildcard.asPattern();
-          // Match the rest of the pattern against the rest of the name.
-          for (int nextNameIndex = nameIndex; nextNameIndex <= name.length(); nextNameIndex++) {
-            wildcardPattern.setCaptured(name.substring(nameIndex, nextNameIndex));
-            if (matchFieldOrMethodNameImpl(
-                pattern, i + 1, name, nextNameIndex, wildcards, wildcardIndex + 1)) {
-              return true;
-            }
-          }
-          return false;
-        case '?':
-          wildcard = wildcards.get(wildcardIndex);
-          assert wildcard.isPattern();
-          if (nameIndex == name.length()) {
-            return false;
-          }
-          wildcardPattern = wildcard.asPattern();
-          wildcardPattern.setCaptured(name.substring(nameIndex, nameIndex + 1));
-          nameIndex++;
-          wildcardIndex++;
-          break;
-        case '<':
-          wildcard = wildcards.get(wildcardIndex);
-          assert wildcard.isBackReference();
-          backReference = wildcard.asBackReference();
-          String captured = backReference.getCaptured();
-          if (captured == null
-              || name.length() < nameIndex + captured.length()
-              || !captured.equals(name.substring(nameIndex, nameIndex + captured.length()))) {
-            return false;
-          }
-          nameIndex = nameIndex + captured.length();
-          wildcardIndex++;
-          i = pattern.indexOf(">", i);
-          break;
-        default:
-          if (nameIndex == name.length() || patternChar != name.charAt(nameIndex++)) {
-            return false;
-          }
-          break;
-      }
-    }
-    return nameIndex == name.length();
-  }
-
   public abstract boolean matches(String name);
 
+  // Evaluates this matcher on the given name, using the given cache to look up the name as a
+  // string when needed.
+  boolean matches(DexString name, DexStringCache stringCache) {
+    return matches(stringCache.lookupString(name));
+  }
+
   protected Iterable<ProguardWildcard> getWildcards() {
     return Collections::emptyIterator;
   }
@@ -138,19 +86,36 @@ public abstract class ProguardNameMatcher {
 
     private final String pattern;
     private final List<ProguardWildcard> wildcards;
+    private final ProguardWildcardPatternMatcher matcher;
 
     MatchNamePattern(IdentifierPatternWithWildcards identifierPatternWithWildcards) {
+      this(
+          identifierPatternWithWildcards,
+          ProguardWildcardPatternMatcher.compileFieldOrMethodName(
+              identifierPatternWithWildcards.pattern));
+    }
+
+    private MatchNamePattern(
+        IdentifierPatternWithWildcards identifierPatternWithWildcards,
+        ProguardWildcardPatternMatcher matcher) {
       this.pattern = identifierPatternWithWildcards.pattern;
       this.wildcards = identifierPatternWithWildcards.wildcards;
+      this.matcher = matcher;
     }
 
     @Override
     public boolean matches(String name) {
-      boolean matched = matchFieldOrMethodNameImpl(pattern, 0, name, 0, wildcards, 0);
-      if (!matched) {
-        wildcards.forEach(ProguardWildcard::clearCaptured);
+      return matcher.matches(name, wildcards);
+    }
+
+    @Override
+    boolean matches(DexString name, DexStringCache stringCache) {
+      // Names that only consist of ASCII characters are matched without decoding them.
+      CharSequence asciiName = ProguardWildcardPatternMatcher.asciiView(name);
+      if (asciiName != null) {
+        return matcher.matches(asciiName, wildcards);
       }
-      return matched;
+      return matches(stringCache.lookupString(name));
     }
 
     @Override
@@ -164,7 +129,7 @@ public abstract class ProguardNameMatcher {
           wildcards.stream().map(ProguardWildcard::materialize).collect(Collectors.toList());
       IdentifierPatternWithWildcards identifierPatternWithMaterializedWildcards =
           new IdentifierPatternWithWildcards(pattern, materializedWildcards);
-      return new MatchNamePattern(identifierPatternWithMaterializedWildcards);
+      return new MatchNamePattern(identifierPatternWithMaterializedWildcards, matcher);
     }
 
     @Override
@@ -199,6 +164,11 @@ public abstract class ProguardNameMatcher {
       return this.name.equals(name);
     }
 
+    @Override
+    boolean matches(DexString name, DexStringCache stringCache) {
+      return this.name.length() == name.size && matches(stringCache.lookupString(name));
+    }
+
     @Override
     public String toString() {
       return name;
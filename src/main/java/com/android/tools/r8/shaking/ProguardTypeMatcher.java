@@ -10,7 +10,6 @@ import com.android.tools.r8.graph.AppView;
 import com.android.tools.r8.graph.DexItemFactory;
 import com.android.tools.r8.graph.DexType;
 import com.android.tools.r8.shaking.ProguardConfigurationParser.IdentifierPatternWithWildcards;
-import com.android.tools.r8.shaking.ProguardWildcard.BackReference;
 import com.android.tools.r8.shaking.ProguardWildcard.Pattern;
 import com.google.common.collect.ImmutableList;
 import java.util.Collections;
@@ -116,6 +115,14 @@ public abstract class ProguardTypeMatcher {
     return getSpecificType() != null;
   }
 
+  /**
+   * Returns a prefix of the source name of every class type that this matcher matches. The empty
+   * string is returned if there is no such prefix.
+   */
+  public String getSourceNamePrefix() {
+    return "";
+  }
+
   private static class MatchAllTypes extends ProguardTypeMatcher {
 
     private static final ProguardTypeMatcher MATCH_ALL_TYPES = new MatchAllTypes();
@@ -331,6 +338,11 @@ public abstract class ProguardTypeMatcher {
     public DexType getSpecificType() {
       return type;
     }
+
+    @Override
+    public String getSourceNamePrefix() {
+      return type.toSourceString();
+    }
   }
 
   private static class MatchTypePattern extends ProguardTypeMatcher {
@@ -338,23 +350,31 @@ public abstract class ProguardTypeMatcher {
     private final String pattern;
     private final List<ProguardWildcard> wildcards;
     private final ClassOrType kind;
+    private final ProguardWildcardPatternMatcher matcher;
 
     private MatchTypePattern(
         IdentifierPatternWithWildcards identifierPatternWithWildcards, ClassOrType kind) {
+      this(
+          identifierPatternWithWildcards,
+          kind,
+          ProguardWildcardPatternMatcher.compileClassOrTypeName(
+              identifierPatternWithWildcards.pattern, kind));
+    }
+
+    private MatchTypePattern(
+        IdentifierPatternWithWildcards identifierPatternWithWildcards,
+        ClassOrType kind,
+        ProguardWildcardPatternMatcher matcher) {
       this.pattern = identifierPatternWithWildcards.pattern;
       this.wildcards = identifierPatternWithWildcards.wildcards;
       this.kind = kind;
+      this.matcher = matcher;
     }
 
     @Override
     public boolean matches(DexType type) {
       // TODO(herhut): Translate pattern to work on descriptors instead.
-      String typeName = type.toSourceString();
-      boolean matched = matchClassOrTypeNameImpl(pattern, 0, typeName, 0, wildcards, 0, kind);
-      if (!matched) {
-        wildcards.forEach(ProguardWildcard::clearCaptured);
-      }
-      return matched;
+      return matcher.matches(type.toSourceString(), wildcards);
     }
 
     @Override
@@ -363,132 +383,24 @@ public abstract class ProguardTypeMatcher {
     }
 
     @Override
-    protected MatchTypePattern materialize() {
-      List<ProguardWildcard> materializedWildcards =
-          wildcards.stream().map(ProguardWildcard::materialize).collect(Collectors.toList());
-      IdentifierPatternWithWildcards identifierPatternWithMaterializedWildcards =
-          new IdentifierPatternWithWildcards(pattern, materializedWildcards);
-      return new MatchTypePattern(identifierPatternWithMaterializedWildcards, kind);
-    }
-
-    private static boolean matchClassOrTypeNameImpl(
-        String pattern, int patternIndex,
-        String name, int nameIndex,
-        List<ProguardWildcard> wildcards, int wildcardIndex,
-        ClassOrType kind) {
-      ProguardWildcard wildcard;
-      Pattern wildcardPattern;
-      BackReference backReference;
-      for (int i = patternIndex; i < pattern.length(); i++) {
+    public String getSourceNamePrefix() {
+      // The characters before the first wildcard must match literally.
+      for (int i = 0; i < pattern.length(); i++) {
         char patternChar = pattern.charAt(i);
-        switch (patternChar) {
-          case '*':
-            wildcard = wildcards.get(wildcardIndex);
-            assert wildcard.isPattern();
-            wildcardPattern = wildcard.asPattern();
-
-            boolean includeSeparators = pattern.length() > (i + 1) && pattern.charAt(i + 1) == '*';
-            boolean includeAll =
-                includeSeparators && pattern.length() > (i + 2) && pattern.charAt(i + 2) == '*';
-            int nextPatternIndex = i + 1;
-            if (includeAll) {
-              nextPatternIndex += 2;
-            } else if (includeSeparators) {
-              nextPatternIndex += 1;
-            }
-
-            // Fast cases for the common case where a pattern ends with  '*', '**', or '***'.
-            if (nextPatternIndex == pattern.length()) {
-              wildcardPattern.setCaptured(name.substring(nameIndex));
-              if (includeAll) {
-                return true;
-              }
-              if (includeSeparators) {
-                return kind == ClassOrType.CLASS || !isArrayType(name);
-              }
-              boolean hasSeparators = containsSeparatorsStartingAt(name, nameIndex);
-              return !hasSeparators && (kind == ClassOrType.CLASS || !isArrayType(name));
-            }
-
-            // Match the rest of the pattern against the (non-empty) rest of the class name.
-            for (int nextNameIndex = nameIndex; nextNameIndex < name.length(); nextNameIndex++) {
-              wildcardPattern.setCaptured(name.substring(nameIndex, nextNameIndex));
-              if (!includeSeparators) {
-                if (name.charAt(nextNameIndex) == '.') {
-                  return matchClassOrTypeNameImpl(
-                      pattern,
-                      nextPatternIndex,
-                      name,
-                      nextNameIndex,
-                      wildcards,
-                      wildcardIndex + 1,
-                      kind);
-                }
-              }
-              if (kind == ClassOrType.TYPE && name.charAt(nextNameIndex) == '[') {
-                return matchClassOrTypeNameImpl(
-                    pattern, nextPatternIndex, name, nextNameIndex, wildcards, wildcardIndex + 1,
-                    kind);
-              }
-              if (matchClassOrTypeNameImpl(
-                  pattern, nextPatternIndex, name, nextNameIndex, wildcards, wildcardIndex + 1,
-                  kind)) {
-                return true;
-              }
-            }
-
-            // Finally, check the case where the '*', '**', or '***' eats all of the class name.
-            wildcardPattern.setCaptured(name.substring(nameIndex));
-            return matchClassOrTypeNameImpl(
-                pattern, nextPatternIndex, name, name.length(), wildcards, wildcardIndex + 1, kind);
-
-          case '?':
-            wildcard = wildcards.get(wildcardIndex);
-            assert wildcard.isPattern();
-            if (nameIndex == name.length() || name.charAt(nameIndex) == '.') {
-              return false;
-            }
-            wildcardPattern = wildcard.asPattern();
-            wildcardPattern.setCaptured(name.substring(nameIndex, nameIndex + 1));
-            nameIndex++;
-            wildcardIndex++;
-            break;
-
-          case '<':
-            wildcard = wildcards.get(wildcardIndex);
-            assert wildcard.isBackReference();
-            backReference = wildcard.asBackReference();
-            String captured = backReference.getCaptured();
-            if (captured == null
-                || name.length() < nameIndex + captured.length()
-                || !captured.equals(name.substring(nameIndex, nameIndex + captured.length()))) {
-              return false;
-            }
-            nameIndex = nameIndex + captured.length();
-            wildcardIndex++;
-            i = pattern.indexOf(">", i);
-            break;
-
-          default:
-            if (nameIndex == name.length() || patternChar != name.charAt(nameIndex++)) {
-              return false;
-            }
-            break;
+        if (patternChar == '*' || patternChar == '?' || patternChar == '<') {
+          return pattern.substring(0, i);
         }
       }
-      return nameIndex == name.length();
-    }
-
-    private static boolean containsSeparatorsStartingAt(String className, int nameIndex) {
-      return className.indexOf('.', nameIndex) != -1;
+      return pattern;
     }
 
-    private static boolean isArrayType(String type) {
-      int length = type.length();
-      if (length < 2) {
-        return false;
-      }
-      return type.charAt(length - 1) == ']' && type.charAt(length - 2) == '[';
+    @Override
+    protected MatchTypePattern materialize() {
+      List<ProguardWildcard> materializedWildcards =
+          wildcards.stream().map(ProguardWildcard::materialize).collect(Collectors.toList());
+      IdentifierPatternWithWildcards identifierPatternWithMaterializedWildcards =
+          new IdentifierPatternWithWildcards(pattern, materializedWildcards);
+      return new MatchTypePattern(identifierPatternWithMaterializedWildcards, kind, matcher);
     }
 
     @Override
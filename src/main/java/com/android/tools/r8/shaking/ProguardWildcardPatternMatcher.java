@@ -0,0 +1,369 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.shaking;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.graph.DexString;
+import com.android.tools.r8.shaking.ProguardTypeMatcher.ClassOrType;
+import com.android.tools.r8.shaking.ProguardWildcard.Pattern;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matcher for a name pattern with wildcards, which is compiled once from the pattern.
+ *
+ * <p>The pattern is split into literal parts and wildcards, such that matching does not have to
+ * interpret the pattern character by character. Wildcards followed by a literal part only try the
+ * positions where the literal part occurs. The parts of the name that are matched by the wildcards
+ * are recorded as positions while matching, and the wildcards are only assigned their captured
+ * strings when the entire name matches.
+ *
+ * <p>The compiled matcher does not refer to the wildcards of the pattern, such that it can be
+ * shared between the materialized copies of a matcher.
+ */
+final class ProguardWildcardPatternMatcher {
+
+  private enum Kind {
+    // Field and method names, where '*' matches any sequence of characters.
+    NAME,
+    // Class names, where '*' does not match package separators.
+    CLASS,
+    // Types, where '*' does not match package separators and array brackets.
+    TYPE
+  }
+
+  private static final int LITERAL = 0;
+  private static final int QUESTION_MARK = 1;
+  private static final int BACK_REFERENCE = 2;
+  // Matches '*' in field and method names, and '*', '**' and '***' in class names and types.
+  private static final int STAR = 3;
+  private static final int DOUBLE_STAR = 4;
+  private static final int TRIPLE_STAR = 5;
+
+  private final Kind kind;
+  private final int[] elements;
+  // The literal part for each literal element, and null for wildcards.
+  private final String[] literals;
+  // The index of the wildcard for each wildcard element, and -1 for literals.
+  private final int[] wildcardIndices;
+  private final int numberOfWildcards;
+
+  private ProguardWildcardPatternMatcher(
+      Kind kind, int[] elements, String[] literals, int[] wildcardIndices, int numberOfWildcards) {
+    this.kind = kind;
+    this.elements = elements;
+    this.literals = literals;
+    this.wildcardIndices = wildcardIndices;
+    this.numberOfWildcards = numberOfWildcards;
+  }
+
+  static ProguardWildcardPatternMatcher compileFieldOrMethodName(String pattern) {
+    return compile(pattern, Kind.NAME);
+  }
+
+  static ProguardWildcardPatternMatcher compileClassOrTypeName(String pattern, ClassOrType kind) {
+    return compile(pattern, kind == ClassOrType.CLASS ? Kind.CLASS : Kind.TYPE);
+  }
+
+  private static ProguardWildcardPatternMatcher compile(String pattern, Kind kind) {
+    List<Integer> elements = new ArrayList<>();
+    List<String> literals = new ArrayList<>();
+    StringBuilder literal = new StringBuilder();
+    for (int i = 0; i < pattern.length(); i++) {
+      char patternChar = pattern.charAt(i);
+      int element;
+      switch (patternChar) {
+        case '*':
+          element = STAR;
+          if (kind != Kind.NAME) {
+            if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+              i++;
+              element = DOUBLE_STAR;
+              if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+                i++;
+                element = TRIPLE_STAR;
+              }
+            }
+          }
+          break;
+        case '?':
+          element = QUESTION_MARK;
+          break;
+        case '<':
+          element = BACK_REFERENCE;
+          i = pattern.indexOf('>', i);
+          break;
+        default:
+          literal.append(patternChar);
+          continue;
+      }
+      if (literal.length() > 0) {
+        elements.add(LITERAL);
+        literals.add(literal.toString());
+        literal.setLength(0);
+      }
+      elements.add(element);
+      literals.add(null);
+    }
+    if (literal.length() > 0) {
+      elements.add(LITERAL);
+      literals.add(literal.toString());
+    }
+    int[] elementArray = new int[elements.size()];
+    int[] wildcardIndices = new int[elements.size()];
+    int numberOfWildcards = 0;
+    for (int i = 0; i < elementArray.length; i++) {
+      elementArray[i] = elements.get(i);
+      wildcardIndices[i] = elementArray[i] == LITERAL ? -1 : numberOfWildcards++;
+    }
+    return new ProguardWildcardPatternMatcher(
+        kind,
+        elementArray,
+        literals.toArray(new String[0]),
+        wildcardIndices,
+        numberOfWildcards);
+  }
+
+  /**
+   * Returns a view of the given name as a sequence of characters without decoding the name, if the
+   * name only consists of ASCII characters, or null otherwise.
+   */
+  static CharSequence asciiView(DexString name) {
+    // The content is terminated by a zero byte, and all other characters take up one byte each if
+    // and only if they are ASCII characters.
+    if (name.getContentLength() != name.size + 1) {
+      return null;
+    }
+    for (int i = 0; i < name.size; i++) {
+      if (name.byteAt(i) <= 0) {
+        return null;
+      }
+    }
+    ByteDataView content = name.getContentView();
+    return new AsciiCharSequence(content.getBuffer(), content.getOffset(), name.size);
+  }
+
+  /**
+   * Returns true if the given name matches the pattern. If the name matches, the wildcards of the
+   * pattern are assigned the strings that they matched, otherwise the wildcards are cleared.
+   */
+  boolean matches(CharSequence name, List<ProguardWildcard> wildcards) {
+    assert wildcards.size() == numberOfWildcards;
+    int[] starts = new int[numberOfWildcards];
+    int[] ends = new int[numberOfWildcards];
+    if (matches(0, name, 0, wildcards, starts, ends)) {
+      for (int i = 0; i < numberOfWildcards; i++) {
+        ProguardWildcard wildcard = wildcards.get(i);
+        if (wildcard.isPattern()) {
+          wildcard.setCaptured(name.subSequence(starts[i], ends[i]).toString());
+        }
+      }
+      return true;
+    }
+    wildcards.forEach(ProguardWildcard::clearCaptured);
+    return false;
+  }
+
+  private boolean matches(
+      int elementIndex,
+      CharSequence name,
+      int nameIndex,
+      List<ProguardWildcard> wildcards,
+      int[] starts,
+      int[] ends) {
+    for (int i = elementIndex; i < elements.length; i++) {
+      int element = elements[i];
+      int wildcardIndex = wildcardIndices[i];
+      switch (element) {
+        case LITERAL:
+          {
+            String literal = literals[i];
+            if (!regionMatches(name, nameIndex, literal)) {
+              return false;
+            }
+            nameIndex += literal.length();
+            break;
+          }
+
+        case QUESTION_MARK:
+          if (nameIndex == name.length()
+              || (kind != Kind.NAME && name.charAt(nameIndex) == '.')) {
+            return false;
+          }
+          starts[wildcardIndex] = nameIndex;
+          ends[wildcardIndex] = ++nameIndex;
+          break;
+
+        case BACK_REFERENCE:
+          {
+            CharSequence captured = getCaptured(wildcards, wildcardIndex, name, starts, ends);
+            if (captured == null || !regionMatches(name, nameIndex, captured)) {
+              return false;
+            }
+            nameIndex += captured.length();
+            break;
+          }
+
+        default:
+          return matchesStar(i, name, nameIndex, wildcards, starts, ends);
+      }
+    }
+    return nameIndex == name.length();
+  }
+
+  private boolean matchesStar(
+      int elementIndex,
+      CharSequence name,
+      int nameIndex,
+      List<ProguardWildcard> wildcards,
+      int[] starts,
+      int[] ends) {
+    int element = elements[elementIndex];
+    int wildcardIndex = wildcardIndices[elementIndex];
+    int nextElementIndex = elementIndex + 1;
+    starts[wildcardIndex] = nameIndex;
+
+    // Fast case for the common case where the pattern ends with '*', '**', or '***'.
+    if (nextElementIndex == elements.length) {
+      ends[wildcardIndex] = name.length();
+      switch (element) {
+        case TRIPLE_STAR:
+          return true;
+        case DOUBLE_STAR:
+          return kind == Kind.CLASS || !isArrayType(name);
+        default:
+          return kind == Kind.NAME
+              || (!containsSeparatorsStartingAt(name, nameIndex)
+                  && (kind == Kind.CLASS || !isArrayType(name)));
+      }
+    }
+
+    // If the wildcard is followed by a literal part, then only the positions where the literal part
+    // occurs in the name can lead to a match.
+    String nextLiteral =
+        elements[nextElementIndex] == LITERAL ? literals[nextElementIndex] : null;
+
+    if (kind == Kind.NAME) {
+      for (int nextNameIndex = nameIndex; nextNameIndex <= name.length(); nextNameIndex++) {
+        if (nextLiteral != null && !regionMatches(name, nextNameIndex, nextLiteral)) {
+          continue;
+        }
+        ends[wildcardIndex] = nextNameIndex;
+        if (matches(nextElementIndex, name, nextNameIndex, wildcards, starts, ends)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // For class names and types, the rest of the pattern is matched against the (non-empty) rest of
+    // the name. A '*' stops at the first package separator, and any wildcard in a type stops at the
+    // first array bracket.
+    for (int nextNameIndex = nameIndex; nextNameIndex < name.length(); nextNameIndex++) {
+      char nextChar = name.charAt(nextNameIndex);
+      boolean stop = (element == STAR && nextChar == '.') || (kind == Kind.TYPE && nextChar == '[');
+      if (nextLiteral != null && nextChar != nextLiteral.charAt(0)) {
+        if (stop) {
+          return false;
+        }
+        continue;
+      }
+      ends[wildcardIndex] = nextNameIndex;
+      if (matches(nextElementIndex, name, nextNameIndex, wildcards, starts, ends)) {
+        return true;
+      }
+      if (stop) {
+        return false;
+      }
+    }
+
+    // Finally, check the case where the '*', '**', or '***' eats all of the name.
+    ends[wildcardIndex] = name.length();
+    return nextLiteral == null
+        && matches(nextElementIndex, name, name.length(), wildcards, starts, ends);
+  }
+
+  // Returns the string captured by the wildcard that the given back reference refers to. If the
+  // wildcard is part of this pattern, then the captured string is given by the recorded positions.
+  private static CharSequence getCaptured(
+      List<ProguardWildcard> wildcards,
+      int wildcardIndex,
+      CharSequence name,
+      int[] starts,
+      int[] ends) {
+    ProguardWildcard.BackReference backReference = wildcards.get(wildcardIndex).asBackReference();
+    assert backReference != null;
+    Pattern reference = backReference.reference;
+    for (int i = 0; i < wildcardIndex; i++) {
+      if (wildcards.get(i) == reference) {
+        return name.subSequence(starts[i], ends[i]);
+      }
+    }
+    return backReference.getCaptured();
+  }
+
+  private static boolean regionMatches(CharSequence name, int nameIndex, CharSequence part) {
+    int length = part.length();
+    if (name.length() - nameIndex < length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(nameIndex + i) != part.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean containsSeparatorsStartingAt(CharSequence name, int nameIndex) {
+    for (int i = nameIndex; i < name.length(); i++) {
+      if (name.charAt(i) == '.') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isArrayType(CharSequence type) {
+    int length = type.length();
+    if (length < 2) {
+      return false;
+    }
+    return type.charAt(length - 1) == ']' && type.charAt(length - 2) == '[';
+  }
+
+  private static class AsciiCharSequence implements CharSequence {
+
+    private final byte[] content;
+    private final int offset;
+    private final int length;
+
+    AsciiCharSequence(byte[] content, int offset, int length) {
+      this.content = content;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) content[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new AsciiCharSequence(content, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(content, offset, length, StandardCharsets.US_ASCII);
+    }
+  }
+}
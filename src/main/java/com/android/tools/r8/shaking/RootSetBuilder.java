@@ -89,19 +89,32 @@ public class RootSetBuilder {
 
   private final DexStringCache dexStringCache = new DexStringCache();
   private final Set<ProguardIfRule> ifRules = Sets.newIdentityHashSet();
+  private final ProguardClassIndex classIndex;
 
   public RootSetBuilder(
       AppView<? extends AppInfo> appView,
       DexApplication application,
       Iterable<? extends ProguardConfigurationRule> rules) {
+    this(appView, application, rules, new ProguardClassIndex(application.asDirect()));
+  }
+
+  private RootSetBuilder(
+      AppView<? extends AppInfo> appView,
+      DexApplication application,
+      Iterable<? extends ProguardConfigurationRule> rules,
+      ProguardClassIndex classIndex) {
     this.appView = appView;
     this.application = application.asDirect();
     this.rules = rules;
     this.options = appView.options();
+    this.classIndex = classIndex;
   }
 
-  RootSetBuilder(AppView<? extends AppInfo> appView, Collection<ProguardIfRule> ifRules) {
-    this(appView, appView.appInfo().app(), ifRules);
+  RootSetBuilder(
+      AppView<? extends AppInfo> appView,
+      Collection<ProguardIfRule> ifRules,
+      ProguardClassIndex classIndex) {
+    this(appView, appView.appInfo().app(), ifRules, classIndex);
   }
 
   // Process a class with the keep rule.
@@ -227,6 +240,23 @@ public class RootSetBuilder {
         }
       }
     } else {
+      // The inheritance part of a rule can be matched by the classes that have been merged into a
+      // supertype, which the class index does not know about.
+      int[] candidates =
+          classIndex.getCandidates(rule, appView.verticallyMergedClasses() == null);
+      if (candidates != null) {
+        // Only visit the classes that can match the rule according to the class index.
+        futures.add(
+            executorService.submit(
+                () -> {
+                  for (int candidate : candidates) {
+                    if (classIndex.isProgramClass(candidate) || rule.applyToNonProgramClasses()) {
+                      process(classIndex.getClass(candidate), rule, ifRule);
+                    }
+                  }
+                }));
+        return;
+      }
       futures.add(
           executorService.submit(
               () -> {
@@ -313,36 +343,41 @@ public class RootSetBuilder {
       this.executorService = executorService;
     }
 
-    public ConsequentRootSet run(Set<DexType> liveTypes) throws ExecutionException {
+    /**
+     * Evaluates the -if rules for the given live types. The types must include all types that
+     * became live, or that have members that became live or targeted, since the previous
+     * evaluation with the same index.
+     */
+    public ConsequentRootSet run(Iterable<DexType> types, IfRuleIndex index)
+        throws ExecutionException {
       application.timing.begin("Find consequent items for -if rules...");
       try {
         if (rules != null) {
-          for (ProguardConfigurationRule rule : rules) {
-            assert rule instanceof ProguardIfRule;
-            ProguardIfRule ifRule = (ProguardIfRule) rule;
-            // Depending on which types that trigger the -if rule, the application of the subsequent
-            // -keep rule may vary (due to back references). So, we need to try all pairs of -if
-            // rule and live types.
-            for (DexType type : liveTypes) {
-              DexClass clazz = appView.definitionFor(type);
-              if (clazz == null) {
-                continue;
-              }
+          // Depending on which types that trigger the -if rule, the application of the subsequent
+          // -keep rule may vary (due to back references). So, we need to try all pairs of -if
+          // rule and live types.
+          for (DexType type : types) {
+            DexClass clazz = appView.definitionFor(type);
+            if (clazz == null) {
+              continue;
+            }
 
-              // Check if the class matches the if-rule.
-              evaluateIfRule(ifRule, clazz, clazz);
-
-              // Check if one of the types that have been merged into `clazz` satisfies the if-rule.
-              if (options.enableVerticalClassMerging && appView.verticallyMergedClasses() != null) {
-                for (DexType sourceType : appView.verticallyMergedClasses().getSourcesFor(type)) {
-                  // Note that, although `sourceType` has been merged into `type`, the dex class for
-                  // `sourceType` is still available until the second round of tree shaking. This
-                  // way
-                  // we can still retrieve the access flags of `sourceType`.
-                  DexClass sourceClass = appView.definitionFor(sourceType);
-                  assert sourceClass != null;
-                  evaluateIfRule(ifRule, sourceClass, clazz);
-                }
+            // Rules without member rules only depend on the class, and have therefore already
+            // been evaluated if the type has been evaluated before.
+            boolean includeRulesWithoutMemberRules = index.markEvaluated(type);
+
+            // Check if the class matches the if-rule.
+            evaluateIfRules(index, clazz, clazz, includeRulesWithoutMemberRules);
+
+            // Check if one of the types that have been merged into `clazz` satisfies the if-rule.
+            if (options.enableVerticalClassMerging && appView.verticallyMergedClasses() != null) {
+              for (DexType sourceType : appView.verticallyMergedClasses().getSourcesFor(type)) {
+                // Note that, although `sourceType` has been merged into `type`, the dex class for
+                // `sourceType` is still available until the second round of tree shaking. This way
+                // we can still retrieve the access flags of `sourceType`.
+                DexClass sourceClass = appView.definitionFor(sourceType);
+                assert sourceClass != null;
+                evaluateIfRules(index, sourceClass, clazz, includeRulesWithoutMemberRules);
               }
             }
           }
@@ -360,6 +395,17 @@ public class RootSetBuilder {
           dependentNoShrinking);
     }
 
+    private void evaluateIfRules(
+        IfRuleIndex index,
+        DexClass sourceClass,
+        DexClass targetClass,
+        boolean includeRulesWithoutMemberRules) {
+      index.forEachRuleMatchingClass(
+          sourceClass,
+          includeRulesWithoutMemberRules,
+          rule -> evaluateIfRule(rule, sourceClass, targetClass));
+    }
+
     /**
      * Determines if `sourceClass` satisfies the given if-rule. If `sourceClass` has not been merged
      * into another class, then `targetClass` is the same as `sourceClass`. Otherwise, `targetClass`
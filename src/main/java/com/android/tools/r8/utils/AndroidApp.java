@@ -453,6 +453,13 @@ public class AndroidApp {
       return this;
     }
 
+    /** Replace the program resource providers by the given providers. */
+    public Builder replaceProgramResourceProviders(List<ProgramResourceProvider> providers) {
+      programResourceProviders.clear();
+      programResourceProviders.addAll(providers);
+      return this;
+    }
+
     /** Add classpath file resources. */
     public Builder addClasspathFiles(Path... files) {
       return addClasspathFiles(Arrays.asList(files));
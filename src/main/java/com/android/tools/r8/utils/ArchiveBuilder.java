@@ -11,6 +11,7 @@ import com.android.tools.r8.DiagnosticsHandler;
 import com.android.tools.r8.ResourceException;
 import com.android.tools.r8.origin.Origin;
 import com.android.tools.r8.origin.PathOrigin;
+import com.android.tools.r8.utils.PrecompressedZipWriter.Entry;
 import com.google.common.io.ByteStreams;
 import java.io.IOException;
 import java.io.InputStream;
@@ -21,22 +22,35 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
-import java.util.zip.ZipOutputStream;
 
 public class ArchiveBuilder implements OutputBuilder {
   private final Path archive;
   private final Origin origin;
-  private ZipOutputStream stream = null;
+  private final int compressionMethod;
+  private PrecompressedZipWriter stream = null;
   private boolean closed = false;
   private int openCount = 0;
   private int classesFileIndex = 0;
-  private Map<Integer, DelayedData> delayedClassesDexFiles = new HashMap<>();
+  private Map<Integer, Entry> delayedClassesDexFiles = new HashMap<>();
   private SortedSet<DelayedData> delayedWrites = new TreeSet<>();
+  private final Map<String, Entry> precompressedEntries = new ConcurrentHashMap<>();
 
   public ArchiveBuilder(Path archive) {
+    this(archive, ZipEntry.DEFLATED);
+  }
+
+  /**
+   * Creates a builder that writes the file entries with the given compression method. Entries are
+   * compressed by the threads adding them or by {@link #precompress}, outside of the lock that
+   * orders the writes.
+   */
+  public ArchiveBuilder(Path archive, int compressionMethod) {
+    assert compressionMethod == ZipEntry.DEFLATED || compressionMethod == ZipEntry.STORED;
     this.archive = archive;
+    this.compressionMethod = compressionMethod;
     origin = new PathOrigin(archive);
   }
 
@@ -66,27 +80,21 @@ public class ArchiveBuilder implements OutputBuilder {
     // We should never have any indexed files at this point
     assert delayedClassesDexFiles.isEmpty();
     for (DelayedData data : delayedWrites) {
-      if (data.isDirectory) {
-        assert data.content == null;
-        writeDirectoryNow(data.name, handler);
-      } else {
-        assert data.content != null;
-        writeFileNow(data.name, data.content, handler);
-      }
+      writeEntryNow(data.entry, handler);
     }
   }
 
-  private ZipOutputStream getStreamRaw() throws IOException {
+  private PrecompressedZipWriter getStreamRaw() throws IOException {
     if (stream != null) {
       return stream;
     }
-    stream = new ZipOutputStream(Files.newOutputStream(
+    stream = new PrecompressedZipWriter(Files.newOutputStream(
         archive, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
     return stream;
   }
 
   /** Get or open the zip output stream. */
-  private synchronized ZipOutputStream getStream(DiagnosticsHandler handler) {
+  private synchronized PrecompressedZipWriter getStream(DiagnosticsHandler handler) {
     assert !closed;
     try {
       getStreamRaw();
@@ -108,32 +116,19 @@ public class ArchiveBuilder implements OutputBuilder {
 
   @Override
   public synchronized void addDirectory(String name, DiagnosticsHandler handler) {
-    delayedWrites.add(DelayedData.createDirectory(name));
-  }
-
-  private void writeDirectoryNow(String name, DiagnosticsHandler handler) {
     if (name.charAt(name.length() - 1) != DataResource.SEPARATOR) {
       name += DataResource.SEPARATOR;
     }
-    ZipEntry entry = new ZipEntry(name);
-    entry.setTime(0);
-    ZipOutputStream zip = getStream(handler);
-    synchronized (this) {
-      try {
-        zip.putNextEntry(entry);
-        zip.closeEntry();
-      } catch (IOException e) {
-        handleIOException(e, handler);
-      }
-    }
+    delayedWrites.add(new DelayedData(PrecompressedZipWriter.directory(name)));
   }
 
   @Override
   public void addFile(String name, DataEntryResource content, DiagnosticsHandler handler) {
     try (InputStream in = content.getByteStream()) {
       ByteDataView view = ByteDataView.of(ByteStreams.toByteArray(in));
+      Entry entry = PrecompressedZipWriter.compress(name, view, compressionMethod);
       synchronized (this) {
-        delayedWrites.add(DelayedData.createFile(name, view));
+        delayedWrites.add(new DelayedData(entry));
       }
     } catch (IOException e) {
       handleIOException(e, handler);
@@ -143,40 +138,62 @@ public class ArchiveBuilder implements OutputBuilder {
     }
   }
 
+  /**
+   * Compresses the entry of a file that is subsequently added with the same name and content, such
+   * that adding it only appends the compressed entry.
+   */
+  public void precompress(String name, ByteDataView content) {
+    precompressedEntries.put(
+        name, PrecompressedZipWriter.compress(name, content, compressionMethod));
+  }
+
+  private Entry getOrCompress(String name, ByteDataView content) {
+    Entry entry = precompressedEntries.remove(name);
+    // Compressing copies the data, which is released in the application writer.
+    return entry != null
+        ? entry
+        : PrecompressedZipWriter.compress(name, content, compressionMethod);
+  }
+
   @Override
-  public synchronized void addFile(String name, ByteDataView content, DiagnosticsHandler handler) {
-    delayedWrites.add(DelayedData.createFile(name,  ByteDataView.of(content.copyByteData())));
+  public void addFile(String name, ByteDataView content, DiagnosticsHandler handler) {
+    Entry entry = getOrCompress(name, content);
+    synchronized (this) {
+      delayedWrites.add(new DelayedData(entry));
+    }
   }
 
-  private void writeFileNow(String name, ByteDataView content, DiagnosticsHandler handler) {
+  private void writeEntryNow(Entry entry, DiagnosticsHandler handler) {
     try {
-      ZipUtils.writeToZipStream(getStream(handler), name, content, ZipEntry.DEFLATED);
+      getStream(handler).write(entry);
     } catch (IOException e) {
       handleIOException(e, handler);
     }
   }
 
   private void writeNextIfAvailable(DiagnosticsHandler handler) {
-    DelayedData data = delayedClassesDexFiles.remove(classesFileIndex);
-    while (data != null) {
-      writeFileNow(data.name, data.content, handler);
+    Entry entry = delayedClassesDexFiles.remove(classesFileIndex);
+    while (entry != null) {
+      writeEntryNow(entry, handler);
       classesFileIndex++;
-      data = delayedClassesDexFiles.remove(classesFileIndex);
+      entry = delayedClassesDexFiles.remove(classesFileIndex);
     }
   }
 
   @Override
-  public synchronized void addIndexedClassFile(
+  public void addIndexedClassFile(
       int index, String name, ByteDataView content, DiagnosticsHandler handler) {
-    if (index == classesFileIndex) {
-      // Fast case, we got the file in order (or we only had one).
-      writeFileNow(name, content, handler);
-      classesFileIndex++;
-      writeNextIfAvailable(handler);
-    } else {
-      // Data is released in the application writer, take a copy.
-      delayedClassesDexFiles.put(index,
-          new DelayedData(name, ByteDataView.of(content.copyByteData()), false));
+    // Compress outside of the lock, only the writes are ordered by the file index.
+    Entry entry = getOrCompress(name, content);
+    synchronized (this) {
+      if (index == classesFileIndex) {
+        // Fast case, we got the file in order (or we only had one).
+        writeEntryNow(entry, handler);
+        classesFileIndex++;
+        writeNextIfAvailable(handler);
+      } else {
+        delayedClassesDexFiles.put(index, entry);
+      }
     }
   }
 
@@ -191,30 +208,18 @@ public class ArchiveBuilder implements OutputBuilder {
   }
 
   private static class DelayedData implements Comparable<DelayedData> {
-    public final String name;
-    public final ByteDataView content;
-    public final boolean isDirectory;
-
-    public static DelayedData createFile(String name, ByteDataView content) {
-      return new DelayedData(name, content, false);
-    }
-
-    public static DelayedData createDirectory(String name) {
-      return new DelayedData(name, null, true);
-    }
+    public final Entry entry;
 
-    private DelayedData(String name, ByteDataView content, boolean isDirectory) {
-      this.name = name;
-      this.content = content;
-      this.isDirectory = isDirectory;
+    private DelayedData(Entry entry) {
+      this.entry = entry;
     }
 
     @Override
     public int compareTo(DelayedData other) {
       if (other == null) {
-        return name.compareTo(null);
+        return entry.getName().compareTo(null);
       }
-      return name.compareTo(other.name);
+      return entry.getName().compareTo(other.entry.getName());
     }
   }
 }
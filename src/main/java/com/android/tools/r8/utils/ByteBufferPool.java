@@ -0,0 +1,164 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import com.android.tools.r8.ByteBufferProvider;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.errors.Unreachable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of heap byte buffers.
+ *
+ * <p>Buffers are allocated with the exact requested capacity. A request is served by the smallest
+ * released buffer that is large enough, unless that buffer is more than twice the requested
+ * capacity. The pool retains at most a set number of bytes of released buffers, buffers
+ * released beyond that are left to the garbage collector. The retained buffers can be dropped
+ * with {@link #clear}.
+ */
+public class ByteBufferPool implements ByteBufferProvider {
+
+  /** System property that sets the maximum number of bytes retained by the default pool. */
+  public static final String MAX_RETAINED_BYTES_PROPERTY =
+      "com.android.tools.r8.outputBufferPoolMaxBytes";
+
+  // The default pool does not retain any buffers unless a process opts in, e.g., a long-lived
+  // process running many compilations.
+  private static final ByteBufferPool DEFAULT_POOL =
+      new ByteBufferPool(Long.getLong(MAX_RETAINED_BYTES_PROPERTY, 0));
+
+  private volatile long maxRetainedBytes;
+  // Released buffers by capacity, guarded by this.
+  private final TreeMap<Integer, ArrayDeque<ByteBuffer>> released = new TreeMap<>();
+  private long retainedBytes = 0;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public ByteBufferPool(long maxRetainedBytes) {
+    this.maxRetainedBytes = maxRetainedBytes;
+  }
+
+  /** The pool shared by the DEX program consumers that do not provide their own buffers. */
+  public static ByteBufferPool getDefault() {
+    return DEFAULT_POOL;
+  }
+
+  /** Provider that acquires and releases its buffers through another provider. */
+  public interface ForwardingProvider {
+    ByteBufferProvider getByteBufferProvider();
+  }
+
+  /**
+   * Returns true if the buffers of the provider are acquired from and released to the default
+   * pool, as by the DEX program consumers that do not override the methods of {@link
+   * ByteBufferProvider}. Such buffers can be released on any thread.
+   */
+  public static boolean isDefaultProvider(ByteBufferProvider provider) {
+    while (provider instanceof ForwardingProvider) {
+      provider = ((ForwardingProvider) provider).getByteBufferProvider();
+    }
+    try {
+      Class<?> clazz = provider.getClass();
+      return isDefaultPoolMethod(clazz.getMethod("acquireByteBuffer", int.class))
+          && isDefaultPoolMethod(clazz.getMethod("releaseByteBuffer", ByteBuffer.class));
+    } catch (NoSuchMethodException e) {
+      throw new Unreachable(e);
+    }
+  }
+
+  private static boolean isDefaultPoolMethod(Method method) {
+    Class<?> holder = method.getDeclaringClass();
+    return holder == DexIndexedConsumer.class || holder == DexFilePerClassFileConsumer.class;
+  }
+
+  @Override
+  public ByteBuffer acquireByteBuffer(int capacity) {
+    ByteBuffer buffer = poll(capacity);
+    if (buffer == null) {
+      misses.incrementAndGet();
+      return ByteBuffer.allocate(capacity);
+    }
+    hits.incrementAndGet();
+    // The DEX writer relies on the buffer being zero initialized, e.g., for alignment padding.
+    Arrays.fill(buffer.array(), (byte) 0);
+    buffer.clear();
+    buffer.order(ByteOrder.BIG_ENDIAN);
+    return buffer;
+  }
+
+  @Override
+  public void releaseByteBuffer(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (maxRetainedBytes <= 0
+        || capacity == 0
+        || !buffer.hasArray()
+        || buffer.arrayOffset() != 0
+        || buffer.array().length != capacity) {
+      // Not retained, or not a buffer this pool can hand out again.
+      return;
+    }
+    synchronized (this) {
+      if (retainedBytes + capacity > maxRetainedBytes) {
+        return;
+      }
+      retainedBytes += capacity;
+      // Reuse the most recently released buffer first, as it is the most likely to still be cached.
+      released.computeIfAbsent(capacity, ignore -> new ArrayDeque<>()).addFirst(buffer);
+    }
+  }
+
+  private synchronized ByteBuffer poll(int capacity) {
+    Entry<Integer, ArrayDeque<ByteBuffer>> entry = released.ceilingEntry(capacity);
+    if (entry == null || entry.getKey() > 2L * capacity) {
+      return null;
+    }
+    ByteBuffer buffer = entry.getValue().pollFirst();
+    if (entry.getValue().isEmpty()) {
+      released.remove(entry.getKey());
+    }
+    retainedBytes -= buffer.capacity();
+    return buffer;
+  }
+
+  /** Sets the maximum number of bytes retained, and drops the retained buffers beyond it. */
+  public synchronized void setMaxRetainedBytes(long maxRetainedBytes) {
+    this.maxRetainedBytes = maxRetainedBytes;
+    while (retainedBytes > maxRetainedBytes) {
+      Entry<Integer, ArrayDeque<ByteBuffer>> largest = released.lastEntry();
+      retainedBytes -= largest.getValue().pollLast().capacity();
+      if (largest.getValue().isEmpty()) {
+        released.remove(largest.getKey());
+      }
+    }
+  }
+
+  /** Drop all retained buffers, leaving them to the garbage collector. */
+  public synchronized void clear() {
+    released.clear();
+    retainedBytes = 0;
+  }
+
+  /** Number of requests served by a previously released buffer. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Number of requests that allocated a new buffer. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Total capacity of the released buffers currently held by the pool. */
+  public synchronized long getRetainedBytes() {
+    return retainedBytes;
+  }
+}
@@ -59,6 +59,16 @@ public abstract class ClassProvider<T extends DexClass> {
   /** Create class provider for java class resource provider. */
   public static <T extends DexClass> ClassProvider<T> forClassFileResources(
       ClassKind classKind, ClassFileResourceProvider provider, JarApplicationReader reader) {
+    if (classKind == ClassKind.LIBRARY
+        && reader.options.libraryCacheDirectory != null
+        && provider instanceof InternalArchiveClassFileProvider) {
+      ClassProvider<T> cachedProvider =
+          LibraryClassCache.getClassProvider(
+              classKind, (InternalArchiveClassFileProvider) provider, reader);
+      if (cachedProvider != null) {
+        return cachedProvider;
+      }
+    }
     return new ClassFileResourceReader<>(classKind, provider, reader);
   }
 
@@ -0,0 +1,51 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Lock-free table of canonical values keyed by an int.
+ *
+ * <p>Values for keys in a small dense range are held in an array, such that lookups neither lock
+ * nor box the key. Values for other keys are held in a {@link ConcurrentHashMap}. When threads race
+ * to create the value of a key, all of them get the value of the thread that won.
+ */
+public class ConcurrentIntInterningTable<T> {
+
+  private final int minDenseKey;
+  private final AtomicReferenceArray<T> dense;
+  private final ConcurrentHashMap<Integer, T> sparse = new ConcurrentHashMap<>();
+  private final IntFunction<T> factory;
+
+  /** Creates a table which holds the values for keys in [minDenseKey, maxDenseKey] in an array. */
+  public ConcurrentIntInterningTable(int minDenseKey, int maxDenseKey, IntFunction<T> factory) {
+    assert minDenseKey <= maxDenseKey;
+    this.minDenseKey = minDenseKey;
+    this.dense = new AtomicReferenceArray<>(maxDenseKey - minDenseKey + 1);
+    this.factory = factory;
+  }
+
+  public T get(int key) {
+    int index = key - minDenseKey;
+    if (0 <= index && index < dense.length()) {
+      T value = dense.get(index);
+      if (value == null) {
+        T created = factory.apply(key);
+        value = dense.compareAndSet(index, null, created) ? created : dense.get(index);
+      }
+      return value;
+    }
+    T value = sparse.get(key);
+    if (value == null) {
+      // Not computeIfAbsent, which can lock the bin even when the key is present.
+      T created = factory.apply(key);
+      T previous = sparse.putIfAbsent(key, created);
+      value = previous == null ? created : previous;
+    }
+    return value;
+  }
+}
@@ -0,0 +1,575 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import com.android.tools.r8.ByteBufferProvider;
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.ClassFileResourceProvider;
+import com.android.tools.r8.DataResourceProvider;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.ProgramResource.Kind;
+import com.android.tools.r8.ProgramResourceProvider;
+import com.android.tools.r8.ResourceException;
+import com.android.tools.r8.Version;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Persistent content-addressed cache of the dex files that D8 generates for class files when it
+ * generates a dex file per class file, which is shared between compilations.
+ *
+ * <p>The key of a class file covers the content of the class file, the content of the class files
+ * of its supertypes in the program, the library and classpath archives, the compiler version and
+ * the options that affect the generated code. If the cache has the dex file of a class, the dex
+ * file, which also holds the classes synthesized for the class, is passed to the program consumer
+ * and the class is only given to the compilation as a classpath class, for the desugaring of the
+ * other classes. Otherwise the class is compiled and its dex file is added to the cache.
+ *
+ * <p>The total size of the cache is bounded by deleting the least recently used files. The last use
+ * of a file is recorded in its modification time, so it is kept between processes. A process only
+ * evicts files it knows of, which are the files in the cache when the process first uses it and
+ * the files the process has used since.
+ */
+public class DexFileCache {
+
+  private static final String EXTENSION = ".r8dex";
+  private static final int VERSION = 2;
+
+  private static final Map<Path, DexFileCache> instances = new ConcurrentHashMap<>();
+
+  private final Path directory;
+  private volatile long maxBytes;
+
+  // Size of the cache files by key, in the order of their last use.
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private DexFileCache(Path directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(directory);
+    List<Path> files;
+    try (Stream<Path> paths = Files.list(directory)) {
+      files =
+          paths
+              .filter(path -> path.getFileName().toString().endsWith(EXTENSION))
+              .collect(Collectors.toList());
+    }
+    Map<Path, FileTime> lastUses = new HashMap<>();
+    for (Path file : files) {
+      lastUses.put(file, Files.getLastModifiedTime(file));
+    }
+    files.sort((a, b) -> lastUses.get(a).compareTo(lastUses.get(b)));
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      long size = Files.size(file);
+      entries.put(name.substring(0, name.length() - EXTENSION.length()), size);
+      totalBytes += size;
+    }
+  }
+
+  /** Returns the cache in the given directory, with the given bound on its size in bytes. */
+  public static DexFileCache getInstance(Path directory, long maxBytes) throws IOException {
+    Path key = directory.toAbsolutePath().normalize();
+    DexFileCache cache = instances.get(key);
+    if (cache == null) {
+      synchronized (instances) {
+        cache = instances.get(key);
+        if (cache == null) {
+          cache = new DexFileCache(key, maxBytes);
+          instances.put(key, cache);
+        }
+      }
+    }
+    cache.maxBytes = maxBytes;
+    return cache;
+  }
+
+  /** Number of class files for which the dex file was taken from the cache. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Number of class files for which the dex file was not in the cache. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Total size in bytes of the cache files this process knows of. */
+  public synchronized long getSize() {
+    return totalBytes;
+  }
+
+  /**
+   * Passes the cached dex files for the class files of the application to the program consumer of
+   * the options. Returns the application to compile, in which the classes with a cached dex file
+   * are classpath classes, and installs a program consumer that adds the other dex files to the
+   * cache.
+   *
+   * <p>Returns the application uncached if its classes cannot be looked up in the cache. That is
+   * the case if a library or classpath provider is not an archive, or if the class files cannot be
+   * read or define the same class. Class files that have been read are then passed on as their
+   * bytes.
+   */
+  public AndroidApp apply(AndroidApp app, InternalOptions options)
+      throws IOException, ResourceException {
+    assert options.isGeneratingDexFilePerClassFile();
+    DexFilePerClassFileConsumer consumer = options.getDexFilePerClassFileConsumer();
+    if (!consumer.combineSyntheticClassesWithPrimaryClass()) {
+      return app;
+    }
+    HashCode environment = computeEnvironmentHash(app, options);
+    if (environment == null) {
+      return app;
+    }
+
+    // Read all class files of the program, which are replaced by resources of the bytes read, as
+    // the resources may only be read once.
+    List<List<ProgramResource>> resourcesOfProviders = new ArrayList<>();
+    Map<ProgramResource, byte[]> classBytes = new IdentityHashMap<>();
+    for (ProgramResourceProvider provider : app.getProgramResourceProviders()) {
+      List<ProgramResource> resources = new ArrayList<>();
+      for (ProgramResource resource : provider.getProgramResources()) {
+        if (resource.getKind() != Kind.CF) {
+          resources.add(resource);
+          continue;
+        }
+        byte[] bytes;
+        try (InputStream stream = resource.getByteStream()) {
+          bytes = ByteStreams.toByteArray(stream);
+        }
+        ProgramResource bytesResource =
+            ProgramResource.fromBytes(
+                resource.getOrigin(), Kind.CF, bytes, resource.getClassDescriptors());
+        resources.add(bytesResource);
+        classBytes.put(bytesResource, bytes);
+      }
+      resourcesOfProviders.add(resources);
+    }
+
+    Map<String, ClassInput> classes = new HashMap<>();
+    List<List<ClassInput>> classesOfProviders = new ArrayList<>();
+    List<List<ProgramResource>> dexResourcesOfProviders = new ArrayList<>();
+    for (List<ProgramResource> resources : resourcesOfProviders) {
+      List<ClassInput> providerClasses = new ArrayList<>();
+      List<ProgramResource> dexResources = new ArrayList<>();
+      for (ProgramResource resource : resources) {
+        if (resource.getKind() != Kind.CF) {
+          dexResources.add(resource);
+          continue;
+        }
+        ClassInput input;
+        try {
+          input = new ClassInput(resource.getOrigin(), classBytes.get(resource));
+        } catch (RuntimeException e) {
+          // Let the compilation report the invalid class file.
+          return replaceProgramResources(app, resourcesOfProviders, options);
+        }
+        if (classes.put(input.descriptor, input) != null) {
+          // Let the compilation report the duplicate class.
+          return replaceProgramResources(app, resourcesOfProviders, options);
+        }
+        providerClasses.add(input);
+      }
+      classesOfProviders.add(providerClasses);
+      dexResourcesOfProviders.add(dexResources);
+    }
+
+    // Look up the classes, and compile the classes that are not in the cache and their supertypes.
+    Map<String, byte[]> cached = new HashMap<>();
+    for (ClassInput input : classes.values()) {
+      input.key = computeKey(input, classes, environment);
+      byte[] content = read(input.key);
+      if (content != null) {
+        cached.put(input.descriptor, content);
+      }
+    }
+    for (ClassInput input : classes.values()) {
+      if (!cached.containsKey(input.descriptor)) {
+        for (ClassInput supertype : input.getProgramSupertypes(classes)) {
+          cached.remove(supertype.descriptor);
+        }
+      }
+    }
+    hits.addAndGet(cached.size());
+    misses.addAndGet(classes.size() - cached.size());
+
+    for (Entry<String, byte[]> entry : cached.entrySet()) {
+      acceptCachedFile(entry.getKey(), entry.getValue(), consumer, options.reporter);
+    }
+    Map<String, String> keys = new HashMap<>();
+    Map<String, ClassInput> classpathClasses = new HashMap<>();
+    List<ProgramResourceProvider> providers = new ArrayList<>();
+    for (int i = 0; i < classesOfProviders.size(); i++) {
+      List<ProgramResource> resources = new ArrayList<>(dexResourcesOfProviders.get(i));
+      for (ClassInput input : classesOfProviders.get(i)) {
+        if (cached.containsKey(input.descriptor)) {
+          classpathClasses.put(input.descriptor, input);
+        } else {
+          keys.put(input.descriptor, input.key);
+          resources.add(input.createResource());
+        }
+      }
+      providers.add(
+          new FilteredProgramResourceProvider(
+              resources, app.getProgramResourceProviders().get(i).getDataResourceProvider()));
+    }
+    options.programConsumer = new CachingConsumer(consumer, keys);
+    AndroidApp.Builder builder =
+        AndroidApp.builder(app, options.reporter).replaceProgramResourceProviders(providers);
+    if (!classpathClasses.isEmpty()) {
+      builder.addClasspathResourceProvider(new CachedClassesProvider(classpathClasses));
+    }
+    return builder.build();
+  }
+
+  // Returns the application with the program resources replaced by the given resources, which
+  // include the class files that have been read.
+  private static AndroidApp replaceProgramResources(
+      AndroidApp app, List<List<ProgramResource>> resourcesOfProviders, InternalOptions options) {
+    List<ProgramResourceProvider> providers = new ArrayList<>();
+    for (int i = 0; i < resourcesOfProviders.size(); i++) {
+      providers.add(
+          new FilteredProgramResourceProvider(
+              resourcesOfProviders.get(i),
+              app.getProgramResourceProviders().get(i).getDataResourceProvider()));
+    }
+    return AndroidApp.builder(app, options.reporter)
+        .replaceProgramResourceProviders(providers)
+        .build();
+  }
+
+  // Hash of everything besides the program classes that the generated code depends on, or null if
+  // the library or classpath cannot be hashed.
+  private static HashCode computeEnvironmentHash(AndroidApp app, InternalOptions options)
+      throws IOException {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putInt(VERSION);
+    hasher.putString(Version.LABEL, StandardCharsets.UTF_8);
+    hasher.putInt(options.minApiLevel);
+    hasher.putBoolean(options.debug);
+    hasher.putBoolean(options.intermediate);
+    hasher.putBoolean(options.enableDesugaring);
+    hasher.putInt(options.interfaceMethodDesugaring.ordinal());
+    hasher.putInt(options.tryWithResourcesDesugaring.ordinal());
+    hasher.putBoolean(options.testing.dontCreateMarkerInD8);
+    hasher.putBoolean(options.addMarkersToFilePerClassFiles);
+    List<ClassFileResourceProvider> providers = new ArrayList<>();
+    providers.addAll(app.getLibraryResourceProviders());
+    hasher.putInt(providers.size());
+    providers.addAll(app.getClasspathResourceProviders());
+    for (ClassFileResourceProvider provider : providers) {
+      if (!(provider instanceof InternalArchiveClassFileProvider)) {
+        return null;
+      }
+      InternalArchiveClassFileProvider archive = (InternalArchiveClassFileProvider) provider;
+      HashCode archiveHash =
+          options.openLibrarySnapshots != null
+              ? options.openLibrarySnapshots.getArchiveHash(archive.getPath())
+              : OpenLibrarySnapshots.hashArchive(archive.getPath());
+      hasher.putBytes(archiveHash.asBytes());
+      for (String descriptor : new TreeSet<>(archive.getClassDescriptors())) {
+        hasher.putString(descriptor, StandardCharsets.UTF_8);
+      }
+    }
+    return hasher.hash();
+  }
+
+  private static String computeKey(
+      ClassInput input, Map<String, ClassInput> classes, HashCode environment) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putBytes(environment.asBytes());
+    hasher.putBytes(input.hash.asBytes());
+    // The supertypes are sorted, so the key does not depend on the order of the inputs.
+    Map<String, ClassInput> supertypes = new TreeMap<>();
+    for (ClassInput supertype : input.getProgramSupertypes(classes)) {
+      supertypes.put(supertype.descriptor, supertype);
+    }
+    for (ClassInput supertype : supertypes.values()) {
+      hasher.putString(supertype.descriptor, StandardCharsets.UTF_8);
+      hasher.putBytes(supertype.hash.asBytes());
+    }
+    return hasher.hash().toString();
+  }
+
+  private static void acceptCachedFile(
+      String descriptor,
+      byte[] content,
+      DexFilePerClassFileConsumer consumer,
+      DiagnosticsHandler handler)
+      throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(content));
+    int count = input.readInt();
+    Set<String> descriptors = new HashSet<>(count);
+    for (int i = 0; i < count; i++) {
+      descriptors.add(input.readUTF());
+    }
+    int offset = content.length - input.available();
+    consumer.accept(
+        descriptor,
+        new ByteDataView(content, offset, content.length - offset),
+        Collections.unmodifiableSet(descriptors),
+        handler);
+  }
+
+  // Returns null if the cache does not have the file.
+  private byte[] read(String key) {
+    Path file = directory.resolve(key + EXTENSION);
+    byte[] content;
+    try {
+      content = Files.readAllBytes(file);
+    } catch (IOException e) {
+      // The file was evicted by another process, or cannot be read, which is a miss.
+      synchronized (this) {
+        Long size = entries.remove(key);
+        if (size != null) {
+          totalBytes -= size;
+        }
+      }
+      return null;
+    }
+    // Record the use, in this process and for other processes.
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // The file is still used, it may just be evicted earlier by other processes.
+    }
+    synchronized (this) {
+      if (entries.put(key, (long) content.length) == null) {
+        totalBytes += content.length;
+      }
+    }
+    return content;
+  }
+
+  private void write(String key, Set<String> descriptors, ByteDataView data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.getLength() + 256);
+    DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(descriptors.size());
+    for (String descriptor : new TreeSet<>(descriptors)) {
+      output.writeUTF(descriptor);
+    }
+    output.write(data.getBuffer(), data.getOffset(), data.getLength());
+    output.flush();
+
+    // Write the file to a temporary file first, such that concurrent compilations never see a
+    // partially written file.
+    Path file = directory.resolve(key + EXTENSION);
+    Path temporaryFile = Files.createTempFile(directory, "dex", ".tmp");
+    try {
+      try (OutputStream stream = Files.newOutputStream(temporaryFile)) {
+        bytes.writeTo(stream);
+      }
+      try {
+        Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+
+    List<String> evicted = new ArrayList<>();
+    synchronized (this) {
+      Long previous = entries.put(key, (long) bytes.size());
+      totalBytes += bytes.size() - (previous == null ? 0 : previous);
+      Iterator<Entry<String, Long>> iterator = entries.entrySet().iterator();
+      while (totalBytes > maxBytes && iterator.hasNext()) {
+        Entry<String, Long> entry = iterator.next();
+        if (entry.getKey().equals(key)) {
+          continue;
+        }
+        evicted.add(entry.getKey());
+        totalBytes -= entry.getValue();
+        iterator.remove();
+      }
+    }
+    for (String evictedKey : evicted) {
+      Files.deleteIfExists(directory.resolve(evictedKey + EXTENSION));
+    }
+  }
+
+  private static class ClassInput {
+    final Origin origin;
+    final byte[] bytes;
+    final HashCode hash;
+    final String descriptor;
+    final List<String> supertypes = new ArrayList<>();
+    String key;
+
+    ClassInput(Origin origin, byte[] bytes) {
+      this.origin = origin;
+      this.bytes = bytes;
+      this.hash = Hashing.murmur3_128().hashBytes(bytes);
+      ClassReader reader = new ClassReader(bytes);
+      this.descriptor = DescriptorUtils.getDescriptorFromClassBinaryName(reader.getClassName());
+      if (reader.getSuperName() != null) {
+        supertypes.add(DescriptorUtils.getDescriptorFromClassBinaryName(reader.getSuperName()));
+      }
+      for (String name : reader.getInterfaces()) {
+        supertypes.add(DescriptorUtils.getDescriptorFromClassBinaryName(name));
+      }
+    }
+
+    // Returns the transitive supertypes of the class that are program classes.
+    Collection<ClassInput> getProgramSupertypes(Map<String, ClassInput> classes) {
+      Map<String, ClassInput> result = new LinkedHashMap<>();
+      List<ClassInput> worklist = new ArrayList<>();
+      worklist.add(this);
+      while (!worklist.isEmpty()) {
+        ClassInput current = worklist.remove(worklist.size() - 1);
+        for (String supertype : current.supertypes) {
+          ClassInput input = classes.get(supertype);
+          if (input != null && input != this && !result.containsKey(supertype)) {
+            result.put(supertype, input);
+            worklist.add(input);
+          }
+        }
+      }
+      return result.values();
+    }
+
+    ProgramResource createResource() {
+      return ProgramResource.fromBytes(
+          origin, Kind.CF, bytes, Collections.singleton(descriptor));
+    }
+  }
+
+  private static class FilteredProgramResourceProvider implements ProgramResourceProvider {
+    private final List<ProgramResource> resources;
+    private final DataResourceProvider dataResourceProvider;
+
+    FilteredProgramResourceProvider(
+        List<ProgramResource> resources, DataResourceProvider dataResourceProvider) {
+      this.resources = resources;
+      this.dataResourceProvider = dataResourceProvider;
+    }
+
+    @Override
+    public Collection<ProgramResource> getProgramResources() {
+      return resources;
+    }
+
+    @Override
+    public DataResourceProvider getDataResourceProvider() {
+      return dataResourceProvider;
+    }
+  }
+
+  private static class CachedClassesProvider implements ClassFileResourceProvider {
+    private final Map<String, ClassInput> classes;
+
+    CachedClassesProvider(Map<String, ClassInput> classes) {
+      this.classes = classes;
+    }
+
+    @Override
+    public Set<String> getClassDescriptors() {
+      return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    @Override
+    public ProgramResource getProgramResource(String descriptor) {
+      ClassInput input = classes.get(descriptor);
+      return input == null ? null : input.createResource();
+    }
+  }
+
+  // Adds the dex files of the compiled classes to the cache.
+  private class CachingConsumer extends DexFilePerClassFileConsumer.ForwardingConsumer
+      implements ByteBufferPool.ForwardingProvider, PrecompressingConsumer {
+    private final DexFilePerClassFileConsumer consumer;
+    private final Map<String, String> keys;
+
+    CachingConsumer(DexFilePerClassFileConsumer consumer, Map<String, String> keys) {
+      super(consumer);
+      this.consumer = consumer;
+      this.keys = keys;
+    }
+
+    @Override
+    public void accept(
+        String primaryClassDescriptor,
+        ByteDataView data,
+        Set<String> descriptors,
+        DiagnosticsHandler handler) {
+      String key = keys.get(primaryClassDescriptor);
+      if (key != null) {
+        try {
+          write(key, descriptors, data);
+        } catch (IOException e) {
+          handler.warning(
+              new StringDiagnostic(
+                  "Failed to write to the dex file cache: " + e.getMessage(),
+                  new PathOrigin(directory)));
+        }
+      }
+      super.accept(primaryClassDescriptor, data, descriptors, handler);
+    }
+
+    @Override
+    public void precompress(int fileIndex, String primaryClassDescriptor, ByteDataView data) {
+      if (consumer instanceof PrecompressingConsumer) {
+        ((PrecompressingConsumer) consumer).precompress(fileIndex, primaryClassDescriptor, data);
+      }
+    }
+
+    @Override
+    public ByteBuffer acquireByteBuffer(int capacity) {
+      return consumer.acquireByteBuffer(capacity);
+    }
+
+    @Override
+    public void releaseByteBuffer(ByteBuffer buffer) {
+      consumer.releaseByteBuffer(buffer);
+    }
+
+    @Override
+    public ByteBufferProvider getByteBufferProvider() {
+      return consumer;
+    }
+  }
+}
@@ -20,9 +20,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
@@ -42,6 +44,8 @@ class InternalArchiveClassFileProvider implements ClassFileResourceProvider, Aut
   private final Set<String> descriptors = new HashSet<>();
 
   private ZipFile openedZipFile = null;
+  // Snapshots of the library class cache opened for this archive, which are closed with it.
+  private final List<LibraryClassSnapshot> openedSnapshots = new ArrayList<>();
 
   /**
    * Creates a lazy class-file program-resource provider.
@@ -73,6 +77,10 @@ class InternalArchiveClassFileProvider implements ClassFileResourceProvider, Aut
     }
   }
 
+  Path getPath() {
+    return path;
+  }
+
   @Override
   public Set<String> getClassDescriptors() {
     return Collections.unmodifiableSet(descriptors);
@@ -112,10 +120,18 @@ class InternalArchiveClassFileProvider implements ClassFileResourceProvider, Aut
     return openedZipFile;
   }
 
+  synchronized void addOpenedSnapshot(LibraryClassSnapshot snapshot) {
+    openedSnapshots.add(snapshot);
+  }
+
   @Override
   public void close() throws IOException {
     openedZipFile.close();
     openedZipFile = null;
+    synchronized (this) {
+      openedSnapshots.forEach(LibraryClassSnapshot::close);
+      openedSnapshots.clear();
+    }
   }
 
   private ZipEntry getZipEntryFromDescriptor(String descriptor) throws IOException {
@@ -20,6 +20,7 @@ import com.android.tools.r8.graph.DexItemFactory;
 import com.android.tools.r8.graph.DexMethod;
 import com.android.tools.r8.graph.DexType;
 import com.android.tools.r8.ir.code.IRCode;
+import com.android.tools.r8.ir.conversion.MethodProcessingProfile;
 import com.android.tools.r8.ir.optimize.Inliner;
 import com.android.tools.r8.naming.InterfaceMethodNameMinifier;
 import com.android.tools.r8.origin.Origin;
@@ -31,6 +32,7 @@ import com.google.common.base.Equivalence.Wrapper;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -108,9 +110,19 @@ public class InternalOptions {
   }
 
   public boolean printTimes = System.getProperty("com.android.tools.r8.printtimes") != null;
+  // Number of the most expensive methods to process to print the processing profile of.
+  public int printMethodProcessingProfile =
+      Integer.getInteger("com.android.tools.r8.printMethodProcessingProfile", 0);
 
   // Flag to toggle if DEX code objects should pass-through without IR processing.
   public boolean passthroughDexCode = false;
+  // Flag to toggle if the instructions of DEX code objects that pass-through are only decoded when
+  // needed. Code that is not decoded is written by copying the code units of the input.
+  public boolean enableLazyDexCode = true;
+  // Flag to toggle if the DEX code of trivial methods is built directly from their class-file code
+  // in debug mode, instead of through IR. Off until the compare mode, see
+  // TestingOptions.compareTrivialCodeDexBuilder, has been run over the test corpus.
+  public boolean enableTrivialCodeDexBuilder = false;
 
   // Optimization-related flags. These should conform to -dontoptimize.
   public boolean enableHorizontalClassMerging = true;
@@ -140,6 +152,33 @@ public class InternalOptions {
   public boolean enableValuePropagation = true;
   public boolean enableUninstantiatedTypeOptimization = true;
 
+  // Process the methods of the call graph as soon as all of their callees have been processed,
+  // instead of in waves of leaves separated by a barrier.
+  public boolean enableDependencyDrivenMethodProcessing = false;
+  // Scan the code of methods that are about to become live on the executor of the Enqueuer. The
+  // scanned references are still traced in work-list order, so the result is unchanged.
+  public boolean enableConcurrentTracing = false;
+  // Extract the call targets of the call graph on the executor. The call targets are added to the
+  // graph in the same order as when extracted sequentially, so the call graph is unchanged.
+  public boolean enableConcurrentCallGraphConstruction = true;
+  // Directory of a persistent cache of the parsed library classes, which is shared between
+  // compilations. The library classes are not cached if the directory is null.
+  public Path libraryCacheDirectory = getLibraryCacheDirectory();
+  // Snapshots of the library class cache that are kept open between the compilations of a
+  // process. Each compilation hashes its library archives and opens their snapshots if null.
+  public OpenLibrarySnapshots openLibrarySnapshots = null;
+  // Directory of a persistent cache of the dex files generated for class files when generating a
+  // dex file per class file. The dex files are not cached if the directory is null.
+  public Path dexFileCacheDirectory = getDexFileCacheDirectory();
+  // Bound on the total size of the dex file cache, above which the least recently used files are
+  // deleted.
+  public long dexFileCacheMaxBytes =
+      Long.getLong("com.android.tools.r8.dexFileCacheMaxBytes", 1L << 30);
+  // Read DEX program files by memory mapping them, instead of copying their content to the heap.
+  // The items of the files are still parsed into the same objects.
+  public boolean enableMappedDexReading =
+      System.getProperty("com.android.tools.r8.mapDexFiles") != null;
+
   // Number of threads to use while processing the dex files.
   public int numberOfThreads = DETERMINISTIC_DEBUGGING ? 1 : ThreadUtils.NOT_SPECIFIED;
   // Print smali disassembly.
@@ -226,6 +265,40 @@ public class InternalOptions {
     }
   }
 
+  // Whether the timings of the compilation are reported, which is when they are measured in
+  // detail.
+  public boolean isTimingReported() {
+    return timingReportConsumer != null || printTimes;
+  }
+
+  public void reportTiming(Timing timing) {
+    if (timingReportConsumer != null) {
+      timingReportConsumer.accept(timing.exportChromeTrace(), reporter);
+    }
+    if (printTimes) {
+      timing.report();
+    }
+  }
+
+  public void ensureMethodProcessingProfile() {
+    if (methodProcessingProfile == null
+        && (printMethodProcessingProfile > 0 || methodProcessingProfileConsumer != null)) {
+      methodProcessingProfile = new MethodProcessingProfile();
+    }
+  }
+
+  public void reportMethodProcessingProfile() {
+    if (methodProcessingProfile == null) {
+      return;
+    }
+    if (methodProcessingProfileConsumer != null) {
+      methodProcessingProfileConsumer.accept(methodProcessingProfile.toCsv(), reporter);
+    }
+    if (printMethodProcessingProfile > 0) {
+      methodProcessingProfile.report(printMethodProcessingProfile);
+    }
+  }
+
   public Set<String> extensiveLoggingFilter = getExtensiveLoggingFilter();
   public Set<String> extensiveFieldMinifierLoggingFilter = getExtensiveFieldMinifierLoggingFilter();
   public Set<String> extensiveInterfaceMethodMinifierLoggingFilter =
@@ -257,6 +330,13 @@ public class InternalOptions {
   // to disable the check that the build makes sense for multi-dexing.
   public boolean enableMainDexListCheck = true;
 
+  // Whether or not to add the markers to each file of a file per class output.
+  //
+  // The files of a file per class compilation are not a complete output on their own and do not
+  // have markers. CompatDexBuilder compiles all classes of an archive in one compilation, and
+  // adds the markers to each file like the compilations of a single class that it replaces.
+  public boolean addMarkersToFilePerClassFiles = false;
+
   public boolean enableTreeShaking = true;
 
   public boolean printCfg = false;
@@ -293,6 +373,16 @@ public class InternalOptions {
     return System.getProperty("com.android.tools.r8.keepRuleSynthesisForRecompilation") != null;
   }
 
+  private static Path getLibraryCacheDirectory() {
+    String property = System.getProperty("com.android.tools.r8.libraryCacheDirectory");
+    return property != null ? Paths.get(property) : null;
+  }
+
+  private static Path getDexFileCacheDirectory() {
+    String property = System.getProperty("com.android.tools.r8.dexFileCacheDirectory");
+    return property != null ? Paths.get(property) : null;
+  }
+
   private static Set<String> getExtensiveLoggingFilter() {
     String property = System.getProperty("com.android.tools.r8.extensiveLoggingFilter");
     if (property != null) {
@@ -372,6 +462,15 @@ public class InternalOptions {
   // If non null it must be and passed to the consumer.
   public StringConsumer mainDexListConsumer = null;
 
+  // If non null the timing report of the compilation is passed to the consumer.
+  public StringConsumer timingReportConsumer = null;
+
+  // If non null the processing profile of all methods is passed to the consumer.
+  public StringConsumer methodProcessingProfileConsumer = null;
+
+  // Non null if the processing of methods is profiled, see ensureMethodProcessingProfile().
+  public MethodProcessingProfile methodProcessingProfile = null;
+
   // If null, no proguad map needs to be computed.
   // If non null it must be and passed to the consumer.
   public StringConsumer proguardMapConsumer = null;
@@ -576,6 +675,12 @@ public class InternalOptions {
     public boolean forceNameReflectionOptimization = false;
     public boolean disallowLoadStoreOptimization = false;
     public Consumer<IRCode> irModifier = null;
+    // Build the code of trivial methods through IR too, and fail if it is not the same. Enables the
+    // trivial code builder.
+    public boolean compareTrivialCodeDexBuilder =
+        System.getProperty("com.android.tools.r8.compareTrivialCodeDexBuilder") != null;
+    // Called for each method whose code is built without IR.
+    public Consumer<DexEncodedMethod> trivialCodeDexBuilderConsumer = null;
 
     public MinifierTestingOptions minifier = new MinifierTestingOptions();
 
@@ -0,0 +1,190 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import com.android.tools.r8.ClassFileConsumer;
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.ResourceException;
+import com.android.tools.r8.graph.ClassKind;
+import com.android.tools.r8.graph.DexClass;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexType;
+import com.android.tools.r8.graph.JarApplicationReader;
+import com.android.tools.r8.graph.JarClassFileReader;
+import com.android.tools.r8.origin.ArchiveEntryOrigin;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.origin.PathOrigin;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Persistent cache of the parsed library classes of library archives, which is shared between
+ * compilations.
+ *
+ * <p>The first compilation that uses a library archive parses all classes of the archive and
+ * writes them to a {@link LibraryClassSnapshot} in the cache directory. Later compilations create
+ * the library classes from the memory mapped snapshot instead of parsing the class files. Snapshots
+ * are named by a hash of the content of the archive, so a changed archive gets a new snapshot.
+ */
+final class LibraryClassCache {
+
+  private static final String SNAPSHOT_EXTENSION = ".r8lib";
+
+  private LibraryClassCache() {}
+
+  /**
+   * Returns a provider of the classes of the given archive that is backed by the snapshot of the
+   * archive, or null if the snapshot cannot be used.
+   */
+  static <T extends DexClass> ClassProvider<T> getClassProvider(
+      ClassKind classKind, InternalArchiveClassFileProvider provider, JarApplicationReader reader) {
+    assert classKind == ClassKind.LIBRARY;
+    InternalOptions options = reader.options;
+    Path archive = provider.getPath();
+    try {
+      OpenLibrarySnapshots openSnapshots = options.openLibrarySnapshots;
+      HashCode archiveHash =
+          openSnapshots != null
+              ? openSnapshots.getArchiveHash(archive)
+              : OpenLibrarySnapshots.hashArchive(archive);
+      Path snapshotFile =
+          options.libraryCacheDirectory.resolve(
+              getKey(provider, archiveHash) + SNAPSHOT_EXTENSION);
+      if (!Files.exists(snapshotFile) && !writeSnapshot(provider, snapshotFile)) {
+        return null;
+      }
+      LibraryClassSnapshot snapshot;
+      if (openSnapshots != null) {
+        snapshot = openSnapshots.open(snapshotFile);
+      } else {
+        // The mapping is released when the compilation closes the archive.
+        snapshot = LibraryClassSnapshot.open(snapshotFile);
+        provider.addOpenedSnapshot(snapshot);
+      }
+      return new SnapshotClassProvider<>(classKind, snapshot, archive, reader);
+    } catch (IOException e) {
+      options.reporter.warning(
+          new StringDiagnostic(
+              "Failed to use the library class cache: " + e.getMessage(), new PathOrigin(archive)));
+      return null;
+    }
+  }
+
+  // The key covers the format of the snapshot, the content of the archive and the classes that are
+  // provided from the archive, which differ if the archive is filtered.
+  private static String getKey(InternalArchiveClassFileProvider provider, HashCode archiveHash) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    hasher.putInt(LibraryClassSnapshot.VERSION);
+    hasher.putBytes(archiveHash.asBytes());
+    for (String descriptor : new TreeSet<>(provider.getClassDescriptors())) {
+      hasher.putString(descriptor, StandardCharsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  // Returns false if the archive contains a class that cannot be read. The error is then reported
+  // when the compilation reads the class, if at all.
+  private static boolean writeSnapshot(
+      InternalArchiveClassFileProvider provider, Path snapshotFile) throws IOException {
+    // The classes are read with their own options, such that the snapshot does not depend on the
+    // options of the compilation. Generating class files keeps all information that is read from
+    // the class files.
+    InternalOptions options = new InternalOptions(new DexItemFactory(), new Reporter());
+    options.programConsumer = ClassFileConsumer.emptyConsumer();
+    JarApplicationReader application = new JarApplicationReader(options);
+    Map<String, DexClass> classes = new TreeMap<>();
+    for (String descriptor : provider.getClassDescriptors()) {
+      ProgramResource resource = provider.getProgramResource(descriptor);
+      try (Closer closer = Closer.create()) {
+        JarClassFileReader classReader =
+            new JarClassFileReader(application, clazz -> classes.put(descriptor, clazz));
+        classReader.read(
+            resource.getOrigin(), ClassKind.LIBRARY, closer.register(resource.getByteStream()));
+      } catch (ResourceException | RuntimeException e) {
+        return false;
+      }
+    }
+
+    // Write the snapshot to a temporary file first, such that concurrent compilations never see a
+    // partially written snapshot.
+    Path directory = snapshotFile.getParent();
+    Files.createDirectories(directory);
+    Path temporaryFile = Files.createTempFile(directory, "snapshot", ".tmp");
+    try {
+      try (OutputStream output = Files.newOutputStream(temporaryFile)) {
+        LibraryClassSnapshot.write(classes, output);
+      }
+      try {
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporaryFile);
+    }
+    return true;
+  }
+
+  private static class SnapshotClassProvider<T extends DexClass> extends ClassProvider<T> {
+    private final ClassKind classKind;
+    private final LibraryClassSnapshot snapshot;
+    private final Origin origin;
+    private final JarApplicationReader reader;
+
+    private SnapshotClassProvider(
+        ClassKind classKind,
+        LibraryClassSnapshot snapshot,
+        Path archive,
+        JarApplicationReader reader) {
+      super(classKind);
+      this.classKind = classKind;
+      this.snapshot = snapshot;
+      this.origin = new PathOrigin(archive);
+      this.reader = reader;
+    }
+
+    @Override
+    public void collectClass(DexType type, Consumer<T> classConsumer) {
+      String descriptor = type.descriptor.toString();
+      Origin entryOrigin =
+          new ArchiveEntryOrigin(
+              descriptor.substring(1, descriptor.length() - 1) + FileUtils.CLASS_EXTENSION,
+              origin);
+      DexClass clazz = snapshot.readClass(descriptor, classKind, entryOrigin, reader);
+      if (clazz != null) {
+        classKind.bridgeConsumer(classConsumer).accept(clazz);
+      }
+    }
+
+    @Override
+    public Collection<DexType> collectTypes() {
+      List<DexType> types = new ArrayList<>();
+      for (String descriptor : snapshot.getClassDescriptors()) {
+        types.add(reader.options.itemFactory.createType(descriptor));
+      }
+      return types;
+    }
+
+    @Override
+    public String toString() {
+      return "library-class-cache(" + origin + ")";
+    }
+  }
+}
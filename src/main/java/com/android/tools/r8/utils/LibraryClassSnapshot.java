@@ -0,0 +1,750 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.ProgramResource.Kind;
+import com.android.tools.r8.errors.CompilationError;
+import com.android.tools.r8.errors.Unreachable;
+import com.android.tools.r8.graph.ClassAccessFlags;
+import com.android.tools.r8.graph.ClassKind;
+import com.android.tools.r8.graph.DexAnnotation;
+import com.android.tools.r8.graph.DexAnnotationElement;
+import com.android.tools.r8.graph.DexAnnotationSet;
+import com.android.tools.r8.graph.DexClass;
+import com.android.tools.r8.graph.DexEncodedAnnotation;
+import com.android.tools.r8.graph.DexEncodedField;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexField;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexMethod;
+import com.android.tools.r8.graph.DexProto;
+import com.android.tools.r8.graph.DexString;
+import com.android.tools.r8.graph.DexType;
+import com.android.tools.r8.graph.DexTypeList;
+import com.android.tools.r8.graph.DexValue;
+import com.android.tools.r8.graph.DexValue.DexValueAnnotation;
+import com.android.tools.r8.graph.DexValue.DexValueArray;
+import com.android.tools.r8.graph.DexValue.DexValueBoolean;
+import com.android.tools.r8.graph.DexValue.DexValueByte;
+import com.android.tools.r8.graph.DexValue.DexValueChar;
+import com.android.tools.r8.graph.DexValue.DexValueDouble;
+import com.android.tools.r8.graph.DexValue.DexValueEnum;
+import com.android.tools.r8.graph.DexValue.DexValueFloat;
+import com.android.tools.r8.graph.DexValue.DexValueInt;
+import com.android.tools.r8.graph.DexValue.DexValueLong;
+import com.android.tools.r8.graph.DexValue.DexValueNull;
+import com.android.tools.r8.graph.DexValue.DexValueShort;
+import com.android.tools.r8.graph.DexValue.DexValueString;
+import com.android.tools.r8.graph.DexValue.DexValueType;
+import com.android.tools.r8.graph.EnclosingMethodAttribute;
+import com.android.tools.r8.graph.InnerClassAttribute;
+import com.android.tools.r8.graph.JarApplicationReader;
+import com.android.tools.r8.graph.JarClassFileReader;
+import com.android.tools.r8.graph.ParameterAnnotationsList;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.shaking.ProguardKeepAttributes;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Compact binary snapshot of parsed library classes, which is memory mapped and from which the
+ * classes are created on demand.
+ *
+ * <p>The snapshot starts with a table of the descriptors and the offsets of all classes and a table
+ * of the offsets of all strings, followed by the strings and the classes. Strings are stored in
+ * their MUTF-8 encoding, and all other items refer to strings by their index in the string table.
+ * Types are referred to by their descriptor.
+ *
+ * <p>The classes in the snapshot hold all information that can be read from the class files.
+ * Information that depends on the options of a compilation, such as the source file, is removed
+ * when the classes are created, such that the classes are the same as the classes read with
+ * {@link JarClassFileReader}.
+ *
+ * <p>The mapping of the file is released by {@link #close}, and the file is mapped again if
+ * classes are read from the snapshot after that.
+ */
+final class LibraryClassSnapshot implements Closeable {
+
+  static final int VERSION = 1;
+
+  private static final int MAGIC = 0x52384c43;
+  private static final int NO_INDEX = -1;
+
+  private static final byte NO_ENCLOSING_MEMBER = 0;
+  private static final byte ENCLOSING_CLASS = 1;
+  private static final byte ENCLOSING_METHOD = 2;
+
+  private final Mapping mapping;
+  private final int[] stringOffsets;
+  private final Map<String, Integer> classOffsets;
+
+  // Strings of the snapshot that have been created in the item factory. Racing threads create the
+  // same canonical strings, so the array does not need to be synchronized.
+  private final DexString[] strings;
+
+  private LibraryClassSnapshot(
+      Mapping mapping, int[] stringOffsets, Map<String, Integer> classOffsets) {
+    this.mapping = mapping;
+    this.stringOffsets = stringOffsets;
+    this.classOffsets = classOffsets;
+    this.strings = new DexString[stringOffsets.length];
+  }
+
+  static LibraryClassSnapshot open(Path file) throws IOException {
+    Mapping mapping = new Mapping(file);
+    ByteBuffer buffer = mapping.acquire();
+    boolean valid = false;
+    try {
+      if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        throw new IOException("Invalid library class cache file: " + file);
+      }
+      int classCount = buffer.getInt();
+      String[] descriptors = new String[classCount];
+      int[] offsets = new int[classCount];
+      for (int i = 0; i < classCount; i++) {
+        offsets[i] = buffer.getInt();
+        byte[] descriptor = new byte[buffer.getInt()];
+        buffer.get(descriptor);
+        descriptors[i] = new String(descriptor, StandardCharsets.UTF_8);
+      }
+      int[] stringOffsets = new int[buffer.getInt()];
+      int stringsSize = buffer.getInt();
+      for (int i = 0; i < stringOffsets.length; i++) {
+        stringOffsets[i] = buffer.getInt();
+      }
+      int stringsStart = buffer.position();
+      for (int i = 0; i < stringOffsets.length; i++) {
+        stringOffsets[i] += stringsStart;
+      }
+      Map<String, Integer> classOffsets = new HashMap<>(classCount * 2);
+      for (int i = 0; i < classCount; i++) {
+        classOffsets.put(descriptors[i], stringsStart + stringsSize + offsets[i]);
+      }
+      valid = true;
+      return new LibraryClassSnapshot(mapping, stringOffsets, classOffsets);
+    } finally {
+      mapping.release();
+      if (!valid) {
+        mapping.close();
+      }
+    }
+  }
+
+  /**
+   * Returns a snapshot of the same file with a cache of strings of its own, such that the snapshot
+   * can be used with another item factory. The returned snapshot shares the mapping of the file,
+   * which is released by closing either snapshot.
+   */
+  LibraryClassSnapshot withNewStrings() {
+    return new LibraryClassSnapshot(mapping, stringOffsets, classOffsets);
+  }
+
+  Set<String> getClassDescriptors() {
+    return Collections.unmodifiableSet(classOffsets.keySet());
+  }
+
+  /**
+   * Creates the class with the given descriptor from the snapshot, or returns null if the snapshot
+   * does not contain the class.
+   *
+   * <p>NOTE: thread-safe.
+   */
+  DexClass readClass(
+      String descriptor, ClassKind classKind, Origin origin, JarApplicationReader application) {
+    Integer offset = classOffsets.get(descriptor);
+    if (offset == null) {
+      return null;
+    }
+    ByteBuffer input;
+    try {
+      input = mapping.acquire();
+    } catch (IOException e) {
+      throw new CompilationError("Failed to read library class cache file", e, origin);
+    }
+    try {
+      input.position(offset);
+      return new ClassReader(input, application).readClass(classKind, origin);
+    } finally {
+      mapping.release();
+    }
+  }
+
+  /** Releases the mapping of the file. NOTE: thread-safe. */
+  @Override
+  public void close() {
+    mapping.close();
+  }
+
+  // Must be called while the mapping is acquired.
+  private DexString getString(int index, ByteBuffer buffer, DexItemFactory factory) {
+    if (index == NO_INDEX) {
+      return null;
+    }
+    DexString string = strings[index];
+    if (string == null) {
+      ByteBuffer input = buffer.duplicate();
+      input.position(stringOffsets[index]);
+      int size = input.getInt();
+      byte[] content = new byte[input.getInt() + 1];
+      input.get(content, 0, content.length - 1);
+      string = factory.createString(size, content);
+      strings[index] = string;
+    }
+    return string;
+  }
+
+  /**
+   * Memory mapping of a snapshot file, which is released on close and mapped again when it is
+   * acquired after that. The mapping is not released while it is acquired by a reader.
+   */
+  private static class Mapping {
+
+    private final Path file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedByteBuffer buffer = null;
+    private long size = -1;
+
+    Mapping(Path file) {
+      this.file = file;
+    }
+
+    /** Returns a view of the mapped file, which must be followed by a call to release. */
+    ByteBuffer acquire() throws IOException {
+      lock.readLock().lock();
+      if (buffer != null) {
+        return buffer.duplicate();
+      }
+      lock.readLock().unlock();
+      lock.writeLock().lock();
+      try {
+        if (buffer == null) {
+          buffer = map();
+        }
+        // Downgrade to the read lock, such that the mapping cannot be released by a racing close.
+        lock.readLock().lock();
+        return buffer.duplicate();
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    void release() {
+      lock.readLock().unlock();
+    }
+
+    void close() {
+      lock.writeLock().lock();
+      try {
+        if (buffer != null) {
+          unmap(buffer);
+          buffer = null;
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+
+    private MappedByteBuffer map() throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        // The offsets read when the snapshot was opened must still be valid.
+        if (size != -1 && channel.size() != size) {
+          throw new IOException("Library class cache file changed: " + file);
+        }
+        size = channel.size();
+        return channel.map(MapMode.READ_ONLY, 0, size);
+      }
+    }
+
+    // The mapping is otherwise only released when the buffer is garbage collected, which keeps the
+    // file open, e.g., preventing its deletion on Windows.
+    private static void unmap(MappedByteBuffer buffer) {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        // Java 9 and later.
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        return;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // Fall through.
+      }
+      try {
+        // Java 8.
+        Method cleaner = buffer.getClass().getMethod("cleaner");
+        cleaner.setAccessible(true);
+        Object bufferCleaner = cleaner.invoke(buffer);
+        if (bufferCleaner != null) {
+          bufferCleaner.getClass().getMethod("clean").invoke(bufferCleaner);
+        }
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // Leave the mapping to the garbage collector.
+      }
+    }
+  }
+
+  private class ClassReader {
+
+    private final ByteBuffer input;
+    private final JarApplicationReader application;
+    private final DexItemFactory factory;
+
+    private final boolean skipDebugInformation;
+    private final boolean canUseParameterNameAnnotations;
+
+    ClassReader(ByteBuffer input, JarApplicationReader application) {
+      this.input = input;
+      this.application = application;
+      this.factory = application.getFactory();
+      InternalOptions options = application.options;
+      // Same as the parsing options used by JarClassFileReader.
+      if (options.getProguardConfiguration() != null) {
+        ProguardKeepAttributes keep = options.getProguardConfiguration().getKeepAttributes();
+        skipDebugInformation = !keep.sourceFile && !keep.sourceDebugExtension;
+      } else {
+        skipDebugInformation = false;
+      }
+      canUseParameterNameAnnotations = options.canUseParameterNameAnnotations();
+    }
+
+    DexClass readClass(ClassKind classKind, Origin origin) {
+      DexType type = readType();
+      ClassAccessFlags accessFlags = ClassAccessFlags.fromCfAccessFlags(input.getInt());
+      DexType superType = readType();
+      DexType[] interfaces = readTypes();
+      DexString sourceFile = readString();
+      EnclosingMethodAttribute enclosingMember = readEnclosingMember();
+      List<InnerClassAttribute> innerClasses = new ArrayList<>();
+      for (int i = input.getInt(); i > 0; i--) {
+        innerClasses.add(
+            new InnerClassAttribute(input.getInt(), readType(), readType(), readString()));
+      }
+      DexAnnotationSet annotations = readAnnotationSet();
+      DexEncodedField[] staticFields = readFields(type);
+      DexEncodedField[] instanceFields = readFields(type);
+      DexEncodedMethod[] directMethods = readMethods(type);
+      DexEncodedMethod[] virtualMethods = readMethods(type);
+      return classKind.create(
+          type,
+          Kind.CF,
+          origin,
+          accessFlags,
+          superType,
+          interfaces.length == 0 ? DexTypeList.empty() : new DexTypeList(interfaces),
+          skipDebugInformation ? null : sourceFile,
+          enclosingMember,
+          innerClasses,
+          annotations,
+          staticFields,
+          instanceFields,
+          directMethods,
+          virtualMethods,
+          factory.getSkipNameValidationForTesting());
+    }
+
+    private EnclosingMethodAttribute readEnclosingMember() {
+      switch (input.get()) {
+        case NO_ENCLOSING_MEMBER:
+          return null;
+        case ENCLOSING_CLASS:
+          return new EnclosingMethodAttribute(readType());
+        case ENCLOSING_METHOD:
+          return new EnclosingMethodAttribute(readMethod(readType()));
+        default:
+          throw new Unreachable();
+      }
+    }
+
+    private DexEncodedField[] readFields(DexType holder) {
+      DexEncodedField[] fields = new DexEncodedField[input.getInt()];
+      for (int i = 0; i < fields.length; i++) {
+        int access = input.getInt();
+        DexString name = readString();
+        DexField field = factory.createField(holder, readType(), name);
+        fields[i] =
+            new DexEncodedField(
+                field,
+                JarClassFileReader.createFieldAccessFlags(access),
+                readAnnotationSet(),
+                null);
+      }
+      return fields;
+    }
+
+    private DexEncodedMethod[] readMethods(DexType holder) {
+      DexEncodedMethod[] methods = new DexEncodedMethod[input.getInt()];
+      for (int i = 0; i < methods.length; i++) {
+        int access = input.getInt();
+        int classFileVersion = input.getInt();
+        DexMethod method = readMethod(holder);
+        DexAnnotationSet annotations = readAnnotationSet();
+        int parameterAnnotationsCount = input.getInt();
+        ParameterAnnotationsList parameterAnnotationsList = ParameterAnnotationsList.empty();
+        if (parameterAnnotationsCount > 0) {
+          DexAnnotationSet[] sets = new DexAnnotationSet[parameterAnnotationsCount];
+          for (int j = 0; j < parameterAnnotationsCount; j++) {
+            sets[j] = readAnnotationSet();
+          }
+          parameterAnnotationsList = new ParameterAnnotationsList(sets);
+        }
+        methods[i] =
+            new DexEncodedMethod(
+                method,
+                JarClassFileReader.createMethodAccessFlags(method.name.toString(), access),
+                annotations,
+                parameterAnnotationsList,
+                null,
+                classFileVersion);
+      }
+      return methods;
+    }
+
+    private DexMethod readMethod(DexType holder) {
+      DexString name = readString();
+      DexType returnType = readType();
+      DexProto proto = factory.createProto(returnType, readTypes());
+      return factory.createMethod(holder, proto, name);
+    }
+
+    private DexAnnotationSet readAnnotationSet() {
+      int count = input.getInt();
+      if (count == 0) {
+        return DexAnnotationSet.empty();
+      }
+      List<DexAnnotation> annotations = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int visibility = input.get();
+        DexAnnotation annotation = new DexAnnotation(visibility, readEncodedAnnotation());
+        DexType annotationType = annotation.annotation.type;
+        if (skipDebugInformation && annotationType == factory.annotationSourceDebugExtension) {
+          continue;
+        }
+        if (!canUseParameterNameAnnotations
+            && annotationType == factory.annotationMethodParameters) {
+          continue;
+        }
+        annotations.add(annotation);
+      }
+      if (annotations.isEmpty()) {
+        return DexAnnotationSet.empty();
+      }
+      // Same as the check when reading annotations with JarClassFileReader.
+      if (application.options.isGeneratingDex()) {
+        DexType duplicateType = DexAnnotationSet.findDuplicateEntryType(annotations);
+        if (duplicateType != null) {
+          throw new CompilationError(
+              "Multiple annotations of type `" + duplicateType.toSourceString() + "`");
+        }
+      }
+      return new DexAnnotationSet(annotations.toArray(DexAnnotation.EMPTY_ARRAY));
+    }
+
+    private DexEncodedAnnotation readEncodedAnnotation() {
+      DexType type = readType();
+      DexAnnotationElement[] elements = new DexAnnotationElement[input.getInt()];
+      for (int i = 0; i < elements.length; i++) {
+        DexString name = readString();
+        elements[i] = new DexAnnotationElement(name, readValue());
+      }
+      return new DexEncodedAnnotation(type, elements);
+    }
+
+    private DexValue readValue() {
+      byte tag = input.get();
+      switch (tag) {
+        case DexValue.VALUE_BYTE:
+          return DexValueByte.create(input.get());
+        case DexValue.VALUE_SHORT:
+          return DexValueShort.create(input.getShort());
+        case DexValue.VALUE_CHAR:
+          return DexValueChar.create(input.getChar());
+        case DexValue.VALUE_INT:
+          return DexValueInt.create(input.getInt());
+        case DexValue.VALUE_LONG:
+          return DexValueLong.create(input.getLong());
+        case DexValue.VALUE_FLOAT:
+          return DexValueFloat.create(input.getFloat());
+        case DexValue.VALUE_DOUBLE:
+          return DexValueDouble.create(input.getDouble());
+        case DexValue.VALUE_BOOLEAN:
+          return DexValueBoolean.create(input.get() != 0);
+        case DexValue.VALUE_NULL:
+          return DexValueNull.NULL;
+        case DexValue.VALUE_STRING:
+          return new DexValueString(readString());
+        case DexValue.VALUE_TYPE:
+          return new DexValueType(readType());
+        case DexValue.VALUE_ENUM:
+          {
+            DexType holder = readType();
+            DexType type = readType();
+            return new DexValueEnum(factory.createField(holder, type, readString()));
+          }
+        case DexValue.VALUE_ARRAY:
+          {
+            DexValue[] values = new DexValue[input.getInt()];
+            for (int i = 0; i < values.length; i++) {
+              values[i] = readValue();
+            }
+            return new DexValueArray(values);
+          }
+        case DexValue.VALUE_ANNOTATION:
+          return new DexValueAnnotation(readEncodedAnnotation());
+        default:
+          throw new Unreachable("Unexpected value tag " + tag + " in library class cache");
+      }
+    }
+
+    private DexString readString() {
+      return getString(input.getInt(), input, factory);
+    }
+
+    private DexType readType() {
+      DexString descriptor = readString();
+      return descriptor == null ? null : factory.createType(descriptor);
+    }
+
+    private DexType[] readTypes() {
+      DexType[] types = new DexType[input.getInt()];
+      for (int i = 0; i < types.length; i++) {
+        types[i] = readType();
+      }
+      return types;
+    }
+  }
+
+  /** Writes a snapshot of the given classes, which are given by the descriptors of their files. */
+  static void write(Map<String, DexClass> classes, OutputStream output) throws IOException {
+    DataOutputStream out = new DataOutputStream(output);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+
+    // The offsets of the classes and the strings are relative to the start of their sections.
+    ClassWriter classWriter = new ClassWriter();
+    out.writeInt(classes.size());
+    for (Entry<String, DexClass> entry : classes.entrySet()) {
+      out.writeInt(classWriter.size());
+      byte[] descriptor = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(descriptor.length);
+      out.write(descriptor);
+      classWriter.writeClass(entry.getValue());
+    }
+
+    List<DexString> strings = classWriter.strings;
+    int stringsSize = 0;
+    for (DexString string : strings) {
+      stringsSize += 8 + string.getContentLength() - 1;
+    }
+    out.writeInt(strings.size());
+    out.writeInt(stringsSize);
+    int stringOffset = 0;
+    for (DexString string : strings) {
+      out.writeInt(stringOffset);
+      stringOffset += 8 + string.getContentLength() - 1;
+    }
+    for (DexString string : strings) {
+      // The content is stored without the terminating zero byte.
+      out.writeInt(string.size);
+      ByteDataView content = string.getContentView();
+      out.writeInt(content.getLength() - 1);
+      out.write(content.getBuffer(), content.getOffset(), content.getLength() - 1);
+    }
+    classWriter.bytes.writeTo(out);
+    out.flush();
+  }
+
+  private static class ClassWriter {
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    private final List<DexString> strings = new ArrayList<>();
+    private final Map<DexString, Integer> stringIndices = new HashMap<>();
+
+    int size() {
+      return out.size();
+    }
+
+    int getIndex(DexString string) {
+      return stringIndices.computeIfAbsent(
+          string,
+          ignore -> {
+            strings.add(string);
+            return strings.size() - 1;
+          });
+    }
+
+    void writeClass(DexClass clazz) throws IOException {
+      writeType(clazz.type);
+      out.writeInt(clazz.accessFlags.getAsCfAccessFlags());
+      writeType(clazz.superType);
+      writeTypes(clazz.interfaces.values);
+      writeString(clazz.sourceFile);
+      EnclosingMethodAttribute enclosingMember = clazz.getEnclosingMethod();
+      if (enclosingMember == null) {
+        out.writeByte(NO_ENCLOSING_MEMBER);
+      } else if (enclosingMember.getEnclosingMethod() != null) {
+        out.writeByte(ENCLOSING_METHOD);
+        writeType(enclosingMember.getEnclosingMethod().holder);
+        writeMethod(enclosingMember.getEnclosingMethod());
+      } else {
+        out.writeByte(ENCLOSING_CLASS);
+        writeType(enclosingMember.getEnclosingClass());
+      }
+      out.writeInt(clazz.getInnerClasses().size());
+      for (InnerClassAttribute innerClass : clazz.getInnerClasses()) {
+        out.writeInt(innerClass.getAccess());
+        writeType(innerClass.getInner());
+        writeType(innerClass.getOuter());
+        writeString(innerClass.getInnerName());
+      }
+      writeAnnotationSet(clazz.annotations);
+      writeFields(clazz.staticFields());
+      writeFields(clazz.instanceFields());
+      writeMethods(clazz.directMethods());
+      writeMethods(clazz.virtualMethods());
+    }
+
+    private void writeFields(List<DexEncodedField> fields) throws IOException {
+      out.writeInt(fields.size());
+      for (DexEncodedField field : fields) {
+        out.writeInt(field.accessFlags.getAsCfAccessFlags());
+        writeString(field.field.name);
+        writeType(field.field.type);
+        writeAnnotationSet(field.annotations);
+      }
+    }
+
+    private void writeMethods(List<DexEncodedMethod> methods) throws IOException {
+      out.writeInt(methods.size());
+      for (DexEncodedMethod method : methods) {
+        assert !method.hasCode();
+        out.writeInt(method.accessFlags.getAsCfAccessFlags());
+        out.writeInt(method.hasClassFileVersion() ? method.getClassFileVersion() : NO_INDEX);
+        writeMethod(method.method);
+        writeAnnotationSet(method.annotations);
+        ParameterAnnotationsList parameterAnnotations = method.parameterAnnotationsList;
+        assert parameterAnnotations.countNonMissing() == parameterAnnotations.size();
+        out.writeInt(parameterAnnotations.size());
+        for (int i = 0; i < parameterAnnotations.size(); i++) {
+          writeAnnotationSet(parameterAnnotations.get(i));
+        }
+      }
+    }
+
+    private void writeMethod(DexMethod method) throws IOException {
+      writeString(method.name);
+      writeType(method.proto.returnType);
+      writeTypes(method.proto.parameters.values);
+    }
+
+    private void writeAnnotationSet(DexAnnotationSet annotations) throws IOException {
+      out.writeInt(annotations.annotations.length);
+      for (DexAnnotation annotation : annotations.annotations) {
+        out.writeByte(annotation.visibility);
+        writeEncodedAnnotation(annotation.annotation);
+      }
+    }
+
+    private void writeEncodedAnnotation(DexEncodedAnnotation annotation) throws IOException {
+      writeType(annotation.type);
+      out.writeInt(annotation.elements.length);
+      for (DexAnnotationElement element : annotation.elements) {
+        writeString(element.name);
+        writeValue(element.value);
+      }
+    }
+
+    private void writeValue(DexValue value) throws IOException {
+      if (value instanceof DexValueByte) {
+        out.writeByte(DexValue.VALUE_BYTE);
+        out.writeByte(((DexValueByte) value).getValue());
+      } else if (value instanceof DexValueShort) {
+        out.writeByte(DexValue.VALUE_SHORT);
+        out.writeShort(((DexValueShort) value).getValue());
+      } else if (value instanceof DexValueChar) {
+        out.writeByte(DexValue.VALUE_CHAR);
+        out.writeChar(((DexValueChar) value).getValue());
+      } else if (value instanceof DexValueInt) {
+        out.writeByte(DexValue.VALUE_INT);
+        out.writeInt(((DexValueInt) value).getValue());
+      } else if (value instanceof DexValueLong) {
+        out.writeByte(DexValue.VALUE_LONG);
+        out.writeLong(((DexValueLong) value).getValue());
+      } else if (value instanceof DexValueFloat) {
+        out.writeByte(DexValue.VALUE_FLOAT);
+        out.writeFloat(((DexValueFloat) value).getValue());
+      } else if (value instanceof DexValueDouble) {
+        out.writeByte(DexValue.VALUE_DOUBLE);
+        out.writeDouble(((DexValueDouble) value).getValue());
+      } else if (value instanceof DexValueBoolean) {
+        out.writeByte(DexValue.VALUE_BOOLEAN);
+        out.writeByte(((DexValueBoolean) value).getValue() ? 1 : 0);
+      } else if (value instanceof DexValueNull) {
+        out.writeByte(DexValue.VALUE_NULL);
+      } else if (value instanceof DexValueString) {
+        out.writeByte(DexValue.VALUE_STRING);
+        writeString(((DexValueString) value).getValue());
+      } else if (value instanceof DexValueType) {
+        out.writeByte(DexValue.VALUE_TYPE);
+        writeType(((DexValueType) value).getValue());
+      } else if (value instanceof DexValueEnum) {
+        DexField field = ((DexValueEnum) value).getValue();
+        out.writeByte(DexValue.VALUE_ENUM);
+        writeType(field.holder);
+        writeType(field.type);
+        writeString(field.name);
+      } else if (value instanceof DexValueArray) {
+        DexValue[] values = ((DexValueArray) value).getValues();
+        out.writeByte(DexValue.VALUE_ARRAY);
+        out.writeInt(values.length);
+        for (DexValue element : values) {
+          writeValue(element);
+        }
+      } else if (value instanceof DexValueAnnotation) {
+        out.writeByte(DexValue.VALUE_ANNOTATION);
+        writeEncodedAnnotation(((DexValueAnnotation) value).value);
+      } else {
+        throw new Unreachable("Unexpected annotation value in library class: " + value);
+      }
+    }
+
+    private void writeString(DexString string) throws IOException {
+      out.writeInt(string == null ? NO_INDEX : getIndex(string));
+    }
+
+    private void writeType(DexType type) throws IOException {
+      writeString(type == null ? null : type.descriptor);
+    }
+
+    private void writeTypes(DexType[] types) throws IOException {
+      out.writeInt(types.length);
+      for (DexType type : types) {
+        writeType(type);
+      }
+    }
+  }
+}
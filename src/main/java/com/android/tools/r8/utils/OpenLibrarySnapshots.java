@@ -0,0 +1,106 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import com.google.common.hash.Funnels;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshots of the library class cache that are kept open between the compilations of a process,
+ * such as the compilations of a long-lived worker.
+ *
+ * <p>Without this, each compilation hashes the content of its library archives and maps their
+ * snapshots again. The hash of an archive is reused as long as the path, size and modification time
+ * of the archive are the same, so archives must not be changed in place without changing either.
+ *
+ * <p>The snapshots are mapped until the instance is closed.
+ *
+ * <p>NOTE: thread-safe.
+ */
+public class OpenLibrarySnapshots implements Closeable {
+
+  private final Map<ArchiveKey, HashCode> archiveHashes = new ConcurrentHashMap<>();
+  private final Map<Path, LibraryClassSnapshot> snapshots = new ConcurrentHashMap<>();
+
+  public int size() {
+    return snapshots.size();
+  }
+
+  HashCode getArchiveHash(Path archive) throws IOException {
+    ArchiveKey key =
+        new ArchiveKey(archive, Files.readAttributes(archive, BasicFileAttributes.class));
+    HashCode hash = archiveHashes.get(key);
+    if (hash == null) {
+      hash = hashArchive(archive);
+      archiveHashes.put(key, hash);
+    }
+    return hash;
+  }
+
+  static HashCode hashArchive(Path archive) throws IOException {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    try (InputStream input = Files.newInputStream(archive)) {
+      ByteStreams.copy(input, Funnels.asOutputStream(hasher));
+    }
+    return hasher.hash();
+  }
+
+  /** Returns the snapshot of the given file for use with the item factory of a compilation. */
+  LibraryClassSnapshot open(Path snapshotFile) throws IOException {
+    LibraryClassSnapshot snapshot = snapshots.get(snapshotFile);
+    if (snapshot == null) {
+      snapshot = LibraryClassSnapshot.open(snapshotFile);
+      LibraryClassSnapshot existing = snapshots.putIfAbsent(snapshotFile, snapshot);
+      if (existing != null) {
+        snapshot = existing;
+      }
+    }
+    return snapshot.withNewStrings();
+  }
+
+  /** Releases the mappings of all snapshots. */
+  @Override
+  public void close() {
+    snapshots.values().forEach(LibraryClassSnapshot::close);
+    snapshots.clear();
+  }
+
+  private static class ArchiveKey {
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+
+    ArchiveKey(Path path, BasicFileAttributes attributes) {
+      this.path = path.toAbsolutePath();
+      this.size = attributes.size();
+      this.lastModified = attributes.lastModifiedTime().toMillis();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof ArchiveKey)) {
+        return false;
+      }
+      ArchiveKey key = (ArchiveKey) other;
+      return path.equals(key.path) && size == key.size && lastModified == key.lastModified;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, size, lastModified);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import com.android.tools.r8.ByteDataView;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writer of zip archives whose entries are compressed ahead of time.
+ *
+ * <p>{@link java.util.zip.ZipOutputStream} deflates each entry as it is written. Here entries are
+ * compressed by {@link #compress} on the calling thread, without holding any lock, and the writer
+ * only appends the compressed bytes. Archives with more than 65535 entries or with offsets beyond
+ * 4GB are written in the Zip64 format.
+ */
+public class PrecompressedZipWriter implements Closeable {
+
+  private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+  private static final int UTF8_NAME_FLAG = 0x0800;
+  // Entries are written with the earliest DOS time (1980-01-01 00:00).
+  private static final int DOS_TIME_1980 = 0x00210000;
+  private static final int ZIP64_MAGIC = 0xFFFFFFFF;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final long ZIP64_MAGIC_VALUE = 0xFFFFFFFFL;
+
+  /** An entry with its content in the compressed form written to the archive. */
+  public static class Entry {
+    private final String name;
+    private final byte[] nameBytes;
+    private final int method;
+    private final long crc;
+    private final int size;
+    private final byte[] data;
+    private final int compressedSize;
+
+    private Entry(String name, int method, long crc, int size, byte[] data, int compressedSize) {
+      this.name = name;
+      this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      this.method = method;
+      this.crc = crc;
+      this.size = size;
+      this.data = data;
+      this.compressedSize = compressedSize;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  private static class CentralDirectoryRecord {
+    private final Entry entry;
+    private final long offset;
+
+    CentralDirectoryRecord(Entry entry, long offset) {
+      this.entry = entry;
+      this.offset = offset;
+    }
+  }
+
+  private final CountingOutputStream out;
+  private final Set<String> names = new HashSet<>();
+  private final List<CentralDirectoryRecord> records = new ArrayList<>();
+
+  public PrecompressedZipWriter(OutputStream out) {
+    this.out = new CountingOutputStream(new BufferedOutputStream(out));
+  }
+
+  /**
+   * Creates an entry with the given content, which is deflated if the method is {@link
+   * ZipEntry#DEFLATED}. The content is copied, so the view can be released after the call.
+   */
+  public static Entry compress(String name, ByteDataView content, int method) {
+    byte[] buffer = content.getBuffer();
+    int offset = content.getOffset();
+    int length = content.getLength();
+    CRC32 crc = new CRC32();
+    crc.update(buffer, offset, length);
+    if (method == ZipEntry.STORED) {
+      byte[] data = Arrays.copyOfRange(buffer, offset, offset + length);
+      return new Entry(name, method, crc.getValue(), length, data, length);
+    }
+    assert method == ZipEntry.DEFLATED;
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(buffer, offset, length);
+      deflater.finish();
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, length / 2));
+      byte[] chunk = new byte[Math.min(Math.max(length, 512), 64 * 1024)];
+      while (!deflater.finished()) {
+        int count = deflater.deflate(chunk);
+        compressed.write(chunk, 0, count);
+      }
+      byte[] data = compressed.toByteArray();
+      return new Entry(name, method, crc.getValue(), length, data, data.length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Creates an entry for a directory, the name must end with a separator. */
+  public static Entry directory(String name) {
+    assert name.endsWith("/");
+    return new Entry(name, ZipEntry.STORED, 0, 0, new byte[0], 0);
+  }
+
+  public void write(Entry entry) throws IOException {
+    if (!names.add(entry.name)) {
+      throw new ZipException("duplicate entry: " + entry.name);
+    }
+    records.add(new CentralDirectoryRecord(entry, out.getCount()));
+    writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+    writeShort(versionNeeded(entry, false));
+    writeShort(UTF8_NAME_FLAG);
+    writeShort(entry.method);
+    writeInt(DOS_TIME_1980);
+    writeInt((int) entry.crc);
+    writeInt(entry.compressedSize);
+    writeInt(entry.size);
+    writeShort(entry.nameBytes.length);
+    writeShort(0);
+    out.write(entry.nameBytes);
+    out.write(entry.data, 0, entry.compressedSize);
+  }
+
+  @Override
+  public void close() throws IOException {
+    long centralDirectoryOffset = out.getCount();
+    for (CentralDirectoryRecord record : records) {
+      Entry entry = record.entry;
+      boolean zip64 = record.offset >= ZIP64_MAGIC_VALUE;
+      writeInt(CENTRAL_DIRECTORY_HEADER_SIGNATURE);
+      writeShort(versionNeeded(entry, zip64)); // Version made by.
+      writeShort(versionNeeded(entry, zip64));
+      writeShort(UTF8_NAME_FLAG);
+      writeShort(entry.method);
+      writeInt(DOS_TIME_1980);
+      writeInt((int) entry.crc);
+      writeInt(entry.compressedSize);
+      writeInt(entry.size);
+      writeShort(entry.nameBytes.length);
+      writeShort(zip64 ? 12 : 0); // Extra field length.
+      writeShort(0); // Comment length.
+      writeShort(0); // Disk number.
+      writeShort(0); // Internal attributes.
+      writeInt(0); // External attributes.
+      writeInt(zip64 ? ZIP64_MAGIC : (int) record.offset);
+      out.write(entry.nameBytes);
+      if (zip64) {
+        writeShort(ZIP64_EXTRA_FIELD_ID);
+        writeShort(8);
+        writeLong(record.offset);
+      }
+    }
+    long centralDirectoryEnd = out.getCount();
+    long centralDirectorySize = centralDirectoryEnd - centralDirectoryOffset;
+    int count = records.size();
+    boolean zip64 =
+        count >= ZIP64_MAGIC_COUNT
+            || centralDirectoryOffset >= ZIP64_MAGIC_VALUE
+            || centralDirectorySize >= ZIP64_MAGIC_VALUE;
+    if (zip64) {
+      writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      writeLong(44); // Size of the remaining record.
+      writeShort(45); // Version made by.
+      writeShort(45); // Version needed.
+      writeInt(0); // Number of this disk.
+      writeInt(0); // Disk with the central directory.
+      writeLong(count);
+      writeLong(count);
+      writeLong(centralDirectorySize);
+      writeLong(centralDirectoryOffset);
+      writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+      writeInt(0); // Disk with the zip64 end of central directory.
+      writeLong(centralDirectoryEnd);
+      writeInt(1); // Total number of disks.
+    }
+    writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+    writeShort(0); // Number of this disk.
+    writeShort(0); // Disk with the central directory.
+    writeShort(zip64 ? ZIP64_MAGIC_COUNT : count);
+    writeShort(zip64 ? ZIP64_MAGIC_COUNT : count);
+    writeInt(zip64 ? ZIP64_MAGIC : (int) centralDirectorySize);
+    writeInt(zip64 ? ZIP64_MAGIC : (int) centralDirectoryOffset);
+    writeShort(0); // Comment length.
+    out.close();
+  }
+
+  private static int versionNeeded(Entry entry, boolean zip64) {
+    if (zip64) {
+      return 45;
+    }
+    return entry.method == ZipEntry.STORED ? 10 : 20;
+  }
+
+  private void writeShort(int value) throws IOException {
+    out.write(value & 0xFF);
+    out.write((value >>> 8) & 0xFF);
+  }
+
+  private void writeInt(int value) throws IOException {
+    writeShort(value & 0xFFFF);
+    writeShort((value >>> 16) & 0xFFFF);
+  }
+
+  private void writeLong(long value) throws IOException {
+    writeInt((int) value);
+    writeInt((int) (value >>> 32));
+  }
+
+  private static class CountingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,20 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import com.android.tools.r8.ByteDataView;
+
+/**
+ * Program consumer that writes the DEX files to an archive, and whose archive entries can be
+ * compressed on the threads encoding the files, before the files are passed to accept.
+ */
+public interface PrecompressingConsumer {
+
+  /**
+   * Compresses the archive entry of a DEX file, which is subsequently passed to accept with the
+   * same data. The file is identified by its index for a DexIndexedConsumer, and by its primary
+   * class descriptor for a DexFilePerClassFileConsumer. May be called concurrently.
+   */
+  void precompress(int fileIndex, String primaryClassDescriptor, ByteDataView data);
+}
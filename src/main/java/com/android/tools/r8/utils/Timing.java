@@ -10,51 +10,184 @@ package com.android.tools.r8.utils;
 //     try { ... } finally { t.end(); }
 // or alternatively:
 //     t.scope("My task", () -> { ... });
+// Work done by tasks on other threads is collected in a concurrent phase, where each task is timed
+// by the thread running it:
+//     ConcurrentPhase phase = t.concurrentPhase("My tasks");
+//     ... in each task: try (PhaseScope ignored = phase.begin()) { ... }
+// Only a detailed timing, which is created when the timings are reported, measures the CPU time
+// and the allocations of nodes and times the tasks of concurrent phases:
+//     Timing t = new Timing("R8", true);
 // Finally a report is printed by:
 //     t.report();
+// or exported in the Chrome trace event format by:
+//     t.exportChromeTrace();
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Timing {
 
+  private final String title;
+  private final boolean detailed;
   private final Stack<Node> stack;
+  private final long startTime;
+  private final long threadId;
+  private final String threadName;
+  // Completed begin/end intervals of the nodes of the coordinating thread, in order of completion.
+  private final List<Interval> intervals = new ArrayList<>();
 
   public Timing() {
     this("<no title>");
   }
 
   public Timing(String title) {
+    this(title, false);
+  }
+
+  /**
+   * Creates a timing that, if <code>detailed</code> is true, also measures the CPU time and the
+   * allocations of the nodes and times the tasks of concurrent phases. These measurements have a
+   * cost on each begin and end, so they are only enabled when the timings are reported.
+   */
+  public Timing(String title, boolean detailed) {
+    this.title = title;
+    this.detailed = detailed;
     stack = new Stack<>();
-    stack.push(new Node("Recorded timings for " + title));
+    Node root = new Node("Recorded timings for " + title, title, detailed);
+    startTime = root.start_time;
+    threadId = Thread.currentThread().getId();
+    threadName = Thread.currentThread().getName();
+    stack.push(root);
+  }
+
+  /** Measures the CPU time and the allocations of the current thread, where supported. */
+  private static class ThreadResources {
+
+    private static final ThreadMXBean threadMXBean = getThreadMXBean();
+    private static final boolean hasCpuTime =
+        threadMXBean != null && threadMXBean.isCurrentThreadCpuTimeSupported();
+    private static final com.sun.management.ThreadMXBean allocationMXBean =
+        getAllocationMXBean(threadMXBean);
+
+    private static ThreadMXBean getThreadMXBean() {
+      try {
+        return ManagementFactory.getThreadMXBean();
+      } catch (Throwable e) {
+        // Not available on this runtime.
+        return null;
+      }
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationMXBean(ThreadMXBean bean) {
+      try {
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+          com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+          if (allocationBean.isThreadAllocatedMemorySupported()
+              && allocationBean.isThreadAllocatedMemoryEnabled()) {
+            return allocationBean;
+          }
+        }
+      } catch (Throwable e) {
+        // Not available on this runtime.
+      }
+      return null;
+    }
+
+    static long cpuTime() {
+      return hasCpuTime ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    static long allocatedBytes() {
+      return allocationMXBean != null
+          ? allocationMXBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+          : 0;
+    }
+  }
+
+  /** Wall time, CPU time and allocations of work done on a single thread. */
+  static class Measurement {
+    long duration = 0;
+    long cpuTime = 0;
+    long allocatedBytes = 0;
+
+    void add(long duration, long cpuTime, long allocatedBytes) {
+      this.duration += duration;
+      this.cpuTime += cpuTime;
+      this.allocatedBytes += allocatedBytes;
+    }
+
+    void addTo(JsonObject args) {
+      args.addProperty("cpuMs", cpuTime / 1000000.0);
+      args.addProperty("allocatedBytes", allocatedBytes);
+    }
+
+    String resourcesToString() {
+      return "[cpu: "
+          + (cpuTime / 1000000)
+          + "ms, allocated: "
+          + (allocatedBytes / (1024 * 1024))
+          + "MB]";
+    }
   }
 
   static class Node {
     final String title;
+    final String path;
+    final boolean detailed;
 
     final Map<String, Node> children = new LinkedHashMap<>();
-    long duration = 0;
+    final Measurement total = new Measurement();
     long start_time;
+    long start_cpu_time;
+    long start_allocated_bytes;
 
-    Node(String title) {
+    Node(String title, String path, boolean detailed) {
       this.title = title;
+      this.path = path;
+      this.detailed = detailed;
+      start();
+    }
+
+    private void start() {
       this.start_time = System.nanoTime();
+      if (detailed) {
+        this.start_cpu_time = ThreadResources.cpuTime();
+        this.start_allocated_bytes = ThreadResources.allocatedBytes();
+      }
     }
 
     void restart() {
       assert start_time == -1;
-      start_time = System.nanoTime();
+      start();
+    }
+
+    boolean isRunning() {
+      return start_time != -1;
     }
 
-    void end() {
-      duration += System.nanoTime() - start_time;
+    Interval end() {
+      long endTime = System.nanoTime();
+      long cpuTime = detailed ? ThreadResources.cpuTime() - start_cpu_time : 0;
+      long allocatedBytes =
+          detailed ? ThreadResources.allocatedBytes() - start_allocated_bytes : 0;
+      Interval interval = new Interval(this, start_time);
+      interval.add(endTime - start_time, cpuTime, allocatedBytes);
+      total.add(interval.duration, cpuTime, allocatedBytes);
       start_time = -1;
       assert duration() >= 0;
+      return interval;
     }
 
     long duration() {
-      return duration;
+      return total.duration;
     }
 
     @Override
@@ -62,10 +195,14 @@ public class Timing {
       return title + ": " + (duration() / 1000000) + "ms.";
     }
 
+    String resourcesToString(Measurement measurement) {
+      return detailed ? " " + measurement.resourcesToString() : "";
+    }
+
     public String toString(Node top) {
-      if (this == top) return toString();
+      if (this == top) return toString() + resourcesToString(total);
       long percentage = duration() * 100 / top.duration();
-      return toString() + " (" + percentage + "%)";
+      return toString() + " (" + percentage + "%)" + resourcesToString(total);
     }
 
     public void report(int depth, Node top) {
@@ -79,34 +216,262 @@ public class Timing {
       System.out.println(toString(top));
       children.values().forEach(p -> p.report(depth + 1, top));
     }
+
+    void addTraceEvents(Timing timing, JsonArray events) {
+      children.values().forEach(child -> child.addTraceEvents(timing, events));
+    }
+  }
+
+  /** A completed begin/end interval of a node on the coordinating thread. */
+  private static class Interval extends Measurement {
+    final Node node;
+    final long start;
+
+    Interval(Node node, long start) {
+      this.node = node;
+      this.start = start;
+    }
   }
 
+  /**
+   * Phase of work done by tasks on any number of threads. The wall time, CPU time and allocations
+   * are aggregated per thread. The tasks are only timed by a detailed timing.
+   */
+  public static class ConcurrentPhase extends Node {
+
+    private final Map<Long, ThreadMeasurement> threads = new ConcurrentHashMap<>();
+
+    ConcurrentPhase(String title, String path, boolean detailed) {
+      super(title, path, detailed);
+      start_time = -1;
+    }
+
+    /** Begins timing a task on the current thread, the task ends when the scope is closed. */
+    public PhaseScope begin() {
+      return detailed ? new PhaseScope(this) : PhaseScope.NONE;
+    }
+
+    private ThreadMeasurement getThreadMeasurement() {
+      Thread thread = Thread.currentThread();
+      ThreadMeasurement measurement = threads.get(thread.getId());
+      if (measurement == null) {
+        measurement = new ThreadMeasurement(thread.getName());
+        ThreadMeasurement previous = threads.putIfAbsent(thread.getId(), measurement);
+        if (previous != null) {
+          measurement = previous;
+        }
+      }
+      return measurement;
+    }
+
+    private Measurement sum() {
+      Measurement sum = new Measurement();
+      for (ThreadMeasurement measurement : threads.values()) {
+        sum.add(measurement.duration, measurement.cpuTime, measurement.allocatedBytes);
+      }
+      return sum;
+    }
+
+    @Override
+    long duration() {
+      return sum().duration;
+    }
+
+    @Override
+    public String toString(Node top) {
+      Measurement sum = sum();
+      return title
+          + ": "
+          + (sum.duration / 1000000)
+          + "ms summed over "
+          + threads.size()
+          + " threads."
+          + resourcesToString(sum);
+    }
+
+    @Override
+    void addTraceEvents(Timing timing, JsonArray events) {
+      threads.forEach(
+          (threadId, measurement) -> {
+            // One event per thread spanning all of its tasks, with the time spent in them.
+            JsonObject args = new JsonObject();
+            args.addProperty("path", path);
+            args.addProperty("tasks", measurement.tasks);
+            args.addProperty("busyMs", measurement.duration / 1000000.0);
+            measurement.addTo(args);
+            events.add(
+                timing.createTraceEvent(
+                    title,
+                    threadId,
+                    measurement.firstStart,
+                    measurement.lastEnd - measurement.firstStart,
+                    args));
+            events.add(createThreadNameEvent(threadId, measurement.threadName));
+          });
+      super.addTraceEvents(timing, events);
+    }
+  }
+
+  private static class ThreadMeasurement extends Measurement {
+    final String threadName;
+    int tasks = 0;
+    long firstStart = Long.MAX_VALUE;
+    long lastEnd = Long.MIN_VALUE;
+
+    ThreadMeasurement(String threadName) {
+      this.threadName = threadName;
+    }
+  }
+
+  /** Timing of a task of a {@link ConcurrentPhase} on the current thread. */
+  public static class PhaseScope implements AutoCloseable {
+    // Scope of the tasks of a phase that is not timed.
+    private static final PhaseScope NONE = new PhaseScope();
+
+    private final ConcurrentPhase phase;
+    private final long startTime;
+    private final long startCpuTime;
+    private final long startAllocatedBytes;
+
+    private PhaseScope() {
+      this.phase = null;
+      this.startTime = 0;
+      this.startCpuTime = 0;
+      this.startAllocatedBytes = 0;
+    }
+
+    private PhaseScope(ConcurrentPhase phase) {
+      this.phase = phase;
+      this.startTime = System.nanoTime();
+      this.startCpuTime = ThreadResources.cpuTime();
+      this.startAllocatedBytes = ThreadResources.allocatedBytes();
+    }
+
+    @Override
+    public void close() {
+      if (phase == null) {
+        return;
+      }
+      long endTime = System.nanoTime();
+      // Only the current thread updates its measurement. The coordinating thread reads it after the
+      // tasks are completed.
+      ThreadMeasurement measurement = phase.getThreadMeasurement();
+      measurement.add(
+          endTime - startTime,
+          ThreadResources.cpuTime() - startCpuTime,
+          ThreadResources.allocatedBytes() - startAllocatedBytes);
+      measurement.tasks++;
+      measurement.firstStart = Math.min(measurement.firstStart, startTime);
+      measurement.lastEnd = Math.max(measurement.lastEnd, endTime);
+    }
+  }
 
   public void begin(String title) {
     Node parent = stack.peek();
     Node child;
     if (parent.children.containsKey(title)) {
       child = parent.children.get(title);
+      assert !(child instanceof ConcurrentPhase);
       child.restart();
     } else {
-      child = new Node(title);
+      child = new Node(title, parent.path + "/" + title, detailed);
       parent.children.put(title, child);
     }
     stack.push(child);
   }
 
   public void end() {
-    stack.peek().end();  // record time.
+    intervals.add(stack.peek().end()); // record time.
     stack.pop();
   }
 
+  /**
+   * Returns the concurrent phase with the given title as a child of the current node. The phase
+   * must only be created by the coordinating thread, and its tasks must be completed before the
+   * timings are reported.
+   */
+  public ConcurrentPhase concurrentPhase(String title) {
+    Node parent = stack.peek();
+    Node child = parent.children.get(title);
+    if (child == null) {
+      child = new ConcurrentPhase(title, parent.path + "/" + title, detailed);
+      parent.children.put(title, child);
+    }
+    assert child instanceof ConcurrentPhase;
+    return (ConcurrentPhase) child;
+  }
+
+  private Node finish() {
+    Node top = stack.firstElement();
+    // Nodes still on the stack when the compilation failed are reported with their completed
+    // intervals only.
+    if (top.isRunning()) {
+      intervals.add(top.end());
+    }
+    return top;
+  }
+
   public void report() {
-    Node top = stack.peek();
-    top.end();
+    Node top = finish();
     System.out.println();
     top.report(0, top);
   }
 
+  /**
+   * Ends the timing and returns the recorded timings in the JSON trace event format read by
+   * chrome://tracing and other trace viewers.
+   *
+   * <p>Each begin/end interval on the coordinating thread is a complete event. Each concurrent
+   * phase has a complete event per thread, spanning the first to the last task on the thread. The
+   * arguments of an event hold the path of the phase in the timing tree and, for a detailed
+   * timing, the CPU time and the number of allocated bytes, where supported by the runtime.
+   */
+  public String exportChromeTrace() {
+    Node top = finish();
+    JsonArray events = new JsonArray();
+    events.add(createThreadNameEvent(threadId, threadName));
+    for (Interval interval : intervals) {
+      JsonObject args = new JsonObject();
+      args.addProperty("path", interval.node.path);
+      if (detailed) {
+        interval.addTo(args);
+      }
+      String name = interval.node == top ? title : interval.node.title;
+      events.add(createTraceEvent(name, threadId, interval.start, interval.duration, args));
+    }
+    top.addTraceEvents(this, events);
+    JsonObject trace = new JsonObject();
+    trace.add("traceEvents", events);
+    trace.addProperty("displayTimeUnit", "ms");
+    return trace.toString();
+  }
+
+  private JsonObject createTraceEvent(
+      String name, long tid, long start, long duration, JsonObject args) {
+    JsonObject event = new JsonObject();
+    event.addProperty("name", name);
+    event.addProperty("cat", title);
+    event.addProperty("ph", "X");
+    event.addProperty("pid", 0);
+    event.addProperty("tid", tid);
+    event.addProperty("ts", (start - startTime) / 1000.0);
+    event.addProperty("dur", duration / 1000.0);
+    event.add("args", args);
+    return event;
+  }
+
+  private static JsonObject createThreadNameEvent(long tid, String name) {
+    JsonObject event = new JsonObject();
+    event.addProperty("name", "thread_name");
+    event.addProperty("ph", "M");
+    event.addProperty("pid", 0);
+    event.addProperty("tid", tid);
+    JsonObject args = new JsonObject();
+    args.addProperty("name", name);
+    event.add("args", args);
+    return event;
+  }
+
   public void scope(String title, TimingScope fn) {
     begin(title);
     try {
@@ -0,0 +1,208 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.utils.ExceptionUtils;
+import com.android.tools.r8.utils.ThreadUtils;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class D8WorkerTest {
+
+  @Rule
+  public TemporaryFolder temp = ToolHelper.getTemporaryFolderForTest();
+
+  static class Hello {
+    public static void main(String[] args) {
+      System.out.println("Hello");
+    }
+  }
+
+  // Stub client, which sends all requests at once and returns the responses by request id.
+  private Map<String, JsonObject> runRequests(D8Worker worker, List<JsonObject> requests)
+      throws IOException, InterruptedException {
+    ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+    DataOutputStream requestOutput = new DataOutputStream(requestBytes);
+    for (JsonObject request : requests) {
+      writeFrame(requestOutput, request.toString());
+    }
+    Map<String, JsonObject> responses = new HashMap<>();
+    for (JsonObject response : run(worker, requestBytes.toByteArray())) {
+      responses.put(response.get("requestId").getAsString(), response);
+    }
+    assertEquals(requests.size(), responses.size());
+    return responses;
+  }
+
+  private static void writeFrame(DataOutputStream output, String message) throws IOException {
+    byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  // Runs the worker on the given input and returns the responses.
+  private static List<JsonObject> run(D8Worker worker, byte[] input)
+      throws IOException, InterruptedException {
+    ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+    worker.run(new ByteArrayInputStream(input), responseBytes);
+
+    List<JsonObject> responses = new ArrayList<>();
+    DataInputStream responseInput =
+        new DataInputStream(new ByteArrayInputStream(responseBytes.toByteArray()));
+    while (true) {
+      byte[] bytes;
+      try {
+        bytes = new byte[responseInput.readInt()];
+      } catch (EOFException e) {
+        break;
+      }
+      responseInput.readFully(bytes);
+      responses.add(
+          new JsonParser().parse(new String(bytes, StandardCharsets.UTF_8)).getAsJsonObject());
+    }
+    return responses;
+  }
+
+  private static JsonObject request(String id, boolean trace, String... args) {
+    JsonObject request = new JsonObject();
+    request.addProperty("requestId", id);
+    JsonArray arguments = new JsonArray();
+    for (String arg : args) {
+      arguments.add(arg);
+    }
+    request.add("arguments", arguments);
+    request.addProperty("trace", trace);
+    return request;
+  }
+
+  private JsonObject compileRequest(String id, boolean trace) throws IOException {
+    Path output = temp.newFolder(id).toPath();
+    return request(
+        id,
+        trace,
+        "--lib",
+        ToolHelper.getDefaultAndroidJar().toString(),
+        "--output",
+        output.toString(),
+        ToolHelper.getClassFileForTestClass(Hello.class).toString());
+  }
+
+  @Test
+  public void testConcurrentRequests() throws Exception {
+    Path cache = temp.newFolder("cache").toPath();
+    D8Worker worker = new D8Worker(cache, ThreadUtils.NOT_SPECIFIED, 2);
+    try {
+      List<JsonObject> requests = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        requests.add(compileRequest("request" + i, i == 3));
+      }
+      Map<String, JsonObject> responses = runRequests(worker, requests);
+      for (int i = 0; i < 4; i++) {
+        JsonObject response = responses.get("request" + i);
+        assertEquals(response.toString(), 0, response.get("exitCode").getAsInt());
+        assertTrue(response.get("durationMs").getAsDouble() > 0);
+        assertEquals(i == 3, response.has("trace"));
+        assertTrue(Files.exists(temp.getRoot().toPath().resolve("request" + i + "/classes.dex")));
+      }
+      // The library is read into the cache once, and its snapshot is kept open for all requests.
+      assertEquals(1, Files.list(cache).count());
+      assertEquals(1, worker.getOpenLibrarySnapshots().size());
+      assertTrue(
+          new JsonParser()
+              .parse(responses.get("request3").get("trace").getAsString())
+              .getAsJsonObject()
+              .has("traceEvents"));
+    } finally {
+      worker.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailedRequest() throws Exception {
+    D8Worker worker =
+        new D8Worker(temp.newFolder("cache").toPath(), ThreadUtils.NOT_SPECIFIED, 1);
+    try {
+      List<JsonObject> requests = new ArrayList<>();
+      requests.add(request("unknown", false, "--unknown-option"));
+      requests.add(request("missing", false, temp.getRoot().toPath().resolve("no.jar").toString()));
+      requests.add(compileRequest("valid", false));
+      Map<String, JsonObject> responses = runRequests(worker, requests);
+      JsonObject unknown = responses.get("unknown");
+      assertEquals(ExceptionUtils.STATUS_ERROR, unknown.get("exitCode").getAsInt());
+      assertTrue(unknown.get("output").getAsString().contains("Unknown option: --unknown-option"));
+      JsonObject missing = responses.get("missing");
+      assertEquals(ExceptionUtils.STATUS_ERROR, missing.get("exitCode").getAsInt());
+      assertTrue(missing.get("output").getAsString().contains("File not found"));
+      // Failed requests do not affect later requests.
+      assertEquals(0, responses.get("valid").get("exitCode").getAsInt());
+    } finally {
+      worker.shutdown();
+    }
+  }
+
+  @Test
+  public void testInvalidRequests() throws Exception {
+    D8Worker worker =
+        new D8Worker(temp.newFolder("cache").toPath(), ThreadUtils.NOT_SPECIFIED, 1);
+    try {
+      ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+      DataOutputStream requestOutput = new DataOutputStream(requestBytes);
+      writeFrame(requestOutput, "not json {");
+      writeFrame(requestOutput, "[\"--version\"]");
+      writeFrame(requestOutput, "{\"requestId\": \"notArray\", \"arguments\": 1}");
+      writeFrame(requestOutput, "{\"requestId\": \"notString\", \"arguments\": [[]]}");
+      writeFrame(requestOutput, "{\"requestId\": \"notBoolean\", \"trace\": {}}");
+      writeFrame(requestOutput, compileRequest("valid", false).toString());
+      // The worker stops reading at an invalid length, so the request after it is not run.
+      requestOutput.writeInt(-1);
+      writeFrame(requestOutput, compileRequest("afterInvalidLength", false).toString());
+      List<JsonObject> responses = run(worker, requestBytes.toByteArray());
+      assertEquals(7, responses.size());
+      Map<String, JsonObject> responsesById = new HashMap<>();
+      int responsesWithoutId = 0;
+      for (JsonObject response : responses) {
+        if (response.get("requestId").isJsonNull()) {
+          responsesWithoutId++;
+        } else {
+          responsesById.put(response.get("requestId").getAsString(), response);
+        }
+        if (response != responsesById.get("valid")) {
+          assertEquals(ExceptionUtils.STATUS_ERROR, response.get("exitCode").getAsInt());
+          assertTrue(response.get("output").getAsString().startsWith("Invalid request: "));
+        }
+      }
+      // The frames that are not JSON objects and the invalid length have no request id.
+      assertEquals(3, responsesWithoutId);
+      assertTrue(responsesById.containsKey("notArray"));
+      assertTrue(responsesById.containsKey("notString"));
+      assertTrue(responsesById.containsKey("notBoolean"));
+      // Invalid requests do not affect valid requests.
+      assertEquals(0, responsesById.get("valid").get("exitCode").getAsInt());
+      assertFalse(responsesById.containsKey("afterInvalidLength"));
+    } finally {
+      worker.shutdown();
+    }
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.benchmarks;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.R8;
+import com.android.tools.r8.R8Command;
+import com.android.tools.r8.ToolHelper;
+import com.android.tools.r8.ToolHelper.ProcessResult;
+import com.android.tools.r8.benchmarks.SyntheticAppGenerator.SyntheticApp;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.utils.Timing;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SyntheticAppGeneratorTest {
+
+  @Rule
+  public TemporaryFolder temp = ToolHelper.getTemporaryFolderForTest();
+
+  private static SyntheticApp generate(long seed) {
+    return SyntheticAppGenerator.builder()
+        .setClasses(250)
+        .setHierarchyDepth(3)
+        .setInterfaces(20)
+        .setInterfaceFanOut(3)
+        .setLambdasPerClass(2)
+        .setKotlinMetadata(true)
+        .setKeepRuleDensity(0.1)
+        .setSeed(seed)
+        .build()
+        .generate();
+  }
+
+  @Test
+  public void testDeterministic() {
+    SyntheticApp app = generate(42);
+    SyntheticApp same = generate(42);
+    assertEquals(app.getKeepRules(), same.getKeepRules());
+    assertEquals(app.getClasses().keySet(), same.getClasses().keySet());
+    for (Map.Entry<String, byte[]> entry : app.getClasses().entrySet()) {
+      assertArrayEquals(entry.getValue(), same.getClasses().get(entry.getKey()));
+    }
+    assertNotEquals(app.getKeepRules(), generate(43).getKeepRules());
+  }
+
+  @Test
+  public void testShape() {
+    SyntheticApp app = generate(0);
+    // The classes, the interfaces, the main class and kotlin.Metadata.
+    assertEquals(250 + 20 + 2, app.getClasses().size());
+    assertTrue(app.getClasses().containsKey("synthetic/Main"));
+    assertTrue(app.getClasses().containsKey("synthetic/p2/C249"));
+    assertTrue(app.getClasses().containsKey("kotlin/Metadata"));
+    // The main rule, the Kotlin rules and a rule for about a tenth of the classes.
+    int classRules = app.getKeepRules().size() - 3;
+    assertTrue(10 <= classRules && classRules <= 40);
+  }
+
+  @Test
+  public void testCompileAndRun() throws Exception {
+    SyntheticApp app = generate(0);
+    Path jar = temp.getRoot().toPath().resolve("program.jar");
+    app.writeJar(jar);
+    ProcessResult result = ToolHelper.runJava(jar, SyntheticAppGenerator.MAIN_CLASS);
+    assertEquals(result.toString(), 0, result.exitCode);
+
+    AtomicInteger dexFiles = new AtomicInteger();
+    R8.run(
+        app.addProgramClasses(R8Command.builder())
+            .addLibraryFiles(ToolHelper.getDefaultAndroidJar())
+            .addProguardConfiguration(app.getKeepRules(), Origin.unknown())
+            .setMinApiLevel(21)
+            .setProgramConsumer(
+                new DexIndexedConsumer.ForwardingConsumer(null) {
+                  @Override
+                  public void accept(
+                      int fileIndex,
+                      ByteDataView data,
+                      Set<String> descriptors,
+                      DiagnosticsHandler handler) {
+                    dexFiles.incrementAndGet();
+                  }
+                })
+            .build());
+    assertEquals(1, dexFiles.get());
+  }
+
+  @Test
+  public void testPhaseDurations() {
+    Timing timing = new Timing("R8");
+    timing.begin("Phase");
+    timing.begin("Nested phase");
+    timing.end();
+    timing.end();
+    timing.begin("Other phase");
+    timing.end();
+    timing.begin("Phase");
+    timing.end();
+    Map<String, Double> durations =
+        SyntheticAppBenchmark.getPhaseDurations(timing.exportChromeTrace());
+    assertEquals(2, durations.size());
+    assertTrue(durations.containsKey("Phase"));
+    assertTrue(durations.containsKey("Other phase"));
+  }
+}
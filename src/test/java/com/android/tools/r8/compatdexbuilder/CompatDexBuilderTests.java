@@ -7,16 +7,28 @@ package com.android.tools.r8.compatdexbuilder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.android.tools.r8.ByteDataView;
 import com.android.tools.r8.CompilationFailedException;
 import com.android.tools.r8.D8;
 import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.ExtractMarker;
 import com.android.tools.r8.OutputMode;
 import com.android.tools.r8.ToolHelper;
 import com.android.tools.r8.ToolHelper.ArtCommandBuilder;
 import com.google.common.collect.ImmutableList;
+import com.android.tools.r8.dex.Marker;
+import com.android.tools.r8.dex.Marker.Tool;
+import com.android.tools.r8.origin.Origin;
+import com.google.common.io.ByteStreams;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
@@ -24,9 +36,12 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
 public class CompatDexBuilderTests {
 
@@ -101,4 +116,99 @@ public class CompatDexBuilderTests {
       assertEquals(out, className + "\n");
     }
   }
+
+  @Test
+  public void outputFollowsInputOrder()
+      throws IOException, InterruptedException, ExecutionException {
+    // The entries are not sorted, and some are not class files.
+    List<String> entries =
+        ImmutableList.of("order/Z.class", "order/A.class", "META-INF/MANIFEST.MF", "order/M.class");
+    List<String> expected =
+        ImmutableList.of(
+            "META-INF/MANIFEST.MF", "order/Z.class.dex", "order/A.class.dex", "order/M.class.dex");
+    checkOutputOrder(entries, expected);
+  }
+
+  @Test
+  public void compileDuplicateClasses()
+      throws IOException, InterruptedException, ExecutionException {
+    // The two entries define the same class, so they cannot be dexed in one compilation.
+    List<String> entries = ImmutableList.of("dup/B.class", "dup/A.class", "other/dup/A.class");
+    List<String> expected =
+        ImmutableList.of("dup/B.class.dex", "dup/A.class.dex", "other/dup/A.class.dex");
+    checkOutputOrder(entries, expected);
+  }
+
+  @Test
+  public void filePerClassOutputHasNoMarkers()
+      throws IOException, ExecutionException, CompilationFailedException {
+    // Only CompatDexBuilder adds the markers to each file of a file per class compilation.
+    List<byte[]> files = new ArrayList<>();
+    D8.run(
+        D8Command.builder()
+            .addClassProgramData(generateClass("markers/A"), Origin.unknown())
+            .addClassProgramData(generateClass("markers/B"), Origin.unknown())
+            .setProgramConsumer(
+                new DexFilePerClassFileConsumer.ForwardingConsumer(null) {
+                  @Override
+                  public synchronized void accept(
+                      String primaryClassDescriptor,
+                      ByteDataView data,
+                      Set<String> descriptors,
+                      DiagnosticsHandler handler) {
+                    files.add(data.copyByteData());
+                  }
+                })
+            .build());
+    assertEquals(2, files.size());
+    for (byte[] file : files) {
+      assertTrue(ExtractMarker.extractMarkerFromDexProgramData(file).isEmpty());
+    }
+  }
+
+  private void checkOutputOrder(List<String> entries, List<String> expected)
+      throws IOException, InterruptedException, ExecutionException {
+    Path inputJar = temp.getRoot().toPath().resolve("in.jar");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(inputJar))) {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        if (entry.endsWith(".class")) {
+          // Classes under other/ are defined with the name of the class without the prefix.
+          String className = entry.substring(0, entry.length() - ".class".length());
+          out.write(generateClass(className.replaceFirst("^other/", "")));
+        } else {
+          out.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+        }
+        out.closeEntry();
+      }
+    }
+    Path outputZip = temp.getRoot().toPath().resolve("out.zip");
+    CompatDexBuilder.main(
+        new String[] {"--input_jar", inputJar.toString(), "--output_zip", outputZip.toString()});
+
+    List<String> names = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(outputZip.toFile(), StandardCharsets.UTF_8)) {
+      for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); ) {
+        ZipEntry ze = e.nextElement();
+        names.add(ze.getName());
+        if (ze.getName().endsWith(".dex")) {
+          byte[] bytes;
+          try (InputStream stream = zipFile.getInputStream(ze)) {
+            bytes = ByteStreams.toByteArray(stream);
+          }
+          Collection<Marker> markers = ExtractMarker.extractMarkerFromDexProgramData(bytes);
+          assertEquals(1, markers.size());
+          assertEquals(Tool.D8, markers.iterator().next().getTool());
+        }
+      }
+    }
+    assertEquals(expected, names);
+  }
+
+  private static byte[] generateClass(String name) {
+    ClassWriter writer = new ClassWriter(0);
+    writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
 }
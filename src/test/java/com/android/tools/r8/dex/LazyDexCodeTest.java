@@ -0,0 +1,158 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.dex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.D8TestCompileResult;
+import com.android.tools.r8.OutputMode;
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.graph.Code;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexProgramClass;
+import com.android.tools.r8.graph.LazyDexCode;
+import com.android.tools.r8.utils.AndroidApp;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.Reporter;
+import com.android.tools.r8.utils.StringUtils;
+import com.android.tools.r8.utils.Timing;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyDexCodeTest extends TestBase {
+
+  private static final String EXPECTED =
+      StringUtils.lines("Hello", "2", "two", "many", "3", "7", "TestClass", "caught");
+
+  private Path dexFile;
+
+  @Before
+  public void setUp() throws Exception {
+    Path input = temp.newFolder("input").toPath();
+    testForD8()
+        .addProgramClasses(TestClass.class)
+        .compile()
+        .app
+        .write(input, OutputMode.DexIndexed);
+    dexFile = input.resolve("classes.dex");
+  }
+
+  @Test
+  public void testPassthrough() throws Exception {
+    D8TestCompileResult result = compile(options -> {});
+    result.run(TestClass.class).assertSuccessWithOutput(EXPECTED);
+    assertArrayEquals(
+        getDexBytes(compile(options -> options.enableLazyDexCode = false)), getDexBytes(result));
+  }
+
+  @Test
+  public void testJumboStrings() throws Exception {
+    // Rewriting to jumbo strings decodes the instructions of the lazy code.
+    D8TestCompileResult result =
+        compile(options -> options.testing.forceJumboStringProcessing = true);
+    result.run(TestClass.class).assertSuccessWithOutput(EXPECTED);
+    assertArrayEquals(
+        getDexBytes(
+            compile(
+                options -> {
+                  options.enableLazyDexCode = false;
+                  options.testing.forceJumboStringProcessing = true;
+                })),
+        getDexBytes(result));
+  }
+
+  @Test
+  public void testDecodedInstructions() throws Exception {
+    DexItemFactory factory = new DexItemFactory();
+    List<Code> lazyCodes = readCodes(factory, true);
+    List<Code> codes = readCodes(factory, false);
+    assertEquals(codes.size(), lazyCodes.size());
+    for (int i = 0; i < codes.size(); i++) {
+      assertTrue(lazyCodes.get(i) instanceof LazyDexCode);
+      assertEquals(codes.get(i), lazyCodes.get(i).asDexCode());
+    }
+  }
+
+  private D8TestCompileResult compile(Consumer<InternalOptions> optionsConsumer)
+      throws Exception {
+    return testForD8().addProgramFiles(dexFile).addOptionsModification(optionsConsumer).compile();
+  }
+
+  private byte[] getDexBytes(D8TestCompileResult result) throws Exception {
+    Path output = temp.newFolder().toPath();
+    result.app.write(output, OutputMode.DexIndexed);
+    return Files.readAllBytes(output.resolve("classes.dex"));
+  }
+
+  private List<Code> readCodes(DexItemFactory factory, boolean passthrough) throws Exception {
+    InternalOptions options = new InternalOptions(factory, new Reporter());
+    options.passthroughDexCode = passthrough;
+    AndroidApp app = AndroidApp.builder().addProgramFiles(dexFile).build();
+    List<Code> codes = new ArrayList<>();
+    for (DexProgramClass clazz :
+        new ApplicationReader(app, options, new Timing("LazyDexCodeTest")).read().classes()) {
+      for (DexEncodedMethod method : clazz.methods()) {
+        if (method.getCode() != null) {
+          codes.add(method.getCode());
+        }
+      }
+    }
+    return codes;
+  }
+
+  static class TestClass {
+
+    static final int[] VALUES = {1, 2, 4};
+
+    static String name(int value) {
+      switch (value) {
+        case 1:
+          return "one";
+        case 2:
+          return "two";
+        case 3:
+          return "three";
+        default:
+          return "many";
+      }
+    }
+
+    static int sparse(int value) {
+      switch (value) {
+        case 10:
+          return 1;
+        case 1000:
+          return 2;
+        case 100000:
+          return 3;
+        default:
+          return 0;
+      }
+    }
+
+    public static void main(String[] args) {
+      System.out.println("Hello");
+      System.out.println(VALUES[args.length + 1]);
+      System.out.println(name(VALUES[1]));
+      System.out.println(name(VALUES[2]));
+      System.out.println(sparse(VALUES.length * 33334 + -2));
+      Object object = new StringBuilder().append(3).append(4);
+      System.out.println(((StringBuilder) object).length() == 2 ? 7 : 0);
+      System.out.println(TestClass.class.getSimpleName());
+      try {
+        System.out.println(VALUES[args.length + 3]);
+      } catch (ArrayIndexOutOfBoundsException e) {
+        System.out.println("caught");
+      }
+    }
+  }
+}
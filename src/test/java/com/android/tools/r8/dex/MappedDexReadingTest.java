@@ -0,0 +1,61 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.dex;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.android.tools.r8.D8TestCompileResult;
+import com.android.tools.r8.OutputMode;
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.utils.StringUtils;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+
+public class MappedDexReadingTest extends TestBase {
+
+  private static final String EXPECTED = StringUtils.lines("Hello", "7", "3", "caught");
+
+  @Test
+  public void test() throws Exception {
+    Path input = temp.newFolder("input").toPath();
+    testForD8()
+        .addProgramClasses(TestClass.class)
+        .compile()
+        .app
+        .write(input, OutputMode.DexIndexed);
+    Path dexFile = input.resolve("classes.dex");
+
+    Path heapOutput = temp.newFolder("heap").toPath();
+    testForD8().addProgramFiles(dexFile).compile().app.write(heapOutput, OutputMode.DexIndexed);
+
+    Path mappedOutput = temp.newFolder("mapped").toPath();
+    D8TestCompileResult result =
+        testForD8()
+            .addProgramFiles(dexFile)
+            .addOptionsModification(options -> options.enableMappedDexReading = true)
+            .compile();
+    result.run(TestClass.class).assertSuccessWithOutput(EXPECTED);
+    result.app.write(mappedOutput, OutputMode.DexIndexed);
+
+    assertArrayEquals(
+        Files.readAllBytes(heapOutput.resolve("classes.dex")),
+        Files.readAllBytes(mappedOutput.resolve("classes.dex")));
+  }
+
+  static class TestClass {
+
+    public static void main(String[] args) {
+      System.out.println("Hello");
+      System.out.println("w\u00f6rld \u20ac".length());
+      int[] values = {1, 2};
+      System.out.println(values[0] + values[1]);
+      try {
+        System.out.println(values[args.length + 2]);
+      } catch (ArrayIndexOutOfBoundsException e) {
+        System.out.println("caught");
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.dex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.CompilationMode;
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.ToolHelper;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class OutputBufferAllocationTest extends TestBase {
+
+  private final CompilationMode mode;
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> data() {
+    List<Object[]> data = new ArrayList<>();
+    for (CompilationMode mode : CompilationMode.values()) {
+      data.add(new Object[] {mode});
+    }
+    return data;
+  }
+
+  public OutputBufferAllocationTest(CompilationMode mode) {
+    this.mode = mode;
+  }
+
+  @Test
+  public void test() throws Exception {
+    RecordingConsumer consumer = new RecordingConsumer();
+    D8.run(
+        D8Command.builder()
+            .addProgramFiles(ToolHelper.getClassFileForTestClass(TestClass.class))
+            .addProgramFiles(ToolHelper.getClassFileForTestClass(TestAnnotation.class))
+            .addLibraryFiles(ToolHelper.getDefaultAndroidJar())
+            .setMode(mode)
+            .setProgramConsumer(consumer)
+            .build());
+    // The output buffer is allocated once with enough room for the whole file.
+    assertEquals(1, consumer.capacities.size());
+    assertEquals(1, consumer.lengths.size());
+    assertTrue(consumer.capacities.get(0) >= consumer.lengths.get(0));
+    assertEquals(0, consumer.acquired);
+  }
+
+  private static class RecordingConsumer extends DexIndexedConsumer.ForwardingConsumer {
+
+    private final List<Integer> capacities = new ArrayList<>();
+    private final List<Integer> lengths = new ArrayList<>();
+    private int acquired = 0;
+
+    RecordingConsumer() {
+      super(null);
+    }
+
+    @Override
+    public synchronized ByteBuffer acquireByteBuffer(int capacity) {
+      capacities.add(capacity);
+      acquired++;
+      return ByteBuffer.allocate(capacity);
+    }
+
+    @Override
+    public synchronized void releaseByteBuffer(ByteBuffer buffer) {
+      acquired--;
+    }
+
+    @Override
+    public synchronized void accept(
+        int fileIndex, ByteDataView data, Set<String> descriptors, DiagnosticsHandler handler) {
+      lengths.add(data.getLength());
+    }
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface TestAnnotation {
+    String[] value();
+
+    int number() default 42;
+  }
+
+  @TestAnnotation(value = {"a", "b"}, number = 7)
+  static class TestClass {
+
+    static final String NAME = "TestClass";
+    static final long[] VALUES = {1L, Long.MAX_VALUE};
+
+    @TestAnnotation("field")
+    int field;
+
+    @TestAnnotation("method")
+    int method(@TestAnnotation("parameter") int parameter) {
+      int local = parameter + field;
+      try {
+        return local / parameter;
+      } catch (ArithmeticException e) {
+        return (int) VALUES[1];
+      }
+    }
+
+    public static void main(String[] args) {
+      System.out.println(NAME + new TestClass().method(args.length));
+    }
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.dex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.utils.DescriptorUtils;
+import com.google.common.collect.ImmutableSet;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+@RunWith(Parameterized.class)
+public class VirtualFileWritingTest extends TestBase {
+
+  private final int threads;
+
+  @Parameters(name = "threads: {0}")
+  public static Integer[] data() {
+    return new Integer[] {1, 2, 4};
+  }
+
+  public VirtualFileWritingTest(int threads) {
+    this.threads = threads;
+  }
+
+  @Test
+  public void testAllFilesConsumed() throws Exception {
+    Thread compilingThread = Thread.currentThread();
+    Set<String> consumed = new HashSet<>();
+    testForD8()
+        .addProgramClasses(A.class, B.class, C.class, D.class, E.class)
+        .addOptionsModification(options -> options.numberOfThreads = threads)
+        .setProgramConsumer(
+            new DexFilePerClassFileConsumer.ForwardingConsumer(null) {
+              @Override
+              public void accept(
+                  String primaryClassDescriptor,
+                  ByteDataView data,
+                  Set<String> descriptors,
+                  DiagnosticsHandler handler) {
+                // The encoded files are handed to the consumer on the compiling thread.
+                assertSame(compilingThread, Thread.currentThread());
+                consumed.add(primaryClassDescriptor);
+              }
+            })
+        .compile();
+    assertEquals(
+        ImmutableSet.of(
+            descriptor(A.class),
+            descriptor(B.class),
+            descriptor(C.class),
+            descriptor(D.class),
+            descriptor(E.class)),
+        consumed);
+  }
+
+  @Test(expected = ConsumerException.class)
+  public void testFailingConsumer() throws Exception {
+    testForD8()
+        .addProgramClasses(A.class, B.class, C.class, D.class, E.class)
+        .addOptionsModification(options -> options.numberOfThreads = threads)
+        .setProgramConsumer(
+            new DexFilePerClassFileConsumer.ForwardingConsumer(null) {
+              @Override
+              public void accept(
+                  String primaryClassDescriptor,
+                  ByteDataView data,
+                  Set<String> descriptors,
+                  DiagnosticsHandler handler) {
+                throw new ConsumerException();
+              }
+            })
+        .compile();
+  }
+
+  private static String descriptor(Class<?> clazz) {
+    return DescriptorUtils.javaTypeToDescriptor(clazz.getTypeName());
+  }
+
+  private static class ConsumerException extends RuntimeException {}
+
+  static class A {}
+
+  static class B {}
+
+  static class C {}
+
+  static class D {}
+
+  static class E {}
+}
@@ -4,6 +4,7 @@
 
 package com.android.tools.r8.dexfilemerger;
 
+import static com.android.tools.r8.utils.codeinspector.Matchers.isPresent;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -24,12 +25,24 @@ import com.android.tools.r8.dex.Marker;
 import com.android.tools.r8.maindexlist.MainDexListTests;
 import com.android.tools.r8.utils.AndroidApiLevel;
 import com.android.tools.r8.utils.AndroidApp;
+import com.android.tools.r8.utils.ZipUtils;
+import com.android.tools.r8.utils.codeinspector.CodeInspector;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 import org.junit.Test;
 
 public class DexFileMergerTests extends TestBase {
@@ -128,6 +141,109 @@ public class DexFileMergerTests extends TestBase {
         });
   }
 
+  @Test
+  public void mergeBestEffortIntoShards()
+      throws IOException, ExecutionException, CompilationFailedException {
+    // Generates an application with two classes, which do not fit into a single dex file together.
+    AndroidApp generatedApp =
+        MainDexListTests.generateApplication(
+            ImmutableList.of("A", "B"), AndroidApiLevel.N.getLevel(), MAX_METHOD_COUNT / 2 + 1);
+    Path appDir = temp.newFolder().toPath().resolve("merger-input.zip");
+    generatedApp.write(appDir, OutputMode.DexIndexed);
+
+    Path outZip = temp.getRoot().toPath().resolve("out.zip");
+    DexFileMerger.run(
+        new String[] {
+          "--input", appDir.toString(), "--output", outZip.toString(), "--multidex=best_effort"
+        });
+
+    assertEquals(
+        ImmutableSet.of("classes.dex", "classes2.dex"),
+        ZipUtils.unzip(outZip.toString(), temp.newFolder()).stream()
+            .map(File::getName)
+            .collect(Collectors.toSet()));
+    CodeInspector inspector = new CodeInspector(outZip);
+    assertThat(inspector.clazz("A"), isPresent());
+    assertThat(inspector.clazz("B"), isPresent());
+  }
+
+  @Test
+  public void mergeBestEffortKeepsFirstDefinition()
+      throws IOException, ExecutionException, CompilationFailedException {
+    Path mergerInputZip = createMergerInputWithTwoClasses(OutputMode.DexFilePerClassFile, false);
+
+    // The classes of the second input are already defined by the first input.
+    Path mergerOutputZip = temp.getRoot().toPath().resolve("merger-out.zip");
+    DexFileMerger.run(
+        new String[] {
+          "--input", mergerInputZip.toString(),
+          "--input", mergerInputZip.toString(),
+          "--output", mergerOutputZip.toString(),
+          "--multidex=best_effort"
+        });
+
+    CodeInspector inspector = new CodeInspector(mergerOutputZip);
+    assertEquals(2, inspector.allClasses().size());
+    assertThat(inspector.clazz("dexmergesample.Class1"), isPresent());
+    assertThat(inspector.clazz("dexmergesample.Class2"), isPresent());
+  }
+
+  @Test
+  public void mergeBestEffortWithClassFiles()
+      throws IOException, ExecutionException, CompilationFailedException {
+    // Class files are compiled, like with the other multidex modes.
+    Path mergerInputZip = temp.newFolder().toPath().resolve("merger-input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(mergerInputZip))) {
+      for (String classFile : ImmutableList.of(CLASS1_CLASS, CLASS2_CLASS)) {
+        ZipUtils.writeToZipStream(
+            out,
+            "dexmergesample/" + Paths.get(classFile).getFileName(),
+            Files.readAllBytes(Paths.get(classFile)),
+            ZipEntry.DEFLATED);
+      }
+    }
+
+    Path mergerOutputZip = temp.getRoot().toPath().resolve("merger-out.zip");
+    DexFileMerger.run(
+        new String[] {
+          "--input", mergerInputZip.toString(),
+          "--output", mergerOutputZip.toString(),
+          "--multidex=best_effort"
+        });
+
+    CodeInspector inspector = new CodeInspector(mergerOutputZip);
+    assertThat(inspector.clazz("dexmergesample.Class1"), isPresent());
+    assertThat(inspector.clazz("dexmergesample.Class2"), isPresent());
+  }
+
+  @Test(expected = CompilationFailedException.class)
+  public void mergeBestEffortWithTruncatedDexFile()
+      throws IOException, CompilationFailedException {
+    Path dexZip = createMergerInputWithTwoClasses(OutputMode.DexIndexed, false);
+    byte[] dex;
+    try (ZipFile zipFile = new ZipFile(dexZip.toFile())) {
+      try (InputStream input = zipFile.getInputStream(zipFile.getEntry("classes.dex"))) {
+        dex = ByteStreams.toByteArray(input);
+      }
+    }
+    // Only the header is left, so the id sections are out of bounds.
+    Path mergerInputZip = temp.newFolder().toPath().resolve("merger-input.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(mergerInputZip))) {
+      ZipUtils.writeToZipStream(
+          out,
+          "classes.dex",
+          Arrays.copyOf(dex, Constants.TYPE_HEADER_ITEM_SIZE),
+          ZipEntry.DEFLATED);
+    }
+
+    DexFileMerger.run(
+        new String[] {
+          "--input", mergerInputZip.toString(),
+          "--output", temp.getRoot().toPath().resolve("merger-out.zip").toString(),
+          "--multidex=best_effort"
+        });
+  }
+
   @Test
   public void failIfTooBig() throws IOException, ExecutionException {
     // Generates an application with two classes, each with the number of methods just enough not to
@@ -0,0 +1,130 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class DexItemFactoryInterningTest {
+
+  private static final List<String> STRINGS =
+      ImmutableList.of(
+          "",
+          "LFoo;",
+          "[[Ljava/lang/Object;",
+          "\u0000",
+          "caf\u00e9",
+          "\u20ac\u0000\u07ff\u0800\uffff",
+          "\ud83d\ude00");
+
+  @Test
+  public void testStringLookup() {
+    DexItemFactory factory = new DexItemFactory();
+    for (String string : STRINGS) {
+      assertNull(factory.lookupString(string + "x"));
+      DexString dexString = factory.createString(string);
+      assertEquals(string, dexString.toString());
+      assertSame(dexString, factory.lookupString(string));
+      assertSame(dexString, factory.lookupString(new StringBuilder(string)));
+      assertSame(dexString, factory.createString(new StringBuilder(string)));
+      byte[] content = dexString.getContentView().copyByteData();
+      assertSame(dexString, factory.createString(dexString.size, content));
+      // A range of a larger buffer.
+      byte[] buffer = new byte[content.length + 3];
+      System.arraycopy(content, 0, buffer, 2, content.length);
+      assertSame(dexString, factory.createString(dexString.size, buffer, 2, content.length));
+    }
+    // A prefix of the content does not match.
+    DexString foo = factory.createString("LFoo;");
+    assertNull(factory.lookupString("LFoo"));
+    assertNotSame(foo, factory.createString("LFoo"));
+  }
+
+  @Test
+  public void testStringRange() {
+    DexItemFactory factory = new DexItemFactory();
+    DexType array = factory.createType("[[LFoo;");
+    DexType base = array.toBaseType(factory);
+    assertEquals("LFoo;", base.toDescriptorString());
+    assertSame(factory.createType("LFoo;"), base);
+    assertEquals("[LFoo;", array.toArrayElementType(factory).toDescriptorString());
+  }
+
+  @Test
+  public void testTypeLookup() {
+    DexItemFactory factory = new DexItemFactory();
+    DexType type = factory.createType("LFoo;");
+    assertSame(type, factory.createType(new StringBuilder("LFoo;")));
+    assertSame(type, factory.createType(factory.createString("LFoo;")));
+    // A string that is present without a type for it.
+    DexString descriptor = factory.createString("LBar;");
+    DexType bar = factory.createType("LBar;");
+    assertSame(descriptor, bar.descriptor);
+  }
+
+  @Test
+  public void testDebugEvents() {
+    DexItemFactory factory = new DexItemFactory();
+    for (int delta : new int[] {-100000, -257, -256, -1, 0, 1, 1023, 1024, 100000}) {
+      assertSame(factory.createAdvanceLine(delta), factory.createAdvanceLine(delta));
+      assertEquals(delta, factory.createAdvanceLine(delta).delta);
+    }
+    for (int delta : new int[] {0, 1, 1023, 1024, 100000}) {
+      assertSame(factory.createAdvancePC(delta), factory.createAdvancePC(delta));
+      assertEquals(delta, factory.createAdvancePC(delta).delta);
+    }
+    for (int register : new int[] {0, 255, 256, 65535}) {
+      assertSame(factory.createEndLocal(register), factory.createEndLocal(register));
+      assertSame(factory.createRestartLocal(register), factory.createRestartLocal(register));
+    }
+    DexString file = factory.createString("Foo.java");
+    assertSame(factory.createSetFile(file), factory.createSetFile(file));
+  }
+
+  @Test
+  public void testConcurrentInterning() throws Exception {
+    DexItemFactory factory = new DexItemFactory();
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Callable<List<Object>>> tasks = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        tasks.add(
+            () -> {
+              List<Object> items = new ArrayList<>();
+              for (int j = 0; j < 2000; j++) {
+                items.add(factory.createType("LFoo" + j + ";"));
+                items.add(factory.createString("name" + j));
+                items.add(factory.createAdvanceLine(j - 1000));
+                items.add(factory.createAdvancePC(j));
+                items.add(factory.createEndLocal(j));
+              }
+              return items;
+            });
+      }
+      List<Future<List<Object>>> results = executor.invokeAll(tasks);
+      List<Object> expected = results.get(0).get();
+      for (Future<List<Object>> result : results) {
+        List<Object> items = result.get();
+        assertEquals(expected.size(), items.size());
+        for (int i = 0; i < items.size(); i++) {
+          assertSame(expected.get(i), items.get(i));
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.ByteDataView;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import org.junit.Test;
+
+public class DexStringArenaTest {
+
+  private static final List<String> STRINGS =
+      ImmutableList.of(
+          "",
+          "\u0000",
+          "a",
+          "a\u0000a",
+          "LFoo;",
+          "[[Ljava/lang/Object;",
+          "caf\u00e9",
+          "\u20ac\uffff",
+          "\ud83d\ude00",
+          Strings.repeat("LLarge;", 20));
+
+  // Small slabs, such that the longer strings above are not allocated in a slab.
+  private final DexStringArena arena = new DexStringArena(1024);
+
+  @Test
+  public void testSameAsPlainStrings() {
+    for (String string : STRINGS) {
+      DexString plain = new DexString(string);
+      for (DexString arenaString :
+          ImmutableList.of(
+              arena.createString(string),
+              arena.createString(
+                  plain.size,
+                  plain.getContentView().getBuffer(),
+                  0,
+                  plain.getContentLength()))) {
+        assertEquals(plain, arenaString);
+        assertEquals(arenaString, plain);
+        assertEquals(plain.hashCode(), arenaString.hashCode());
+        assertEquals(string, arenaString.toString());
+        assertEquals(plain.getContentLength(), arenaString.getContentLength());
+        assertEquals(0, arenaString.slowCompareTo(plain));
+        assertTrue(arenaString.startsWith(plain));
+        assertTrue(arenaString.endsWith(plain));
+      }
+    }
+  }
+
+  @Test
+  public void testSharedSlab() {
+    DexString first = arena.createString("LFoo;");
+    DexString second = arena.createString("LBar;");
+    ByteDataView firstContent = first.getContentView();
+    ByteDataView secondContent = second.getContentView();
+    assertSame(firstContent.getBuffer(), secondContent.getBuffer());
+    assertEquals(firstContent.getOffset() + firstContent.getLength(), secondContent.getOffset());
+    assertFalse(first.equals(second));
+    assertTrue(first.slowCompareTo(second) > 0);
+    assertTrue(second.slowCompareTo(first) < 0);
+
+    DexString large = arena.createString(Strings.repeat("x", 100));
+    assertNotSame(firstContent.getBuffer(), large.getContentView().getBuffer());
+    assertEquals(0, large.getContentView().getOffset());
+  }
+
+  @Test
+  public void testPrefixAndSuffix() {
+    DexString string = arena.createString("Lcom/example/Foo;");
+    assertTrue(string.startsWith(arena.createString("Lcom/")));
+    assertFalse(string.startsWith(arena.createString("Lorg/")));
+    assertTrue(string.endsWith(arena.createString("/Foo;")));
+    assertFalse(string.endsWith(arena.createString("/Bar;")));
+    assertTrue(string.startsWith(arena.createString("")));
+  }
+
+  @Test
+  public void testArrayTypes() {
+    DexItemFactory factory = new DexItemFactory();
+    DexType array = factory.createType(arena.createString("[[LFoo;"));
+    assertTrue(array.isArrayType());
+    assertEquals(2, array.getNumberOfLeadingSquareBrackets());
+    assertSame(factory.createType("LFoo;"), array.toBaseType(factory));
+    assertSame(factory.createType("[LFoo;"), array.toArrayElementType(factory));
+    assertSame(
+        factory.createType("[[LBar;"),
+        array.replaceBaseType(factory.createType(arena.createString("LBar;")), factory));
+  }
+}
@@ -0,0 +1,132 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.ir.callgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.ToolHelper;
+import com.android.tools.r8.benchmarks.SyntheticAppGenerator;
+import com.android.tools.r8.benchmarks.SyntheticAppGenerator.SyntheticApp;
+import com.android.tools.r8.dex.ApplicationReader;
+import com.android.tools.r8.graph.AppInfoWithSubtyping;
+import com.android.tools.r8.graph.AppServices;
+import com.android.tools.r8.graph.AppView;
+import com.android.tools.r8.graph.DexApplication;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.ir.conversion.CallGraph;
+import com.android.tools.r8.ir.conversion.CallGraph.Node;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.shaking.AppInfoWithLiveness;
+import com.android.tools.r8.shaking.Enqueuer;
+import com.android.tools.r8.shaking.ProguardConfiguration;
+import com.android.tools.r8.shaking.ProguardConfigurationParser;
+import com.android.tools.r8.shaking.ProguardConfigurationSourceStrings;
+import com.android.tools.r8.shaking.RootSetBuilder;
+import com.android.tools.r8.shaking.RootSetBuilder.RootSet;
+import com.android.tools.r8.shaking.TreePruner;
+import com.android.tools.r8.utils.AndroidApp;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.Reporter;
+import com.android.tools.r8.utils.ThreadUtils;
+import com.android.tools.r8.utils.Timing;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import org.junit.Test;
+
+/** Checks that the concurrent extraction builds the same call graph as a sequential extraction. */
+public class ConcurrentCallGraphTest extends TestBase {
+
+  @Test
+  public void test() throws Exception {
+    SyntheticApp app =
+        SyntheticAppGenerator.builder()
+            .setClasses(300)
+            .setHierarchyDepth(4)
+            .setInterfaces(20)
+            .setInterfaceFanOut(3)
+            .setLambdasPerClass(2)
+            .setCallsPerClass(8)
+            .setKeepRuleDensity(0.1)
+            .setSeed(0)
+            .build()
+            .generate();
+    List<String> expected = buildCallGraph(app, false);
+    List<String> actual = buildCallGraph(app, true);
+    // The graph has methods with single and double call sites, and methods with several callees.
+    assertTrue(expected.stream().anyMatch(line -> line.startsWith("single call site")));
+    assertTrue(expected.stream().anyMatch(line -> line.startsWith("double call site")));
+    assertTrue(
+        expected.stream()
+            .anyMatch(
+                line ->
+                    line.startsWith("MethodNode")
+                        && !line.contains(" (0 callees, ")
+                        && !line.contains(" (1 callees, ")));
+    assertEquals(String.join("\n", expected), String.join("\n", actual));
+  }
+
+  private List<String> buildCallGraph(SyntheticApp app, boolean concurrent) throws Exception {
+    DexItemFactory factory = new DexItemFactory();
+    Reporter reporter = new Reporter();
+    ProguardConfigurationParser parser = new ProguardConfigurationParser(factory, reporter);
+    parser.parse(
+        new ProguardConfigurationSourceStrings(
+            app.getKeepRules(), Paths.get("."), Origin.unknown()));
+    ProguardConfiguration configuration = parser.getConfig();
+    InternalOptions options = new InternalOptions(configuration, reporter);
+    options.programConsumer = DexIndexedConsumer.emptyConsumer();
+    options.enableConcurrentCallGraphConstruction = concurrent;
+
+    ExecutorService executor = ThreadUtils.getExecutorService(4);
+    try {
+      AndroidApp input =
+          AndroidApp.builder()
+              .addClassProgramData(app.getClasses().values())
+              .addLibraryFiles(ToolHelper.getDefaultAndroidJar())
+              .build();
+      Timing timing = new Timing("ConcurrentCallGraphTest");
+      DexApplication application =
+          new ApplicationReader(input, options, timing).read(executor).toDirect();
+      AppView<AppInfoWithSubtyping> appView =
+          AppView.createForR8(new AppInfoWithSubtyping(application), options);
+      appView.setAppServices(AppServices.builder(appView).build());
+      RootSet rootSet =
+          new RootSetBuilder(appView, application, configuration.getRules()).run(executor);
+      appView.setAppInfo(
+          new Enqueuer(appView, options, null)
+              .traceApplication(rootSet, configuration.getDontWarnPatterns(), executor, timing));
+      TreePruner pruner = new TreePruner(application, appView.withLiveness());
+      application = pruner.run();
+      AppInfoWithLiveness appInfo =
+          appView.appInfo().withLiveness().prunedCopyFrom(application, pruner.getRemovedClasses());
+      appView.setAppInfo(appInfo);
+      CallGraph callGraph =
+          CallGraph.build(application, appView.withLiveness(), options, timing, executor);
+      return describe(callGraph);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  // Describes the nodes in the order of the graph, with their callees and callers in the order in
+  // which the edges were added, and the call site sets.
+  private static List<String> describe(CallGraph callGraph) {
+    List<String> result = new ArrayList<>();
+    for (Node node : callGraph.getNodesForTesting()) {
+      result.add(node.toString());
+      if (callGraph.hasSingleCallSite(node.method.method)) {
+        result.add("single call site: " + node.method.toSourceString());
+      }
+      if (callGraph.hasDoubleCallSite(node.method.method)) {
+        result.add("double call site: " + node.method.toSourceString());
+      }
+    }
+    return result;
+  }
+}
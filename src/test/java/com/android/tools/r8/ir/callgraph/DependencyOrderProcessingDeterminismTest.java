@@ -0,0 +1,143 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.ir.callgraph;
+
+import static com.android.tools.r8.utils.codeinspector.Matchers.isPresent;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.R8TestCompileResult;
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.graph.DexValue.DexValueInt;
+import com.android.tools.r8.graph.DexValue.DexValueString;
+import com.android.tools.r8.utils.StringUtils;
+import com.android.tools.r8.utils.codeinspector.ClassSubject;
+import com.android.tools.r8.utils.codeinspector.CodeInspector;
+import com.android.tools.r8.utils.codeinspector.FieldSubject;
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class DependencyOrderProcessingDeterminismTest extends TestBase {
+
+  private static final int NUMBER_OF_RUNS = 5;
+
+  static class A {
+    static int i = 1;
+    static String s = "A";
+
+    static int get() {
+      return i + B.get() + C.get();
+    }
+  }
+
+  static class B {
+    static int i = 2;
+    static String s = "B";
+
+    static int get() {
+      return i + C.get();
+    }
+  }
+
+  static class C {
+    static int i = 3;
+    static String s = "C";
+
+    static int get() {
+      return i;
+    }
+  }
+
+  static class D {
+    static int i = 4;
+    static String s = "D";
+
+    static int get() {
+      return i + A.i + B.i;
+    }
+  }
+
+  static class TestClass {
+
+    public static void main(String[] args) {
+      System.out.println(A.get() + B.get() + C.get() + D.get());
+      System.out.println(A.s + B.s + C.s + D.s);
+    }
+  }
+
+  private R8TestCompileResult compile() throws Exception {
+    return testForR8(Backend.DEX)
+        .addProgramClasses(A.class, B.class, C.class, D.class, TestClass.class)
+        .addKeepMainRule(TestClass.class)
+        .addKeepRules(
+            keepStaticFields(A.class),
+            keepStaticFields(B.class),
+            keepStaticFields(C.class),
+            keepStaticFields(D.class))
+        .addOptionsModification(
+            options -> options.enableDependencyDrivenMethodProcessing = true)
+        .compile();
+  }
+
+  private static String keepStaticFields(Class<?> clazz) {
+    return "-keep class " + clazz.getTypeName() + " { static <fields>; }";
+  }
+
+  private static List<byte[]> getDexFiles(R8TestCompileResult result) throws Exception {
+    List<byte[]> files = new ArrayList<>();
+    for (ProgramResource resource : result.app.getDexProgramResourcesForTesting()) {
+      try (InputStream stream = resource.getByteStream()) {
+        files.add(ByteStreams.toByteArray(stream));
+      }
+    }
+    return files;
+  }
+
+  @Test
+  public void testOutputIsDeterministic() throws Exception {
+    R8TestCompileResult first = compile();
+    first
+        .inspect(this::checkStaticValues)
+        .run(TestClass.class)
+        .assertSuccessWithOutput(StringUtils.lines("24", "ABCD"));
+    List<byte[]> expected = getDexFiles(first);
+    for (int i = 1; i < NUMBER_OF_RUNS; i++) {
+      List<byte[]> actual = getDexFiles(compile());
+      assertEquals(expected.size(), actual.size());
+      for (int j = 0; j < expected.size(); j++) {
+        assertArrayEquals(expected.get(j), actual.get(j));
+      }
+    }
+  }
+
+  private void checkStaticValues(CodeInspector inspector) {
+    checkStaticValues(inspector, A.class, 1, "A");
+    checkStaticValues(inspector, B.class, 2, "B");
+    checkStaticValues(inspector, C.class, 3, "C");
+    checkStaticValues(inspector, D.class, 4, "D");
+  }
+
+  private static void checkStaticValues(
+      CodeInspector inspector, Class<?> clazz, int intValue, String stringValue) {
+    ClassSubject classSubject = inspector.clazz(clazz);
+    assertThat(classSubject, isPresent());
+    // The class initializer is replaced by static values.
+    assertFalse(classSubject.clinit().isPresent());
+    FieldSubject intField = classSubject.uniqueFieldWithName("i");
+    assertTrue(intField.hasExplicitStaticValue());
+    assertEquals(intValue, ((DexValueInt) intField.getStaticValue()).getValue());
+    FieldSubject stringField = classSubject.uniqueFieldWithName("s");
+    assertTrue(stringField.hasExplicitStaticValue());
+    DexValueString stringValueItem = (DexValueString) stringField.getStaticValue();
+    assertEquals(stringValue, stringValueItem.getValue().toString());
+  }
+}
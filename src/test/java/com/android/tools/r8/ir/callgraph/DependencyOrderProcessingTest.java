@@ -0,0 +1,109 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.ir.callgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexMethod;
+import com.android.tools.r8.ir.conversion.CallGraph;
+import com.android.tools.r8.ir.conversion.CallGraph.Node;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.ThreadUtils;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import org.junit.Test;
+
+public class DependencyOrderProcessingTest extends TestBase {
+
+  private DexItemFactory dexItemFactory = new DexItemFactory();
+
+  @Test
+  public void testCalleesAreProcessedBeforeCallers() throws ExecutionException {
+    // n1 -> n2 -> n4, n1 -> n3 -> n4, n5 -> n4, n6.
+    Node n1 = createNode("n1");
+    Node n2 = createNode("n2");
+    Node n3 = createNode("n3");
+    Node n4 = createNode("n4");
+    Node n5 = createNode("n5");
+    Node n6 = createNode("n6");
+    n1.addCallee(n2);
+    n1.addCallee(n3);
+    n2.addCallee(n4);
+    n3.addCallee(n4);
+    n5.addCallee(n4);
+    List<Node> nodes = ImmutableList.of(n1, n2, n3, n4, n5, n6);
+
+    CallGraph callGraph = CallGraph.createForTesting(nodes, new InternalOptions());
+    Set<DexEncodedMethod> processed = Sets.newConcurrentHashSet();
+    Set<DexEncodedMethod> done = Sets.newConcurrentHashSet();
+    ExecutorService executorService = ThreadUtils.getExecutorService(4);
+    try {
+      callGraph.forEachMethodInDependencyOrder(
+          (method, isProcessedConcurrently) -> {
+            Node node = nodes.stream().filter(n -> n.method == method).findFirst().get();
+            for (Node other : nodes) {
+              if (node.hasCallee(other)) {
+                // Callees must be done, and are therefore safe to inline.
+                assertTrue(done.contains(other.method));
+                assertFalse(isProcessedConcurrently.test(other.method));
+              } else {
+                assertTrue(isProcessedConcurrently.test(other.method));
+              }
+            }
+            assertTrue(processed.add(method));
+          },
+          method -> {
+            assertTrue(processed.contains(method));
+            assertTrue(done.add(method));
+          },
+          executorService);
+    } finally {
+      executorService.shutdown();
+    }
+    assertEquals(nodes.size(), done.size());
+    assertTrue(callGraph.isEmpty());
+  }
+
+  @Test(expected = ExecutionException.class)
+  public void testFailurePropagates() throws ExecutionException {
+    Node n1 = createNode("n1");
+    Node n2 = createNode("n2");
+    n1.addCallee(n2);
+
+    CallGraph callGraph =
+        CallGraph.createForTesting(ImmutableList.of(n1, n2), new InternalOptions());
+    ExecutorService executorService = ThreadUtils.getExecutorService(2);
+    try {
+      callGraph.forEachMethodInDependencyOrder(
+          (method, isProcessedConcurrently) -> {
+            // The caller must never be processed when its callee failed.
+            assertTrue(method == n2.method);
+            throw new RuntimeException();
+          },
+          method -> {},
+          executorService);
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  private Node createNode(String methodName) {
+    DexMethod signature =
+        dexItemFactory.createMethod(
+            dexItemFactory.objectType,
+            dexItemFactory.createProto(dexItemFactory.voidType),
+            methodName);
+    return new Node(new DexEncodedMethod(signature, null, null, null, null));
+  }
+}
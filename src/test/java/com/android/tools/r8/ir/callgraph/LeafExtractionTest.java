@@ -0,0 +1,100 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.ir.callgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexMethod;
+import com.android.tools.r8.ir.conversion.CallGraph;
+import com.android.tools.r8.ir.conversion.CallGraph.Node;
+import com.android.tools.r8.utils.IROrdering.IdentityIROrdering;
+import com.android.tools.r8.utils.InternalOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.junit.Test;
+
+public class LeafExtractionTest extends TestBase {
+
+  private DexItemFactory dexItemFactory = new DexItemFactory();
+
+  @Test
+  public void testWaves() throws ExecutionException {
+    // n1 -> n3 -> n4 -> n6, n1 -> n6, n2 -> n5, n5 -> n6.
+    Node n1 = createNode("n1");
+    Node n2 = createNode("n2");
+    Node n3 = createNode("n3");
+    Node n4 = createNode("n4");
+    Node n5 = createNode("n5");
+    Node n6 = createNode("n6");
+    n1.addCallee(n3);
+    n1.addCallee(n6);
+    n3.addCallee(n4);
+    n4.addCallee(n6);
+    n2.addCallee(n5);
+    n5.addCallee(n6);
+
+    // The nodes of a wave are ordered by their position in the graph, not by the order in which
+    // they became leaves.
+    List<List<DexEncodedMethod>> waves =
+        computeWaves(ImmutableList.of(n1, n2, n3, n4, n5, n6));
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of(n6.method),
+            ImmutableList.of(n4.method, n5.method),
+            ImmutableList.of(n2.method, n3.method),
+            ImmutableList.of(n1.method)),
+        waves);
+  }
+
+  @Test
+  public void testDeepChain() throws ExecutionException {
+    List<Node> nodes = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Node node = createNode("n" + i);
+      if (i > 0) {
+        nodes.get(i - 1).addCallee(node);
+      }
+      nodes.add(node);
+    }
+    List<List<DexEncodedMethod>> waves = computeWaves(nodes);
+    assertEquals(nodes.size(), waves.size());
+    for (int i = 0; i < nodes.size(); i++) {
+      assertEquals(ImmutableList.of(nodes.get(nodes.size() - i - 1).method), waves.get(i));
+    }
+  }
+
+  private List<List<DexEncodedMethod>> computeWaves(List<Node> nodes) throws ExecutionException {
+    InternalOptions options = new InternalOptions();
+    options.testing.irOrdering = IdentityIROrdering.getInstance();
+    CallGraph callGraph = CallGraph.createForTesting(nodes, options);
+    List<List<DexEncodedMethod>> waves = new ArrayList<>();
+    callGraph.forEachMethod(
+        (method, isProcessedConcurrently) -> {
+          assertTrue(isProcessedConcurrently.test(method));
+          waves.get(waves.size() - 1).add(method);
+        },
+        () -> waves.add(new ArrayList<>()),
+        () -> {},
+        MoreExecutors.newDirectExecutorService());
+    assertTrue(callGraph.isEmpty());
+    return waves;
+  }
+
+  private Node createNode(String methodName) {
+    DexMethod signature =
+        dexItemFactory.createMethod(
+            dexItemFactory.objectType,
+            dexItemFactory.createProto(dexItemFactory.voidType),
+            methodName);
+    return new Node(new DexEncodedMethod(signature, null, null, null, null));
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.ir.conversion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.CompilationMode;
+import com.android.tools.r8.D8;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.ToolHelper;
+import com.android.tools.r8.origin.Origin;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class MethodProcessingProfileTest {
+
+  static class TestClass {
+
+    static int sum(int a, int b) {
+      return a + b;
+    }
+
+    static int loop(int n) {
+      int result = 0;
+      for (int i = 0; i < n; i++) {
+        if (i % 3 == 0) {
+          result += i;
+        }
+      }
+      return result;
+    }
+  }
+
+  @Test
+  public void testProfileConsumer() throws Exception {
+    StringBuilder profile = new StringBuilder();
+    D8.run(
+        D8Command.builder()
+            .addClassProgramData(ToolHelper.getClassAsBytes(TestClass.class), Origin.unknown())
+            .setMode(CompilationMode.RELEASE)
+            .setProgramConsumer(DexIndexedConsumer.emptyConsumer())
+            .setMethodProcessingProfileConsumer((string, handler) -> profile.append(string))
+            .build());
+
+    String[] lines = profile.toString().split("\n");
+    String[] header = lines[0].split(",");
+    assertEquals("method", header[0]);
+    Map<String, String[]> methods = new HashMap<>();
+    for (int i = 1; i < lines.length; i++) {
+      // The method name is quoted, as it contains commas between the parameter types.
+      assertTrue(lines[i].startsWith("\""));
+      int end = lines[i].indexOf('"', 1);
+      String[] values = lines[i].substring(end + 2).split(",");
+      assertEquals(header.length - 1, values.length);
+      methods.put(lines[i].substring(1, end), values);
+    }
+    String prefix = TestClass.class.getTypeName() + ".";
+    String[] sum = methods.get("int " + prefix + "sum(int, int)");
+    String[] loop = methods.get("int " + prefix + "loop(int)");
+    assertNotNull(sum);
+    assertNotNull(loop);
+    for (String[] values : new String[][] {sum, loop}) {
+      // Processed once, with sizes of the IR before and after optimization.
+      assertEquals("1", values[0]);
+      for (int i = 1; i < values.length; i++) {
+        assertTrue(Long.parseLong(values[i]) >= 0);
+      }
+    }
+    // The loop has more blocks than the straight-line method.
+    assertTrue(Integer.parseInt(loop[3]) > Integer.parseInt(sum[3]));
+  }
+}
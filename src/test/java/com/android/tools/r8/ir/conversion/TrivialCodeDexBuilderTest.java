@@ -0,0 +1,301 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.ir.conversion;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.CompilationMode;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.ToolHelper;
+import com.android.tools.r8.graph.DexCode;
+import com.android.tools.r8.graph.DexDebugEvent.StartLocal;
+import com.android.tools.r8.graph.DexDebugInfo;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexString;
+import com.android.tools.r8.origin.Origin;
+import com.android.tools.r8.utils.AndroidApiLevel;
+import com.android.tools.r8.utils.InternalOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class TrivialCodeDexBuilderTest {
+
+  interface Named {
+    String getName();
+  }
+
+  static class Base {
+    String describe(String prefix, int count) {
+      return prefix + count;
+    }
+  }
+
+  static class TestClass extends Base implements Named {
+
+    static final String DEFAULT_NAME = "default";
+    static long counter;
+
+    private String name;
+    private boolean flag;
+    private byte b;
+    private char c;
+    private short s;
+    private int i;
+    private long l;
+    private float f;
+    private double d;
+    private Named delegate;
+    private List<String> names;
+
+    TestClass() {}
+
+    TestClass(String name) {
+      this.name = name;
+    }
+
+    TestClass(String name, long l, double d) {
+      this(name);
+      this.l = l;
+      this.d = d;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    void setName(String name) {
+      this.name = name;
+    }
+
+    boolean isFlag() {
+      return flag;
+    }
+
+    void setAll(boolean flag, byte b, char c, short s, int i, float f) {
+      this.flag = flag;
+      this.b = b;
+      this.c = c;
+      this.s = s;
+      this.i = i;
+      this.f = f;
+    }
+
+    // Wide arguments take two registers.
+    void setWide(long l, int i, double d) {
+      this.l = l;
+      this.i = i;
+      this.d = d;
+    }
+
+    static long max(long x, long y) {
+      return Math.max(x, y);
+    }
+
+    // The argument local has a generic signature.
+    void setNames(List<String> names) {
+      this.names = names;
+    }
+
+    long getL() {
+      return l;
+    }
+
+    double getD() {
+      return d;
+    }
+
+    void reset() {
+      name = DEFAULT_NAME;
+      i = -1;
+      l = 0x100000000L;
+      f = 2.5f;
+      d = 1.0;
+    }
+
+    String delegateName() {
+      return delegate.getName();
+    }
+
+    void setDelegate(Named delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    String describe(String prefix, int count) {
+      return super.describe(prefix, count + 1);
+    }
+
+    String describeDefault() {
+      return describe("name: ", 42);
+    }
+
+    void append(StringBuilder builder) {
+      builder.append(name);
+    }
+
+    static void increment() {
+      counter = counter + 1;
+    }
+
+    static TestClass create(String name) {
+      return new TestClass(name);
+    }
+
+    static int sum(int x, int y) {
+      return Math.addExact(x, y);
+    }
+
+    // Not trivial, has a local that is not an argument.
+    String copyName() {
+      String copy = name;
+      return copy;
+    }
+
+    // Not trivial, compiled through IR.
+    static int loop(int n) {
+      int result = 0;
+      for (int j = 0; j < n; j++) {
+        result += j;
+      }
+      return result;
+    }
+  }
+
+  private static final Set<String> TRIVIAL_METHODS =
+      ImmutableSet.of(
+          "Base.<init>()V",
+          "TestClass.<init>()V",
+          "TestClass.<init>(Ljava/lang/String;)V",
+          "TestClass.<init>(Ljava/lang/String;JD)V",
+          "TestClass.getName()Ljava/lang/String;",
+          "TestClass.setName(Ljava/lang/String;)V",
+          "TestClass.isFlag()Z",
+          "TestClass.setAll(ZBCSIF)V",
+          "TestClass.setWide(JID)V",
+          "TestClass.max(JJ)J",
+          "TestClass.setNames(Ljava/util/List;)V",
+          "TestClass.getL()J",
+          "TestClass.getD()D",
+          "TestClass.reset()V",
+          "TestClass.delegateName()Ljava/lang/String;",
+          "TestClass.setDelegate(L" + Named.class.getName().replace('.', '/') + ";)V",
+          "TestClass.describeDefault()Ljava/lang/String;",
+          "TestClass.sum(II)I");
+
+  private static D8Command buildCommand(AndroidApiLevel apiLevel, DexIndexedConsumer consumer)
+      throws Exception {
+    D8Command.Builder builder = D8Command.builder();
+    for (Class<?> clazz : new Class<?>[] {Named.class, Base.class, TestClass.class}) {
+      builder.addClassProgramData(ToolHelper.getClassAsBytes(clazz), Origin.unknown());
+    }
+    return builder
+        .addLibraryFiles(ToolHelper.getDefaultAndroidJar())
+        .setMode(CompilationMode.DEBUG)
+        .setMinApiLevel(apiLevel.getLevel())
+        .setProgramConsumer(consumer)
+        .build();
+  }
+
+  private static byte[] compile(AndroidApiLevel apiLevel, Consumer<InternalOptions> optionsConsumer)
+      throws Exception {
+    byte[][] result = new byte[1][];
+    DexIndexedConsumer consumer =
+        new DexIndexedConsumer.ForwardingConsumer(null) {
+          @Override
+          public void accept(
+              int fileIndex,
+              ByteDataView data,
+              Set<String> descriptors,
+              DiagnosticsHandler handler) {
+            result[0] = data.copyByteData();
+          }
+        };
+    ToolHelper.runD8WithoutResult(buildCommand(apiLevel, consumer), optionsConsumer);
+    return result[0];
+  }
+
+  // Returns the code of the methods built without IR by their holder, name and descriptor.
+  private static Map<String, DexCode> compileTrivial(AndroidApiLevel apiLevel, boolean compare)
+      throws Exception {
+    Map<String, DexCode> built = new ConcurrentHashMap<>();
+    compile(
+        apiLevel,
+        options -> {
+          options.enableTrivialCodeDexBuilder = true;
+          options.testing.compareTrivialCodeDexBuilder = compare;
+          options.testing.trivialCodeDexBuilderConsumer =
+              method -> {
+                String holder = method.method.holder.getName();
+                built.put(
+                    holder.substring(holder.indexOf('$') + 1)
+                        + "."
+                        + method.method.name
+                        + method.method.proto.toDescriptorString(),
+                    method.getCode().asDexCode());
+              };
+        });
+    return built;
+  }
+
+  private void testCompare(AndroidApiLevel apiLevel) throws Exception {
+    // Fails if the code of a trivial method is not the same as the code built through IR.
+    assertEquals(TRIVIAL_METHODS, compileTrivial(apiLevel, true).keySet());
+  }
+
+  @Test
+  public void testCompareK() throws Exception {
+    testCompare(AndroidApiLevel.K);
+  }
+
+  @Test
+  public void testCompareP() throws Exception {
+    testCompare(AndroidApiLevel.P);
+  }
+
+  @Test
+  public void testBuiltWithoutIR() throws Exception {
+    Map<String, DexCode> built = compileTrivial(AndroidApiLevel.K, false);
+    assertEquals(TRIVIAL_METHODS, built.keySet());
+    assertFalse(built.containsKey("TestClass.loop(I)I"));
+    assertFalse(built.containsKey("TestClass.copyName()Ljava/lang/String;"));
+
+    // Wide arguments and local variable info are kept.
+    DexDebugInfo setWide = built.get("TestClass.setWide(JID)V").getDebugInfo();
+    assertEquals(
+        ImmutableList.of("l", "i", "d"),
+        Arrays.stream(setWide.parameters).map(DexString::toString).collect(Collectors.toList()));
+    DexDebugInfo setNames = built.get("TestClass.setNames(Ljava/util/List;)V").getDebugInfo();
+    assertArrayEquals(new DexString[] {null}, setNames.parameters);
+    assertTrue(Arrays.stream(setNames.events).anyMatch(event -> event instanceof StartLocal));
+  }
+
+  @Test
+  public void testSameOutput() throws Exception {
+    Set<DexEncodedMethod> built = ConcurrentHashMap.newKeySet();
+    assertArrayEquals(
+        compile(AndroidApiLevel.K, options -> options.enableTrivialCodeDexBuilder = false),
+        compile(
+            AndroidApiLevel.K,
+            options -> {
+              options.enableTrivialCodeDexBuilder = true;
+              options.testing.trivialCodeDexBuilderConsumer = built::add;
+            }));
+    assertEquals(TRIVIAL_METHODS.size(), built.size());
+  }
+}
@@ -0,0 +1,154 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.shaking;
+
+import static org.junit.Assert.assertEquals;
+
+import com.android.tools.r8.DexIndexedConsumer;
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.ToolHelper;
+import com.android.tools.r8.graph.AppInfoWithSubtyping;
+import com.android.tools.r8.graph.AppServices;
+import com.android.tools.r8.graph.AppView;
+import com.android.tools.r8.graph.DexApplication;
+import com.android.tools.r8.shaking.RootSetBuilder.RootSet;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.Reporter;
+import com.android.tools.r8.utils.ThreadUtils;
+import com.android.tools.r8.utils.Timing;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/** Checks that concurrent tracing computes the same liveness information as sequential tracing. */
+@RunWith(Parameterized.class)
+public class ConcurrentTracingTest extends TestBase {
+
+  private static final List<String> TESTS =
+      ImmutableList.of(
+          "shaking1", "shaking2", "shaking3", "shaking4", "shaking5", "shaking6", "shaking7",
+          "shaking8", "shaking9", "shaking10", "shaking11", "shaking12", "shaking13", "shaking14",
+          "shaking15", "shaking16", "shaking17", "shaking18", "shaking19");
+
+  private final String test;
+  private final String keepRulesFile;
+
+  @Parameters(name = "{0}: {1}")
+  public static Collection<Object[]> data() {
+    List<Object[]> testCases = new ArrayList<>();
+    for (String test : TESTS) {
+      File[] keepFiles =
+          new File(ToolHelper.EXAMPLES_DIR + test)
+              .listFiles(file -> file.isFile() && file.getName().endsWith(".txt"));
+      for (File keepFile : keepFiles) {
+        testCases.add(new Object[] {test, keepFile.getName()});
+      }
+    }
+    return testCases;
+  }
+
+  public ConcurrentTracingTest(String test, String keepRulesFile) {
+    this.test = test;
+    this.keepRulesFile = keepRulesFile;
+  }
+
+  @Test
+  public void test() throws Exception {
+    List<String> expected = trace(false);
+    List<String> actual = trace(true);
+    assertEquals(String.join("\n", expected), String.join("\n", actual));
+  }
+
+  private List<String> trace(boolean enableConcurrentTracing) throws Exception {
+    DexApplication application =
+        ToolHelper.buildApplication(
+            ImmutableList.of(ToolHelper.EXAMPLES_BUILD_DIR + test + ".jar"));
+    ProguardConfiguration configuration =
+        ToolHelper.loadProguardConfiguration(
+            application.dexItemFactory,
+            ImmutableList.of(Paths.get(ToolHelper.EXAMPLES_DIR, test, keepRulesFile)));
+    InternalOptions options = new InternalOptions(configuration, new Reporter());
+    options.programConsumer = DexIndexedConsumer.emptyConsumer();
+    options.enableConcurrentTracing = enableConcurrentTracing;
+
+    ExecutorService executor = ThreadUtils.getExecutorService(4);
+    try {
+      AppView<AppInfoWithSubtyping> appView =
+          AppView.createForR8(new AppInfoWithSubtyping(application), options);
+      appView.setAppServices(AppServices.builder(appView).build());
+      RootSet rootSet =
+          new RootSetBuilder(appView, application, configuration.getRules()).run(executor);
+      AppInfoWithLiveness appInfo =
+          new Enqueuer(appView, options, null)
+              .traceApplication(
+                  rootSet, configuration.getDontWarnPatterns(), executor, new Timing("Tracing"));
+      return describe(appInfo);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static List<String> describe(AppInfoWithLiveness appInfo) {
+    List<String> result = new ArrayList<>();
+    describe(result, "liveTypes", appInfo.liveTypes);
+    describe(result, "instantiatedAnnotationTypes", appInfo.instantiatedAnnotationTypes);
+    describe(result, "instantiatedAppServices", appInfo.instantiatedAppServices);
+    describe(result, "instantiatedTypes", appInfo.instantiatedTypes);
+    describe(result, "instantiatedLambdas", appInfo.instantiatedLambdas);
+    describe(result, "targetedMethods", appInfo.targetedMethods);
+    describe(result, "bootstrapMethods", appInfo.bootstrapMethods);
+    describe(result, "methodsTargetedByInvokeDynamic", appInfo.methodsTargetedByInvokeDynamic);
+    describe(
+        result,
+        "virtualMethodsTargetedByInvokeDirect",
+        appInfo.virtualMethodsTargetedByInvokeDirect);
+    describe(result, "liveMethods", appInfo.liveMethods);
+    describe(result, "instanceFieldReads", appInfo.instanceFieldReads);
+    describe(result, "instanceFieldWrites", appInfo.instanceFieldWrites);
+    describe(result, "staticFieldReads", appInfo.staticFieldReads);
+    describe(result, "staticFieldWrites", appInfo.staticFieldWrites);
+    describe(result, "virtualInvokes", appInfo.virtualInvokes);
+    describe(result, "interfaceInvokes", appInfo.interfaceInvokes);
+    describe(result, "superInvokes", appInfo.superInvokes);
+    describe(result, "directInvokes", appInfo.directInvokes);
+    describe(result, "staticInvokes", appInfo.staticInvokes);
+    describe(result, "callSites", appInfo.callSites);
+    describe(result, "brokenSuperInvokes", appInfo.brokenSuperInvokes);
+    describe(result, "pinnedItems", appInfo.pinnedItems);
+    describe(result, "identifierNameStrings", appInfo.identifierNameStrings.keySet());
+    describe(result, "prunedTypes", appInfo.prunedTypes);
+    return result;
+  }
+
+  private static void describe(List<String> result, String name, Collection<?> items) {
+    result.add(name + ":");
+    items.stream().map(Object::toString).sorted().forEach(item -> result.add("  " + item));
+  }
+
+  private static void describe(List<String> result, String name, Map<?, ?> items) {
+    result.add(name + ":");
+    List<String> entries = new ArrayList<>();
+    for (Entry<?, ?> entry : items.entrySet()) {
+      Object value = entry.getValue();
+      String valueString =
+          value instanceof Collection
+              ? ((Collection<?>) value)
+                  .stream().map(Object::toString).sorted().collect(Collectors.joining(", "))
+              : value.toString();
+      entries.add("  " + entry.getKey() + " -> " + valueString);
+    }
+    entries.stream().sorted().forEach(result::add);
+  }
+}
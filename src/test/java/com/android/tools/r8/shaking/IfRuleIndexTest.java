@@ -0,0 +1,112 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.shaking;
+
+import static org.junit.Assert.assertEquals;
+
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.dex.ApplicationReader;
+import com.android.tools.r8.graph.DirectMappedDexApplication;
+import com.android.tools.r8.utils.DescriptorUtils;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.Reporter;
+import com.android.tools.r8.utils.Timing;
+import com.google.common.collect.ImmutableList;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IfRuleIndexTest extends TestBase {
+
+  private static final String OUTER = IfRuleIndexTest.class.getTypeName();
+
+  private DirectMappedDexApplication application;
+  private IfRuleIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    application =
+        new ApplicationReader(
+                readClasses(A.class, B1.class, B2.class, C.class, Ann.class),
+                new InternalOptions(),
+                new Timing("IfRuleIndexTest"))
+            .read()
+            .toDirect();
+    ProguardConfigurationParser parser =
+        new ProguardConfigurationParser(application.dexItemFactory, new Reporter());
+    parser.parse(
+        ProguardConfigurationSourceStrings.createConfigurationForTesting(
+            ImmutableList.of(
+                "-if class " + OUTER + "$A -keep class " + OUTER + "$C",
+                "-if class " + OUTER + "$B* -keep class " + OUTER + "$C",
+                "-if class " + OUTER + "$B*," + OUTER + "$B2* -keep class " + OUTER + "$A",
+                "-if @" + OUTER + "$Ann class * -keep class " + OUTER + "$A",
+                "-if class **$C -keep class " + OUTER + "$A")));
+    Set<ProguardIfRule> rules = new LinkedHashSet<>();
+    for (ProguardConfigurationRule rule : parser.getConfigRawForTesting().getRules()) {
+      rules.add((ProguardIfRule) rule);
+    }
+    index = new IfRuleIndex(rules);
+  }
+
+  @Test
+  public void testSpecificType() {
+    assertEquals(ImmutableList.of("class " + OUTER + "$A", "class **$C"), getRules(A.class));
+  }
+
+  @Test
+  public void testNamePrefix() {
+    // The rule with two prefixes of the same class is found once.
+    List<String> expected =
+        ImmutableList.of(
+            "class " + OUTER + "$B*",
+            "class " + OUTER + "$B*," + OUTER + "$B2*",
+            "class **$C");
+    assertEquals(expected, getRules(B1.class));
+    assertEquals(expected, getRules(B2.class));
+  }
+
+  @Test
+  public void testClassAnnotation() {
+    assertEquals(
+        ImmutableList.of("@" + OUTER + "$Ann class *", "class **$C"), getRules(C.class));
+  }
+
+  // Returns the class part of the conditions of the rules that can match the class.
+  private List<String> getRules(Class<?> clazz) {
+    List<String> result = new ArrayList<>();
+    index.forEachRuleMatchingClass(
+        application.definitionFor(
+            application.dexItemFactory.createType(
+                DescriptorUtils.javaTypeToDescriptor(clazz.getTypeName()))),
+        true,
+        rule -> {
+          StringBuilder builder = new StringBuilder();
+          if (rule.getClassAnnotation() != null) {
+            builder.append('@').append(rule.getClassAnnotation()).append(' ');
+          }
+          builder.append("class ");
+          rule.getClassNames().writeTo(builder);
+          result.add(builder.toString());
+        });
+    return result;
+  }
+
+  static class A {}
+
+  static class B1 {}
+
+  static class B2 {}
+
+  @Ann
+  static class C {}
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface Ann {}
+}
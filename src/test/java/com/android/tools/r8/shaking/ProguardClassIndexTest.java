@@ -0,0 +1,140 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.shaking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.dex.ApplicationReader;
+import com.android.tools.r8.graph.DirectMappedDexApplication;
+import com.android.tools.r8.utils.InternalOptions;
+import com.android.tools.r8.utils.Reporter;
+import com.android.tools.r8.utils.Timing;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProguardClassIndexTest extends TestBase {
+
+  private DirectMappedDexApplication application;
+  private ProguardClassIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    application =
+        new ApplicationReader(
+                readClasses(I.class, A.class, B.class, C.class, D.class, Ann.class),
+                new InternalOptions(),
+                new Timing("ProguardClassIndexTest"))
+            .read()
+            .toDirect();
+    index = new ProguardClassIndex(application);
+  }
+
+  @Test
+  public void testInheritance() {
+    assertEquals(
+        ImmutableSet.of(A.class.getTypeName(), B.class.getTypeName()),
+        getCandidates("-keep class * implements " + I.class.getTypeName()));
+    assertNull(getCandidatesWithoutInheritance("-keep class * extends " + A.class.getTypeName()));
+  }
+
+  @Test
+  public void testAnnotation() {
+    assertEquals(
+        ImmutableSet.of(C.class.getTypeName()),
+        getCandidates("-keep @" + Ann.class.getTypeName() + " class *"));
+  }
+
+  @Test
+  public void testNamePrefix() {
+    String outer = ProguardClassIndexTest.class.getTypeName();
+    assertEquals(
+        ImmutableSet.of(B.class.getTypeName()), getCandidates("-keep class " + outer + "$B*"));
+    assertEquals(
+        ImmutableSet.of(A.class.getTypeName(), Ann.class.getTypeName()),
+        getCandidates("-keep class !**$D," + outer + "$A"));
+    assertEquals(
+        ImmutableSet.of(), getCandidates("-keep class " + outer + "$X*"));
+    assertNull(getCandidates("-keep class *"));
+    assertNull(getCandidates("-keep class **$A"));
+  }
+
+  @Test
+  public void testConcurrentFirstUse() throws Exception {
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      // All threads use the index for the first time at the same time.
+      CountDownLatch start = new CountDownLatch(threads);
+      List<Future<Set<String>>> futures = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  start.countDown();
+                  start.await();
+                  return getCandidates("-keep class * implements " + I.class.getTypeName());
+                }));
+      }
+      for (Future<Set<String>> future : futures) {
+        assertEquals(ImmutableSet.of(A.class.getTypeName(), B.class.getTypeName()), future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private Set<String> getCandidates(String rule) {
+    return getCandidates(rule, true);
+  }
+
+  private Set<String> getCandidatesWithoutInheritance(String rule) {
+    return getCandidates(rule, false);
+  }
+
+  private Set<String> getCandidates(String rule, boolean includeInheritance) {
+    ProguardConfigurationParser parser =
+        new ProguardConfigurationParser(application.dexItemFactory, new Reporter());
+    parser.parse(
+        ProguardConfigurationSourceStrings.createConfigurationForTesting(ImmutableList.of(rule)));
+    ProguardConfigurationRule configurationRule =
+        parser.getConfigRawForTesting().getRules().get(0);
+    int[] candidates = index.getCandidates(configurationRule, includeInheritance);
+    if (candidates == null) {
+      return null;
+    }
+    Set<String> result = new HashSet<>();
+    for (int candidate : candidates) {
+      result.add(index.getClass(candidate).type.toSourceString());
+    }
+    return result;
+  }
+
+  interface I {}
+
+  static class A implements I {}
+
+  static class B extends A {}
+
+  @Ann
+  static class C {}
+
+  static class D {}
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface Ann {}
+}
@@ -3,6 +3,7 @@
 // BSD-style license that can be found in the LICENSE file.
 package com.android.tools.r8.shaking;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -56,7 +57,22 @@ public class ProguardNameMatchingTest {
   private static boolean matchMemberName(String pattern, String memberName) {
     ProguardNameMatcher nameMatcher =
         ProguardNameMatcher.create(toIdentifierPatternWithWildCards(pattern, true));
-    return nameMatcher.matches(memberName);
+    boolean matched = nameMatcher.matches(memberName);
+    // Matching the name as a DexString must give the same result and captures.
+    List<String> captured = getCaptured(nameMatcher);
+    assertEquals(
+        matched,
+        nameMatcher.matches(dexItemFactory.createString(memberName), new DexStringCache()));
+    assertEquals(captured, getCaptured(nameMatcher));
+    return matched;
+  }
+
+  private static List<String> getCaptured(ProguardNameMatcher nameMatcher) {
+    List<String> captured = new ArrayList<>();
+    for (ProguardWildcard wildcard : nameMatcher.getWildcards()) {
+      captured.add(wildcard.getCaptured());
+    }
+    return captured;
   }
 
   @Test
@@ -176,6 +192,31 @@ public class ProguardNameMatchingTest {
     assertTrue(matchMemberName("*foo<1>", "foofoofoo"));
     assertTrue(matchMemberName("*foo<1>", "barfoobar"));
     assertFalse(matchMemberName("*foo<1>", "barfoobaz"));
+
+    assertTrue(matchMemberName("*\u00e9*", "caf\u00e9s"));
+    assertTrue(matchMemberName("g?t*", "g\u00e9tObject"));
+    assertFalse(matchMemberName("g?t*", "g\u00e9\u00e9tObject"));
+  }
+
+  @Test
+  public void captureWildcards() {
+    ProguardNameMatcher nameMatcher =
+        ProguardNameMatcher.create(toIdentifierPatternWithWildCards("get*By?d", true));
+    assertTrue(
+        nameMatcher.matches(dexItemFactory.createString("getUserById"), new DexStringCache()));
+    assertEquals(ImmutableList.of("User", "I"), getCaptured(nameMatcher));
+    assertFalse(nameMatcher.matches("getUser"));
+    assertEquals(Arrays.asList(null, null), getCaptured(nameMatcher));
+
+    ProguardTypeMatcher typeMatcher =
+        ProguardTypeMatcher.create(
+            toIdentifierPatternWithWildCards("**.*$<2>*", false),
+            ClassOrType.CLASS,
+            dexItemFactory);
+    assertTrue(typeMatcher.matches(dexItemFactory.createType("Lfoo/bar/Baz$BazImpl;")));
+    List<String> captured = new ArrayList<>();
+    typeMatcher.getWildcards().forEach(wildcard -> captured.add(wildcard.getCaptured()));
+    assertEquals(ImmutableList.of("foo.bar", "Baz", "Baz", "Impl"), captured);
   }
 
   private static IdentifierPatternWithWildcards toIdentifierPatternWithWildCards(
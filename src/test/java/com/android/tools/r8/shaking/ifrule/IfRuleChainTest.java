@@ -0,0 +1,84 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+package com.android.tools.r8.shaking.ifrule;
+
+import static com.android.tools.r8.utils.codeinspector.Matchers.isPresent;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.utils.StringUtils;
+import com.android.tools.r8.utils.codeinspector.ClassSubject;
+import com.android.tools.r8.utils.codeinspector.CodeInspector;
+import org.junit.Test;
+
+/**
+ * Tests -if rules whose conditions only become satisfied after the consequences of other -if
+ * rules have been traced, and -if rules whose conditions are satisfied by members that become live
+ * after their class.
+ */
+public class IfRuleChainTest extends TestBase {
+
+  @Test
+  public void test() throws Exception {
+    String expectedOutput = StringUtils.lines("A");
+
+    CodeInspector inspector =
+        testForR8(Backend.DEX)
+            .addInnerClasses(IfRuleChainTest.class)
+            .addKeepMainRule(TestClass.class)
+            .addKeepRules(
+                "-if class " + A.class.getTypeName() + " { void method(); }",
+                "-keep class " + B.class.getTypeName() + " { void method(); }",
+                "-if class " + B.class.getTypeName(),
+                "-keep class " + C.class.getTypeName() + " { int field; }",
+                "-if class * { int field; }",
+                "-keep class " + D.class.getTypeName(),
+                "-if class " + E.class.getTypeName(),
+                "-keep class " + F.class.getTypeName())
+            .run(TestClass.class)
+            .assertSuccessWithOutput(expectedOutput)
+            .inspector();
+
+    for (Class<?> clazz : new Class<?>[] {B.class, C.class, D.class}) {
+      ClassSubject classSubject = inspector.clazz(clazz);
+      assertThat(classSubject, isPresent());
+    }
+    assertThat(inspector.clazz(E.class), not(isPresent()));
+    assertThat(inspector.clazz(F.class), not(isPresent()));
+  }
+
+  static class TestClass {
+
+    public static void main(String[] args) {
+      new A().method();
+    }
+  }
+
+  static class A {
+
+    void method() {
+      System.out.println("A");
+    }
+  }
+
+  static class B {
+
+    void method() {
+      System.out.println("B");
+    }
+  }
+
+  static class C {
+
+    int field;
+  }
+
+  static class D {}
+
+  static class E {}
+
+  static class F {}
+}
@@ -0,0 +1,163 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.ByteBufferProvider;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
+import com.android.tools.r8.DexIndexedConsumer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+
+public class ByteBufferPoolTest {
+
+  @Test
+  public void testReuse() {
+    ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+    ByteBuffer buffer = pool.acquireByteBuffer(10000);
+    assertEquals(10000, buffer.capacity());
+    assertEquals(0, buffer.position());
+    assertEquals(1, pool.getMisses());
+
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(42);
+    pool.releaseByteBuffer(buffer);
+    assertEquals(10000, pool.getRetainedBytes());
+
+    // A smaller request is served by the released buffer.
+    ByteBuffer reused = pool.acquireByteBuffer(8000);
+    assertSame(buffer, reused);
+    assertEquals(1, pool.getHits());
+    assertEquals(0, pool.getRetainedBytes());
+    assertEquals(0, reused.position());
+    assertEquals(ByteOrder.BIG_ENDIAN, reused.order());
+    assertEquals(0, reused.getInt(0));
+
+    // A larger request needs a new buffer.
+    ByteBuffer larger = pool.acquireByteBuffer(10001);
+    assertEquals(10001, larger.capacity());
+    assertEquals(2, pool.getMisses());
+  }
+
+  @Test
+  public void testBestFit() {
+    ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+    ByteBuffer small = pool.acquireByteBuffer(1000);
+    ByteBuffer medium = pool.acquireByteBuffer(3000);
+    ByteBuffer large = pool.acquireByteBuffer(5000);
+    pool.releaseByteBuffer(large);
+    pool.releaseByteBuffer(small);
+    pool.releaseByteBuffer(medium);
+    assertSame(medium, pool.acquireByteBuffer(2500));
+    // The large buffer is more than twice the request.
+    assertEquals(1200, pool.acquireByteBuffer(1200).capacity());
+    assertSame(large, pool.acquireByteBuffer(2500));
+    assertSame(small, pool.acquireByteBuffer(500));
+  }
+
+  @Test
+  public void testRetentionLimit() {
+    ByteBufferPool pool = new ByteBufferPool(32 * 1024);
+    ByteBuffer first = pool.acquireByteBuffer(32 * 1024);
+    ByteBuffer second = pool.acquireByteBuffer(32 * 1024);
+    pool.releaseByteBuffer(first);
+    pool.releaseByteBuffer(second);
+    assertEquals(32 * 1024, pool.getRetainedBytes());
+    assertSame(first, pool.acquireByteBuffer(32 * 1024));
+    assertNotSame(second, pool.acquireByteBuffer(32 * 1024));
+  }
+
+  @Test
+  public void testNoRetention() {
+    ByteBufferPool pool = new ByteBufferPool(0);
+    ByteBuffer buffer = pool.acquireByteBuffer(10000);
+    pool.releaseByteBuffer(buffer);
+    assertEquals(0, pool.getRetainedBytes());
+    assertNotSame(buffer, pool.acquireByteBuffer(10000));
+    assertEquals(0, pool.getHits());
+  }
+
+  @Test
+  public void testSetMaxRetainedBytes() {
+    ByteBufferPool pool = new ByteBufferPool(0);
+    ByteBuffer small = pool.acquireByteBuffer(1000);
+    ByteBuffer large = pool.acquireByteBuffer(5000);
+    pool.releaseByteBuffer(small);
+    assertEquals(0, pool.getRetainedBytes());
+    pool.setMaxRetainedBytes(10000);
+    pool.releaseByteBuffer(small);
+    pool.releaseByteBuffer(large);
+    assertEquals(6000, pool.getRetainedBytes());
+    // Lowering the limit drops the largest buffers first.
+    pool.setMaxRetainedBytes(2000);
+    assertEquals(1000, pool.getRetainedBytes());
+    assertSame(small, pool.acquireByteBuffer(1000));
+  }
+
+  @Test
+  public void testClear() {
+    ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+    ByteBuffer buffer = pool.acquireByteBuffer(10000);
+    pool.releaseByteBuffer(buffer);
+    pool.clear();
+    assertEquals(0, pool.getRetainedBytes());
+    assertNotSame(buffer, pool.acquireByteBuffer(10000));
+  }
+
+  @Test
+  public void testDefaultProvider() {
+    assertTrue(ByteBufferPool.isDefaultProvider(DexIndexedConsumer.emptyConsumer()));
+    assertTrue(ByteBufferPool.isDefaultProvider(DexFilePerClassFileConsumer.emptyConsumer()));
+    DexIndexedConsumer custom =
+        new DexIndexedConsumer.ForwardingConsumer(null) {
+          @Override
+          public ByteBuffer acquireByteBuffer(int capacity) {
+            return ByteBuffer.allocate(capacity);
+          }
+        };
+    assertFalse(ByteBufferPool.isDefaultProvider(custom));
+    assertFalse(ByteBufferPool.isDefaultProvider(new ByteBufferProvider() {}));
+    assertFalse(ByteBufferPool.isDefaultProvider(new Forwarding(custom)));
+    assertTrue(
+        ByteBufferPool.isDefaultProvider(new Forwarding(DexIndexedConsumer.emptyConsumer())));
+  }
+
+  private static class Forwarding
+      implements ByteBufferProvider, ByteBufferPool.ForwardingProvider {
+    private final ByteBufferProvider provider;
+
+    Forwarding(ByteBufferProvider provider) {
+      this.provider = provider;
+    }
+
+    @Override
+    public ByteBuffer acquireByteBuffer(int capacity) {
+      return provider.acquireByteBuffer(capacity);
+    }
+
+    @Override
+    public void releaseByteBuffer(ByteBuffer buffer) {
+      provider.releaseByteBuffer(buffer);
+    }
+
+    @Override
+    public ByteBufferProvider getByteBufferProvider() {
+      return provider;
+    }
+  }
+
+  @Test
+  public void testForeignBuffers() {
+    ByteBufferPool pool = new ByteBufferPool(1024 * 1024);
+    pool.releaseByteBuffer(ByteBuffer.allocateDirect(16 * 1024));
+    pool.releaseByteBuffer(ByteBuffer.wrap(new byte[32 * 1024], 0, 16 * 1024).slice());
+    assertEquals(0, pool.getRetainedBytes());
+  }
+}
@@ -0,0 +1,276 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.CompilationFailedException;
+import com.android.tools.r8.D8Command;
+import com.android.tools.r8.DexFilePerClassFileConsumer;
+import com.android.tools.r8.Diagnostic;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.android.tools.r8.ProgramResource;
+import com.android.tools.r8.ProgramResource.Kind;
+import com.android.tools.r8.ProgramResourceProvider;
+import com.android.tools.r8.ResourceException;
+import com.android.tools.r8.ToolHelper;
+import com.android.tools.r8.benchmarks.SyntheticAppGenerator;
+import com.android.tools.r8.origin.Origin;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DexFileCacheTest {
+
+  private static final long MAX_BYTES = 1L << 30;
+
+  @Rule
+  public TemporaryFolder temp = ToolHelper.getTemporaryFolderForTest();
+
+  private Path program;
+  private Path cacheDirectory;
+
+  private static class Output {
+    final Map<String, byte[]> dexFiles = new TreeMap<>();
+    final Map<String, Set<String>> descriptors = new TreeMap<>();
+
+    void assertSame(Output other) {
+      assertEquals(descriptors, other.descriptors);
+      for (String descriptor : dexFiles.keySet()) {
+        assertArrayEquals(descriptor, dexFiles.get(descriptor), other.dexFiles.get(descriptor));
+      }
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    // The classes implement interfaces and have lambdas, so their dex files have synthesized
+    // classes and depend on their supertypes.
+    program = temp.getRoot().toPath().resolve("program.jar");
+    SyntheticAppGenerator.builder()
+        .setClasses(30)
+        .setHierarchyDepth(3)
+        .setInterfaces(5)
+        .setInterfaceFanOut(2)
+        .setLambdasPerClass(2)
+        .setSeed(0)
+        .build()
+        .generate()
+        .writeJar(program);
+    cacheDirectory = temp.newFolder("cache").toPath();
+  }
+
+  private Output compile(int minApiLevel, Path cacheDirectory, long maxBytes) throws Exception {
+    Output output = new Output();
+    D8Command command =
+        D8Command.builder()
+            .addProgramFiles(program)
+            .addLibraryFiles(ToolHelper.getDefaultAndroidJar())
+            .setMinApiLevel(minApiLevel)
+            .setProgramConsumer(
+                new DexFilePerClassFileConsumer.ForwardingConsumer(null) {
+                  @Override
+                  public synchronized void accept(
+                      String primaryClassDescriptor,
+                      ByteDataView data,
+                      Set<String> descriptors,
+                      DiagnosticsHandler handler) {
+                    output.dexFiles.put(primaryClassDescriptor, data.copyByteData());
+                    output.descriptors.put(primaryClassDescriptor, new TreeSet<>(descriptors));
+                  }
+                })
+            .build();
+    ToolHelper.runD8WithoutResult(
+        command,
+        options -> {
+          options.dexFileCacheDirectory = cacheDirectory;
+          options.dexFileCacheMaxBytes = maxBytes;
+        });
+    return output;
+  }
+
+  private long getCacheFiles() throws Exception {
+    try (Stream<Path> files = Files.list(cacheDirectory)) {
+      return files.count();
+    }
+  }
+
+  @Test
+  public void testCachedDexFilesAreTheSame() throws Exception {
+    Output expected = compile(21, null, MAX_BYTES);
+    int classes = expected.dexFiles.size();
+    // The classes and the interfaces, which are not counted by the generator, and the main class.
+    assertEquals(30 + 5 + 1, classes);
+    assertTrue(expected.descriptors.values().stream().anyMatch(set -> set.size() > 1));
+
+    DexFileCache cache = DexFileCache.getInstance(cacheDirectory, MAX_BYTES);
+    long hits = cache.getHits();
+    long misses = cache.getMisses();
+    expected.assertSame(compile(21, cacheDirectory, MAX_BYTES));
+    assertEquals(hits, cache.getHits());
+    assertEquals(misses + classes, cache.getMisses());
+    assertEquals(classes, getCacheFiles());
+
+    expected.assertSame(compile(21, cacheDirectory, MAX_BYTES));
+    assertEquals(hits + classes, cache.getHits());
+    assertEquals(misses + classes, cache.getMisses());
+    assertEquals(classes, getCacheFiles());
+  }
+
+  @Test
+  public void testOptionsArePartOfTheKey() throws Exception {
+    compile(21, cacheDirectory, MAX_BYTES);
+    DexFileCache cache = DexFileCache.getInstance(cacheDirectory, MAX_BYTES);
+    long hits = cache.getHits();
+    Output expected = compile(19, null, MAX_BYTES);
+    expected.assertSame(compile(19, cacheDirectory, MAX_BYTES));
+    assertEquals(hits, cache.getHits());
+    assertEquals(2 * expected.dexFiles.size(), getCacheFiles());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    Output expected = compile(21, null, MAX_BYTES);
+    long maxBytes = 4096;
+    expected.assertSame(compile(21, cacheDirectory, maxBytes));
+    DexFileCache cache = DexFileCache.getInstance(cacheDirectory, maxBytes);
+    assertTrue(cache.getSize() <= maxBytes);
+    long size = 0;
+    try (Stream<Path> files = Files.list(cacheDirectory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        size += Files.size(file);
+      }
+    }
+    assertEquals(cache.getSize(), size);
+    assertTrue(0 < getCacheFiles() && getCacheFiles() < expected.dexFiles.size());
+    // The remaining files are still valid.
+    expected.assertSame(compile(21, cacheDirectory, maxBytes));
+  }
+
+  // Class file that can only be read once, as, e.g., a class file passed on from a stream.
+  private static class ReadOnceResource implements ProgramResource {
+    private final Origin origin;
+    private final byte[] bytes;
+    private final Set<String> descriptors;
+    private boolean read = false;
+
+    ReadOnceResource(Origin origin, byte[] bytes, Set<String> descriptors) {
+      this.origin = origin;
+      this.bytes = bytes;
+      this.descriptors = descriptors;
+    }
+
+    @Override
+    public Origin getOrigin() {
+      return origin;
+    }
+
+    @Override
+    public Kind getKind() {
+      return Kind.CF;
+    }
+
+    @Override
+    public synchronized InputStream getByteStream() throws ResourceException {
+      if (read) {
+        throw new ResourceException(origin, "Class file read twice");
+      }
+      read = true;
+      return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public Set<String> getClassDescriptors() {
+      return descriptors;
+    }
+  }
+
+  private static ProgramResourceProvider readOnceProvider(List<ProgramResource> resources) {
+    return new ProgramResourceProvider() {
+      @Override
+      public Collection<ProgramResource> getProgramResources() {
+        return resources;
+      }
+    };
+  }
+
+  @Test
+  public void testUncachedCompilationSeesReadOnceInputs() throws Exception {
+    List<ProgramResource> resources = new ArrayList<>();
+    ProgramResource duplicate = null;
+    try (ZipFile zipFile = new ZipFile(program.toFile())) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (!entry.getName().endsWith(".class")) {
+          continue;
+        }
+        byte[] bytes;
+        try (InputStream stream = zipFile.getInputStream(entry)) {
+          bytes = ByteStreams.toByteArray(stream);
+        }
+        String name = entry.getName();
+        Set<String> descriptors =
+            Collections.singleton("L" + name.substring(0, name.length() - ".class".length()) + ";");
+        resources.add(new ReadOnceResource(Origin.unknown(), bytes, descriptors));
+        if (duplicate == null) {
+          duplicate = new ReadOnceResource(Origin.unknown(), bytes, descriptors);
+        }
+      }
+    }
+    List<String> errors = new ArrayList<>();
+    D8Command command =
+        D8Command.builder(
+                new DiagnosticsHandler() {
+                  @Override
+                  public void error(Diagnostic error) {
+                    errors.add(error.getDiagnosticMessage());
+                  }
+                })
+            .addProgramResourceProvider(readOnceProvider(resources))
+            .addProgramResourceProvider(readOnceProvider(Collections.singletonList(duplicate)))
+            .addLibraryFiles(ToolHelper.getDefaultAndroidJar())
+            .setMinApiLevel(21)
+            .setProgramConsumer(DexFilePerClassFileConsumer.emptyConsumer())
+            .build();
+    // The duplicate class is not cached, and the compilation reports it from the inputs read.
+    try {
+      ToolHelper.runD8WithoutResult(
+          command,
+          options -> {
+            options.dexFileCacheDirectory = cacheDirectory;
+            options.dexFileCacheMaxBytes = MAX_BYTES;
+          });
+      fail("Expected the duplicate class to fail the compilation");
+    } catch (CompilationFailedException e) {
+      // Expected.
+    }
+    assertFalse(errors.isEmpty());
+    assertTrue(errors.toString(), errors.get(0).contains("Program type already present"));
+    assertEquals(0, getCacheFiles());
+  }
+}
@@ -0,0 +1,224 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.TestBase;
+import com.android.tools.r8.dex.ApplicationReader;
+import com.android.tools.r8.graph.ClassKind;
+import com.android.tools.r8.graph.DexClass;
+import com.android.tools.r8.graph.DexEncodedField;
+import com.android.tools.r8.graph.DexEncodedMethod;
+import com.android.tools.r8.graph.DexItemFactory;
+import com.android.tools.r8.graph.DexLibraryClass;
+import com.android.tools.r8.graph.InnerClassAttribute;
+import com.android.tools.r8.graph.JarApplicationReader;
+import com.android.tools.r8.graph.ParameterAnnotationsList;
+import com.android.tools.r8.origin.Origin;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LibraryClassCacheTest extends TestBase {
+
+  private Path library;
+  private Path cacheDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    library = jarTestClasses(Ann.class, Kind.class, Base.class, Impl.class, Impl.Inner.class);
+    cacheDirectory = temp.newFolder("cache").toPath();
+  }
+
+  @Test
+  public void testCachedClassesAreTheSame() throws Exception {
+    Map<String, String> expected = readLibraryClasses(null, new KeepingDiagnosticHandler());
+    assertEquals(5, expected.size());
+    // The first compilation creates the snapshot and the second one reads from it.
+    assertEquals(expected, readLibraryClasses(cacheDirectory, new KeepingDiagnosticHandler()));
+    List<Path> snapshots = getSnapshots();
+    assertEquals(1, snapshots.size());
+    assertEquals(expected, readLibraryClasses(cacheDirectory, new KeepingDiagnosticHandler()));
+    assertEquals(snapshots, getSnapshots());
+  }
+
+  @Test
+  public void testChangedArchiveGetsNewSnapshot() throws Exception {
+    readLibraryClasses(cacheDirectory, new KeepingDiagnosticHandler());
+    List<Path> snapshots = getSnapshots();
+    library = jarTestClasses(Ann.class, Kind.class, Base.class);
+    Map<String, String> classes =
+        readLibraryClasses(cacheDirectory, new KeepingDiagnosticHandler());
+    assertEquals(3, classes.size());
+    assertNotEquals(snapshots, getSnapshots());
+    assertEquals(2, getSnapshots().size());
+  }
+
+  @Test
+  public void testInvalidSnapshot() throws Exception {
+    Map<String, String> expected = readLibraryClasses(null, new KeepingDiagnosticHandler());
+    readLibraryClasses(cacheDirectory, new KeepingDiagnosticHandler());
+    Files.write(getSnapshots().get(0), new byte[] {1, 2, 3});
+    KeepingDiagnosticHandler handler = new KeepingDiagnosticHandler();
+    assertEquals(expected, readLibraryClasses(cacheDirectory, handler));
+    assertEquals(1, handler.warnings.size());
+    assertTrue(
+        handler
+            .warnings
+            .get(0)
+            .getDiagnosticMessage()
+            .startsWith("Failed to use the library class cache"));
+  }
+
+  @Test
+  public void testReadAfterClose() throws Exception {
+    readLibraryClasses(cacheDirectory, new KeepingDiagnosticHandler());
+    LibraryClassSnapshot snapshot = LibraryClassSnapshot.open(getSnapshots().get(0));
+    LibraryClassSnapshot view = snapshot.withNewStrings();
+    String descriptor = DescriptorUtils.javaTypeToDescriptor(Impl.class.getTypeName());
+    String expected = readClass(snapshot, descriptor);
+    // Closing releases the mapping of the file, which is mapped again by a later read.
+    snapshot.close();
+    assertEquals(expected, readClass(snapshot, descriptor));
+    snapshot.close();
+    assertEquals(expected, readClass(view, descriptor));
+    view.close();
+    snapshot.close();
+  }
+
+  private static String readClass(LibraryClassSnapshot snapshot, String descriptor) {
+    InternalOptions options = new InternalOptions(new DexItemFactory(), new Reporter());
+    return describe(
+        snapshot.readClass(
+            descriptor, ClassKind.LIBRARY, Origin.unknown(), new JarApplicationReader(options)));
+  }
+
+  private List<Path> getSnapshots() throws Exception {
+    return Files.list(cacheDirectory).sorted().collect(Collectors.toList());
+  }
+
+  private Map<String, String> readLibraryClasses(
+      Path cacheDirectory, KeepingDiagnosticHandler handler) throws Exception {
+    InternalOptions options = new InternalOptions(new DexItemFactory(), new Reporter(handler));
+    options.libraryCacheDirectory = cacheDirectory;
+    AndroidApp app = AndroidApp.builder().addLibraryFiles(library).build();
+    Map<String, String> classes = new TreeMap<>();
+    for (DexLibraryClass clazz :
+        new ApplicationReader(app, options, new Timing("LibraryClassCacheTest"))
+            .read()
+            .toDirect()
+            .libraryClasses()) {
+      classes.put(clazz.type.toSourceString(), describe(clazz));
+    }
+    // Same as the compilers, which also releases the snapshots read by the application.
+    app.closeInternalArchiveProviders();
+    return classes;
+  }
+
+  private static String describe(DexClass clazz) {
+    StringBuilder builder = new StringBuilder();
+    builder
+        .append(clazz.accessFlags)
+        .append(' ')
+        .append(clazz.superType)
+        .append(' ')
+        .append(clazz.interfaces)
+        .append(' ')
+        .append(clazz.sourceFile)
+        .append(' ')
+        .append(clazz.getOrigin())
+        .append(' ')
+        .append(clazz.getEnclosingMethod() != null)
+        .append(' ')
+        .append(clazz.annotations)
+        .append('\n');
+    for (InnerClassAttribute innerClass : clazz.getInnerClasses()) {
+      builder
+          .append(innerClass.getAccess())
+          .append(' ')
+          .append(innerClass.getInner())
+          .append(' ')
+          .append(innerClass.getOuter())
+          .append(' ')
+          .append(innerClass.getInnerName())
+          .append('\n');
+    }
+    for (DexEncodedField field : clazz.fields()) {
+      builder
+          .append(field.field)
+          .append(' ')
+          .append(field.accessFlags)
+          .append(' ')
+          .append(field.annotations)
+          .append('\n');
+    }
+    for (DexEncodedMethod method : clazz.methods()) {
+      builder
+          .append(method.method)
+          .append(' ')
+          .append(method.accessFlags)
+          .append(' ')
+          .append(method.annotations)
+          .append(' ')
+          .append(method.getClassFileVersion());
+      ParameterAnnotationsList parameterAnnotations = method.parameterAnnotationsList;
+      for (int i = 0; i < parameterAnnotations.size(); i++) {
+        builder.append(' ').append(parameterAnnotations.get(i));
+      }
+      builder.append('\n');
+    }
+    return builder.toString();
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @interface Ann {
+    String value() default "default";
+
+    int[] numbers() default {1, 2};
+
+    Kind kind() default Kind.A;
+
+    Class<?> type() default Object.class;
+  }
+
+  enum Kind {
+    A,
+    B
+  }
+
+  @Ann(kind = Kind.B, numbers = {})
+  abstract static class Base<T> implements Comparable<T> {
+    public static final String CONSTANT = "constant";
+
+    protected T value;
+
+    abstract void set(@Ann T value, int index);
+  }
+
+  static class Impl extends Base<String> {
+
+    @Override
+    void set(String value, @Ann(type = String.class) int index) {}
+
+    @Override
+    public int compareTo(String other) {
+      return 0;
+    }
+
+    class Inner {
+      @Ann("inner")
+      Inner() {}
+    }
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.ByteDataView;
+import com.android.tools.r8.DiagnosticsHandler;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrecompressedZipWriterTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private static byte[] content(String text, int repeat) {
+    return String.join("", Collections.nCopies(repeat, text)).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] read(ZipFile zip, String name) throws IOException {
+    try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+
+  private static PrecompressedZipWriter newWriter(Path archive) throws IOException {
+    return new PrecompressedZipWriter(Files.newOutputStream(archive));
+  }
+
+  @Test
+  public void testEntries() throws IOException {
+    byte[] deflated = content("deflated ", 1000);
+    byte[] stored = content("stored ", 1000);
+    // Only part of the buffer is the entry content.
+    byte[] padded = new byte[stored.length + 20];
+    System.arraycopy(stored, 0, padded, 10, stored.length);
+    Path archive = temp.getRoot().toPath().resolve("out.zip");
+    try (PrecompressedZipWriter writer = newWriter(archive)) {
+      writer.write(PrecompressedZipWriter.directory("dir/"));
+      writer.write(
+          PrecompressedZipWriter.compress(
+              "dir/deflated", ByteDataView.of(deflated), ZipEntry.DEFLATED));
+      writer.write(
+          PrecompressedZipWriter.compress(
+              "stored", new ByteDataView(padded, 10, stored.length), ZipEntry.STORED));
+      writer.write(
+          PrecompressedZipWriter.compress(
+              "empty", ByteDataView.of(new byte[0]), ZipEntry.DEFLATED));
+    }
+
+    try (ZipFile zip = new ZipFile(archive.toFile())) {
+      assertEquals(4, zip.size());
+      assertTrue(zip.getEntry("dir/").isDirectory());
+      ZipEntry deflatedEntry = zip.getEntry("dir/deflated");
+      assertEquals(ZipEntry.DEFLATED, deflatedEntry.getMethod());
+      assertTrue(deflatedEntry.getCompressedSize() < deflated.length);
+      assertArrayEquals(deflated, read(zip, "dir/deflated"));
+      ZipEntry storedEntry = zip.getEntry("stored");
+      assertEquals(ZipEntry.STORED, storedEntry.getMethod());
+      assertEquals(stored.length, storedEntry.getCompressedSize());
+      assertArrayEquals(stored, read(zip, "stored"));
+      assertArrayEquals(new byte[0], read(zip, "empty"));
+    }
+
+    // The local headers are complete, so the archive can also be streamed.
+    List<String> names = new ArrayList<>();
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+      ZipEntry entry;
+      while ((entry = in.getNextEntry()) != null) {
+        names.add(entry.getName());
+        if (entry.getName().equals("dir/deflated")) {
+          assertArrayEquals(deflated, ByteStreams.toByteArray(in));
+        }
+      }
+    }
+    assertEquals(ImmutableList.of("dir/", "dir/deflated", "stored", "empty"), names);
+  }
+
+  @Test(expected = ZipException.class)
+  public void testDuplicateEntry() throws IOException {
+    Path archive = temp.getRoot().toPath().resolve("out.zip");
+    try (PrecompressedZipWriter writer = newWriter(archive)) {
+      byte[] data = content("x", 10);
+      writer.write(PrecompressedZipWriter.compress("a", ByteDataView.of(data), ZipEntry.DEFLATED));
+      writer.write(PrecompressedZipWriter.compress("a", ByteDataView.of(data), ZipEntry.STORED));
+    }
+  }
+
+  @Test
+  public void testManyEntries() throws IOException {
+    // More entries than fit the count of the end of central directory record.
+    int count = 70000;
+    Path archive = temp.getRoot().toPath().resolve("out.zip");
+    try (PrecompressedZipWriter writer = newWriter(archive)) {
+      for (int i = 0; i < count; i++) {
+        byte[] data = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+        writer.write(
+            PrecompressedZipWriter.compress("e" + i, ByteDataView.of(data), ZipEntry.STORED));
+      }
+    }
+    try (ZipFile zip = new ZipFile(archive.toFile())) {
+      assertEquals(count, zip.size());
+      assertArrayEquals(
+          Integer.toString(count - 1).getBytes(StandardCharsets.UTF_8),
+          read(zip, "e" + (count - 1)));
+    }
+  }
+
+  @Test
+  public void testArchiveBuilderUsesPrecompressedEntries() throws IOException {
+    byte[] first = content("first ", 1000);
+    byte[] second = content("second ", 1000);
+    Path archive = temp.getRoot().toPath().resolve("out.zip");
+    ArchiveBuilder builder = new ArchiveBuilder(archive);
+    DiagnosticsHandler handler = new DiagnosticsHandler() {};
+    builder.open();
+    builder.precompress("classes2.dex", ByteDataView.of(first));
+    builder.precompress("A.dex", ByteDataView.of(first));
+    // The precompressed entries are written, so only their names are used when adding the files.
+    builder.addIndexedClassFile(1, "classes2.dex", ByteDataView.of(second), handler);
+    builder.addIndexedClassFile(0, "classes.dex", ByteDataView.of(second), handler);
+    builder.addFile("A.dex", ByteDataView.of(second), handler);
+    builder.close(handler);
+    try (ZipFile zip = new ZipFile(archive.toFile())) {
+      assertArrayEquals(second, read(zip, "classes.dex"));
+      assertArrayEquals(first, read(zip, "classes2.dex"));
+      assertArrayEquals(first, read(zip, "A.dex"));
+    }
+  }
+}
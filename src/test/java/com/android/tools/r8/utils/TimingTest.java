@@ -0,0 +1,141 @@
+// Copyright (c) 2019, the R8 project authors. Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+package com.android.tools.r8.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.tools.r8.utils.Timing.ConcurrentPhase;
+import com.android.tools.r8.utils.Timing.PhaseScope;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class TimingTest {
+
+  private static List<JsonObject> getEvents(String trace, String phase) {
+    JsonArray events =
+        new JsonParser().parse(trace).getAsJsonObject().getAsJsonArray("traceEvents");
+    List<JsonObject> result = new ArrayList<>();
+    for (JsonElement event : events) {
+      if (event.getAsJsonObject().get("ph").getAsString().equals(phase)) {
+        result.add(event.getAsJsonObject());
+      }
+    }
+    return result;
+  }
+
+  private static String getPath(JsonObject event) {
+    return event.getAsJsonObject("args").get("path").getAsString();
+  }
+
+  @Test
+  public void testNestedIntervals() {
+    Timing timing = new Timing("Test", true);
+    timing.begin("A");
+    timing.scope("B", () -> {});
+    timing.end();
+    timing.begin("A");
+    timing.end();
+    List<JsonObject> events = getEvents(timing.exportChromeTrace(), "X");
+    List<String> paths = new ArrayList<>();
+    for (JsonObject event : events) {
+      paths.add(getPath(event));
+      assertTrue(event.get("dur").getAsDouble() >= 0);
+      assertTrue(event.get("ts").getAsDouble() >= 0);
+      assertTrue(event.getAsJsonObject("args").has("cpuMs"));
+      assertTrue(event.getAsJsonObject("args").has("allocatedBytes"));
+    }
+    assertEquals(ImmutableList.of("Test/A/B", "Test/A", "Test/A", "Test"), paths);
+    assertEquals("Test", events.get(3).get("name").getAsString());
+    // Exporting again does not end the timing again.
+    assertEquals(events.size(), getEvents(timing.exportChromeTrace(), "X").size());
+  }
+
+  @Test
+  public void testConcurrentPhase() throws Exception {
+    int threads = 4;
+    int tasks = 100;
+    Timing timing = new Timing("Test", true);
+    timing.begin("Outer");
+    ConcurrentPhase phase = timing.concurrentPhase("Tasks");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    Set<Long> threadIds = ConcurrentHashMap.newKeySet();
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < tasks; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  try (PhaseScope ignored = phase.begin()) {
+                    threadIds.add(Thread.currentThread().getId());
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    timing.end();
+    String trace = timing.exportChromeTrace();
+
+    int taskCount = 0;
+    Set<Long> eventThreadIds = new HashSet<>();
+    for (JsonObject event : getEvents(trace, "X")) {
+      if (getPath(event).equals("Test/Outer/Tasks")) {
+        assertEquals("Tasks", event.get("name").getAsString());
+        taskCount += event.getAsJsonObject("args").get("tasks").getAsInt();
+        eventThreadIds.add(event.get("tid").getAsLong());
+      }
+    }
+    assertEquals(tasks, taskCount);
+    assertEquals(threadIds, eventThreadIds);
+
+    // Each thread of an event is named.
+    Map<Long, String> threadNames = new HashMap<>();
+    for (JsonObject event : getEvents(trace, "M")) {
+      threadNames.put(
+          event.get("tid").getAsLong(),
+          event.getAsJsonObject("args").get("name").getAsString());
+    }
+    assertTrue(threadNames.keySet().containsAll(threadIds));
+    assertTrue(threadNames.containsKey(Thread.currentThread().getId()));
+  }
+
+  @Test
+  public void testNotDetailed() {
+    // Without a report, only the wall time of the nodes of the coordinating thread is measured.
+    Timing timing = new Timing("Test");
+    timing.begin("A");
+    ConcurrentPhase phase = timing.concurrentPhase("Tasks");
+    try (PhaseScope ignored = phase.begin()) {
+      timing.scope("B", () -> {});
+    }
+    timing.end();
+    String trace = timing.exportChromeTrace();
+    List<String> paths = new ArrayList<>();
+    for (JsonObject event : getEvents(trace, "X")) {
+      paths.add(getPath(event));
+      assertFalse(event.getAsJsonObject("args").has("cpuMs"));
+      assertFalse(event.getAsJsonObject("args").has("allocatedBytes"));
+    }
+    assertEquals(ImmutableList.of("Test/A/B", "Test/A", "Test"), paths);
+  }
+}